@@ -0,0 +1,41 @@
+package br.com.finaya.config;
+
+import java.util.Arrays;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import br.com.finaya.model.IdempotencyRecord.Operation;
+
+/**
+ * Days an idempotency record is kept, per operation. Set with
+ * pix.idempotency.retention.&lt;operation&gt;-days, e.g. pix-webhook-days,
+ * falling back to pix.idempotency.retention.default-days.
+ */
+@Component
+public class IdempotencyRetention {
+
+    private final int[] days = new int[Operation.values().length];
+
+    public IdempotencyRetention(Environment environment,
+                                @Value("${pix.idempotency.retention.default-days:7}") int defaultDays) {
+        for (Operation operation : Operation.values()) {
+            String property = "pix.idempotency.retention." + operation.name().toLowerCase().replace('_', '-') + "-days";
+            days[operation.ordinal()] = environment.getProperty(property, Integer.class, defaultDays);
+            if (days[operation.ordinal()] < 1) {
+                throw new IllegalArgumentException(property + " must be at least 1 day");
+            }
+        }
+    }
+
+    // Days after the database's current date a record claimed now expires
+    public int days(Operation operation) {
+        return days[operation.ordinal()];
+    }
+
+    // Longest retention, how far ahead daily partitions are needed
+    public int maxDays() {
+        return Arrays.stream(days).max().orElse(1);
+    }
+}
@@ -0,0 +1,168 @@
+package br.com.finaya.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Bounds how many connections the application holds at once with a fair
+ * semaphore in front of the pool. With requests on virtual threads this is
+ * what limits concurrency: callers over the limit park on the semaphore, in
+ * arrival order, until a connection is closed or pix.execution.jdbc.acquire-timeout-ms
+ * expires. A parked virtual thread gives its carrier back, and how many callers
+ * wait and for how long is published as pix.jdbc.permits.*.
+ *
+ * pix.execution.jdbc.permits sets the limit; when it is 0 the limiter is only
+ * installed in virtual mode, with as many permits as the pool has connections.
+ */
+@Configuration
+public class JdbcConcurrencyConfig {
+
+	@Bean
+	public static BeanPostProcessor jdbcConcurrencyLimiter(
+			@Value("${pix.execution.mode:platform}") String mode,
+			@Value("${pix.execution.jdbc.permits:0}") int configuredPermits,
+			@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+			@Value("${pix.execution.jdbc.acquire-timeout-ms:30000}") long acquireTimeoutMs) {
+		int permits = configuredPermits > 0 ? configuredPermits : "virtual".equals(mode) ? poolSize : 0;
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (permits <= 0 || !(bean instanceof DataSource dataSource) || bean instanceof ConcurrencyLimitedDataSource) {
+					return bean;
+				}
+				return new ConcurrencyLimitedDataSource(dataSource, permits, acquireTimeoutMs);
+			}
+		};
+	}
+
+	// Bound separately, the registry itself depends on the data source through the pool metrics
+	@Bean
+	public MeterBinder jdbcPermitMetrics(DataSource dataSource) {
+		return registry -> {
+			if (dataSource instanceof ConcurrencyLimitedDataSource limited) {
+				limited.bindTo(registry);
+			}
+		};
+	}
+
+	public static class ConcurrencyLimitedDataSource extends DelegatingDataSource implements MeterBinder {
+
+		private final Semaphore permits;
+		private final long acquireTimeoutMs;
+		private volatile Timer acquireTimer;
+
+		ConcurrencyLimitedDataSource(DataSource target, int permits, long acquireTimeoutMs) {
+			super(target);
+			this.permits = new Semaphore(permits, true);
+			this.acquireTimeoutMs = acquireTimeoutMs;
+		}
+
+		@Override
+		public void bindTo(MeterRegistry registry) {
+			Gauge.builder("pix.jdbc.permits.waiting", permits, Semaphore::getQueueLength)
+					.description("Callers waiting for a JDBC permit")
+					.register(registry);
+			Gauge.builder("pix.jdbc.permits.available", permits, Semaphore::availablePermits)
+					.description("JDBC permits not in use")
+					.register(registry);
+			acquireTimer = Timer.builder("pix.jdbc.permits.acquire")
+					.description("Time spent waiting for a JDBC permit")
+					.register(registry);
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			acquire();
+			return guard(() -> super.getConnection());
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			acquire();
+			return guard(() -> super.getConnection(username, password));
+		}
+
+		private void acquire() throws SQLException {
+			long started = System.nanoTime();
+			try {
+				if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+					throw new SQLTransientConnectionException(
+							"No JDBC permit available after " + acquireTimeoutMs + "ms");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLTransientConnectionException("Interrupted while waiting for a JDBC permit", e);
+			} finally {
+				Timer timer = acquireTimer;
+				if (timer != null) {
+					timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+				}
+			}
+		}
+
+		// The permit is released once, when the connection goes back to the pool
+		private Connection guard(ConnectionSupplier supplier) throws SQLException {
+			Connection connection;
+			try {
+				connection = supplier.get();
+			} catch (SQLException | RuntimeException e) {
+				permits.release();
+				throw e;
+			}
+			AtomicBoolean released = new AtomicBoolean();
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+					(proxy, method, args) -> {
+						switch (method.getName()) {
+						case "equals":
+							return proxy == args[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "close":
+							if (released.compareAndSet(false, true)) {
+								try {
+									return invoke(connection, method, args);
+								} finally {
+									permits.release();
+								}
+							}
+							return null;
+						default:
+							return invoke(connection, method, args);
+						}
+					});
+		}
+
+		private static Object invoke(Connection connection, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+		@FunctionalInterface
+		private interface ConnectionSupplier {
+			Connection get() throws SQLException;
+		}
+	}
+}
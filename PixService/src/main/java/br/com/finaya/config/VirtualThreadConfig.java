@@ -0,0 +1,59 @@
+package br.com.finaya.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs servlet requests, and the service calls they make, on virtual threads
+ * instead of Tomcat's platform thread pool when pix.execution.mode is virtual.
+ * A request waiting on a wallet row lock then parks a virtual thread and the
+ * number of concurrent requests is bounded by the JDBC permits, see
+ * JdbcConcurrencyConfig, and Tomcat's max connections, not by
+ * server.tomcat.threads.max. Connector/J 9 guards its socket I/O with locks
+ * instead of synchronized blocks, so a thread waiting on the database does
+ * not pin its carrier.
+ *
+ * Only Tomcat gets the executor: it is not a bean, so Boot's
+ * applicationTaskExecutor and everything else keep their own threads.
+ *
+ * Virtual threads need a Java 21 runtime, required by the virtual-threads
+ * build profile. The bytecode still targets Java 18, so the executor is looked
+ * up at runtime and the application refuses to start on a JVM without them.
+ */
+@Configuration
+@ConditionalOnProperty(name = "pix.execution.mode", havingValue = "virtual")
+public class VirtualThreadConfig implements DisposableBean {
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreadConfig.class);
+
+	private final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+	@Bean
+	public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+		return protocolHandler -> protocolHandler.setExecutor(executor);
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdown();
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+			logger.info("Handling requests on virtual threads");
+			return executor;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("pix.execution.mode=virtual requires a JVM with virtual threads (Java 21+), running on "
+					+ Runtime.version(), e);
+		}
+	}
+}
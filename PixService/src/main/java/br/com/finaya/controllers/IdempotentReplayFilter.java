@@ -0,0 +1,224 @@
+package br.com.finaya.controllers;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.services.IdempotencyStore;
+import br.com.finaya.util.RequestFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Answers retries of completed idempotent requests with the exact bytes of
+ * the first response. A key whose response is in memory is answered here,
+ * without reaching the controller. Otherwise the request goes through as
+ * usual, and the first successful response of a key is stored with its
+ * record. A retry that still reached the controller then gets the stored
+ * bytes in place of what the controller wrote this time.
+ *
+ * The request is fingerprinted here as well, for the idempotency record.
+ * A stored response is only replayed to a request with the same
+ * fingerprint; a different request reusing the key goes on to the service,
+ * which rejects it. Fingerprinting reads the whole body, so a body over
+ * pix.idempotency.fingerprint.max-request-bytes is answered 413 unread.
+ */
+@Component
+public class IdempotentReplayFilter extends OncePerRequestFilter {
+
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String REPLAYED_HEADER = "Idempotent-Replayed";
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final IdempotencyStore idempotencyStore;
+    private final Counter replayedCounter;
+    private final Counter storedCounter;
+
+    @Value("${pix.idempotency.replay.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${pix.idempotency.replay.paths:/pix/transfers,/wallets/*/deposit,/wallets/*/withdraw}")
+    private List<String> paths = List.of("/pix/transfers", "/wallets/*/deposit", "/wallets/*/withdraw");
+
+    @Value("${pix.idempotency.replay.max-body-bytes:65536}")
+    private int maxBodyBytes = 65536;
+
+    @Value("${pix.idempotency.fingerprint.enabled:true}")
+    private boolean fingerprintEnabled = true;
+
+    @Value("${pix.idempotency.fingerprint.max-request-bytes:65536}")
+    private int maxRequestBytes = 65536;
+
+    public IdempotentReplayFilter(IdempotencyStore idempotencyStore, MeterRegistry meterRegistry) {
+        this.idempotencyStore = idempotencyStore;
+        this.replayedCounter = Counter.builder("pix.idempotency.responses.replayed")
+            .description("Retries answered with the stored response of their idempotency key")
+            .register(meterRegistry);
+        this.storedCounter = Counter.builder("pix.idempotency.responses.stored")
+            .description("Responses stored for replay with their idempotency record")
+            .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled && !fingerprintEnabled || !"POST".equals(request.getMethod())
+                || request.getHeader(IDEMPOTENCY_KEY_HEADER) == null) {
+            return true;
+        }
+        String path = path(request);
+        return paths.stream().noneMatch(pattern -> PATH_MATCHER.match(pattern, path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        UUID idempotencyKey = parseKey(request.getHeader(IDEMPOTENCY_KEY_HEADER));
+        if (idempotencyKey == null) {
+            // The controller answers the malformed key
+            chain.doFilter(request, response);
+            return;
+        }
+
+        byte[] fingerprint = null;
+        if (fingerprintEnabled) {
+            byte[] body = readBody(request);
+            if (body == null) {
+                response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "Request body larger than " + maxRequestBytes + " bytes");
+                return;
+            }
+            fingerprint = RequestFingerprint.of(request.getMethod(), path(request), body);
+            request.setAttribute(RequestFingerprint.ATTRIBUTE, fingerprint);
+            request = new CachedBodyRequest(request, body);
+        }
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Optional<IdempotencyRecord> stored = idempotencyStore.findResponse(idempotencyKey);
+        if (stored.isPresent() && stored.get().matchesFingerprint(fingerprint)) {
+            replay(stored.get(), response);
+            return;
+        }
+
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        chain.doFilter(request, wrapper);
+
+        int status = wrapper.getStatus();
+        byte[] body = wrapper.getContentAsByteArray();
+        if (status >= 200 && status < 300 && body.length <= maxBodyBytes) {
+            if (idempotencyStore.storeResponse(idempotencyKey, status, wrapper.getContentType(), body)) {
+                storedCounter.increment();
+            } else {
+                stored = idempotencyStore.findResponse(idempotencyKey);
+                if (stored.isPresent() && stored.get().matchesFingerprint(fingerprint)) {
+                    wrapper.resetBuffer();
+                    replay(stored.get(), wrapper);
+                }
+            }
+        }
+        wrapper.copyBodyToResponse();
+    }
+
+    // Null when the body is over the limit, which is known without reading it when the length is declared
+    private byte[] readBody(HttpServletRequest request) throws IOException {
+        if (request.getContentLengthLong() > maxRequestBytes) {
+            return null;
+        }
+        byte[] body = request.getInputStream().readNBytes(maxRequestBytes + 1);
+        return body.length > maxRequestBytes ? null : body;
+    }
+
+    private void replay(IdempotencyRecord record, HttpServletResponse response) throws IOException {
+        response.setStatus(record.getResponseStatus());
+        if (record.getResponseContentType() != null) {
+            response.setContentType(record.getResponseContentType());
+        }
+        response.setHeader(REPLAYED_HEADER, "true");
+        byte[] body = record.getResponseBody() != null ? record.getResponseBody() : new byte[0];
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+        replayedCounter.increment();
+    }
+
+    private static String path(HttpServletRequest request) {
+        return request.getRequestURI().substring(request.getContextPath().length());
+    }
+
+    private static UUID parseKey(String header) {
+        try {
+            return UUID.fromString(header.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // The body was read for the fingerprint, the controller reads it again from here
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return input.read(buffer, offset, length);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    throw new UnsupportedOperationException("Cached request body is read synchronously");
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            Charset charset = getCharacterEncoding() != null ? Charset.forName(getCharacterEncoding()) : StandardCharsets.UTF_8;
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+    }
+}
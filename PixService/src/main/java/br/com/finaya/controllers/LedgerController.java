@@ -0,0 +1,89 @@
+package br.com.finaya.controllers;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.UUID;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import br.com.finaya.services.LedgerExportService;
+import br.com.finaya.services.LedgerExportService.Format;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@RequestMapping("/ledger")
+@Tag(name = "Razão", description = "Operações sobre os lançamentos do razão")
+public class LedgerController {
+    private final LedgerExportService exportService;
+
+    public LedgerController(LedgerExportService exportService) {
+        this.exportService = exportService;
+    }
+
+    @Operation(
+            summary = "Exportar lançamentos",
+            description = "Exporta os lançamentos de uma carteira, ou de todas, criados no período informado, " +
+                "em NDJSON ou CSV e opcionalmente compactados com gzip. As linhas são enviadas à medida que são lidas do banco."
+        )
+        @ApiResponses({
+            @ApiResponse(
+                responseCode = "200",
+                description = "Lançamentos exportados"
+            ),
+            @ApiResponse(
+                responseCode = "400",
+                description = "Período ou formato inválido"
+            )
+        })
+        @GetMapping("/export")
+        public void export(
+                @Parameter(description = "ID da carteira, ausente para exportar todas", example = "123e4567-e89b-12d3-a456-426614174000")
+                @RequestParam(required = false) UUID walletId,
+
+                @Parameter(description = "Início do período (formato ISO 8601)", example = "2024-01-01T00:00:00")
+                @RequestParam(required = false)
+                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+
+                @Parameter(description = "Fim do período, exclusivo (formato ISO 8601)", example = "2024-02-01T00:00:00")
+                @RequestParam(required = false)
+                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+
+                @Parameter(description = "Formato da exportação: ndjson ou csv", example = "ndjson")
+                @RequestParam(defaultValue = "ndjson") String format,
+
+                @Parameter(description = "Compactar a exportação com gzip", example = "false")
+                @RequestParam(defaultValue = "false") boolean gzip,
+
+                HttpServletResponse response) throws IOException {
+
+            Format exportFormat = parseFormat(format);
+            if (from != null && to != null && !to.isAfter(from)) {
+                throw new IllegalArgumentException("Export period must end after it starts");
+            }
+            String filename = "ledger-" + (walletId != null ? walletId : "all") + "." + exportFormat.extension();
+            response.setContentType(gzip ? "application/gzip" : exportFormat.contentType() + ";charset=UTF-8");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + filename + (gzip ? ".gz\"" : "\""));
+            exportService.export(walletId, from, to, exportFormat, gzip, response.getOutputStream());
+        }
+
+    private static Format parseFormat(String format) {
+        try {
+            return Format.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported export format: " + format);
+        }
+    }
+}
@@ -1,16 +1,34 @@
 package br.com.finaya.controllers;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.services.PixBatchTransferService;
+import br.com.finaya.services.PixBatchTransferService.BatchTransferItem;
+import br.com.finaya.services.PixBatchWebhookService;
+import br.com.finaya.services.PixBatchWebhookService.BatchWebhookItem;
 import br.com.finaya.services.PixTransferService;
+import br.com.finaya.services.WebhookDedupeFilter;
+import br.com.finaya.services.WebhookInboxService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -25,9 +43,22 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 @Tag(name = "Pix", description = "Operações para transferências Pix e webhooks de confirmação")
 public class PixController {
     private final PixTransferService pixTransferService;
+    private final PixBatchTransferService pixBatchTransferService;
+    private final PixBatchWebhookService pixBatchWebhookService;
+    private final WebhookInboxService webhookInboxService;
+    private final WebhookDedupeFilter webhookDedupeFilter;
 
-    public PixController(PixTransferService pixTransferService) {
+    @Value("${pix.transfers.status.max-wait-seconds:30}")
+    private long maxWaitSeconds = 30;
+
+    public PixController(PixTransferService pixTransferService, PixBatchTransferService pixBatchTransferService,
+                         PixBatchWebhookService pixBatchWebhookService, WebhookInboxService webhookInboxService,
+                         WebhookDedupeFilter webhookDedupeFilter) {
         this.pixTransferService = pixTransferService;
+        this.pixBatchTransferService = pixBatchTransferService;
+        this.pixBatchWebhookService = pixBatchWebhookService;
+        this.webhookInboxService = webhookInboxService;
+        this.webhookDedupeFilter = webhookDedupeFilter;
     }
 
     @Operation(
@@ -80,16 +111,164 @@ public class PixController {
         ));
     }
     
+    @Operation(
+        summary = "Consultar transferência Pix",
+        description = "Retorna os dados e o status atual de uma transferência Pix pelo seu ID end-to-end."
+    )
+    @ApiResponses({
+        @ApiResponse(
+            responseCode = "200",
+            description = "Transferência encontrada",
+            content = @Content(schema = @Schema(implementation = PixTransferDetailsResponse.class))
+        ),
+        @ApiResponse(
+            responseCode = "404",
+            description = "Transferência Pix não encontrada"
+        )
+    })
+    @GetMapping("/transfers/{endToEndId}")
+    public ResponseEntity<PixTransferDetailsResponse> getTransfer(
+            @Parameter(description = "ID end-to-end da transferência", required = true, example = "123e4567-e89b-12d3-a456-426614174000")
+            @PathVariable UUID endToEndId) {
+        
+        var transfer = pixTransferService.getTransfer(endToEndId);
+        
+        return ResponseEntity.ok(new PixTransferDetailsResponse(
+            transfer.getEndToEndId(),
+            transfer.getFromWalletId(),
+            transfer.getToWalletId(),
+            transfer.getAmount(),
+            transfer.getStatus().name(),
+            transfer.getCreatedAt(),
+            transfer.getUpdatedAt()
+        ));
+    }
+    
+    @Operation(
+        summary = "Aguardar status final da transferência Pix (long-poll)",
+        description = "Responde assim que a transferência for confirmada ou rejeitada. Se ela continuar pendente " +
+                     "até o fim da espera, responde com o status PENDING e o cliente pode repetir a chamada."
+    )
+    @ApiResponses({
+        @ApiResponse(
+            responseCode = "200",
+            description = "Status final da transferência, ou PENDING ao fim da espera",
+            content = @Content(schema = @Schema(implementation = PixTransferResponse.class))
+        ),
+        @ApiResponse(
+            responseCode = "404",
+            description = "Transferência Pix não encontrada"
+        )
+    })
+    @GetMapping("/transfers/{endToEndId}/status")
+    public CompletableFuture<ResponseEntity<PixTransferResponse>> awaitTransferStatus(
+            @Parameter(description = "ID end-to-end da transferência", required = true, example = "123e4567-e89b-12d3-a456-426614174000")
+            @PathVariable UUID endToEndId,
+            
+            @Parameter(description = "Tempo máximo de espera em segundos, limitado pela configuração do servidor", example = "30")
+            @RequestParam(defaultValue = "30") long waitSeconds) {
+        
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(0, Math.min(waitSeconds, maxWaitSeconds)));
+        return pixTransferService.awaitFinalStatus(endToEndId, timeoutMillis)
+            .thenApply(status -> ResponseEntity.ok(new PixTransferResponse(endToEndId, status.name())));
+    }
+    
+    @Operation(
+        summary = "Acompanhar status da transferência Pix (Server-Sent Events)",
+        description = "Envia um evento 'status' com o status atual e, se a transferência estiver pendente, outro " +
+                     "quando ela for confirmada ou rejeitada. O stream é encerrado no status final ou ao fim da espera."
+    )
+    @GetMapping(value = "/transfers/{endToEndId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTransferStatus(
+            @Parameter(description = "ID end-to-end da transferência", required = true, example = "123e4567-e89b-12d3-a456-426614174000")
+            @PathVariable UUID endToEndId) {
+        
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(maxWaitSeconds);
+        // Looks the transfer up first, an unknown one is answered 404 before any stream is opened
+        CompletableFuture<PixTransfer.TransferStatus> finalStatus = pixTransferService.awaitFinalStatus(endToEndId, timeoutMillis);
+        SseEmitter emitter = new SseEmitter(timeoutMillis + 1000);
+        
+        try {
+            emitter.send(SseEmitter.event().name("status").data(new PixTransferResponse(endToEndId,
+                finalStatus.getNow(PixTransfer.TransferStatus.PENDING).name())));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return emitter;
+        }
+        if (finalStatus.isDone()) {
+            emitter.complete();
+            return emitter;
+        }
+        
+        finalStatus.thenAccept(status -> {
+            try {
+                if (status != PixTransfer.TransferStatus.PENDING) {
+                    emitter.send(SseEmitter.event().name("status").data(new PixTransferResponse(endToEndId, status.name())));
+                }
+                emitter.complete();
+            } catch (IOException e) {
+                // The client went away, nothing left to notify
+                emitter.completeWithError(e);
+            }
+        });
+        return emitter;
+    }
+    
+    @Operation(
+        summary = "Iniciar transferências Pix em lote",
+        description = "Inicia várias transferências Pix em uma única transação. Cada item possui sua própria chave " +
+                     "de idempotência e recebe um resultado individual: a falha de um item não impede os demais."
+    )
+    @ApiResponses({
+        @ApiResponse(
+            responseCode = "200",
+            description = "Lote processado, com o resultado de cada transferência",
+            content = @Content(schema = @Schema(implementation = PixTransferBatchResponse.class))
+        ),
+        @ApiResponse(
+            responseCode = "400",
+            description = "Lote vazio ou maior que o tamanho máximo permitido"
+        )
+    })
+    @PostMapping("/transfers/batch")
+    public ResponseEntity<PixTransferBatchResponse> initiateTransferBatch(
+            @Parameter(description = "Transferências Pix do lote", required = true)
+            @RequestBody PixTransferBatchRequest request) {
+        
+        var items = request.transfers() == null ? List.<BatchTransferItem>of() : request.transfers().stream()
+            .map(item -> new BatchTransferItem(item.idempotencyKey(), item.fromWalletId(), item.toPixKey(), item.amount()))
+            .toList();
+        
+        var results = pixBatchTransferService.initiatePixTransfers(items).stream()
+            .map(result -> new PixTransferBatchItemResponse(
+                result.idempotencyKey(),
+                result.endToEndId(),
+                result.status(),
+                result.outcome().name(),
+                result.error()
+            ))
+            .toList();
+        
+        return ResponseEntity.ok(new PixTransferBatchResponse(results));
+    }
+    
     @Operation(
             summary = "Webhook de confirmação Pix",
             description = "Endpoint para receber confirmações ou rejeições de transferências Pix. " +
-                         "Suporta idempotência por eventId e processamento fora de ordem. Requer chave de idempotência UUID."
+                         "Suporta idempotência por eventId e processamento fora de ordem. Requer chave de idempotência UUID. " +
+                         "Com a inbox de webhooks habilitada o evento é apenas armazenado e processado de forma assíncrona. " +
+                         "Eventos de transferências ainda não visíveis aguardam a criação da transferência e eventos de " +
+                         "transferências já finalizadas são descartados."
         )
         @ApiResponses({
             @ApiResponse(
                 responseCode = "200",
                 description = "Webhook processado com sucesso"
             ),
+            @ApiResponse(
+                responseCode = "202",
+                description = "Webhook aceito na inbox ou aguardando a transferência, será processado de forma assíncrona"
+            ),
             @ApiResponse(
                 responseCode = "400",
                 description = "Dados do webhook inválidos"
@@ -116,6 +295,32 @@ public class PixController {
                 @Parameter(description = "Dados do webhook Pix", required = true)
                 @RequestBody PixWebhookRequest request) {
             
+            // Redelivery of an event already applied, answered before any database access
+            if (webhookDedupeFilter.isDuplicate(request.eventId())) {
+                return webhookInboxService.isEnabled() ? ResponseEntity.accepted().build() : ResponseEntity.ok().build();
+            }
+            
+            if (webhookInboxService.isEnabled()) {
+                webhookInboxService.append(
+                    request.endToEndId(),
+                    request.eventId(),
+                    request.eventType(),
+                    request.occurredAt(),
+                    idempotencyKey
+                );
+                return ResponseEntity.accepted().build();
+            }
+            
+            // A webhook that outran its transfer waits for it instead of failing
+            if (webhookInboxService.parkIfNotVisible(
+                    request.endToEndId(),
+                    request.eventId(),
+                    request.eventType(),
+                    request.occurredAt(),
+                    idempotencyKey)) {
+                return ResponseEntity.accepted().build();
+            }
+            
             pixTransferService.processWebhook(
                 request.endToEndId(),
                 request.eventId(),
@@ -124,6 +329,45 @@ public class PixController {
             );
             return ResponseEntity.ok().build();
         }
+    
+    @Operation(
+        summary = "Webhooks de confirmação Pix em lote",
+        description = "Processa vários eventos de webhook em uma única transação. Eventos com eventId já processado " +
+                     "são ignorados como duplicados e, para cada transferência, o primeiro evento CONFIRMED ou REJECTED " +
+                     "do lote define o status final. Cada evento recebe um resultado individual."
+    )
+    @ApiResponses({
+        @ApiResponse(
+            responseCode = "200",
+            description = "Lote processado, com o resultado de cada evento",
+            content = @Content(schema = @Schema(implementation = PixWebhookBatchResponse.class))
+        ),
+        @ApiResponse(
+            responseCode = "400",
+            description = "Lote vazio ou maior que o tamanho máximo permitido"
+        )
+    })
+    @PostMapping("/webhook/batch")
+    public ResponseEntity<PixWebhookBatchResponse> webhookBatch(
+            @Parameter(description = "Eventos de webhook Pix do lote", required = true)
+            @RequestBody PixWebhookBatchRequest request) {
+        
+        var items = request.events() == null ? List.<BatchWebhookItem>of() : request.events().stream()
+            .map(event -> new BatchWebhookItem(event.endToEndId(), event.eventId(), event.eventType(), event.occurredAt()))
+            .toList();
+        
+        var results = pixBatchWebhookService.processWebhooks(items).stream()
+            .map(result -> new PixWebhookBatchItemResponse(
+                result.eventId(),
+                result.endToEndId(),
+                result.status(),
+                result.outcome().name(),
+                result.error()
+            ))
+            .toList();
+        
+        return ResponseEntity.ok(new PixWebhookBatchResponse(results));
+    }
 
         // Records para request/response
         @Schema(description = "Request para transferência Pix")
@@ -165,6 +409,75 @@ public class PixController {
             String status
         ) {}
 
+        @Schema(description = "Dados de uma transferência Pix")
+        public record PixTransferDetailsResponse(
+            @Schema(description = "ID end-to-end da transferência", example = "123e4567-e89b-12d3-a456-426614174000")
+            UUID endToEndId,
+            
+            @Schema(description = "ID da carteira de origem", example = "123e4567-e89b-12d3-a456-426614174000")
+            UUID fromWalletId,
+            
+            @Schema(description = "ID da carteira de destino", example = "123e4567-e89b-12d3-a456-426614174000")
+            UUID toWalletId,
+            
+            @Schema(description = "Valor da transferência", example = "150.75")
+            BigDecimal amount,
+            
+            @Schema(description = "Status atual da transferência", example = "PENDING", allowableValues = {"PENDING", "CONFIRMED", "REJECTED"})
+            String status,
+            
+            @Schema(description = "Data e hora de criação da transferência", example = "2024-01-15T14:30:00")
+            LocalDateTime createdAt,
+            
+            @Schema(description = "Data e hora da última alteração de status", example = "2024-01-15T14:30:05")
+            LocalDateTime updatedAt
+        ) {}
+
+        @Schema(description = "Request para transferências Pix em lote")
+        public record PixTransferBatchRequest(
+            @Schema(description = "Transferências do lote", required = true)
+            List<PixTransferBatchItemRequest> transfers
+        ) {}
+
+        @Schema(description = "Transferência Pix de um lote")
+        public record PixTransferBatchItemRequest(
+            @Schema(description = "Chave de idempotência UUID da transferência", example = "123e4567-e89b-12d3-a456-426614174000", required = true)
+            UUID idempotencyKey,
+            
+            @Schema(description = "ID da carteira de origem", example = "123e4567-e89b-12d3-a456-426614174000", required = true)
+            UUID fromWalletId,
+            
+            @Schema(description = "Chave Pix de destino (email, telefone ou chave aleatória)", example = "fulano@email.com", required = true)
+            String toPixKey,
+            
+            @Schema(description = "Valor da transferência (deve ser positivo)", example = "150.75", required = true, minimum = "0.01")
+            BigDecimal amount
+        ) {}
+
+        @Schema(description = "Response de transferências Pix em lote")
+        public record PixTransferBatchResponse(
+            @Schema(description = "Resultado de cada transferência, na mesma ordem do request")
+            List<PixTransferBatchItemResponse> results
+        ) {}
+
+        @Schema(description = "Resultado de uma transferência do lote")
+        public record PixTransferBatchItemResponse(
+            @Schema(description = "Chave de idempotência da transferência", example = "123e4567-e89b-12d3-a456-426614174000")
+            UUID idempotencyKey,
+            
+            @Schema(description = "ID end-to-end da transferência, ausente em caso de falha", example = "123e4567-e89b-12d3-a456-426614174000")
+            UUID endToEndId,
+            
+            @Schema(description = "Status atual da transferência", example = "PENDING", allowableValues = {"PENDING", "CONFIRMED", "REJECTED"})
+            String status,
+            
+            @Schema(description = "Resultado do item", example = "CREATED", allowableValues = {"CREATED", "DUPLICATE", "FAILED"})
+            String outcome,
+            
+            @Schema(description = "Motivo da falha, quando houver", example = "Insufficient balance")
+            String error
+        ) {}
+
         @Schema(description = "Request de webhook Pix")
         public record PixWebhookRequest(
             @Schema(
@@ -196,4 +509,34 @@ public class PixController {
             )
             String occurredAt
         ) {}
+
+        @Schema(description = "Request de webhooks Pix em lote")
+        public record PixWebhookBatchRequest(
+            @Schema(description = "Eventos do lote, aplicados na ordem recebida", required = true)
+            List<PixWebhookRequest> events
+        ) {}
+
+        @Schema(description = "Response de webhooks Pix em lote")
+        public record PixWebhookBatchResponse(
+            @Schema(description = "Resultado de cada evento, na mesma ordem do request")
+            List<PixWebhookBatchItemResponse> results
+        ) {}
+
+        @Schema(description = "Resultado de um evento do lote")
+        public record PixWebhookBatchItemResponse(
+            @Schema(description = "ID do evento", example = "event-12345")
+            String eventId,
+            
+            @Schema(description = "ID end-to-end da transferência", example = "123e4567-e89b-12d3-a456-426614174000")
+            UUID endToEndId,
+            
+            @Schema(description = "Status da transferência após o lote", example = "CONFIRMED", allowableValues = {"PENDING", "CONFIRMED", "REJECTED"})
+            String status,
+            
+            @Schema(description = "Resultado do evento", example = "APPLIED", allowableValues = {"APPLIED", "IGNORED", "DUPLICATE", "FAILED"})
+            String outcome,
+            
+            @Schema(description = "Motivo da falha, quando houver", example = "PIX transfer not found")
+            String error
+        ) {}
 }
\ No newline at end of file
@@ -2,6 +2,8 @@ package br.com.finaya.controllers;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.springframework.format.annotation.DateTimeFormat;
@@ -9,12 +11,14 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import br.com.finaya.model.LedgerEntry;
 import br.com.finaya.services.PixKeyService;
 import br.com.finaya.services.WalletService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -255,6 +259,120 @@ public class WalletController {
             return ResponseEntity.ok(new BalanceResponse(balance));
         }
     
+    @Operation(
+            summary = "Consultar saldos de várias carteiras",
+            description = "Consulta em uma única requisição o saldo atual, ou histórico na data informada, de várias carteiras. " +
+                         "As carteiras inexistentes são listadas em notFound."
+        )
+        @ApiResponses({
+            @ApiResponse(
+                responseCode = "200",
+                description = "Saldos consultados com sucesso",
+                content = @Content(schema = @Schema(implementation = BalancesResponse.class))
+            ),
+            @ApiResponse(
+                responseCode = "400",
+                description = "Lista de carteiras vazia ou maior que o limite"
+            )
+        })
+        @PostMapping("/balances")
+        public ResponseEntity<BalancesResponse> getBalances(
+                @Parameter(description = "Carteiras e data opcional da consulta", required = true)
+                @RequestBody BalancesRequest request) {
+            
+            Map<UUID, BigDecimal> balances = request.at() != null
+                ? walletService.getHistoricalBalances(request.walletIds(), request.at())
+                : walletService.getCurrentBalances(request.walletIds());
+            List<WalletBalanceResponse> found = balances.entrySet().stream()
+                .map(entry -> new WalletBalanceResponse(entry.getKey(), entry.getValue()))
+                .toList();
+            List<UUID> notFound = request.walletIds().stream()
+                .filter(id -> !balances.containsKey(id))
+                .distinct()
+                .toList();
+            return ResponseEntity.ok(new BalancesResponse(found, notFound));
+        }
+    
+    @Operation(
+            summary = "Configurar slots de saldo",
+            description = "Divide o saldo de uma carteira com alto volume de créditos em N slots, " +
+                         "permitindo créditos concorrentes sem bloquear a linha da carteira. " +
+                         "O saldo dos slots atuais é consolidado na carteira antes da reconfiguração. Use 0 para desativar."
+        )
+        @ApiResponses({
+            @ApiResponse(
+                responseCode = "200",
+                description = "Slots configurados com sucesso",
+                content = @Content(schema = @Schema(implementation = BalanceSlotsResponse.class))
+            ),
+            @ApiResponse(
+                responseCode = "400",
+                description = "Quantidade de slots inválida"
+            ),
+            @ApiResponse(
+                responseCode = "404",
+                description = "Carteira não encontrada"
+            )
+        })
+        @PutMapping("/{id}/balance-slots")
+        public ResponseEntity<BalanceSlotsResponse> configureBalanceSlots(
+                @Parameter(description = "ID da carteira", required = true, example = "123e4567-e89b-12d3-a456-426614174000")
+                @PathVariable UUID id,
+                
+                @Parameter(description = "Quantidade de slots de saldo", required = true)
+                @RequestBody BalanceSlotsRequest request) {
+            
+            var wallet = walletService.configureBalanceSlots(id, request.slots());
+            return ResponseEntity.ok(new BalanceSlotsResponse(wallet.getId(), wallet.getBalanceSlots()));
+        }
+    
+    @Operation(
+            summary = "Consultar extrato",
+            description = "Retorna os lançamentos da carteira do mais recente ao mais antigo, uma página por vez. " +
+                         "Para a próxima página, envie o cursor retornado com os mesmos filtros de período."
+        )
+        @ApiResponses({
+            @ApiResponse(
+                responseCode = "200",
+                description = "Página do extrato retornada com sucesso",
+                content = @Content(schema = @Schema(implementation = StatementResponse.class))
+            ),
+            @ApiResponse(
+                responseCode = "400",
+                description = "Cursor ou tamanho de página inválido"
+            ),
+            @ApiResponse(
+                responseCode = "404",
+                description = "Carteira não encontrada"
+            )
+        })
+        @GetMapping("/{id}/statement")
+        public ResponseEntity<StatementResponse> getStatement(
+                @Parameter(description = "ID da carteira", required = true, example = "123e4567-e89b-12d3-a456-426614174000")
+                @PathVariable UUID id,
+                
+                @Parameter(description = "Início do período (formato ISO 8601)", example = "2024-01-01T00:00:00")
+                @RequestParam(required = false)
+                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                
+                @Parameter(description = "Fim do período (formato ISO 8601)", example = "2024-01-31T23:59:59")
+                @RequestParam(required = false)
+                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                
+                @Parameter(description = "Cursor da página anterior, ausente na primeira página")
+                @RequestParam(required = false) String cursor,
+                
+                @Parameter(description = "Quantidade de lançamentos por página", example = "50")
+                @RequestParam(defaultValue = "50") int limit) {
+            
+            var page = walletService.getStatement(id, from, to, cursor, limit);
+            List<StatementEntryResponse> entries = page.entries().stream()
+                .map(entry -> new StatementEntryResponse(entry.getId(), entry.getTransactionId(), entry.getType(),
+                    entry.getAmount(), entry.getBalanceAfter(), entry.getCreatedAt()))
+                .toList();
+            return ResponseEntity.ok(new StatementResponse(entries, page.nextCursor()));
+        }
+    
     @Schema(description = "Request para criação de carteira")
     public record CreateWalletRequest(
         @Schema(description = "ID do usuário proprietário da carteira", example = "123e4567-e89b-12d3-a456-426614174000", required = true)
@@ -284,4 +402,77 @@ public class WalletController {
         @Schema(description = "Saldo atual ou histórico da carteira", example = "1500.75", required = true)
         BigDecimal balance
     ) {}
+
+    @Schema(description = "Request para consulta de saldos de várias carteiras")
+    public record BalancesRequest(
+        @Schema(description = "IDs das carteiras", required = true)
+        List<UUID> walletIds,
+        
+        @Schema(description = "Data e hora para consulta do saldo histórico (formato ISO 8601), ausente para o saldo atual",
+            example = "2024-01-15T14:30:00")
+        LocalDateTime at
+    ) {}
+
+    @Schema(description = "Saldos de várias carteiras")
+    public record BalancesResponse(
+        @Schema(description = "Saldos das carteiras encontradas, na ordem pedida")
+        List<WalletBalanceResponse> balances,
+        
+        @Schema(description = "IDs das carteiras não encontradas")
+        List<UUID> notFound
+    ) {}
+
+    @Schema(description = "Saldo de uma carteira")
+    public record WalletBalanceResponse(
+        @Schema(description = "ID da carteira", example = "123e4567-e89b-12d3-a456-426614174000")
+        UUID walletId,
+        
+        @Schema(description = "Saldo atual ou histórico da carteira", example = "1500.75")
+        BigDecimal balance
+    ) {}
+
+    @Schema(description = "Request para configuração de slots de saldo")
+    public record BalanceSlotsRequest(
+        @Schema(description = "Quantidade de slots (0 desativa)", example = "16", required = true, minimum = "0")
+        int slots
+    ) {}
+
+    @Schema(description = "Página do extrato da carteira")
+    public record StatementResponse(
+        @Schema(description = "Lançamentos da página, do mais recente ao mais antigo")
+        List<StatementEntryResponse> entries,
+        
+        @Schema(description = "Cursor da próxima página, nulo na última", example = "AQAAAABlpQ0AAAAAABI-RWfomxLTpFZCZhQXQAA")
+        String nextCursor
+    ) {}
+
+    @Schema(description = "Lançamento do extrato")
+    public record StatementEntryResponse(
+        @Schema(description = "ID do lançamento", example = "123e4567-e89b-12d3-a456-426614174000")
+        UUID id,
+        
+        @Schema(description = "ID da transação", example = "123e4567-e89b-12d3-a456-426614174000")
+        UUID transactionId,
+        
+        @Schema(description = "Tipo do lançamento", example = "DEPOSIT")
+        LedgerEntry.EntryType type,
+        
+        @Schema(description = "Valor do lançamento", example = "100.50")
+        BigDecimal amount,
+        
+        @Schema(description = "Saldo após o lançamento, ausente em carteiras com slots de saldo", example = "1500.75")
+        BigDecimal balanceAfter,
+        
+        @Schema(description = "Data e hora do lançamento", example = "2024-01-15T14:30:00")
+        LocalDateTime createdAt
+    ) {}
+
+    @Schema(description = "Response de configuração de slots de saldo")
+    public record BalanceSlotsResponse(
+        @Schema(description = "ID da carteira", example = "123e4567-e89b-12d3-a456-426614174000")
+        UUID walletId,
+        
+        @Schema(description = "Quantidade de slots configurados", example = "16")
+        int slots
+    ) {}
 }
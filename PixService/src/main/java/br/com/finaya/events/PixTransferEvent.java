@@ -0,0 +1,47 @@
+package br.com.finaya.events;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import br.com.finaya.model.PixTransfer;
+
+/**
+ * Published inside the transaction that changes the status of a transfer.
+ * Listeners running in that transaction (the outbox) commit or roll back with
+ * the change itself.
+ *
+ * A CREATED event also carries the System.nanoTime() at which the request
+ * initiating the transfer started, so latencies can be measured from it in
+ * this JVM. It means nothing elsewhere and is left out of the outbox payload.
+ */
+public record PixTransferEvent(Type type, UUID endToEndId, UUID fromWalletId, UUID toWalletId,
+                               BigDecimal amount, LocalDateTime occurredAt, @JsonIgnore long initiatedAtNanos) {
+
+    public enum Type {
+        CREATED, CONFIRMED, REJECTED
+    }
+
+    public static PixTransferEvent created(PixTransfer transfer, long initiatedAtNanos) {
+        return of(Type.CREATED, transfer, initiatedAtNanos);
+    }
+
+    public static PixTransferEvent confirmed(PixTransfer transfer) {
+        return of(Type.CONFIRMED, transfer, 0);
+    }
+
+    public static PixTransferEvent rejected(PixTransfer transfer) {
+        return of(Type.REJECTED, transfer, 0);
+    }
+
+    private static PixTransferEvent of(Type type, PixTransfer transfer, long initiatedAtNanos) {
+        return new PixTransferEvent(type, transfer.getEndToEndId(), transfer.getFromWalletId(),
+            transfer.getToWalletId(), transfer.getAmount(), LocalDateTime.now(), initiatedAtNanos);
+    }
+
+    public String eventType() {
+        return "PIX_TRANSFER_" + type.name();
+    }
+}
@@ -0,0 +1,15 @@
+package br.com.finaya.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+	public IdempotencyKeyReusedException(String string) {
+		super(string);
+	}
+
+	private static final long serialVersionUID = 1L;
+
+}
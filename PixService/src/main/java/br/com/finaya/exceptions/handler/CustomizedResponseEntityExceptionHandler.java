@@ -11,6 +11,7 @@ import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import br.com.finaya.exceptions.ExceptionResponse;
+import br.com.finaya.exceptions.IdempotencyKeyReusedException;
 import br.com.finaya.exceptions.InvalidJwtAuthenticationException;
 import br.com.finaya.exceptions.RequiredObjectIsNullException;
 import br.com.finaya.exceptions.ResourceNotFoundException;
@@ -54,4 +55,11 @@ public class CustomizedResponseEntityExceptionHandler extends ResponseEntityExce
 		return new ResponseEntity<>(exceptionResponse, HttpStatus.BAD_REQUEST);
 	}	
 
+	@ExceptionHandler(IdempotencyKeyReusedException.class)
+	public final ResponseEntity<ExceptionResponse> handleIdempotencyKeyReusedException(Exception ex, WebRequest request){
+		ExceptionResponse exceptionResponse = new ExceptionResponse(new Date(), ex.getMessage(), request.getDescription(false));
+		
+		return new ResponseEntity<>(exceptionResponse, HttpStatus.UNPROCESSABLE_ENTITY);
+	}	
+
 }
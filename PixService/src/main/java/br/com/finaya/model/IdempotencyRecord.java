@@ -1,10 +1,14 @@
 package br.com.finaya.model;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.UUID;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -24,6 +28,18 @@ public class IdempotencyRecord {
     @Column(name = "record_key", nullable = false, unique = true, columnDefinition = "BINARY(16)")
     private UUID recordKey; 
 
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 30)
+    private Operation operation = Operation.OTHER;
+
+    // Last day the record is kept, its partition is dropped after that
+    @Column(name = "expires_on", nullable = false)
+    private LocalDate expiresOn;
+
+    // Fingerprint of the request that claimed the key, see RequestFingerprint
+    @Column(name = "request_fingerprint", columnDefinition = "BINARY(16)")
+    private byte[] requestFingerprint;
+
     @Column(name = "result_type")
     private String resultType;
 
@@ -36,6 +52,16 @@ public class IdempotencyRecord {
     @Column(name = "error_message", columnDefinition = "TEXT")
     private String errorMessage;
 
+    // HTTP response of the completed operation, replayed as is to retries
+    @Column(name = "response_status")
+    private Integer responseStatus;
+
+    @Column(name = "response_content_type", length = 100)
+    private String responseContentType;
+
+    @Column(name = "response_body", columnDefinition = "MEDIUMBLOB")
+    private byte[] responseBody;
+
     @CreationTimestamp
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
@@ -51,9 +77,15 @@ public class IdempotencyRecord {
         this.recordKey = recordKey;
     }
 
+    public IdempotencyRecord(UUID recordKey, Operation operation) {
+        this.recordKey = recordKey;
+        this.operation = operation;
+    }
+
     // Business methods
     public void markSuccess(Object result) {
-        this.resultType = result != null ? result.getClass().getName() : null;
+        // Void operations still need a result type, or their record would look in progress
+        this.resultType = result != null ? result.getClass().getName() : Void.class.getName();
         this.resultData = result != null ? result.toString() : null;
         this.errorType = null;
         this.errorMessage = null;
@@ -66,6 +98,20 @@ public class IdempotencyRecord {
         this.errorMessage = errorMessage;
     }
 
+    // Finished with a result or an error, as opposed to in progress
+    public boolean isCompleted() {
+        return resultType != null || errorType != null;
+    }
+
+    public boolean hasResponse() {
+        return responseStatus != null;
+    }
+
+    // False when both requests were fingerprinted and differ, a reuse of the key for another request
+    public boolean matchesFingerprint(byte[] fingerprint) {
+        return requestFingerprint == null || fingerprint == null || Arrays.equals(requestFingerprint, fingerprint);
+    }
+
     // Getters and Setters
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
@@ -73,6 +119,15 @@ public class IdempotencyRecord {
     public UUID getRecordKey() { return recordKey; }
     public void setRecordKey(UUID recordKey) { this.recordKey = recordKey; }
 
+    public Operation getOperation() { return operation; }
+    public void setOperation(Operation operation) { this.operation = operation; }
+
+    public LocalDate getExpiresOn() { return expiresOn; }
+    public void setExpiresOn(LocalDate expiresOn) { this.expiresOn = expiresOn; }
+
+    public byte[] getRequestFingerprint() { return requestFingerprint; }
+    public void setRequestFingerprint(byte[] requestFingerprint) { this.requestFingerprint = requestFingerprint; }
+
     public String getResultType() { return resultType; }
     public void setResultType(String resultType) { this.resultType = resultType; }
 
@@ -85,6 +140,15 @@ public class IdempotencyRecord {
     public String getErrorMessage() { return errorMessage; }
     public void setErrorMessage(String errorMessage) { this.errorMessage = errorMessage; }
 
+    public Integer getResponseStatus() { return responseStatus; }
+    public void setResponseStatus(Integer responseStatus) { this.responseStatus = responseStatus; }
+
+    public String getResponseContentType() { return responseContentType; }
+    public void setResponseContentType(String responseContentType) { this.responseContentType = responseContentType; }
+
+    public byte[] getResponseBody() { return responseBody; }
+    public void setResponseBody(byte[] responseBody) { this.responseBody = responseBody; }
+
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
 
@@ -93,10 +157,13 @@ public class IdempotencyRecord {
 
 	@Override
 	public String toString() {
-		return "IdempotencyRecord [id=" + id + ", recordKey=" + recordKey + ", resultType=" + resultType
+		return "IdempotencyRecord [id=" + id + ", recordKey=" + recordKey + ", operation=" + operation + ", resultType=" + resultType
 				+ ", resultData=" + resultData + ", errorType=" + errorType + ", errorMessage=" + errorMessage
 				+ ", createdAt=" + createdAt + ", updatedAt=" + updatedAt + "]";
 	}
-    
-    
+
+    // Kind of operation behind the key, each kind has its own retention
+    public enum Operation {
+        DEPOSIT, WITHDRAWAL, PIX_TRANSFER, PIX_WEBHOOK, OTHER
+    }
 }
\ No newline at end of file
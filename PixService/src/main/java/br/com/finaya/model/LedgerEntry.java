@@ -36,7 +36,8 @@ public class LedgerEntry {
     @Column(nullable = false)
     private EntryType type;
 
-    @Column(name = "balance_after", nullable = false, precision = 15, scale = 2)
+    // Empty for entries of sharded wallets, see WalletBalanceSlotService
+    @Column(name = "balance_after", precision = 15, scale = 2)
     private BigDecimal balanceAfter;
 
     @Column(length = 500)
@@ -46,6 +47,10 @@ public class LedgerEntry {
     @Column(name = "created_at", updatable = false)
     private LocalDateTime createdAt;
 
+    // Assigned by the database on insert, orders the entries of a wallet created in the same second
+    @Column(name = "seq", insertable = false, updatable = false)
+    private Long seq;
+
     // Enums
     public enum EntryType {
         DEPOSIT, WITHDRAWAL, PIX_OUT, PIX_IN, PIX_RESERVED
@@ -89,4 +94,6 @@ public class LedgerEntry {
 
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public Long getSeq() { return seq; }
 }
@@ -26,6 +26,10 @@ public class Wallet {
     @Column(nullable = false, precision = 15, scale = 2)
     private BigDecimal balance = BigDecimal.ZERO;
     
+    // Number of wallet_balance_slots rows receiving credits, 0 when not sharded
+    @Column(name = "balance_slots", nullable = false)
+    private int balanceSlots;
+    
     @Version
     private Long version;
     
@@ -55,6 +59,18 @@ public class Wallet {
         this.updatedAt = LocalDateTime.now();
     }
     
+    // Moves the balance drained from the slots back into this row
+    public void absorbSlotBalance(BigDecimal slotBalance) {
+        if (slotBalance.compareTo(BigDecimal.ZERO) < 0) {
+            throw new IllegalArgumentException("Slot balance cannot be negative");
+        }
+        this.balance = this.balance.add(slotBalance);
+    }
+    
+    public boolean isSharded() {
+        return balanceSlots > 0;
+    }
+    
     public Wallet() {}
    
     public Wallet(UUID userId) {
@@ -77,6 +93,9 @@ public class Wallet {
     public BigDecimal getBalance() { return balance; }
     public void setBalance(BigDecimal balance) { this.balance = balance; }
     
+    public int getBalanceSlots() { return balanceSlots; }
+    public void setBalanceSlots(int balanceSlots) { this.balanceSlots = balanceSlots; }
+    
     public Long getVersion() { return version; }
     public void setVersion(Long version) { this.version = version; }
     
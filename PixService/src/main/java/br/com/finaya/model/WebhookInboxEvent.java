@@ -0,0 +1,157 @@
+package br.com.finaya.model;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+@Entity
+@Table(name = "webhook_inbox")
+public class WebhookInboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "idempotency_key", columnDefinition = "BINARY(16)", nullable = false, unique = true)
+    private UUID idempotencyKey;
+
+    @Column(name = "end_to_end_id", columnDefinition = "BINARY(16)", nullable = false)
+    private UUID endToEndId;
+
+    @Column(name = "partition_key", nullable = false)
+    private int partitionKey;
+
+    @Column(name = "event_id", nullable = false)
+    private String eventId;
+
+    @Column(name = "event_type", nullable = false, length = 50)
+    private String eventType;
+
+    @Column(name = "occurred_at", length = 50)
+    private String occurredAt;
+
+    // occurredAt as epoch millis, null when the provider sent none or an unreadable one
+    @Column(name = "occurred_at_millis")
+    private Long occurredAtMillis;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private InboxStatus status = InboxStatus.PENDING;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    @Column(name = "received_at", updatable = false)
+    private LocalDateTime receivedAt;
+
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+
+    // Milliseconds the event waited in the inbox until it was claimed, not persisted
+    private transient long queuedMillis;
+
+    // Constructors
+    public WebhookInboxEvent() {}
+
+    public WebhookInboxEvent(UUID idempotencyKey, UUID endToEndId, String eventId, String eventType, String occurredAt) {
+        this.idempotencyKey = idempotencyKey;
+        this.endToEndId = endToEndId;
+        // Events of one transfer always land on the same worker partition
+        this.partitionKey = endToEndId.hashCode() & Integer.MAX_VALUE;
+        this.eventId = eventId;
+        this.eventType = eventType;
+        this.occurredAt = occurredAt;
+        this.occurredAtMillis = parseOccurredAt(occurredAt);
+    }
+
+    // Order of parsed occurredAt values, an unreadable one sorts after every readable one
+    public static final Comparator<Long> OCCURRED_AT_ORDER = Comparator.nullsLast(Comparator.naturalOrder());
+
+    // ISO 8601 with or without offset, the latter read as UTC
+    public static Long parseOccurredAt(String occurredAt) {
+        if (occurredAt == null || occurredAt.isBlank()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(occurredAt).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return LocalDateTime.parse(occurredAt).toInstant(ZoneOffset.UTC).toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    // Getters and Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public UUID getIdempotencyKey() { return idempotencyKey; }
+    public void setIdempotencyKey(UUID idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+
+    public UUID getEndToEndId() { return endToEndId; }
+    public void setEndToEndId(UUID endToEndId) { this.endToEndId = endToEndId; }
+
+    public int getPartitionKey() { return partitionKey; }
+    public void setPartitionKey(int partitionKey) { this.partitionKey = partitionKey; }
+
+    public String getEventId() { return eventId; }
+    public void setEventId(String eventId) { this.eventId = eventId; }
+
+    public String getEventType() { return eventType; }
+    public void setEventType(String eventType) { this.eventType = eventType; }
+
+    public String getOccurredAt() { return occurredAt; }
+    public void setOccurredAt(String occurredAt) { this.occurredAt = occurredAt; }
+
+    public Long getOccurredAtMillis() { return occurredAtMillis; }
+    public void setOccurredAtMillis(Long occurredAtMillis) { this.occurredAtMillis = occurredAtMillis; }
+
+    public InboxStatus getStatus() { return status; }
+    public void setStatus(InboxStatus status) { this.status = status; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+
+    public LocalDateTime getReceivedAt() { return receivedAt; }
+    public void setReceivedAt(LocalDateTime receivedAt) { this.receivedAt = receivedAt; }
+
+    public LocalDateTime getClaimedAt() { return claimedAt; }
+    public void setClaimedAt(LocalDateTime claimedAt) { this.claimedAt = claimedAt; }
+
+    public LocalDateTime getProcessedAt() { return processedAt; }
+    public void setProcessedAt(LocalDateTime processedAt) { this.processedAt = processedAt; }
+
+    public long getQueuedMillis() { return queuedMillis; }
+    public void setQueuedMillis(long queuedMillis) { this.queuedMillis = queuedMillis; }
+
+    public enum InboxStatus {
+        PENDING, PROCESSING, PROCESSED, FAILED,
+        // Waiting for its transfer to become visible
+        PARKED,
+        // Superseded or stale, discarded without being applied
+        DROPPED
+    }
+}
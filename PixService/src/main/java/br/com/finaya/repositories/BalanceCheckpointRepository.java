@@ -0,0 +1,193 @@
+package br.com.finaya.repositories;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import br.com.finaya.util.UuidUtils;
+
+/**
+ * Balance checkpoints of the wallets, and the ledger reads the historical
+ * balances are completed with. A checkpoint holds the sum of the balance
+ * changes of a wallet before checkpoint_at, and is only written for wallets
+ * with entries in the hour or day it closes. Which hours and days were
+ * checkpointed is kept in balance_checkpoint_progress.
+ *
+ * Balances are summed from the amounts of the entries, never read from
+ * balance_after: entries of sharded wallets leave it empty, and older
+ * credits to balance slots recorded it without seeing the other slots.
+ * PIX_OUT entries only record the completion of an amount already debited
+ * by its PIX_RESERVED entry, so they are left out of the sums.
+ */
+@Repository
+public class BalanceCheckpointRepository {
+
+    // Wallet ids per IN list
+    private static final int CHUNK_SIZE = 500;
+
+    // Lower bound of the ledger sums of wallets without any checkpoint
+    private static final LocalDateTime LEDGER_START = LocalDateTime.of(1970, 1, 2, 0, 0);
+
+    private static final String BALANCE_CHANGES = "type <> 'PIX_OUT'";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BalanceCheckpointRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public enum Granularity {
+        HOURLY(ChronoUnit.HOURS),
+        DAILY(ChronoUnit.DAYS);
+
+        private final ChronoUnit unit;
+
+        Granularity(ChronoUnit unit) {
+            this.unit = unit;
+        }
+
+        public LocalDateTime floor(LocalDateTime time) {
+            return time.truncatedTo(unit);
+        }
+
+        public LocalDateTime next(LocalDateTime boundary) {
+            return boundary.plus(1, unit);
+        }
+    }
+
+    // End of the last period checkpointed, empty before the first run
+    public Optional<LocalDateTime> findCheckpointedUntil(Granularity granularity) {
+        return jdbcTemplate.queryForList(
+            "SELECT checkpointed_until FROM balance_checkpoint_progress WHERE granularity = ?",
+            Timestamp.class, granularity.name()).stream().findFirst().map(Timestamp::toLocalDateTime);
+    }
+
+    public void saveCheckpointedUntil(Granularity granularity, LocalDateTime until) {
+        jdbcTemplate.update(
+            "INSERT INTO balance_checkpoint_progress (granularity, checkpointed_until) VALUES (?, ?) " +
+            "ON DUPLICATE KEY UPDATE checkpointed_until = VALUES(checkpointed_until)",
+            granularity.name(), Timestamp.valueOf(until));
+    }
+
+    public Optional<LocalDateTime> findFirstEntryAt() {
+        return Optional.ofNullable(jdbcTemplate.queryForObject(
+            "SELECT MIN(created_at) FROM ledger_entries", Timestamp.class)).map(Timestamp::toLocalDateTime);
+    }
+
+    /**
+     * Checkpoints, at until, every wallet with ledger entries in [from, until),
+     * from its previous checkpoint and the changes since. Running it again for
+     * the same period rewrites the same rows.
+     */
+    public int checkpoint(Granularity granularity, LocalDateTime from, LocalDateTime until) {
+        Map<UUID, Integer> entries = new HashMap<>();
+        jdbcTemplate.query(
+            "SELECT wallet_id, COUNT(*) FROM ledger_entries WHERE created_at >= ? AND created_at < ? GROUP BY wallet_id",
+            rs -> { entries.put(UuidUtils.fromBytes(rs.getBytes(1)), rs.getInt(2)); },
+            Timestamp.valueOf(from), Timestamp.valueOf(until));
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        // Checkpoints of the period itself are left out, so a rerun does not start from its own result
+        Map<UUID, BigDecimal> balances = sumBalances(entries.keySet(), from, until, false);
+        List<UUID> walletIds = new ArrayList<>(entries.keySet());
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO balance_checkpoints (wallet_id, checkpoint_at, granularity, balance, entries) VALUES (?, ?, ?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE balance = VALUES(balance), entries = VALUES(entries)",
+            walletIds,
+            walletIds.size(),
+            (ps, walletId) -> {
+                ps.setBytes(1, UuidUtils.toBytes(walletId));
+                ps.setTimestamp(2, Timestamp.valueOf(until));
+                ps.setString(3, granularity.name());
+                ps.setBigDecimal(4, balances.getOrDefault(walletId, BigDecimal.ZERO));
+                ps.setInt(5, entries.get(walletId));
+            });
+        return walletIds.size();
+    }
+
+    public int deleteBefore(Granularity granularity, LocalDateTime before) {
+        return jdbcTemplate.update(
+            "DELETE FROM balance_checkpoints WHERE granularity = ? AND checkpoint_at < ?",
+            granularity.name(), Timestamp.valueOf(before));
+    }
+
+    /**
+     * Balance of each wallet at the given time, entries at that time included.
+     * Wallets without any entry by then are left out.
+     */
+    public Map<UUID, BigDecimal> findBalances(Collection<UUID> walletIds, LocalDateTime at) {
+        return sumBalances(walletIds, at, at, true);
+    }
+
+    /**
+     * Latest checkpoint of each wallet at or before checkpointedBy, of any
+     * granularity, plus the balance changes from it up to until. Wallets
+     * sharing the time of their checkpoint, most of them after a run of the
+     * checkpointer, are summed together.
+     */
+    private Map<UUID, BigDecimal> sumBalances(Collection<UUID> walletIds, LocalDateTime checkpointedBy,
+                                              LocalDateTime until, boolean inclusive) {
+        Map<UUID, Checkpoint> checkpoints = queryByWallet(walletIds, ids -> """
+            SELECT c.wallet_id, c.checkpoint_at, c.balance FROM balance_checkpoints c
+            JOIN (SELECT wallet_id, MAX(checkpoint_at) AS checkpoint_at FROM balance_checkpoints
+                  WHERE wallet_id IN (%s) AND checkpoint_at <= ? GROUP BY wallet_id) nearest
+              ON c.wallet_id = nearest.wallet_id AND c.checkpoint_at = nearest.checkpoint_at
+            """.formatted(ids),
+            (rs, rowNum) -> new Checkpoint(rs.getTimestamp(2).toLocalDateTime(), rs.getBigDecimal(3)),
+            Timestamp.valueOf(checkpointedBy));
+
+        Map<LocalDateTime, List<UUID>> byStart = new HashMap<>();
+        for (UUID walletId : walletIds) {
+            Checkpoint checkpoint = checkpoints.get(walletId);
+            byStart.computeIfAbsent(checkpoint != null ? checkpoint.at() : LEDGER_START, start -> new ArrayList<>()).add(walletId);
+        }
+
+        Map<UUID, BigDecimal> balances = new HashMap<>();
+        checkpoints.forEach((walletId, checkpoint) -> balances.put(walletId, checkpoint.balance()));
+        byStart.forEach((start, ids) -> {
+            Map<UUID, BigDecimal> changes = queryByWallet(ids, placeholders -> """
+                SELECT wallet_id, SUM(amount) FROM ledger_entries
+                WHERE wallet_id IN (%s) AND %s AND created_at >= ? AND created_at %s ? GROUP BY wallet_id
+                """.formatted(placeholders, BALANCE_CHANGES, inclusive ? "<=" : "<"),
+                (rs, rowNum) -> rs.getBigDecimal(2),
+                Timestamp.valueOf(start), Timestamp.valueOf(until));
+            changes.forEach((walletId, change) -> balances.merge(walletId, change, BigDecimal::add));
+        });
+        return balances;
+    }
+
+    private record Checkpoint(LocalDateTime at, BigDecimal balance) {
+    }
+
+    private <T> Map<UUID, T> queryByWallet(Collection<UUID> walletIds, Function<String, String> sql,
+                                           RowMapper<T> mapper, Object... args) {
+        Map<UUID, T> values = new HashMap<>();
+        List<UUID> ids = new ArrayList<>(walletIds);
+        for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+            List<UUID> chunk = ids.subList(start, Math.min(start + CHUNK_SIZE, ids.size()));
+            List<Object> params = new ArrayList<>(chunk.size() + args.length);
+            chunk.forEach(id -> params.add(UuidUtils.toBytes(id)));
+            Collections.addAll(params, args);
+            jdbcTemplate.query(sql.apply(String.join(", ", Collections.nCopies(chunk.size(), "?"))),
+                rs -> { values.put(UuidUtils.fromBytes(rs.getBytes(1)), mapper.mapRow(rs, 0)); },
+                params.toArray());
+        }
+        return values;
+    }
+}
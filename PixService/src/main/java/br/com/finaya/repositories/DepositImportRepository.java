@@ -0,0 +1,97 @@
+package br.com.finaya.repositories;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Progress of deposit file imports. The row of an import is the checkpoint of
+ * its file: every chunk of lines moves next_line and the totals forward in
+ * the same transaction as its deposits.
+ */
+@Repository
+public class DepositImportRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DepositImportRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public enum Status {
+        RUNNING, COMPLETED
+    }
+
+    public record DepositImport(String fileName, Status status, long nextLine, long appliedLines,
+                                long duplicateLines, long rejectedLines, BigDecimal appliedAmount) {
+    }
+
+    public record Rejection(long lineNumber, String reason) {
+    }
+
+    public Optional<DepositImport> find(byte[] importId) {
+        return jdbcTemplate.query(
+            "SELECT file_name, status, next_line, applied_lines, duplicate_lines, rejected_lines, applied_amount " +
+            "FROM deposit_imports WHERE id = ?",
+            (rs, rowNum) -> new DepositImport(
+                rs.getString("file_name"),
+                Status.valueOf(rs.getString("status")),
+                rs.getLong("next_line"),
+                rs.getLong("applied_lines"),
+                rs.getLong("duplicate_lines"),
+                rs.getLong("rejected_lines"),
+                rs.getBigDecimal("applied_amount")),
+            (Object) importId
+        ).stream().findFirst();
+    }
+
+    // Registers the import unless a previous run of the same file already did
+    public void start(byte[] importId, String fileName, String format) {
+        jdbcTemplate.update("INSERT IGNORE INTO deposit_imports (id, file_name, format) VALUES (?, ?, ?)",
+            importId, fileName, format);
+    }
+
+    // Locks the import for the current transaction, so two runs of the same file cannot apply a chunk twice
+    public long lockNextLine(byte[] importId) {
+        return jdbcTemplate.queryForObject("SELECT next_line FROM deposit_imports WHERE id = ? FOR UPDATE",
+            Long.class, (Object) importId);
+    }
+
+    public void saveProgress(byte[] importId, long nextLine, long applied, long duplicates, long rejected,
+                             BigDecimal amount) {
+        jdbcTemplate.update(
+            "UPDATE deposit_imports SET next_line = ?, applied_lines = applied_lines + ?, " +
+            "duplicate_lines = duplicate_lines + ?, rejected_lines = rejected_lines + ?, " +
+            "applied_amount = applied_amount + ? WHERE id = ?",
+            nextLine, applied, duplicates, rejected, amount, importId);
+    }
+
+    public void complete(byte[] importId) {
+        jdbcTemplate.update(
+            "UPDATE deposit_imports SET status = ?, completed_at = CURRENT_TIMESTAMP(3) WHERE id = ?",
+            Status.COMPLETED.name(), importId);
+    }
+
+    public void insertRejections(byte[] importId, List<Rejection> rejections) {
+        if (rejections.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO deposit_import_rejections (import_id, line_number, reason) VALUES (?, ?, ?)",
+            rejections,
+            rejections.size(),
+            (ps, rejection) -> {
+                ps.setBytes(1, importId);
+                ps.setLong(2, rejection.lineNumber());
+                ps.setString(3, rejection.reason().length() > 500 ? rejection.reason().substring(0, 500) : rejection.reason());
+            });
+    }
+
+    public List<Rejection> findRejections(byte[] importId) {
+        return jdbcTemplate.query(
+            "SELECT line_number, reason FROM deposit_import_rejections WHERE import_id = ? ORDER BY line_number",
+            (rs, rowNum) -> new Rejection(rs.getLong("line_number"), rs.getString("reason")),
+            (Object) importId);
+    }
+}
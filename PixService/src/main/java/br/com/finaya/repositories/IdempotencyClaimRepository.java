@@ -0,0 +1,193 @@
+package br.com.finaya.repositories;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import br.com.finaya.config.IdempotencyRetention;
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.model.IdempotencyRecord.Operation;
+import br.com.finaya.util.UuidUtils;
+
+/**
+ * Claims idempotency keys in idempotency_keys, whose primary key is the key
+ * alone: whatever the operation or the day, only one claim of a key can be
+ * live. A claim waits for the transaction holding its key, then gets nothing
+ * if it committed or takes the key over if it rolled back. Runs in the
+ * caller's transaction, so a claim disappears with an operation that fails.
+ *
+ * The record of a claim lives in the idempotency_records partition of the day
+ * it expires, computed from the database's date. A key whose record expired
+ * is taken over by the next claim, and only records not expired yet are ever
+ * read, also before their partition is dropped.
+ */
+@Repository
+public class IdempotencyClaimRepository {
+
+    // A held key keeps its claim unless it expired, checked before expires_on is overwritten. With useAffectedRows
+    // on the connection a single claim reports 1 row when it inserted the key, 2 when it took it over and 0 when held
+    private static final String CLAIM_KEY =
+        "INSERT INTO idempotency_keys (record_key, claim_id, expires_on) VALUES (?, ?, CURRENT_DATE + INTERVAL ? DAY) " +
+        "ON DUPLICATE KEY UPDATE " +
+        "claim_id = IF(expires_on < CURRENT_DATE, VALUES(claim_id), claim_id), " +
+        "expires_on = IF(expires_on < CURRENT_DATE, VALUES(expires_on), expires_on)";
+
+    private static final String COLUMNS = "r.id, r.record_key, r.operation, r.expires_on, r.request_fingerprint, r.result_type, " +
+        "r.result_data, r.error_type, r.error_message, r.response_status, r.response_content_type, r.response_body, r.created_at";
+
+    private static final RowMapper<IdempotencyRecord> ROW_MAPPER = (rs, rowNum) -> {
+        IdempotencyRecord record = new IdempotencyRecord(UuidUtils.fromBytes(rs.getBytes("record_key")),
+            Operation.valueOf(rs.getString("operation")));
+        record.setId(rs.getLong("id"));
+        record.setExpiresOn(rs.getDate("expires_on").toLocalDate());
+        record.setRequestFingerprint(rs.getBytes("request_fingerprint"));
+        record.setResultType(rs.getString("result_type"));
+        record.setResultData(rs.getString("result_data"));
+        record.setErrorType(rs.getString("error_type"));
+        record.setErrorMessage(rs.getString("error_message"));
+        record.setResponseStatus(rs.getObject("response_status", Integer.class));
+        record.setResponseContentType(rs.getString("response_content_type"));
+        record.setResponseBody(rs.getBytes("response_body"));
+        record.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        return record;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdempotencyRetention retention;
+
+    public IdempotencyClaimRepository(JdbcTemplate jdbcTemplate, IdempotencyRetention retention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.retention = retention;
+    }
+
+    /**
+     * Claims the key of the record. Empty when the key is now the caller's,
+     * otherwise the committed record that already holds it.
+     *
+     * A fresh key costs the upsert alone, branching on its affected rows: the
+     * record is only written by complete(), in the same transaction, so nobody
+     * else can tell it was missing until then.
+     */
+    public Optional<IdempotencyRecord> claim(IdempotencyRecord record) {
+        byte[] key = UuidUtils.toBytes(record.getRecordKey());
+        if (jdbcTemplate.update(CLAIM_KEY, key, UuidUtils.toBytes(UUID.randomUUID()), retention.days(record.getOperation())) > 0) {
+            return Optional.empty();
+        }
+        // Locking read, it waits for the holder and then sees its committed record whatever the transaction's snapshot
+        return Optional.of(jdbcTemplate.query(
+            "SELECT " + COLUMNS + " FROM idempotency_keys k " +
+            "JOIN idempotency_records r ON r.record_key = k.record_key AND r.expires_on = k.expires_on " +
+            "WHERE k.record_key = ? LOCK IN SHARE MODE",
+            ROW_MAPPER, (Object) key).stream().findFirst()
+            .orElseThrow(() -> new IllegalStateException("No committed record holds idempotency key " + record.getRecordKey())));
+    }
+
+    /**
+     * Claims the keys of many records with one batched statement, setting the
+     * day each claimed record expires on. Returns the records whose key is
+     * held by another claim, including repeats of a key within the list.
+     *
+     * Batched inserts do not report a row count per record, so every claim
+     * carries an id of its own and the claimed keys are the ones holding it.
+     */
+    public List<IdempotencyRecord> claimKeys(List<IdempotencyRecord> records) {
+        if (records.isEmpty()) {
+            return List.of();
+        }
+        List<IdempotencyRecord> held = new ArrayList<>();
+        // Sorted, so concurrent claims lock the keys they share in the same order
+        Map<UUID, IdempotencyRecord> byKey = new TreeMap<>();
+        for (IdempotencyRecord record : records) {
+            if (byKey.putIfAbsent(record.getRecordKey(), record) != null) {
+                held.add(record);
+            }
+        }
+
+        byte[] claimId = UuidUtils.toBytes(UUID.randomUUID());
+        List<IdempotencyRecord> unique = new ArrayList<>(byKey.values());
+        jdbcTemplate.batchUpdate(CLAIM_KEY, unique, unique.size(), (ps, record) -> {
+            ps.setBytes(1, UuidUtils.toBytes(record.getRecordKey()));
+            ps.setBytes(2, claimId);
+            ps.setInt(3, retention.days(record.getOperation()));
+        });
+
+        List<Object> args = new ArrayList<>(unique.size() + 1);
+        args.add(claimId);
+        unique.forEach(record -> args.add(UuidUtils.toBytes(record.getRecordKey())));
+        Map<UUID, LocalDate> claimed = new HashMap<>();
+        jdbcTemplate.query(
+            "SELECT record_key, expires_on FROM idempotency_keys WHERE claim_id = ? AND record_key IN (" +
+            String.join(", ", Collections.nCopies(unique.size(), "?")) + ") LOCK IN SHARE MODE",
+            rs -> {
+                claimed.put(UuidUtils.fromBytes(rs.getBytes("record_key")), rs.getDate("expires_on").toLocalDate());
+            },
+            args.toArray());
+
+        for (IdempotencyRecord record : unique) {
+            LocalDate expiresOn = claimed.get(record.getRecordKey());
+            if (expiresOn != null) {
+                record.setExpiresOn(expiresOn);
+            } else {
+                held.add(record);
+            }
+        }
+        return held;
+    }
+
+    // Gives back keys claimed by claimKeys() in the current transaction for operations that were not applied
+    public void releaseKeys(Collection<IdempotencyRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.update(
+            "DELETE FROM idempotency_keys WHERE record_key IN (" + String.join(", ", Collections.nCopies(records.size(), "?")) + ")",
+            records.stream().map(record -> UuidUtils.toBytes(record.getRecordKey())).toArray());
+    }
+
+    /**
+     * Writes the completed record of a key claimed by claim(), in the partition
+     * of the day its claim expires on. A response the caller already has is
+     * written with it.
+     */
+    public void complete(IdempotencyRecord record) {
+        jdbcTemplate.update(
+            "INSERT INTO idempotency_records (record_key, operation, expires_on, request_fingerprint, result_type, result_data, " +
+            "error_type, error_message, response_status, response_content_type, response_body) " +
+            "SELECT record_key, ?, expires_on, ?, ?, ?, ?, ?, ?, ?, ? FROM idempotency_keys WHERE record_key = ?",
+            record.getOperation().name(),
+            record.getRequestFingerprint(),
+            record.getResultType(),
+            record.getResultData(),
+            record.getErrorType(),
+            record.getErrorMessage(),
+            record.getResponseStatus(),
+            record.getResponseContentType(),
+            record.getResponseBody(),
+            UuidUtils.toBytes(record.getRecordKey()));
+    }
+
+    // Expired keys no longer hold their claim, the next one can take them over
+    public int deleteExpiredKeys(int limit) {
+        return jdbcTemplate.update("DELETE FROM idempotency_keys WHERE expires_on < CURRENT_DATE LIMIT ?", limit);
+    }
+
+    // Only the first response is kept, so every retry replays the same bytes
+    public boolean storeResponse(UUID recordKey, int status, String contentType, byte[] body) {
+        return jdbcTemplate.update(
+            "UPDATE idempotency_records r JOIN idempotency_keys k ON k.record_key = r.record_key AND k.expires_on = r.expires_on " +
+            "SET r.response_status = ?, r.response_content_type = ?, r.response_body = ? " +
+            "WHERE r.record_key = ? AND k.expires_on >= CURRENT_DATE AND r.result_type IS NOT NULL AND r.response_status IS NULL",
+            status, contentType, body, UuidUtils.toBytes(recordKey)) > 0;
+    }
+}
@@ -0,0 +1,62 @@
+package br.com.finaya.repositories;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * DDL on the daily partitions of idempotency_records. Partitions are named
+ * pyyyyMMdd after the expiry day they hold, followed by p_future for
+ * anything beyond the last one.
+ */
+@Repository
+public class IdempotencyPartitionRepository {
+
+    private static final String FUTURE_PARTITION = "p_future";
+    private static final DateTimeFormatter PARTITION_DAY = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IdempotencyPartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // The database's date, the one expires_on is compared with
+    public LocalDate currentDate() {
+        return jdbcTemplate.queryForObject("SELECT CURRENT_DATE", LocalDate.class);
+    }
+
+    // Days of the daily partitions, oldest first
+    public List<LocalDate> findPartitionDays() {
+        return jdbcTemplate.queryForList("""
+            SELECT PARTITION_NAME FROM information_schema.PARTITIONS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'idempotency_records'
+            ORDER BY PARTITION_ORDINAL_POSITION
+            """, String.class).stream()
+            .filter(name -> name != null && !FUTURE_PARTITION.equals(name))
+            .map(name -> LocalDate.parse(name, PARTITION_DAY))
+            .toList();
+    }
+
+    public void dropPartitions(List<LocalDate> days) {
+        jdbcTemplate.execute("ALTER TABLE idempotency_records DROP PARTITION " +
+            days.stream().map(IdempotencyPartitionRepository::partitionName).collect(Collectors.joining(", ")));
+    }
+
+    // Splits one partition per day off p_future, which only holds rows when maintenance fell behind
+    public void splitFuturePartition(List<LocalDate> days) {
+        String partitions = days.stream()
+            .map(day -> "PARTITION " + partitionName(day) + " VALUES LESS THAN (TO_DAYS('" + day.plusDays(1) + "'))")
+            .collect(Collectors.joining(", "));
+        jdbcTemplate.execute("ALTER TABLE idempotency_records REORGANIZE PARTITION " + FUTURE_PARTITION + " INTO (" +
+            partitions + ", PARTITION " + FUTURE_PARTITION + " VALUES LESS THAN MAXVALUE)");
+    }
+
+    private static String partitionName(LocalDate day) {
+        return PARTITION_DAY.format(day);
+    }
+}
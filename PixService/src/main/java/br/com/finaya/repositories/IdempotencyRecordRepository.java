@@ -1,5 +1,7 @@
 package br.com.finaya.repositories;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -17,6 +19,10 @@ public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRe
            nativeQuery = true)
     Optional<IdempotencyRecord> findByRecordKey(@Param("recordKey") UUID recordKey); 
     
+    // Live records only, expired ones may still wait for their partition to be dropped
+    @Query("SELECT ir FROM IdempotencyRecord ir WHERE ir.recordKey IN :recordKeys AND ir.expiresOn >= CURRENT_DATE")
+    List<IdempotencyRecord> findByRecordKeyIn(@Param("recordKeys") Collection<UUID> recordKeys);
+    
     @Query(value = "DELETE FROM idempotency_records ir WHERE ir.record_key = UNHEX(REPLACE(:recordKey, '-', ''))", 
            nativeQuery = true)
     void deleteByRecordKey(@Param("recordKey") UUID recordKey);
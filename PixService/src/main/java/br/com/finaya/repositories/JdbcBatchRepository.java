@@ -0,0 +1,92 @@
+package br.com.finaya.repositories;
+
+import java.util.List;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.model.LedgerEntry;
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.util.UuidUtils;
+
+/**
+ * Multi-row inserts through JDBC batching, for write paths that create many
+ * rows at once. Entities written here are not attached to the persistence
+ * context and rely on the column defaults for their timestamps.
+ */
+@Repository
+public class JdbcBatchRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final IdempotencyClaimRepository claimRepository;
+
+    public JdbcBatchRepository(JdbcTemplate jdbcTemplate, IdempotencyClaimRepository claimRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.claimRepository = claimRepository;
+    }
+
+    public void insertLedgerEntries(List<LedgerEntry> entries) {
+        if (entries.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO ledger_entries (id, wallet_id, transaction_id, amount, type, balance_after, description) VALUES (?, ?, ?, ?, ?, ?, ?)",
+            entries,
+            entries.size(),
+            (ps, entry) -> {
+                ps.setBytes(1, UuidUtils.toBytes(entry.getId()));
+                ps.setBytes(2, UuidUtils.toBytes(entry.getWalletId()));
+                ps.setBytes(3, UuidUtils.toBytes(entry.getTransactionId()));
+                ps.setBigDecimal(4, entry.getAmount());
+                ps.setString(5, entry.getType().name());
+                ps.setBigDecimal(6, entry.getBalanceAfter());
+                ps.setString(7, entry.getDescription());
+            });
+    }
+
+    public void insertPixTransfers(List<PixTransfer> transfers) {
+        if (transfers.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO pix_transfers (end_to_end_id, from_wallet_id, to_wallet_id, amount, status, idempotency_key, version) VALUES (?, ?, ?, ?, ?, ?, 0)",
+            transfers,
+            transfers.size(),
+            (ps, transfer) -> {
+                ps.setBytes(1, UuidUtils.toBytes(transfer.getEndToEndId()));
+                ps.setBytes(2, UuidUtils.toBytes(transfer.getFromWalletId()));
+                ps.setBytes(3, UuidUtils.toBytes(transfer.getToWalletId()));
+                ps.setBigDecimal(4, transfer.getAmount());
+                ps.setString(5, transfer.getStatus().name());
+                ps.setBytes(6, UuidUtils.toBytes(transfer.getIdempotencyKey()));
+            });
+    }
+
+    // Claims the keys of the records first, a key already held fails the whole transaction
+    public void insertIdempotencyRecords(List<IdempotencyRecord> records) {
+        if (records.isEmpty()) return;
+        List<IdempotencyRecord> held = claimRepository.claimKeys(records);
+        if (!held.isEmpty()) {
+            throw new DuplicateKeyException("Idempotency key already claimed: " + held.get(0).getRecordKey());
+        }
+        insertClaimedIdempotencyRecords(records);
+    }
+
+    // Records whose keys IdempotencyClaimRepository.claimKeys claimed in the same transaction
+    public void insertClaimedIdempotencyRecords(List<IdempotencyRecord> records) {
+        if (records.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO idempotency_records (record_key, operation, expires_on, request_fingerprint, result_type, result_data, error_type, error_message) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+            records,
+            records.size(),
+            (ps, record) -> {
+                ps.setBytes(1, UuidUtils.toBytes(record.getRecordKey()));
+                ps.setString(2, record.getOperation().name());
+                ps.setObject(3, record.getExpiresOn());
+                ps.setBytes(4, record.getRequestFingerprint());
+                ps.setString(5, record.getResultType());
+                ps.setString(6, record.getResultData());
+                ps.setString(7, record.getErrorType());
+                ps.setString(8, record.getErrorMessage());
+            });
+    }
+}
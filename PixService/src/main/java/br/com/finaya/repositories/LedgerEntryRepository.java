@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -16,17 +17,17 @@ import br.com.finaya.model.LedgerEntry;
 @Repository
 public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, UUID> {
     
-    List<LedgerEntry> findByWalletIdOrderByCreatedAtDesc(UUID walletId);
+    List<LedgerEntry> findByWalletIdOrderByCreatedAtDescSeqDesc(UUID walletId);
     
-    @Query(value = "SELECT * FROM ledger_entries le WHERE le.wallet_id = :walletId AND le.created_at <= :timestamp ORDER BY le.created_at DESC LIMIT 1", 
+    @Query(value = "SELECT * FROM ledger_entries le WHERE le.wallet_id = :walletId AND le.created_at <= :timestamp ORDER BY le.created_at DESC, le.seq DESC LIMIT 1", 
            nativeQuery = true)
     Optional<LedgerEntry> findLatestBeforeTimestamp(@Param("walletId") UUID walletId, @Param("timestamp") LocalDateTime timestamp);
     
-    @Query(value = "SELECT le.balance_after FROM ledger_entries le WHERE le.wallet_id = :walletId AND le.created_at <= :timestamp ORDER BY le.created_at DESC LIMIT 1", 
+    @Query(value = "SELECT le.balance_after FROM ledger_entries le WHERE le.wallet_id = :walletId AND le.created_at <= :timestamp ORDER BY le.created_at DESC, le.seq DESC LIMIT 1", 
            nativeQuery = true)
     Optional<BigDecimal> findBalanceAtTimestamp(@Param("walletId") UUID walletId, @Param("timestamp") LocalDateTime timestamp);
     
-    @Query(value = "SELECT * FROM ledger_entries le WHERE le.wallet_id = :walletId ORDER BY le.created_at DESC LIMIT 1", 
+    @Query(value = "SELECT * FROM ledger_entries le WHERE le.wallet_id = :walletId ORDER BY le.created_at DESC, le.seq DESC LIMIT 1", 
            nativeQuery = true)
     Optional<LedgerEntry> findLatestByWalletId(@Param("walletId") UUID walletId);
     
@@ -36,7 +37,7 @@ public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, UUID>
     Long countByWalletId(@Param("walletId") UUID walletId);
     
     // Query para buscar entradas em um período específico
-    @Query(value = "SELECT * FROM ledger_entries le WHERE le.wallet_id = :walletId AND le.created_at BETWEEN :startDate AND :endDate ORDER BY le.created_at DESC", 
+    @Query(value = "SELECT * FROM ledger_entries le WHERE le.wallet_id = :walletId AND le.created_at BETWEEN :startDate AND :endDate ORDER BY le.created_at DESC, le.seq DESC", 
            nativeQuery = true)
     List<LedgerEntry> findByWalletIdAndDateRange(@Param("walletId") UUID walletId, 
                                                 @Param("startDate") LocalDateTime startDate, 
@@ -49,4 +50,36 @@ public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, UUID>
                                                      @Param("type") String type,
                                                      @Param("startDate") LocalDateTime startDate, 
                                                      @Param("endDate") LocalDateTime endDate);
+    
+    // First statement page, newest first, read from idx_ledger_statement alone
+    @Query("SELECT le.id AS id, le.transactionId AS transactionId, le.type AS type, le.amount AS amount, " +
+           "le.balanceAfter AS balanceAfter, le.createdAt AS createdAt, le.seq AS seq FROM LedgerEntry le " +
+           "WHERE le.walletId = :walletId AND le.createdAt >= :from AND le.createdAt <= :to " +
+           "ORDER BY le.createdAt DESC, le.seq DESC")
+    List<StatementEntryView> findStatementPage(@Param("walletId") UUID walletId,
+                                               @Param("from") LocalDateTime from,
+                                               @Param("to") LocalDateTime to,
+                                               Pageable page);
+    
+    // Statement page seeking past the (createdAt, seq) of the last entry of the previous one
+    @Query("SELECT le.id AS id, le.transactionId AS transactionId, le.type AS type, le.amount AS amount, " +
+           "le.balanceAfter AS balanceAfter, le.createdAt AS createdAt, le.seq AS seq FROM LedgerEntry le " +
+           "WHERE le.walletId = :walletId AND le.createdAt >= :from " +
+           "AND (le.createdAt < :createdAt OR (le.createdAt = :createdAt AND le.seq < :seq)) " +
+           "ORDER BY le.createdAt DESC, le.seq DESC")
+    List<StatementEntryView> findStatementPageAfter(@Param("walletId") UUID walletId,
+                                                    @Param("from") LocalDateTime from,
+                                                    @Param("createdAt") LocalDateTime createdAt,
+                                                    @Param("seq") long seq,
+                                                    Pageable page);
+    
+    interface StatementEntryView {
+        UUID getId();
+        UUID getTransactionId();
+        LedgerEntry.EntryType getType();
+        BigDecimal getAmount();
+        BigDecimal getBalanceAfter();
+        LocalDateTime getCreatedAt();
+        Long getSeq();
+    }
 }
@@ -0,0 +1,49 @@
+package br.com.finaya.repositories;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import br.com.finaya.util.UuidUtils;
+
+/**
+ * Forward-only reads of ledger_entries for exports. The MySQL driver streams
+ * the rows one at a time when the fetch size is Integer.MIN_VALUE, instead of
+ * reading the whole result into memory, so an export of any size holds a
+ * single row. The connection stays busy until the last row was handled.
+ *
+ * Rows come in (created_at, seq) order, the order of idx_ledger_statement for
+ * one wallet and of idx_ledger_created for all of them, so MySQL never sorts.
+ */
+@Repository
+public class LedgerExportRepository {
+
+    private final JdbcTemplate streamingTemplate;
+
+    public LedgerExportRepository(DataSource dataSource) {
+        this.streamingTemplate = new JdbcTemplate(dataSource);
+        this.streamingTemplate.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    // Entries created in [from, to), of one wallet or of all when walletId is null
+    public void streamEntries(UUID walletId, LocalDateTime from, LocalDateTime to, RowCallbackHandler handler) {
+        StringBuilder sql = new StringBuilder(
+            "SELECT id, wallet_id, transaction_id, type, amount, balance_after, description, created_at " +
+            "FROM ledger_entries WHERE created_at >= ? AND created_at < ?");
+        List<Object> params = new ArrayList<>(List.of(Timestamp.valueOf(from), Timestamp.valueOf(to)));
+        if (walletId != null) {
+            sql.append(" AND wallet_id = ?");
+            params.add(UuidUtils.toBytes(walletId));
+        }
+        sql.append(" ORDER BY created_at, seq");
+        streamingTemplate.query(sql.toString(), handler, params.toArray());
+    }
+}
@@ -0,0 +1,84 @@
+package br.com.finaya.repositories;
+
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import br.com.finaya.model.OutboxEvent;
+import br.com.finaya.util.UuidUtils;
+
+/**
+ * Outbox rows are appended by the transactions changing state and claimed by
+ * relays with SKIP LOCKED, so several relays can drain the table in parallel
+ * without handing out the same event twice. Published rows are deleted once
+ * past their retention, oldest first through idx_outbox_pending, which leads
+ * with published_at.
+ */
+@Repository
+public class OutboxEventRepository {
+
+    private static final RowMapper<OutboxEvent> ROW_MAPPER = (rs, rowNum) -> {
+        OutboxEvent event = new OutboxEvent(UuidUtils.fromBytes(rs.getBytes("aggregate_id")),
+            rs.getString("event_type"), rs.getString("payload"));
+        event.setId(rs.getLong("id"));
+        event.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        return event;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public OutboxEventRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void insert(List<OutboxEvent> events) {
+        if (events.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO outbox_events (aggregate_id, event_type, payload) VALUES (?, ?, ?)",
+            events,
+            events.size(),
+            (ps, event) -> {
+                ps.setBytes(1, UuidUtils.toBytes(event.getAggregateId()));
+                ps.setString(2, event.getEventType());
+                ps.setString(3, event.getPayload());
+            });
+    }
+
+    // Oldest pending events not held by another relay, locked until the caller commits
+    public List<OutboxEvent> claimPending(int limit) {
+        return jdbcTemplate.query(
+            "SELECT id, aggregate_id, event_type, payload, created_at FROM outbox_events " +
+            "WHERE published_at IS NULL ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED",
+            ROW_MAPPER, limit);
+    }
+
+    public void markPublished(List<OutboxEvent> events) {
+        jdbcTemplate.batchUpdate(
+            "UPDATE outbox_events SET published_at = CURRENT_TIMESTAMP(3) WHERE id = ?",
+            events,
+            events.size(),
+            (ps, event) -> ps.setLong(1, event.getId()));
+    }
+
+    // Deletes up to limit events published more than retentionDays ago, returns how many
+    public int deletePublishedBefore(int retentionDays, int limit) {
+        return jdbcTemplate.update(
+            "DELETE FROM outbox_events WHERE published_at < CURRENT_TIMESTAMP(3) - INTERVAL ? DAY " +
+            "ORDER BY published_at LIMIT ?",
+            retentionDays, limit);
+    }
+
+    public long countPending() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM outbox_events WHERE published_at IS NULL", Long.class);
+    }
+
+    // Age of the oldest pending event in milliseconds, 0 when nothing is pending
+    public long pendingLagMillis() {
+        Long lag = jdbcTemplate.queryForObject(
+            "SELECT TIMESTAMPDIFF(MICROSECOND, MIN(created_at), CURRENT_TIMESTAMP(3)) DIV 1000 FROM outbox_events WHERE published_at IS NULL",
+            Long.class);
+        return lag != null ? Math.max(lag, 0) : 0;
+    }
+}
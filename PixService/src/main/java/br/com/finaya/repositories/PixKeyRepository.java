@@ -1,5 +1,6 @@
 package br.com.finaya.repositories;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -18,6 +19,9 @@ public interface PixKeyRepository extends JpaRepository<PixKey, UUID>{
     @Query("SELECT p FROM PixKey p WHERE p.keyValue = :key AND p.status = 'ACTIVE'")
     Optional<PixKey> findByKeyValueAndActive(@Param("key") String key);
     
+    @Query("SELECT p FROM PixKey p WHERE p.keyValue IN :keys AND p.status = 'ACTIVE'")
+    List<PixKey> findActiveByKeyValues(@Param("keys") Collection<String> keys);
+    
     @Query("SELECT COUNT(p) > 0 FROM PixKey p WHERE p.keyValue = :key AND p.status = 'ACTIVE'")
     boolean existsByKeyValueAndActive(@Param("key") String key);
     
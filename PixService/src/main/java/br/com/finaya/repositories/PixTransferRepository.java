@@ -1,11 +1,18 @@
 package br.com.finaya.repositories;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+
+import org.hibernate.LockOptions;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -20,6 +27,46 @@ public interface PixTransferRepository extends JpaRepository<PixTransfer, UUID>
            nativeQuery = true)
     Optional<PixTransfer> findByIdempotencyKey(@Param("idempotencyKey") UUID idempotencyKey);
     
+    List<PixTransfer> findByIdempotencyKeyIn(Collection<UUID> idempotencyKeys);
+    
+    // Oldest expired pending transfers through idx_status, read without locking them
+    @Query(value = "SELECT * FROM pix_transfers p WHERE p.status = 'PENDING' " +
+                   "AND p.created_at < NOW() - INTERVAL :expirySeconds SECOND " +
+                   "ORDER BY p.created_at LIMIT :limit",
+           nativeQuery = true)
+    List<PixTransfer> findExpiredPending(@Param("expirySeconds") long expirySeconds, @Param("limit") int limit);
+    
+    // Those of the transfers still pending, locked, rows another transaction holds are skipped
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "" + LockOptions.SKIP_LOCKED))
+    @Query("SELECT p FROM PixTransfer p WHERE p.endToEndId IN :endToEndIds AND p.status = 'PENDING'")
+    List<PixTransfer> claimPending(@Param("endToEndIds") Collection<UUID> endToEndIds);
+    
+    // Wallets of the transfers without loading them, so they can be locked before the transfers are read
+    @Query("SELECT p.endToEndId AS endToEndId, p.fromWalletId AS fromWalletId, p.toWalletId AS toWalletId " +
+           "FROM PixTransfer p WHERE p.endToEndId IN :endToEndIds")
+    List<TransferWallets> findWalletsByEndToEndIdIn(@Param("endToEndIds") Collection<UUID> endToEndIds);
+    
+    // Locking read, it sees the latest committed rows where a plain read would see the transaction's snapshot
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT p FROM PixTransfer p WHERE p.endToEndId IN :endToEndIds")
+    List<PixTransfer> findAllByIdWithLock(@Param("endToEndIds") Collection<UUID> endToEndIds);
+    
+    // Current status of the transfers, read without loading them
+    @Query("SELECT p.endToEndId AS endToEndId, p.status AS status FROM PixTransfer p WHERE p.endToEndId IN :endToEndIds")
+    List<TransferStatusView> findStatusByEndToEndIdIn(@Param("endToEndIds") Collection<UUID> endToEndIds);
+    
     @Query("SELECT p FROM PixTransfer p WHERE p.fromWalletId = :walletId OR p.toWalletId = :walletId")
     List<PixTransfer> findByWalletId(@Param("walletId") UUID walletId);
+    
+    interface TransferWallets {
+        UUID getEndToEndId();
+        UUID getFromWalletId();
+        UUID getToWalletId();
+    }
+    
+    interface TransferStatusView {
+        UUID getEndToEndId();
+        PixTransfer.TransferStatus getStatus();
+    }
 }
@@ -0,0 +1,83 @@
+package br.com.finaya.repositories;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import br.com.finaya.util.UuidUtils;
+
+/**
+ * Sub-balance rows of sharded wallets. Slots are only updated with atomic
+ * increments, so concurrent credits to different slots never wait on each other.
+ */
+@Repository
+public class WalletBalanceSlotRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public WalletBalanceSlotRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public boolean increment(UUID walletId, int slot, BigDecimal amount) {
+        return jdbcTemplate.update(
+            "UPDATE wallet_balance_slots SET balance = balance + ? WHERE wallet_id = ? AND slot = ?",
+            amount, UuidUtils.toBytes(walletId), slot) == 1;
+    }
+
+    // Used when a wallet stopped being sharded after the caller chose a slot
+    public boolean incrementWalletRow(UUID walletId, BigDecimal amount) {
+        return jdbcTemplate.update(
+            "UPDATE wallets SET balance = balance + ?, version = version + 1 WHERE id = ?",
+            amount, UuidUtils.toBytes(walletId)) == 1;
+    }
+
+    public BigDecimal sumBalance(UUID walletId) {
+        return jdbcTemplate.queryForObject(
+            "SELECT COALESCE(SUM(balance), 0) FROM wallet_balance_slots WHERE wallet_id = ?",
+            BigDecimal.class, UuidUtils.toBytes(walletId));
+    }
+
+    // Locks every slot of the wallet, zeroes them and returns what they held
+    public BigDecimal drain(UUID walletId) {
+        byte[] id = UuidUtils.toBytes(walletId);
+        BigDecimal drained = jdbcTemplate.queryForObject(
+            "SELECT COALESCE(SUM(balance), 0) FROM wallet_balance_slots WHERE wallet_id = ? FOR UPDATE",
+            BigDecimal.class, id);
+        if (drained.signum() != 0) {
+            jdbcTemplate.update("UPDATE wallet_balance_slots SET balance = 0 WHERE wallet_id = ?", id);
+        }
+        return drained;
+    }
+
+    public void replaceSlots(UUID walletId, int slots) {
+        byte[] id = UuidUtils.toBytes(walletId);
+        jdbcTemplate.update("DELETE FROM wallet_balance_slots WHERE wallet_id = ?", id);
+        if (slots > 0) {
+            jdbcTemplate.batchUpdate(
+                "INSERT INTO wallet_balance_slots (wallet_id, slot, balance) VALUES (?, ?, 0)",
+                IntStream.range(0, slots).boxed().toList(),
+                slots,
+                (ps, slot) -> {
+                    ps.setBytes(1, id);
+                    ps.setInt(2, slot);
+                });
+        }
+    }
+
+    public Map<UUID, Integer> findShardedWallets() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT id, balance_slots FROM wallets WHERE balance_slots > 0");
+        Map<UUID, Integer> sharded = new HashMap<>();
+        for (Map<String, Object> row : rows) {
+            sharded.put(UuidUtils.fromBytes((byte[]) row.get("id")), ((Number) row.get("balance_slots")).intValue());
+        }
+        return sharded;
+    }
+}
@@ -0,0 +1,61 @@
+package br.com.finaya.repositories;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.model.Wallet;
+import br.com.finaya.util.UuidUtils;
+
+/**
+ * Plain JDBC access used by the wallet engine. Wallets read here are detached
+ * copies, the engine keeps them in memory and writes their balances back in
+ * batches.
+ */
+@Repository
+public class WalletEngineRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public WalletEngineRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public Optional<Wallet> findWallet(UUID walletId) {
+        return jdbcTemplate.query(
+            "SELECT user_id, balance, balance_slots FROM wallets WHERE id = ?",
+            (rs, rowNum) -> {
+                Wallet wallet = new Wallet(walletId, UuidUtils.fromBytes(rs.getBytes("user_id")), rs.getBigDecimal("balance"));
+                wallet.setBalanceSlots(rs.getInt("balance_slots"));
+                return wallet;
+            },
+            (Object) UuidUtils.toBytes(walletId)
+        ).stream().findFirst();
+    }
+
+    public void updateBalances(Collection<Wallet> wallets) {
+        if (wallets.isEmpty()) return;
+        List<Wallet> rows = new ArrayList<>(wallets);
+        jdbcTemplate.batchUpdate(
+            "UPDATE wallets SET balance = ?, version = version + 1 WHERE id = ?",
+            rows,
+            rows.size(),
+            (ps, wallet) -> {
+                ps.setBigDecimal(1, wallet.getBalance());
+                ps.setBytes(2, UuidUtils.toBytes(wallet.getId()));
+            });
+    }
+
+    // Moves a transfer between states only if it is still in the expected one
+    public boolean transitionPixTransfer(UUID endToEndId, PixTransfer.TransferStatus from, PixTransfer.TransferStatus to) {
+        return jdbcTemplate.update(
+            "UPDATE pix_transfers SET status = ?, version = version + 1 WHERE end_to_end_id = ? AND status = ?",
+            to.name(), UuidUtils.toBytes(endToEndId), from.name()) > 0;
+    }
+}
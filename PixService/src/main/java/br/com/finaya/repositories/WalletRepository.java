@@ -1,6 +1,9 @@
 package br.com.finaya.repositories;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -21,6 +24,56 @@ public interface WalletRepository extends JpaRepository<Wallet, UUID> {
     @Query("SELECT w FROM Wallet w WHERE w.id = :id")
     Optional<Wallet> findByIdWithLock(@Param("id") UUID id);
     
+    // Locks every row in a single statement, always in primary key order
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT w FROM Wallet w WHERE w.id IN :ids ORDER BY w.id")
+    List<Wallet> findAllByIdWithLock(@Param("ids") Collection<UUID> ids);
+    
     @Query("SELECT w.balance FROM Wallet w WHERE w.id = :id")
     Optional<BigDecimal> findBalanceById(@Param("id") UUID id);
-}
\ No newline at end of file
+    
+    // Balance of the wallet row plus its balance slots, if any
+    @Query(value = "SELECT w.balance + COALESCE((SELECT SUM(s.balance) FROM wallet_balance_slots s WHERE s.wallet_id = w.id), 0) FROM wallets w WHERE w.id = :id", 
+           nativeQuery = true)
+    Optional<BigDecimal> findTotalBalanceById(@Param("id") UUID id);
+    
+    // Balance of the wallet row with the version it was read at
+    @Query("SELECT w.id AS id, w.balance AS balance, w.version AS version, w.balanceSlots AS balanceSlots FROM Wallet w WHERE w.id = :id")
+    Optional<WalletBalanceView> findBalanceViewById(@Param("id") UUID id);
+    
+    @Query("SELECT w.id AS id, w.balance AS balance, w.version AS version, w.balanceSlots AS balanceSlots FROM Wallet w WHERE w.id IN :ids")
+    List<WalletBalanceView> findBalanceViewsByIds(@Param("ids") Collection<UUID> ids);
+    
+    @Query("SELECT w.id FROM Wallet w WHERE w.id IN :ids")
+    List<UUID> findExistingIds(@Param("ids") Collection<UUID> ids);
+    
+    // Balances of the wallet rows plus their balance slots, if any
+    @Query(value = "SELECT w.id AS id, w.balance + COALESCE((SELECT SUM(s.balance) FROM wallet_balance_slots s WHERE s.wallet_id = w.id), 0) AS balance FROM wallets w WHERE w.id IN :ids", 
+           nativeQuery = true)
+    List<WalletTotalBalanceView> findTotalBalancesByIds(@Param("ids") Collection<UUID> ids);
+    
+    // Wallets written since the given time, served by the (updated_at, version) index alone
+    @Query("SELECT w.id AS id, w.version AS version, w.updatedAt AS updatedAt FROM Wallet w WHERE w.updatedAt >= :since")
+    List<WalletVersionView> findVersionsUpdatedSince(@Param("since") LocalDateTime since);
+    
+    @Query("SELECT MAX(w.updatedAt) FROM Wallet w")
+    Optional<LocalDateTime> findNewestUpdatedAt();
+    
+    interface WalletBalanceView {
+        UUID getId();
+        BigDecimal getBalance();
+        Long getVersion();
+        int getBalanceSlots();
+    }
+    
+    interface WalletTotalBalanceView {
+        byte[] getId();
+        BigDecimal getBalance();
+    }
+    
+    interface WalletVersionView {
+        UUID getId();
+        Long getVersion();
+        LocalDateTime getUpdatedAt();
+    }
+}
@@ -0,0 +1,174 @@
+package br.com.finaya.repositories;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import br.com.finaya.model.WebhookInboxEvent;
+import br.com.finaya.util.UuidUtils;
+
+/**
+ * Webhook events accepted but not yet applied. The idempotency key is unique,
+ * so a provider retrying a delivery appends nothing. Workers claim the pending
+ * events of their partition with SKIP LOCKED and move them to PROCESSING, so a
+ * claim survives the short claiming transaction. Events for transfers not
+ * visible yet wait as PARKED until the transfer shows up.
+ *
+ * PROCESSED, DROPPED and FAILED events are finished: processed_at records when
+ * they got there, and they are deleted once past their retention through
+ * idx_webhook_inbox_processed.
+ */
+@Repository
+public class WebhookInboxRepository {
+
+    private static final RowMapper<WebhookInboxEvent> ROW_MAPPER = (rs, rowNum) -> {
+        WebhookInboxEvent event = new WebhookInboxEvent(UuidUtils.fromBytes(rs.getBytes("idempotency_key")),
+            UuidUtils.fromBytes(rs.getBytes("end_to_end_id")), rs.getString("event_id"),
+            rs.getString("event_type"), rs.getString("occurred_at"));
+        event.setId(rs.getLong("id"));
+        event.setOccurredAtMillis(rs.getObject("occurred_at_millis", Long.class));
+        event.setPartitionKey(rs.getInt("partition_key"));
+        event.setAttempts(rs.getInt("attempts"));
+        event.setReceivedAt(rs.getTimestamp("received_at").toLocalDateTime());
+        event.setQueuedMillis(Math.max(rs.getLong("queued_ms"), 0));
+        return event;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public WebhookInboxRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    // Returns false when an event with the same idempotency key was already accepted
+    public boolean insert(WebhookInboxEvent event) {
+        return jdbcTemplate.update(
+            "INSERT IGNORE INTO webhook_inbox (idempotency_key, end_to_end_id, partition_key, event_id, event_type, occurred_at, " +
+            "occurred_at_millis, status) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+            UuidUtils.toBytes(event.getIdempotencyKey()),
+            UuidUtils.toBytes(event.getEndToEndId()),
+            event.getPartitionKey(),
+            event.getEventId(),
+            event.getEventType(),
+            event.getOccurredAt(),
+            event.getOccurredAtMillis(),
+            event.getStatus().name()) > 0;
+    }
+
+    // Oldest pending events of one partition received at least settleMillis ago, locked until the caller commits
+    public List<WebhookInboxEvent> claimPending(int partitions, int partition, long settleMillis, int limit) {
+        return jdbcTemplate.query(
+            "SELECT id, idempotency_key, end_to_end_id, partition_key, event_id, event_type, occurred_at, occurred_at_millis, " +
+            "attempts, received_at, TIMESTAMPDIFF(MICROSECOND, received_at, CURRENT_TIMESTAMP(3)) DIV 1000 AS queued_ms " +
+            "FROM webhook_inbox WHERE status = 'PENDING' AND MOD(partition_key, ?) = ? " +
+            "AND received_at <= CURRENT_TIMESTAMP(3) - INTERVAL ? MICROSECOND ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED",
+            ROW_MAPPER, partitions, partition, settleMillis * 1000, limit);
+    }
+
+    public void markProcessing(List<WebhookInboxEvent> events) {
+        jdbcTemplate.batchUpdate(
+            "UPDATE webhook_inbox SET status = 'PROCESSING', claimed_at = CURRENT_TIMESTAMP(3) WHERE id = ?",
+            events,
+            events.size(),
+            (ps, event) -> ps.setLong(1, event.getId()));
+    }
+
+    public void markProcessed(WebhookInboxEvent event) {
+        jdbcTemplate.update(
+            "UPDATE webhook_inbox SET status = 'PROCESSED', attempts = attempts + 1, processed_at = CURRENT_TIMESTAMP(3), " +
+            "last_error = NULL WHERE id = ?",
+            event.getId());
+    }
+
+    // Counts the failed attempt and gives the event up once it reaches maxAttempts
+    public void markFailedAttempt(WebhookInboxEvent event, String error, int maxAttempts) {
+        jdbcTemplate.update(
+            "UPDATE webhook_inbox SET status = IF(attempts + 1 >= ?, 'FAILED', 'PENDING'), " +
+            "processed_at = IF(attempts + 1 >= ?, CURRENT_TIMESTAMP(3), NULL), attempts = attempts + 1, " +
+            "last_error = LEFT(?, 500) WHERE id = ?",
+            maxAttempts, maxAttempts, error, event.getId());
+    }
+
+    public void markParked(WebhookInboxEvent event) {
+        jdbcTemplate.update("UPDATE webhook_inbox SET status = 'PARKED' WHERE id = ?", event.getId());
+    }
+
+    public void markDropped(WebhookInboxEvent event, String reason) {
+        jdbcTemplate.update(
+            "UPDATE webhook_inbox SET status = 'DROPPED', processed_at = CURRENT_TIMESTAMP(3), last_error = ? WHERE id = ?",
+            reason, event.getId());
+    }
+
+    public int unpark(UUID endToEndId) {
+        return jdbcTemplate.update(
+            "UPDATE webhook_inbox SET status = 'PENDING' WHERE end_to_end_id = ? AND status = 'PARKED'",
+            UuidUtils.toBytes(endToEndId));
+    }
+
+    // Parked events whose transfer was committed meanwhile, possibly by another instance
+    public int unparkVisible() {
+        return jdbcTemplate.update(
+            "UPDATE webhook_inbox w JOIN pix_transfers p ON p.end_to_end_id = w.end_to_end_id " +
+            "SET w.status = 'PENDING' WHERE w.status = 'PARKED'");
+    }
+
+    // Parked events whose transfer never showed up
+    public int expireParked(long parkSeconds) {
+        return jdbcTemplate.update(
+            "UPDATE webhook_inbox SET status = 'FAILED', processed_at = CURRENT_TIMESTAMP(3), last_error = 'PIX transfer not found' " +
+            "WHERE status = 'PARKED' AND received_at < CURRENT_TIMESTAMP(3) - INTERVAL ? SECOND",
+            parkSeconds);
+    }
+
+    // Hands a claimed event back without counting an attempt
+    public void release(WebhookInboxEvent event) {
+        jdbcTemplate.update("UPDATE webhook_inbox SET status = 'PENDING' WHERE id = ?", event.getId());
+    }
+
+    // Events claimed by a worker that died before finishing them
+    public int releaseStale(long leaseSeconds) {
+        return jdbcTemplate.update(
+            "UPDATE webhook_inbox SET status = 'PENDING' WHERE status = 'PROCESSING' " +
+            "AND claimed_at < CURRENT_TIMESTAMP(3) - INTERVAL ? SECOND",
+            leaseSeconds);
+    }
+
+    // Transfers that still have parked events, whichever instance parked them
+    public List<UUID> findParkedTransfers() {
+        return jdbcTemplate.query("SELECT DISTINCT end_to_end_id FROM webhook_inbox WHERE status = 'PARKED'",
+            (rs, rowNum) -> UuidUtils.fromBytes(rs.getBytes("end_to_end_id")));
+    }
+
+    // Deletes up to limit finished events older than retentionDays, returns how many
+    public int deleteFinishedBefore(int retentionDays, int limit) {
+        return jdbcTemplate.update(
+            "DELETE FROM webhook_inbox WHERE processed_at < CURRENT_TIMESTAMP(3) - INTERVAL ? DAY " +
+            "AND status IN ('PROCESSED', 'DROPPED', 'FAILED') ORDER BY processed_at LIMIT ?",
+            retentionDays, limit);
+    }
+
+    public long countPending() {
+        return jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM webhook_inbox WHERE status IN ('PENDING', 'PROCESSING')", Long.class);
+    }
+
+    public long countParked() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM webhook_inbox WHERE status = 'PARKED'", Long.class);
+    }
+
+    public long countFailed() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM webhook_inbox WHERE status = 'FAILED'", Long.class);
+    }
+
+    // Age of the oldest event not applied yet in milliseconds, 0 when the inbox is drained
+    public long pendingLagMillis() {
+        Long lag = jdbcTemplate.queryForObject(
+            "SELECT TIMESTAMPDIFF(MICROSECOND, MIN(received_at), CURRENT_TIMESTAMP(3)) DIV 1000 FROM webhook_inbox " +
+            "WHERE status IN ('PENDING', 'PROCESSING')",
+            Long.class);
+        return lag != null ? Math.max(lag, 0) : 0;
+    }
+}
@@ -0,0 +1,127 @@
+package br.com.finaya.services;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.finaya.repositories.BalanceCheckpointRepository;
+import br.com.finaya.repositories.BalanceCheckpointRepository.Granularity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Writes the hourly and daily balance checkpoints the historical balances
+ * start from, one period at a time and only once it is older than the
+ * settle delay, so entries of transactions still open when it ended are
+ * not missed. Each period is checkpointed with its progress in one
+ * transaction; a new deployment catches up from the first ledger entry a
+ * bounded number of periods per run.
+ *
+ * Hourly checkpoints are dropped after their retention, never before the
+ * daily checkpoint of their day was written.
+ *
+ * Runs on every instance. A period checkpointed twice rewrites the same rows.
+ */
+@Service
+public class BalanceCheckpointer {
+    private static final Logger logger = LoggerFactory.getLogger(BalanceCheckpointer.class);
+
+    private final BalanceCheckpointRepository checkpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter writtenCounter;
+
+    @Value("${pix.ledger.checkpoints.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${pix.ledger.checkpoints.settle-seconds:300}")
+    private long settleSeconds = 300;
+
+    @Value("${pix.ledger.checkpoints.max-periods-per-run:168}")
+    private int maxPeriodsPerRun = 168;
+
+    @Value("${pix.ledger.checkpoints.hourly-retention-days:35}")
+    private int hourlyRetentionDays = 35;
+
+    private volatile LocalDateTime hourlyUntil;
+
+    public BalanceCheckpointer(BalanceCheckpointRepository checkpointRepository,
+                               TransactionTemplate transactionTemplate,
+                               MeterRegistry meterRegistry) {
+        this.checkpointRepository = checkpointRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.writtenCounter = Counter.builder("pix.ledger.checkpoints.written")
+            .description("Wallet balance checkpoints written or rewritten")
+            .register(meterRegistry);
+        Gauge.builder("pix.ledger.checkpoints.lag", this, BalanceCheckpointer::lagSeconds)
+            .description("Time between now and the end of the last hour checkpointed")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${pix.ledger.checkpoints.interval-ms:60000}",
+               fixedDelayString = "${pix.ledger.checkpoints.interval-ms:60000}")
+    public synchronized void checkpoint() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LocalDateTime settled = LocalDateTime.now().minusSeconds(settleSeconds);
+            hourlyUntil = advance(Granularity.HOURLY, settled).orElse(null);
+            advance(Granularity.DAILY, settled).ifPresent(this::dropExpiredHourly);
+        } catch (DataAccessException e) {
+            logger.warn("Balance checkpointing failed, it will be retried: {}", e.getMessage());
+        }
+    }
+
+    // Checkpoints the settled periods not done yet, returns the end of the last one checkpointed
+    private Optional<LocalDateTime> advance(Granularity granularity, LocalDateTime settled) {
+        Optional<LocalDateTime> until = checkpointRepository.findCheckpointedUntil(granularity);
+        LocalDateTime from = until.or(() -> checkpointRepository.findFirstEntryAt().map(granularity::floor)).orElse(null);
+        if (from == null) {
+            // Nothing in the ledger yet
+            return Optional.empty();
+        }
+        int periods = 0;
+        while (periods < maxPeriodsPerRun && !granularity.next(from).isAfter(settled)) {
+            LocalDateTime start = from;
+            LocalDateTime end = granularity.next(start);
+            Integer written = transactionTemplate.execute(status -> {
+                int rows = checkpointRepository.checkpoint(granularity, start, end);
+                checkpointRepository.saveCheckpointedUntil(granularity, end);
+                return rows;
+            });
+            writtenCounter.increment(written);
+            from = end;
+            periods++;
+        }
+        if (periods > 0) {
+            logger.debug("Balance checkpoints advanced - Granularity: {}, Periods: {}, Until: {}", granularity, periods, from);
+        }
+        return periods > 0 ? Optional.of(from) : until;
+    }
+
+    private void dropExpiredHourly(LocalDateTime dailyUntil) {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(hourlyRetentionDays);
+        if (cutoff.isAfter(dailyUntil)) {
+            cutoff = dailyUntil;
+        }
+        int dropped = checkpointRepository.deleteBefore(Granularity.HOURLY, cutoff);
+        if (dropped > 0) {
+            logger.info("Dropped expired hourly balance checkpoints - Rows: {}, Before: {}", dropped, cutoff);
+        }
+    }
+
+    private double lagSeconds() {
+        LocalDateTime until = hourlyUntil;
+        return until == null ? 0 : Duration.between(until, LocalDateTime.now()).toSeconds();
+    }
+}
@@ -0,0 +1,54 @@
+package br.com.finaya.services;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.repositories.IdempotencyClaimRepository;
+import br.com.finaya.repositories.IdempotencyRecordRepository;
+
+/**
+ * Idempotency records straight from idempotency_records, every lookup is a query.
+ */
+@Service
+@ConditionalOnProperty(name = "pix.idempotency.store", havingValue = "database")
+public class DatabaseIdempotencyStore implements IdempotencyStore {
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final IdempotencyClaimRepository idempotencyClaimRepository;
+
+    public DatabaseIdempotencyStore(IdempotencyRecordRepository idempotencyRecordRepository,
+                                    IdempotencyClaimRepository idempotencyClaimRepository) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.idempotencyClaimRepository = idempotencyClaimRepository;
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> find(UUID idempotencyKey) {
+        return idempotencyRecordRepository.findByRecordKeyIn(List.of(idempotencyKey)).stream().findFirst();
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> claim(IdempotencyRecord record) {
+        return idempotencyClaimRepository.claim(record);
+    }
+
+    @Override
+    public void complete(IdempotencyRecord record) {
+        idempotencyClaimRepository.complete(record);
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> findResponse(UUID idempotencyKey) {
+        return find(idempotencyKey).filter(IdempotencyRecord::hasResponse);
+    }
+
+    @Override
+    public boolean storeResponse(UUID idempotencyKey, int status, String contentType, byte[] body) {
+        return idempotencyClaimRepository.storeResponse(idempotencyKey, status, contentType, body);
+    }
+}
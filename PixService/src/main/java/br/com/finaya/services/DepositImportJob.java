@@ -0,0 +1,61 @@
+package br.com.finaya.services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import br.com.finaya.services.DepositImportService.Format;
+import br.com.finaya.services.DepositImportService.ImportSummary;
+
+/**
+ * Command line deposit file import, run once at startup when --deposit-import
+ * names the file, after which the application exits. Running it again on the
+ * same file resumes an import that did not finish:
+ *
+ *   java -jar pix-service.jar --spring.main.web-application-type=none \
+ *       --deposit-import=/data/deposits-20240115.txt [--format=fixed-width]
+ */
+@Component
+public class DepositImportJob implements ApplicationRunner {
+    private static final Logger logger = LoggerFactory.getLogger(DepositImportJob.class);
+
+    private final DepositImportService importService;
+    private final ConfigurableApplicationContext context;
+
+    public DepositImportJob(DepositImportService importService, ConfigurableApplicationContext context) {
+        this.importService = importService;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> files = args.getOptionValues("deposit-import");
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+        String file = files.get(0);
+        int exitCode = 0;
+        try {
+            List<String> formats = args.getOptionValues("format");
+            Format format = formats == null || formats.isEmpty() ? Format.CSV
+                : Format.valueOf(formats.get(0).toUpperCase(Locale.ROOT).replace('-', '_'));
+            ImportSummary summary = importService.importFile(Path.of(file), format);
+            logger.info("Deposit file {} imported - Applied: {}, Duplicates: {}, Rejected: {}, Amount: {}",
+                file, summary.appliedLines(), summary.duplicateLines(), summary.rejectedLines(), summary.appliedAmount());
+        } catch (IOException | RuntimeException e) {
+            logger.error("Deposit import of {} failed, run it again to resume", file, e);
+            exitCode = 1;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+}
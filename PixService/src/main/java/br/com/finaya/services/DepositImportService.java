@@ -0,0 +1,430 @@
+package br.com.finaya.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.model.LedgerEntry;
+import br.com.finaya.model.Wallet;
+import br.com.finaya.repositories.DepositImportRepository;
+import br.com.finaya.repositories.DepositImportRepository.DepositImport;
+import br.com.finaya.repositories.DepositImportRepository.Rejection;
+import br.com.finaya.repositories.DepositImportRepository.Status;
+import br.com.finaya.repositories.IdempotencyRecordRepository;
+import br.com.finaya.repositories.JdbcBatchRepository;
+import br.com.finaya.util.RequestFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Imports a file of deposits from the bank partner, one deposit per line.
+ *
+ * The file is read line by line and applied in chunks, each in a transaction
+ * of its own: the lines of a chunk are grouped by wallet, every wallet is
+ * locked once and its ledger entries and idempotency records are written with
+ * JDBC batches. Each line is idempotent on its bank reference, a line already
+ * applied, by this file or another, counts as a duplicate.
+ *
+ * The chunk also moves the checkpoint of the file forward, so an import that
+ * crashed resumes at the first line not committed when the same file is
+ * imported again. A file imported to the end is not applied twice.
+ *
+ * Lines are "reference,wallet_id,amount[,description]" in CSV files, with an
+ * optional header, or fixed-width: reference in columns 1-20, wallet id in
+ * 21-56, amount in cents zero-padded in 57-71 and the description after.
+ */
+@Service
+public class DepositImportService {
+    private static final Logger logger = LoggerFactory.getLogger(DepositImportService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_DESCRIPTION_LENGTH = 500;
+
+    // Fixed-width layout, end column of each field
+    private static final int REFERENCE_END = 20;
+    private static final int WALLET_END = 56;
+    private static final int AMOUNT_END = 71;
+
+    private final DepositImportRepository importRepository;
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final JdbcBatchRepository jdbcBatchRepository;
+    private final WalletLockService walletLockService;
+    private final WalletBalanceSlotService balanceSlotService;
+    private final WalletBalanceCache balanceCache;
+    private final WalletEngine walletEngine;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter appliedCounter;
+    private final Counter duplicateCounter;
+    private final Counter rejectedCounter;
+    private final Timer chunkTimer;
+
+    @Value("${pix.deposits.import.chunk-size:1000}")
+    private int chunkSize = 1000;
+
+    public DepositImportService(DepositImportRepository importRepository,
+                                IdempotencyRecordRepository idempotencyRecordRepository,
+                                JdbcBatchRepository jdbcBatchRepository,
+                                WalletLockService walletLockService,
+                                WalletBalanceSlotService balanceSlotService,
+                                WalletBalanceCache balanceCache,
+                                WalletEngine walletEngine,
+                                TransactionTemplate transactionTemplate,
+                                MeterRegistry meterRegistry) {
+        this.importRepository = importRepository;
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.jdbcBatchRepository = jdbcBatchRepository;
+        this.walletLockService = walletLockService;
+        this.balanceSlotService = balanceSlotService;
+        this.balanceCache = balanceCache;
+        this.walletEngine = walletEngine;
+        this.transactionTemplate = transactionTemplate;
+        this.appliedCounter = lineCounter(meterRegistry, "applied");
+        this.duplicateCounter = lineCounter(meterRegistry, "duplicate");
+        this.rejectedCounter = lineCounter(meterRegistry, "rejected");
+        this.chunkTimer = Timer.builder("pix.deposits.import.chunks")
+            .description("Time taken to apply a chunk of deposit file lines")
+            .register(meterRegistry);
+    }
+
+    private static Counter lineCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("pix.deposits.import.lines")
+            .description("Deposit file lines imported, by outcome")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    public enum Format {
+        CSV, FIXED_WIDTH
+    }
+
+    // Totals of the whole import, previous runs of the same file included
+    public record ImportSummary(String fileName, boolean alreadyImported, long appliedLines, long duplicateLines,
+                                long rejectedLines, BigDecimal appliedAmount) {
+    }
+
+    public ImportSummary importFile(Path file, Format format) throws IOException {
+        long startedAt = System.nanoTime();
+        byte[] importId = sha256(file);
+        String fileName = file.getFileName().toString();
+
+        Optional<DepositImport> previous = importRepository.find(importId);
+        if (previous.isPresent() && previous.get().status() == Status.COMPLETED) {
+            logger.info("Deposit file {} was already imported as {}", fileName, previous.get().fileName());
+            return summary(previous.get(), true);
+        }
+        importRepository.start(importId, fileName, format.name());
+        long resumeFrom = previous.map(DepositImport::nextLine).orElse(1L);
+        logger.info("Deposit import started - File: {}, Format: {}, From line: {}", fileName, format, resumeFrom);
+
+        long lines = 0;
+        try (BufferedReader reader = new BufferedReader(Files.newBufferedReader(file, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            Chunk chunk = new Chunk(resumeFrom);
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (++lineNumber < resumeFrom) {
+                    continue;
+                }
+                chunk.lastLine = lineNumber;
+                lines++;
+                if (!line.isBlank() && !(format == Format.CSV && lineNumber == 1 && isCsvHeader(line))) {
+                    parse(line, lineNumber, format, chunk);
+                }
+                if (chunk.size() >= chunkSize) {
+                    apply(importId, chunk);
+                    chunk = new Chunk(lineNumber + 1);
+                }
+            }
+            if (chunk.lastLine >= chunk.firstLine) {
+                apply(importId, chunk);
+            }
+        }
+        importRepository.complete(importId);
+
+        DepositImport completed = importRepository.find(importId).orElseThrow();
+        long elapsedMillis = Math.max(1, (System.nanoTime() - startedAt) / 1_000_000);
+        logger.info("Deposit import finished - File: {}, Applied: {}, Duplicates: {}, Rejected: {}, Amount: {}, Lines/s: {}",
+            fileName, completed.appliedLines(), completed.duplicateLines(), completed.rejectedLines(),
+            completed.appliedAmount(), lines * 1000 / elapsedMillis);
+        return summary(completed, false);
+    }
+
+    public List<Rejection> findRejections(Path file) throws IOException {
+        return importRepository.findRejections(sha256(file));
+    }
+
+    private void apply(byte[] importId, Chunk chunk) {
+        ChunkTotals totals = chunkTimer.record(() -> walletEngine.isEnabled()
+            ? applyWithEngine(importId, chunk)
+            : transactionTemplate.execute(status -> applyWithLocks(importId, chunk)));
+        appliedCounter.increment(totals.applied());
+        duplicateCounter.increment(totals.duplicates());
+        rejectedCounter.increment(chunk.rejections.size());
+        logger.debug("Deposit import chunk committed - Lines: {}-{}, Applied: {}, Duplicates: {}, Rejected: {}",
+            chunk.firstLine, chunk.lastLine, totals.applied(), totals.duplicates(), chunk.rejections.size());
+    }
+
+    private ChunkTotals applyWithLocks(byte[] importId, Chunk chunk) {
+        checkNextLine(importId, chunk);
+        Pending pending = pending(chunk);
+
+        Map<UUID, List<DepositLine>> byWallet = new LinkedHashMap<>();
+        for (DepositLine line : pending.lines()) {
+            byWallet.computeIfAbsent(line.walletId(), id -> new ArrayList<>()).add(line);
+        }
+        Map<UUID, Wallet> wallets = byWallet.isEmpty() ? Map.of() : walletLockService.lockWallets(byWallet.keySet());
+
+        List<LedgerEntry> entries = new ArrayList<>(pending.lines().size());
+        List<IdempotencyRecord> records = new ArrayList<>(pending.lines().size());
+        BigDecimal amount = BigDecimal.ZERO;
+        for (Map.Entry<UUID, List<DepositLine>> group : byWallet.entrySet()) {
+            Wallet wallet = wallets.get(group.getKey());
+            if (wallet == null) {
+                group.getValue().forEach(line -> chunk.reject(line.lineNumber(), "Wallet not found: " + line.walletId()));
+                continue;
+            }
+            for (DepositLine line : group.getValue()) {
+                wallet.deposit(line.amount());
+                entries.add(new LedgerEntry(wallet.getId(), UUID.randomUUID(), line.amount(),
+                    LedgerEntry.EntryType.DEPOSIT, balanceSlotService.balanceAfter(wallet), line.description()));
+                records.add(line.record());
+                amount = amount.add(line.amount());
+            }
+            balanceCache.putAfterCommit(wallet);
+        }
+
+        // Wallet balances are flushed by the persistence context on commit
+        jdbcBatchRepository.insertLedgerEntries(entries);
+        jdbcBatchRepository.insertIdempotencyRecords(records);
+        return saveProgress(importId, chunk, entries.size(), pending.duplicates(), amount);
+    }
+
+    /**
+     * Same chunk, applied by the wallet engine, which groups the credits per
+     * wallet itself. Each credit commits with its idempotency record, the
+     * checkpoint follows once all of them are done: lines of a crashed chunk
+     * are found again as duplicates when it is retried.
+     */
+    private ChunkTotals applyWithEngine(byte[] importId, Chunk chunk) {
+        transactionTemplate.executeWithoutResult(status -> checkNextLine(importId, chunk));
+        Pending pending = pending(chunk);
+
+        Map<DepositLine, CompletableFuture<BigDecimal>> submitted = new LinkedHashMap<>();
+        for (DepositLine line : pending.lines()) {
+            submitted.put(line, walletEngine.submit(
+                WalletEngine.Command.credit(line.walletId(), line.amount(), LedgerEntry.EntryType.DEPOSIT,
+                        UUID.randomUUID(), line.description())
+                    .recording(line.record())));
+        }
+
+        long applied = 0;
+        BigDecimal amount = BigDecimal.ZERO;
+        for (Map.Entry<DepositLine, CompletableFuture<BigDecimal>> credit : submitted.entrySet()) {
+            try {
+                credit.getValue().join();
+                applied++;
+                amount = amount.add(credit.getKey().amount());
+            } catch (CompletionException e) {
+                chunk.reject(credit.getKey().lineNumber(), e.getCause().getMessage());
+            }
+        }
+
+        long appliedLines = applied;
+        BigDecimal appliedAmount = amount;
+        return transactionTemplate.execute(status -> {
+            checkNextLine(importId, chunk);
+            return saveProgress(importId, chunk, appliedLines, pending.duplicates(), appliedAmount);
+        });
+    }
+
+    // Locks the checkpoint, another run of the same file must not have moved it since this chunk was read
+    private void checkNextLine(byte[] importId, Chunk chunk) {
+        long nextLine = importRepository.lockNextLine(importId);
+        if (nextLine != chunk.firstLine) {
+            throw new IllegalStateException("Deposit import was moved to line " + nextLine + " by another run");
+        }
+    }
+
+    private ChunkTotals saveProgress(byte[] importId, Chunk chunk, long applied, long duplicates, BigDecimal amount) {
+        importRepository.insertRejections(importId, chunk.rejections);
+        importRepository.saveProgress(importId, chunk.lastLine + 1, applied, duplicates, chunk.rejections.size(), amount);
+        return new ChunkTotals(applied, duplicates);
+    }
+
+    /**
+     * Lines of the chunk still to apply. References already recorded, by an
+     * earlier chunk or file, or earlier in this chunk, are duplicates when the
+     * deposit is the same and rejected when it differs.
+     */
+    private Pending pending(Chunk chunk) {
+        Map<UUID, IdempotencyRecord> existing = chunk.lines.isEmpty() ? Map.of() :
+            idempotencyRecordRepository.findByRecordKeyIn(chunk.lines.stream().map(DepositLine::key).toList()).stream()
+                .collect(Collectors.toMap(IdempotencyRecord::getRecordKey, Function.identity(), (first, second) -> first));
+
+        List<DepositLine> lines = new ArrayList<>(chunk.lines.size());
+        Map<UUID, byte[]> inChunk = new HashMap<>();
+        long duplicates = 0;
+        for (DepositLine line : chunk.lines) {
+            IdempotencyRecord record = existing.get(line.key());
+            byte[] seen = inChunk.get(line.key());
+            if (record != null || seen != null) {
+                boolean same = record != null
+                    ? record.matchesFingerprint(line.fingerprint())
+                    : Arrays.equals(seen, line.fingerprint());
+                if (same) {
+                    duplicates++;
+                } else {
+                    chunk.reject(line.lineNumber(), "Reference " + line.reference() + " already used for another deposit");
+                }
+                continue;
+            }
+            inChunk.put(line.key(), line.fingerprint());
+            lines.add(line);
+        }
+        return new Pending(lines, duplicates);
+    }
+
+    private void parse(String line, long lineNumber, Format format, Chunk chunk) {
+        try {
+            String reference;
+            String walletId;
+            BigDecimal amount;
+            String description;
+            if (format == Format.CSV) {
+                String[] fields = line.split(",", 4);
+                if (fields.length < 3) {
+                    throw new IllegalArgumentException("Expected reference, wallet id and amount");
+                }
+                reference = fields[0].trim();
+                walletId = fields[1].trim();
+                amount = new BigDecimal(fields[2].trim());
+                description = fields.length == 4 ? unquote(fields[3].trim()) : "";
+            } else {
+                if (line.length() < AMOUNT_END) {
+                    throw new IllegalArgumentException("Line shorter than " + AMOUNT_END + " columns");
+                }
+                reference = line.substring(0, REFERENCE_END).trim();
+                walletId = line.substring(REFERENCE_END, WALLET_END).trim();
+                amount = new BigDecimal(line.substring(WALLET_END, AMOUNT_END).trim()).movePointLeft(2);
+                description = line.substring(AMOUNT_END).trim();
+            }
+            if (reference.isEmpty()) {
+                throw new IllegalArgumentException("Missing reference");
+            }
+            if (amount.signum() <= 0 || amount.stripTrailingZeros().scale() > 2) {
+                throw new IllegalArgumentException("Invalid amount: " + amount.toPlainString());
+            }
+            chunk.lines.add(DepositLine.of(lineNumber, reference, UUID.fromString(walletId), amount, description));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            chunk.reject(lineNumber, e.getMessage() != null ? e.getMessage() : "Invalid line");
+        }
+    }
+
+    private static boolean isCsvHeader(String line) {
+        return line.trim().toLowerCase(Locale.ROOT).startsWith("reference,");
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1).replace("\"\"", "\"");
+        }
+        return value;
+    }
+
+    private static byte[] sha256(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ImportSummary summary(DepositImport depositImport, boolean alreadyImported) {
+        return new ImportSummary(depositImport.fileName(), alreadyImported, depositImport.appliedLines(),
+            depositImport.duplicateLines(), depositImport.rejectedLines(), depositImport.appliedAmount());
+    }
+
+    private record DepositLine(long lineNumber, String reference, UUID walletId, BigDecimal amount, String description,
+                               UUID key, byte[] fingerprint) {
+
+        static DepositLine of(long lineNumber, String reference, UUID walletId, BigDecimal amount, String description) {
+            String ledgerDescription = description.isEmpty() ? "Deposit - " + reference : description;
+            if (ledgerDescription.length() > MAX_DESCRIPTION_LENGTH) {
+                ledgerDescription = ledgerDescription.substring(0, MAX_DESCRIPTION_LENGTH);
+            }
+            // The same reference always maps to the same key, whatever file it comes in
+            UUID key = UUID.nameUUIDFromBytes(("deposit-import:" + reference).getBytes(StandardCharsets.UTF_8));
+            byte[] fingerprint = RequestFingerprint.of("IMPORT", "/deposits",
+                ("{\"walletId\":\"" + walletId + "\",\"amount\":" + amount.toPlainString() + "}")
+                    .getBytes(StandardCharsets.UTF_8));
+            return new DepositLine(lineNumber, reference, walletId, amount, ledgerDescription, key, fingerprint);
+        }
+
+        IdempotencyRecord record() {
+            IdempotencyRecord record = new IdempotencyRecord(key, IdempotencyRecord.Operation.DEPOSIT);
+            record.setRequestFingerprint(fingerprint);
+            record.markSuccess(null);
+            return record;
+        }
+    }
+
+    private static final class Chunk {
+        private final long firstLine;
+        private long lastLine;
+        private final List<DepositLine> lines = new ArrayList<>();
+        private final List<Rejection> rejections = new ArrayList<>();
+
+        Chunk(long firstLine) {
+            this.firstLine = firstLine;
+            this.lastLine = firstLine - 1;
+        }
+
+        int size() {
+            return lines.size() + rejections.size();
+        }
+
+        void reject(long lineNumber, String reason) {
+            rejections.add(new Rejection(lineNumber, reason));
+        }
+    }
+
+    private record Pending(List<DepositLine> lines, long duplicates) {
+    }
+
+    private record ChunkTotals(long applied, long duplicates) {
+    }
+}
@@ -0,0 +1,54 @@
+package br.com.finaya.services;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import br.com.finaya.repositories.BalanceCheckpointRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Balances of wallets at a point in time: their latest checkpoint at or
+ * before it plus the balance changes of the ledger entries since. With the
+ * checkpointer up to date that is at most an hour of entries, a day once
+ * hourly checkpoints expired. Wallets not checkpointed yet are summed from
+ * their first entry.
+ */
+@Service
+@Transactional(readOnly = true)
+public class HistoricalBalanceService {
+
+    private final BalanceCheckpointRepository checkpointRepository;
+    private final Timer lookupTimer;
+
+    public HistoricalBalanceService(BalanceCheckpointRepository checkpointRepository, MeterRegistry meterRegistry) {
+        this.checkpointRepository = checkpointRepository;
+        this.lookupTimer = Timer.builder("pix.ledger.historical-balance.lookups")
+            .description("Historical balance lookups, of one or many wallets")
+            .register(meterRegistry);
+    }
+
+    public BigDecimal balanceAt(UUID walletId, LocalDateTime at) {
+        return balancesAt(List.of(walletId), at).get(walletId);
+    }
+
+    // Zero for wallets without any entry at or before the given time
+    public Map<UUID, BigDecimal> balancesAt(Collection<UUID> walletIds, LocalDateTime at) {
+        return lookupTimer.record(() -> {
+            Map<UUID, BigDecimal> found = checkpointRepository.findBalances(walletIds, at);
+            Map<UUID, BigDecimal> balances = new LinkedHashMap<>();
+            for (UUID walletId : walletIds) {
+                balances.put(walletId, found.getOrDefault(walletId, BigDecimal.ZERO));
+            }
+            return balances;
+        });
+    }
+}
@@ -0,0 +1,123 @@
+package br.com.finaya.services;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import br.com.finaya.config.IdempotencyRetention;
+import br.com.finaya.repositories.IdempotencyClaimRepository;
+import br.com.finaya.repositories.IdempotencyPartitionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps the daily partitions of idempotency_records: drops the ones whose day
+ * has passed, which removes all their expired records at once, and creates
+ * the ones records claimed in the next days will go to. Expired rows of the
+ * unpartitioned idempotency_keys are deleted in bounded batches.
+ *
+ * Runs on every instance. Two instances changing the partitions at the same
+ * time make one of them fail, and it simply tries again on its next run.
+ */
+@Service
+public class IdempotencyPartitionMaintainer {
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyPartitionMaintainer.class);
+
+    private final IdempotencyPartitionRepository partitionRepository;
+    private final IdempotencyClaimRepository claimRepository;
+    private final IdempotencyRetention retention;
+    private final Counter createdCounter;
+    private final Counter droppedCounter;
+    private final Counter purgedKeysCounter;
+
+    @Value("${pix.idempotency.partitions.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${pix.idempotency.partitions.premake-days:3}")
+    private int premakeDays = 3;
+
+    @Value("${pix.idempotency.partitions.key-purge-batch-size:1000}")
+    private int keyPurgeBatchSize = 1000;
+
+    public IdempotencyPartitionMaintainer(IdempotencyPartitionRepository partitionRepository,
+                                          IdempotencyClaimRepository claimRepository,
+                                          IdempotencyRetention retention,
+                                          MeterRegistry meterRegistry) {
+        this.partitionRepository = partitionRepository;
+        this.claimRepository = claimRepository;
+        this.retention = retention;
+        this.createdCounter = Counter.builder("pix.idempotency.partitions.created")
+            .description("Daily idempotency record partitions created ahead of time")
+            .register(meterRegistry);
+        this.droppedCounter = Counter.builder("pix.idempotency.partitions.dropped")
+            .description("Daily idempotency record partitions dropped once expired")
+            .register(meterRegistry);
+        this.purgedKeysCounter = Counter.builder("pix.idempotency.keys.purged")
+            .description("Expired idempotency keys deleted")
+            .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${pix.idempotency.partitions.interval-ms:3600000}")
+    public synchronized void maintain() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LocalDate today = partitionRepository.currentDate();
+            List<LocalDate> days = partitionRepository.findPartitionDays();
+            dropExpired(days, today);
+            createAhead(days, today);
+            purgeExpiredKeys();
+        } catch (DataAccessException e) {
+            logger.warn("Idempotency partition maintenance failed, it will be retried: {}", e.getMessage());
+        }
+    }
+
+    private void dropExpired(List<LocalDate> days, LocalDate today) {
+        List<LocalDate> expired = days.stream().filter(day -> day.isBefore(today)).toList();
+        if (expired.isEmpty()) {
+            return;
+        }
+        partitionRepository.dropPartitions(expired);
+        droppedCounter.increment(expired.size());
+        logger.info("Dropped expired idempotency partitions: {}", expired);
+    }
+
+    private void createAhead(List<LocalDate> days, LocalDate today) {
+        LocalDate from = days.isEmpty() || days.get(days.size() - 1).isBefore(today)
+            ? today
+            : days.get(days.size() - 1).plusDays(1);
+        LocalDate until = today.plusDays(retention.maxDays() + premakeDays);
+        List<LocalDate> missing = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(until); day = day.plusDays(1)) {
+            missing.add(day);
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        partitionRepository.splitFuturePartition(missing);
+        createdCounter.increment(missing.size());
+        logger.info("Created idempotency partitions from {} to {}", from, until);
+    }
+
+    // Short batches, so the deletes never hold locks on many keys at once
+    private void purgeExpiredKeys() {
+        int purged = 0;
+        int deleted;
+        do {
+            deleted = claimRepository.deleteExpiredKeys(keyPurgeBatchSize);
+            purged += deleted;
+        } while (deleted == keyPurgeBatchSize);
+        if (purged > 0) {
+            purgedKeysCounter.increment(purged);
+            logger.info("Purged expired idempotency keys: {}", purged);
+        }
+    }
+}
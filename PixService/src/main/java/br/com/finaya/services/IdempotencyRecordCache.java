@@ -0,0 +1,124 @@
+package br.com.finaya.services;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import br.com.finaya.model.IdempotencyRecord;
+
+/**
+ * Bounded in-memory tier of {@link TieredIdempotencyStore}. Keys are kept as
+ * the two longs of the UUID in parallel arrays, so a lookup allocates nothing.
+ *
+ * The table is set-associative: a key can only live in the few slots of its
+ * set, and a full set evicts the entry closest to expiring. Entries expire
+ * after the TTL and are cleared lazily when their slot is touched. Holds
+ * snapshots, never the managed entities of a persistence context.
+ */
+final class IdempotencyRecordCache {
+
+    private static final int WAYS = 4;
+    private static final int LOCK_STRIPES = 64;
+
+    private final long[] mostSigBits;
+    private final long[] leastSigBits;
+    // 0 marks an empty slot
+    private final long[] expiresAt;
+    private final IdempotencyRecord[] records;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final int setMask;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final AtomicInteger size = new AtomicInteger();
+
+    IdempotencyRecordCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        int sets = Integer.highestOneBit(Math.max(1, maxEntries / WAYS));
+        this.setMask = sets - 1;
+        this.mostSigBits = new long[sets * WAYS];
+        this.leastSigBits = new long[sets * WAYS];
+        this.expiresAt = new long[sets * WAYS];
+        this.records = new IdempotencyRecord[sets * WAYS];
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    IdempotencyRecord get(UUID key) {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        int set = set(msb, lsb);
+        long now = clock.getAsLong();
+        synchronized (locks[set & (LOCK_STRIPES - 1)]) {
+            for (int slot = set * WAYS; slot < (set + 1) * WAYS; slot++) {
+                if (expiresAt[slot] != 0 && mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                    if (expiresAt[slot] <= now) {
+                        clear(slot);
+                        return null;
+                    }
+                    return records[slot];
+                }
+            }
+        }
+        return null;
+    }
+
+    void put(IdempotencyRecord record) {
+        long msb = record.getRecordKey().getMostSignificantBits();
+        long lsb = record.getRecordKey().getLeastSignificantBits();
+        IdempotencyRecord snapshot = snapshot(record);
+        int set = set(msb, lsb);
+        long now = clock.getAsLong();
+        synchronized (locks[set & (LOCK_STRIPES - 1)]) {
+            int victim = set * WAYS;
+            for (int slot = set * WAYS; slot < (set + 1) * WAYS; slot++) {
+                if (expiresAt[slot] != 0 && mostSigBits[slot] == msb && leastSigBits[slot] == lsb) {
+                    victim = slot;
+                    break;
+                }
+                if (expiresAt[slot] <= now || expiresAt[slot] < expiresAt[victim]) {
+                    victim = slot;
+                }
+            }
+            if (expiresAt[victim] == 0) {
+                size.incrementAndGet();
+            }
+            mostSigBits[victim] = msb;
+            leastSigBits[victim] = lsb;
+            expiresAt[victim] = now + ttlMillis;
+            records[victim] = snapshot;
+        }
+    }
+
+    // Occupied slots, expired entries included until their slot is touched again
+    int size() {
+        return size.get();
+    }
+
+    private void clear(int slot) {
+        expiresAt[slot] = 0;
+        records[slot] = null;
+        size.decrementAndGet();
+    }
+
+    private int set(long msb, long lsb) {
+        long hash = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & setMask;
+    }
+
+    private static IdempotencyRecord snapshot(IdempotencyRecord record) {
+        IdempotencyRecord snapshot = new IdempotencyRecord(record.getRecordKey(), record.getOperation());
+        snapshot.setExpiresOn(record.getExpiresOn());
+        snapshot.setRequestFingerprint(record.getRequestFingerprint());
+        snapshot.setResultType(record.getResultType());
+        snapshot.setResultData(record.getResultData());
+        snapshot.setErrorType(record.getErrorType());
+        snapshot.setErrorMessage(record.getErrorMessage());
+        snapshot.setResponseStatus(record.getResponseStatus());
+        snapshot.setResponseContentType(record.getResponseContentType());
+        snapshot.setResponseBody(record.getResponseBody());
+        snapshot.setCreatedAt(record.getCreatedAt());
+        return snapshot;
+    }
+}
@@ -1,92 +1,299 @@
 package br.com.finaya.services;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import br.com.finaya.exceptions.IdempotencyKeyReusedException;
 import br.com.finaya.model.IdempotencyRecord;
-import br.com.finaya.repositories.IdempotencyRecordRepository;
+import br.com.finaya.model.IdempotencyRecord.Operation;
+import br.com.finaya.util.RequestFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Service
 @Transactional
 public class IdempotencyService {
     private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
     
-    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final IdempotencyStore idempotencyStore;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter coalescedCounter;
+    private final Counter coalescingTimeoutCounter;
+    private final Counter fingerprintMismatchCounter;
 
-    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository) {
-        this.idempotencyRecordRepository = idempotencyRecordRepository;
+    // Operations running on this instance, by idempotency key
+    private final ConcurrentHashMap<UUID, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${pix.idempotency.coalescing.enabled:true}")
+    private boolean coalescingEnabled = true;
+
+    @Value("${pix.idempotency.coalescing.wait-ms:10000}")
+    private long coalescingWaitMillis = 10000;
+
+    public IdempotencyService(IdempotencyStore idempotencyStore,
+                              TransactionTemplate transactionTemplate,
+                              MeterRegistry meterRegistry) {
+        this.idempotencyStore = idempotencyStore;
+        this.transactionTemplate = transactionTemplate;
+        this.coalescedCounter = Counter.builder("pix.idempotency.coalesced")
+            .description("Duplicate requests answered with the outcome of the first request still running on this instance")
+            .register(meterRegistry);
+        this.coalescingTimeoutCounter = Counter.builder("pix.idempotency.coalescing.timeouts")
+            .description("Duplicate requests that stopped waiting for the first request and went on alone")
+            .register(meterRegistry);
+        this.fingerprintMismatchCounter = Counter.builder("pix.idempotency.fingerprint.mismatches")
+            .description("Requests rejected for reusing an idempotency key with a different request")
+            .register(meterRegistry);
+        Gauge.builder("pix.idempotency.in-flight", inFlight, ConcurrentHashMap::size)
+            .description("Idempotency keys whose operation is running on this instance")
+            .register(meterRegistry);
     }
 
-    public <T> T executeWithIdempotency(UUID idempotencyKey, Supplier<T> operation) {
+    // Idempotency key of a webhook event, for callers that only have its eventId
+    public static UUID eventKey(String eventId) {
+        return UUID.nameUUIDFromBytes(eventId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs the operation once per key. The key is claimed in the operation's
+     * transaction, which is only begun once no other request with the same
+     * key is running on this instance, so a duplicate waiting here holds no
+     * connection. Duplicates on other instances wait on the claim's row lock.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public <T> T executeWithIdempotency(UUID idempotencyKey, Operation operationType, Supplier<T> operation) {
+        return coalesce(idempotencyKey,
+            () -> transactionTemplate.execute(status -> claimAndExecute(idempotencyKey, operationType, operation)));
+    }
+
+    /**
+     * Runs the operation, unless a request with the same key is already
+     * running on this instance: then it waits for that first request and
+     * returns its result, or throws its exception, without running anything.
+     * A duplicate still waiting after pix.idempotency.coalescing.wait-ms goes
+     * on alone and is left to the idempotency record. Also used by the wallet
+     * engine paths, which record their key through the engine.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public <T> T coalesce(UUID idempotencyKey, Supplier<T> operation) {
+        if (!coalescingEnabled || idempotencyKey == null) {
+            return operation.get();
+        }
+        byte[] fingerprint = RequestFingerprint.current();
+        InFlight own = new InFlight(Thread.currentThread(), fingerprint);
+        InFlight running = inFlight.putIfAbsent(idempotencyKey, own);
+        if (running == null) {
+            return lead(idempotencyKey, own, operation);
+        }
+        if (running.owner == Thread.currentThread()) {
+            // Nested call of the request that is running the key
+            return operation.get();
+        }
+        if (running.fingerprint != null && fingerprint != null && !Arrays.equals(running.fingerprint, fingerprint)) {
+            throw keyReused(idempotencyKey);
+        }
+        return follow(idempotencyKey, running, operation);
+    }
+
+    // Sobrecarga para operações void
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void coalesce(UUID idempotencyKey, Runnable operation) {
+        coalesce(idempotencyKey, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    private <T> T lead(UUID idempotencyKey, InFlight own, Supplier<T> operation) {
+        T result;
+        try {
+            result = operation.get();
+        } catch (RuntimeException e) {
+            inFlight.remove(idempotencyKey, own);
+            own.result.completeExceptionally(e);
+            throw e;
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            // Joined a caller's transaction, the result only counts once it commits
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    inFlight.remove(idempotencyKey, own);
+                    if (status == STATUS_COMMITTED) {
+                        own.result.complete(result);
+                    } else {
+                        own.result.completeExceptionally(new RolledBack());
+                    }
+                }
+            });
+        } else {
+            inFlight.remove(idempotencyKey, own);
+            own.result.complete(result);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T follow(UUID idempotencyKey, InFlight running, Supplier<T> operation) {
+        logger.info("Waiting for the running request with idempotency key: {}", idempotencyKey);
+        try {
+            Object result = running.result.get(coalescingWaitMillis, TimeUnit.MILLISECONDS);
+            coalescedCounter.increment();
+            return (T) result;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RolledBack) {
+                return operation.get();
+            }
+            coalescedCounter.increment();
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            coalescingTimeoutCounter.increment();
+            logger.warn("Stopped waiting for the running request with idempotency key: {}", idempotencyKey);
+            return operation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for idempotency key " + idempotencyKey, e);
+        }
+    }
+
+    private <T> T claimAndExecute(UUID idempotencyKey, Operation operationType, Supplier<T> operation) {
         logger.info("Executing operation with idempotency key: {}", idempotencyKey);
 
         ObjectMapper objectMapper = new ObjectMapper();;
         
-        Optional<IdempotencyRecord> idempotencyRecord = idempotencyRecordRepository.findByRecordKey(idempotencyKey);
-        
-        return (T) idempotencyRecord
+        // Claimed by inserting the record, a concurrent duplicate waits for this transaction and then replays it
+        IdempotencyRecord record = new IdempotencyRecord(idempotencyKey, operationType);
+        record.setRequestFingerprint(RequestFingerprint.current());
+        Optional<IdempotencyRecord> idempotencyRecord = idempotencyStore.claim(record);
+        if (idempotencyRecord.isPresent()) {
+            return (T) replay(idempotencyKey, idempotencyRecord.get());
+        }
+
+        logger.info("Claimed new idempotency record for key: {}", idempotencyKey);
+
+        try {
+            T result = operation.get();
+            record.markSuccess(result);
+            
+            try {
+                // Always serialize to valid JSON
+                String jsonResult = objectMapper.writeValueAsString(result);
+                record.setResultData(jsonResult);
+            } catch (JsonProcessingException e) {
+                // Fallback to null or empty object
+                record.setResultData("{}");
+            }
+            
+            idempotencyStore.complete(record);
+            logger.info("Operation completed successfully for idempotency key: {}", record);
+            return result;
+        } catch (RuntimeException e) {
+            // The transaction rolls back with the claim, so the retry runs the operation again
+            logger.error("Operation failed for idempotency key: {}, error: {}", idempotencyKey, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Answers an already used key the same way executeWithIdempotency does, for
+     * callers that write the idempotency record themselves. Returns false when
+     * the key was never used.
+     */
+    @Transactional(readOnly = true)
+    public boolean isReplay(UUID idempotencyKey) {
+        return idempotencyStore.find(idempotencyKey)
             .map(record -> {
-                logger.info("Found existing idempotency record for key: {}", idempotencyKey);
-                
-                if (record.getResultType() != null) {
-                    logger.info("Returning cached result for idempotency key: {}", idempotencyKey);
-                    return null; // Em implementação real, desserializaria o resultado
-                } else if (record.getErrorType() != null) {
-                    logger.warn("Duplicate request with previous error for idempotency key: {}", idempotencyKey);
-                    throw new RuntimeException("Duplicate request with previous error: " + record.getErrorMessage());
-                }
-                logger.warn("Duplicate request in progress for idempotency key: {}", idempotencyKey);
-                throw new RuntimeException("Duplicate request in progress");
+                replay(idempotencyKey, record);
+                return true;
             })
-            .orElseGet(() -> {
-                logger.info("Creating new idempotency record for key: {}", idempotencyKey);
-                IdempotencyRecord record = new IdempotencyRecord(idempotencyKey);
-                idempotencyRecordRepository.save(record);
-
-                try {
-                    T result = operation.get();
-                    record.markSuccess(result);
-                    
-                    try {
-                        // Always serialize to valid JSON
-                        String jsonResult = objectMapper.writeValueAsString(result);
-                        record.setResultData(jsonResult);
-                    } catch (JsonProcessingException e) {
-                        // Fallback to null or empty object
-                        record.setResultData("{}");
-                    }
-                    
-                    idempotencyRecordRepository.save(record);
-                    logger.info("Operation completed successfully for idempotency key: {}", record);
-                    return result;
-                } catch (Exception e) {
-                    logger.error("Operation failed for idempotency key: {}, error: {}", idempotencyKey, e.getMessage());
-                    record.markError(e.getClass().getName(), e.getMessage());
-                    idempotencyRecordRepository.save(record);
-                    throw e;
-                }
-            });
+            .orElse(false);
+    }
+
+    // Record of a successful operation, serialized like executeWithIdempotency does
+    public IdempotencyRecord completedRecord(UUID idempotencyKey, Operation operationType, Object result) {
+        IdempotencyRecord record = new IdempotencyRecord(idempotencyKey, operationType);
+        record.setRequestFingerprint(RequestFingerprint.current());
+        record.markSuccess(result);
+        try {
+            record.setResultData(new ObjectMapper().writeValueAsString(result));
+        } catch (JsonProcessingException e) {
+            record.setResultData("{}");
+        }
+        return record;
+    }
+
+    private Object replay(UUID idempotencyKey, IdempotencyRecord record) {
+        logger.info("Found existing idempotency record for key: {}", idempotencyKey);
+        
+        if (!record.matchesFingerprint(RequestFingerprint.current())) {
+            throw keyReused(idempotencyKey);
+        }
+        if (record.getResultType() != null) {
+            logger.info("Returning cached result for idempotency key: {}", idempotencyKey);
+            return null; // The exact response bytes are replayed by IdempotentReplayFilter
+        } else if (record.getErrorType() != null) {
+            logger.warn("Duplicate request with previous error for idempotency key: {}", idempotencyKey);
+            throw new RuntimeException("Duplicate request with previous error: " + record.getErrorMessage());
+        }
+        logger.warn("Duplicate request in progress for idempotency key: {}", idempotencyKey);
+        throw new RuntimeException("Duplicate request in progress");
+    }
+
+    private IdempotencyKeyReusedException keyReused(UUID idempotencyKey) {
+        fingerprintMismatchCounter.increment();
+        logger.warn("Idempotency key reused with a different request: {}", idempotencyKey);
+        return new IdempotencyKeyReusedException("Idempotency key already used with a different request");
     }
 
     // Sobrecarga para operações void
-    public void executeWithIdempotency(UUID idempotencyKey, Runnable operation) {
-        executeWithIdempotency(idempotencyKey, () -> {
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void executeWithIdempotency(UUID idempotencyKey, Operation operationType, Runnable operation) {
+        executeWithIdempotency(idempotencyKey, operationType, () -> {
             operation.run();
             return null;
         });
     }
 
-    // Método para limpar registros antigos (opcional)
-    public void cleanUpOldRecords() {
-        // Implementação para limpar registros antigos se necessário
+    private static final class InFlight {
+        private final Thread owner;
+        private final byte[] fingerprint;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        InFlight(Thread owner, byte[] fingerprint) {
+            this.owner = owner;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    // The first request's transaction rolled back after it returned, waiting duplicates run on their own
+    private static final class RolledBack extends RuntimeException {
+        RolledBack() {
+            super(null, null, false, false);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package br.com.finaya.services;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import br.com.finaya.model.IdempotencyRecord;
+
+/**
+ * Where {@link IdempotencyService} claims and completes idempotency records.
+ * Writes join the caller's transaction, so a record of an operation that
+ * rolled back is never visible afterwards.
+ */
+public interface IdempotencyStore {
+
+    // Record of the key, completed or still in progress, empty when the key was never used
+    Optional<IdempotencyRecord> find(UUID idempotencyKey);
+
+    /**
+     * Claims the key of the new record for the caller's transaction. Empty
+     * when the key is now the caller's, otherwise the record of whoever
+     * claimed it first. The record's operation decides how long it is kept.
+     */
+    Optional<IdempotencyRecord> claim(IdempotencyRecord record);
+
+    // Stores the outcome of the operation that claimed the key
+    void complete(IdempotencyRecord record);
+
+    // Completed record with a stored HTTP response, when it can be had without an extra query
+    Optional<IdempotencyRecord> findResponse(UUID idempotencyKey);
+
+    // Keeps the HTTP response of a completed key, false when the key has none to attach it to or already has one
+    boolean storeResponse(UUID idempotencyKey, int status, String contentType, byte[] body);
+}
@@ -0,0 +1,46 @@
+package br.com.finaya.services;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import br.com.finaya.model.OutboxEvent;
+
+/**
+ * Default stand-in for a real broker: keeps the most recently published events
+ * in memory, enough to inspect the relay locally and in tests.
+ */
+@Service
+@ConditionalOnProperty(name = "pix.outbox.publisher", havingValue = "memory", matchIfMissing = true)
+public class InMemoryOutboxPublisher implements OutboxPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryOutboxPublisher.class);
+
+    private final Deque<OutboxEvent> published = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    @Value("${pix.outbox.memory.capacity:10000}")
+    private int capacity = 10000;
+
+    @Override
+    public void publish(List<OutboxEvent> events) {
+        for (OutboxEvent event : events) {
+            published.addLast(event);
+            if (size.incrementAndGet() > capacity && published.pollFirst() != null) {
+                size.decrementAndGet();
+            }
+        }
+        logger.debug("Published {} outbox events in memory", events.size());
+    }
+
+    public List<OutboxEvent> getPublishedEvents() {
+        return new ArrayList<>(published);
+    }
+}
@@ -0,0 +1,86 @@
+package br.com.finaya.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import br.com.finaya.services.LedgerExportService.ExportResult;
+import br.com.finaya.services.LedgerExportService.Format;
+
+/**
+ * Command line ledger export, run once at startup when --ledger-export names
+ * the output file, after which the application exits:
+ *
+ *   java -jar pix-service.jar --spring.main.web-application-type=none \
+ *       --ledger-export=/data/ledger.ndjson.gz --gzip \
+ *       [--wallet=<uuid>] [--from=2024-01-01T00:00] [--to=2024-02-01T00:00] [--format=csv]
+ */
+@Component
+public class LedgerExportJob implements ApplicationRunner {
+    private static final Logger logger = LoggerFactory.getLogger(LedgerExportJob.class);
+
+    private final LedgerExportService exportService;
+    private final ConfigurableApplicationContext context;
+
+    public LedgerExportJob(LedgerExportService exportService, ConfigurableApplicationContext context) {
+        this.exportService = exportService;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        String output = option(args, "ledger-export");
+        if (output == null) {
+            return;
+        }
+        int exitCode = 0;
+        try {
+            ExportResult result = export(args, Path.of(output));
+            logger.info("Ledger exported to {} - Rows: {}, Elapsed: {} ms, Rows/s: {}",
+                output, result.rows(), result.elapsedMillis(), Math.round(result.rowsPerSecond()));
+        } catch (IOException | RuntimeException e) {
+            logger.error("Ledger export to {} failed", output, e);
+            exitCode = 1;
+        }
+        int code = exitCode;
+        System.exit(SpringApplication.exit(context, () -> code));
+    }
+
+    private ExportResult export(ApplicationArguments args, Path output) throws IOException {
+        String wallet = option(args, "wallet");
+        String from = option(args, "from");
+        String to = option(args, "to");
+        String format = option(args, "format");
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream stream = Channels.newOutputStream(channel)) {
+            return exportService.export(
+                wallet != null ? UUID.fromString(wallet) : null,
+                from != null ? LocalDateTime.parse(from) : null,
+                to != null ? LocalDateTime.parse(to) : null,
+                format != null ? Format.valueOf(format.toUpperCase(Locale.ROOT)) : Format.NDJSON,
+                args.containsOption("gzip"),
+                stream);
+        }
+    }
+
+    private static String option(ApplicationArguments args, String name) {
+        List<String> values = args.getOptionValues(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+}
@@ -0,0 +1,263 @@
+package br.com.finaya.services;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import br.com.finaya.repositories.LedgerExportRepository;
+import br.com.finaya.util.UuidUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Exports ledger entries of a wallet, or of all wallets, created in a period.
+ * Each row is written to the output as soon as it is read from the database
+ * cursor, so memory use does not grow with the number of rows: one row, the
+ * writer's buffer and, with gzip, the deflater's window.
+ */
+@Service
+public class LedgerExportService {
+    private static final Logger logger = LoggerFactory.getLogger(LedgerExportService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_EVERY_ROWS = 1_000_000;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    // Bounds of an open export period, outside of the range of created_at
+    private static final LocalDateTime LEDGER_START = LocalDateTime.of(1970, 1, 2, 0, 0);
+    private static final LocalDateTime LEDGER_END = LocalDateTime.of(2038, 1, 1, 0, 0);
+
+    private static final String[] COLUMNS = {
+        "id", "walletId", "transactionId", "type", "amount", "balanceAfter", "description", "createdAt"
+    };
+
+    private final LedgerExportRepository exportRepository;
+    private final Counter rowsCounter;
+    private final Timer durationTimer;
+    private final DistributionSummary throughput;
+
+    public LedgerExportService(LedgerExportRepository exportRepository, MeterRegistry meterRegistry) {
+        this.exportRepository = exportRepository;
+        this.rowsCounter = Counter.builder("pix.ledger.export.rows")
+            .description("Ledger entries written by exports")
+            .register(meterRegistry);
+        this.durationTimer = Timer.builder("pix.ledger.export.duration")
+            .description("Time taken by complete ledger exports")
+            .register(meterRegistry);
+        this.throughput = DistributionSummary.builder("pix.ledger.export.throughput")
+            .description("Rows per second of complete ledger exports")
+            .baseUnit("rows/s")
+            .register(meterRegistry);
+    }
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public String extension() {
+            return extension;
+        }
+    }
+
+    public record ExportResult(long rows, long elapsedMillis) {
+        public double rowsPerSecond() {
+            return elapsedMillis == 0 ? rows : rows * 1000.0 / elapsedMillis;
+        }
+    }
+
+    /**
+     * Writes the entries created in [from, to) to the output, oldest first. A
+     * null walletId exports every wallet, null bounds leave the period open.
+     * The output is finished but not closed.
+     */
+    public ExportResult export(UUID walletId, LocalDateTime from, LocalDateTime to, Format format, boolean gzip,
+                               OutputStream output) throws IOException {
+        LocalDateTime start = from != null ? from : LEDGER_START;
+        LocalDateTime end = to != null ? to : LEDGER_END;
+        if (!end.isAfter(start)) {
+            throw new IllegalArgumentException("Export period must end after it starts");
+        }
+        logger.info("Ledger export started - Wallet: {}, From: {}, To: {}, Format: {}, Gzip: {}",
+            walletId != null ? walletId : "all", start, end, format, gzip);
+
+        long startedAt = System.nanoTime();
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(output, BUFFER_SIZE) : null;
+        Writer writer = new BufferedWriter(
+            new OutputStreamWriter(compressed != null ? compressed : output, StandardCharsets.UTF_8), BUFFER_SIZE);
+        RowWriter rows = format == Format.NDJSON ? new NdjsonRowWriter(writer) : new CsvRowWriter(writer);
+
+        long[] count = new long[1];
+        try {
+            rows.start();
+            exportRepository.streamEntries(walletId, start, end, resultSet -> {
+                try {
+                    rows.write(resultSet);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (++count[0] % PROGRESS_EVERY_ROWS == 0) {
+                    logger.info("Ledger export in progress - Rows: {}, Rows/s: {}", count[0],
+                        Math.round(count[0] * 1e9 / (System.nanoTime() - startedAt)));
+                }
+            });
+            rows.finish();
+            writer.flush();
+            if (compressed != null) {
+                compressed.finish();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            rowsCounter.increment(count[0]);
+        }
+
+        long elapsedNanos = System.nanoTime() - startedAt;
+        ExportResult result = new ExportResult(count[0], elapsedNanos / 1_000_000);
+        durationTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        throughput.record(result.rowsPerSecond());
+        logger.info("Ledger export finished - Rows: {}, Elapsed: {} ms, Rows/s: {}",
+            result.rows(), result.elapsedMillis(), Math.round(result.rowsPerSecond()));
+        return result;
+    }
+
+    private interface RowWriter {
+        void start() throws IOException;
+
+        void write(ResultSet row) throws IOException, SQLException;
+
+        void finish() throws IOException;
+    }
+
+    // One JSON object per line
+    private static final class NdjsonRowWriter implements RowWriter {
+        private final Writer writer;
+        private JsonGenerator generator;
+
+        NdjsonRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void start() throws IOException {
+            generator = JSON.createGenerator(writer);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void write(ResultSet row) throws IOException, SQLException {
+            generator.writeStartObject();
+            generator.writeStringField(COLUMNS[0], uuid(row, "id"));
+            generator.writeStringField(COLUMNS[1], uuid(row, "wallet_id"));
+            generator.writeStringField(COLUMNS[2], uuid(row, "transaction_id"));
+            generator.writeStringField(COLUMNS[3], row.getString("type"));
+            generator.writeFieldName(COLUMNS[4]);
+            generator.writeNumber(row.getBigDecimal("amount"));
+            generator.writeFieldName(COLUMNS[5]);
+            generator.writeNumber(row.getBigDecimal("balance_after"));
+            generator.writeStringField(COLUMNS[6], row.getString("description"));
+            generator.writeStringField(COLUMNS[7], createdAt(row));
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.flush();
+        }
+    }
+
+    // RFC 4180, with a header row
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer writer;
+
+        CsvRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void start() throws IOException {
+            writer.write(String.join(",", COLUMNS));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(ResultSet row) throws IOException, SQLException {
+            writer.write(uuid(row, "id"));
+            writer.write(',');
+            writer.write(uuid(row, "wallet_id"));
+            writer.write(',');
+            writer.write(uuid(row, "transaction_id"));
+            writer.write(',');
+            writer.write(row.getString("type"));
+            writer.write(',');
+            writer.write(row.getBigDecimal("amount").toPlainString());
+            writer.write(',');
+            BigDecimal balanceAfter = row.getBigDecimal("balance_after");
+            if (balanceAfter != null) {
+                writer.write(balanceAfter.toPlainString());
+            }
+            writer.write(',');
+            writeEscaped(row.getString("description"));
+            writer.write(',');
+            writer.write(createdAt(row));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void finish() {
+        }
+
+        private void writeEscaped(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    private static String uuid(ResultSet row, String column) throws SQLException {
+        return UuidUtils.fromBytes(row.getBytes(column)).toString();
+    }
+
+    private static String createdAt(ResultSet row) throws SQLException {
+        return row.getTimestamp("created_at").toLocalDateTime().toString();
+    }
+}
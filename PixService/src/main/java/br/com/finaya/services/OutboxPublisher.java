@@ -0,0 +1,16 @@
+package br.com.finaya.services;
+
+import java.util.List;
+
+import br.com.finaya.model.OutboxEvent;
+
+/**
+ * Destination of the events drained from the outbox by {@link OutboxRelay}.
+ * Events are handed over in outbox order and may be delivered more than once
+ * if the relay fails before marking them as published, so consumers must
+ * dedupe on the event id.
+ */
+public interface OutboxPublisher {
+
+    void publish(List<OutboxEvent> events);
+}
@@ -0,0 +1,143 @@
+package br.com.finaya.services;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.finaya.model.OutboxEvent;
+import br.com.finaya.repositories.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Drains the outbox to the configured {@link OutboxPublisher}.
+ *
+ * Each batch is claimed with SKIP LOCKED, handed to the publisher in id order
+ * and marked as published in the same transaction, so instances running the
+ * relay in parallel split the pending events between them. Order is kept
+ * inside a batch, not across instances. A publisher failure rolls the batch
+ * back and it is retried on the next run.
+ *
+ * Published events are kept for pix.outbox.purge.retention-days and then
+ * deleted in batches, each its own statement, so the purge never holds many
+ * row locks at once.
+ */
+@Service
+public class OutboxRelay {
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final OutboxPublisher publisher;
+    private final TransactionTemplate transactionTemplate;
+
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final AtomicLong pending = new AtomicLong();
+    private final Counter publishedCounter;
+    private final Counter purgedCounter;
+    private final Timer batchTimer;
+
+    @Value("${pix.outbox.relay.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${pix.outbox.relay.batch-size:200}")
+    private int batchSize = 200;
+
+    @Value("${pix.outbox.purge.enabled:true}")
+    private boolean purgeEnabled = true;
+
+    @Value("${pix.outbox.purge.retention-days:7}")
+    private int retentionDays = 7;
+
+    @Value("${pix.outbox.purge.batch-size:1000}")
+    private int purgeBatchSize = 1000;
+
+    public OutboxRelay(OutboxEventRepository outboxEventRepository,
+                       OutboxPublisher publisher,
+                       TransactionTemplate transactionTemplate,
+                       MeterRegistry meterRegistry) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.publisher = publisher;
+        this.transactionTemplate = transactionTemplate;
+        this.publishedCounter = Counter.builder("pix.outbox.published")
+            .description("Outbox events handed to the publisher")
+            .register(meterRegistry);
+        this.purgedCounter = Counter.builder("pix.outbox.purged")
+            .description("Published outbox events deleted after their retention")
+            .register(meterRegistry);
+        this.batchTimer = Timer.builder("pix.outbox.relay.batch")
+            .description("Time to claim, publish and mark one outbox batch")
+            .register(meterRegistry);
+        Gauge.builder("pix.outbox.lag", lagMillis, lag -> lag.get() / 1000.0)
+            .description("Age in seconds of the oldest unpublished outbox event")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+        Gauge.builder("pix.outbox.pending", pending, AtomicLong::get)
+            .description("Unpublished outbox events")
+            .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${pix.outbox.relay.interval-ms:1000}", fixedDelayString = "${pix.outbox.relay.interval-ms:1000}")
+    public void relay() {
+        if (!enabled) {
+            return;
+        }
+        lagMillis.set(outboxEventRepository.pendingLagMillis());
+        pending.set(outboxEventRepository.countPending());
+
+        int relayed;
+        do {
+            relayed = relayBatch();
+        } while (relayed == batchSize);
+    }
+
+    @Scheduled(fixedDelayString = "${pix.outbox.purge.interval-ms:3600000}")
+    public void purge() {
+        if (!purgeEnabled) {
+            return;
+        }
+        int purged = 0;
+        try {
+            int deleted;
+            do {
+                deleted = outboxEventRepository.deletePublishedBefore(retentionDays, purgeBatchSize);
+                purged += deleted;
+            } while (deleted == purgeBatchSize);
+        } catch (DataAccessException e) {
+            logger.warn("Outbox purge failed, it will be retried: {}", e.getMessage());
+        }
+        if (purged > 0) {
+            purgedCounter.increment(purged);
+            logger.info("Purged published outbox events: {}", purged);
+        }
+    }
+
+    // Returns how many events were published, 0 when nothing was pending
+    public int relayBatch() {
+        try {
+            int published = batchTimer.record(() -> transactionTemplate.execute(status -> {
+                List<OutboxEvent> events = outboxEventRepository.claimPending(batchSize);
+                if (events.isEmpty()) {
+                    return 0;
+                }
+                publisher.publish(events);
+                outboxEventRepository.markPublished(events);
+                return events.size();
+            }));
+            // Counted after the commit so batches rolled back are not included
+            publishedCounter.increment(published);
+            return published;
+        } catch (RuntimeException e) {
+            logger.error("Outbox relay failed, the batch will be retried: {}", e.getMessage());
+            return 0;
+        }
+    }
+}
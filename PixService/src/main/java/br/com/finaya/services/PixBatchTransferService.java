@@ -0,0 +1,406 @@
+package br.com.finaya.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.com.finaya.events.PixTransferEvent;
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.model.LedgerEntry;
+import br.com.finaya.model.PixKey;
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.model.Wallet;
+import br.com.finaya.repositories.IdempotencyClaimRepository;
+import br.com.finaya.repositories.IdempotencyRecordRepository;
+import br.com.finaya.repositories.JdbcBatchRepository;
+import br.com.finaya.repositories.PixKeyRepository;
+import br.com.finaya.repositories.PixTransferRepository;
+
+/**
+ * Initiates many Pix transfers in one transaction.
+ *
+ * Every item is validated in memory against wallets locked once for the whole
+ * batch, so an item that fails (unknown key, insufficient balance...) is
+ * reported back without rolling back the others. Items whose idempotency key
+ * was already used are answered from the existing transfer, also when a
+ * concurrent request claims the key while the batch runs.
+ */
+@Service
+@Transactional
+public class PixBatchTransferService {
+    private static final Logger logger = LoggerFactory.getLogger(PixBatchTransferService.class);
+
+    private final PixKeyRepository pixKeyRepository;
+    private final PixTransferRepository pixTransferRepository;
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final IdempotencyClaimRepository idempotencyClaimRepository;
+    private final JdbcBatchRepository jdbcBatchRepository;
+    private final WalletLockService walletLockService;
+    private final WalletBalanceSlotService balanceSlotService;
+    private final WalletEngine walletEngine;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    private final WalletBalanceCache balanceCache;
+
+    @Value("${pix.transfers.batch.max-size:1000}")
+    private int maxBatchSize = 1000;
+
+    public PixBatchTransferService(PixKeyRepository pixKeyRepository,
+                                   PixTransferRepository pixTransferRepository,
+                                   IdempotencyRecordRepository idempotencyRecordRepository,
+                                   IdempotencyClaimRepository idempotencyClaimRepository,
+                                   JdbcBatchRepository jdbcBatchRepository,
+                                   WalletLockService walletLockService,
+                                   WalletBalanceSlotService balanceSlotService,
+                                   WalletEngine walletEngine,
+                                   TransactionTemplate transactionTemplate,
+                                   ApplicationEventPublisher eventPublisher,
+                                   ObjectMapper objectMapper,
+                                   WalletBalanceCache balanceCache) {
+        this.pixKeyRepository = pixKeyRepository;
+        this.pixTransferRepository = pixTransferRepository;
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.idempotencyClaimRepository = idempotencyClaimRepository;
+        this.jdbcBatchRepository = jdbcBatchRepository;
+        this.walletLockService = walletLockService;
+        this.balanceSlotService = balanceSlotService;
+        this.walletEngine = walletEngine;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.objectMapper = objectMapper;
+        this.balanceCache = balanceCache;
+    }
+
+    // Not transactional itself: the lock-based path opens its own transaction and the engine commits on its own
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<BatchTransferResult> initiatePixTransfers(List<BatchTransferItem> items) {
+        if (items == null || items.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one transfer");
+        }
+        if (items.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch exceeds the maximum of " + maxBatchSize + " transfers");
+        }
+        long initiatedAt = System.nanoTime();
+        logger.info("Initiating PIX transfer batch - Items: {}", items.size());
+
+        List<BatchTransferResult> results = walletEngine.isEnabled()
+            ? initiateWithEngine(items, initiatedAt)
+            : transactionTemplate.execute(status -> initiateWithLocks(items, initiatedAt));
+        return answerCollisions(items, results);
+    }
+
+    /**
+     * Items whose key a concurrent request claimed are left null in the
+     * results, they are answered from that request once this batch committed.
+     */
+    private List<BatchTransferResult> initiateWithLocks(List<BatchTransferItem> items, long initiatedAt) {
+        Lookups lookups = lookup(items);
+
+        // Keys are claimed before any wallet is locked, in the same order as single transfers
+        Map<UUID, IdempotencyRecord> claims = new HashMap<>();
+        for (BatchTransferItem item : items) {
+            if (isComplete(item) && !lookups.existingRecords().containsKey(item.idempotencyKey())
+                    && lookups.pixKeys().containsKey(item.toPixKey())) {
+                claims.computeIfAbsent(item.idempotencyKey(),
+                    key -> new IdempotencyRecord(key, IdempotencyRecord.Operation.PIX_TRANSFER));
+            }
+        }
+        Set<UUID> collided = idempotencyClaimRepository.claimKeys(new ArrayList<>(claims.values())).stream()
+            .map(IdempotencyRecord::getRecordKey)
+            .collect(Collectors.toSet());
+
+        // Only source wallets change balance, lock each of them once
+        Set<UUID> sourceWalletIds = items.stream()
+            .filter(item -> claims.containsKey(item.idempotencyKey()) && !collided.contains(item.idempotencyKey()))
+            .map(BatchTransferItem::fromWalletId)
+            .filter(id -> id != null)
+            .collect(Collectors.toSet());
+        Map<UUID, Wallet> wallets = sourceWalletIds.isEmpty() ? Map.of() :
+            walletLockService.lockWallets(sourceWalletIds);
+
+        List<BatchTransferResult> results = new ArrayList<>(items.size());
+        List<PixTransfer> transfers = new ArrayList<>();
+        List<LedgerEntry> ledgerEntries = new ArrayList<>();
+        List<IdempotencyRecord> records = new ArrayList<>();
+        Map<UUID, PixTransfer> createdInBatch = new HashMap<>();
+        Set<UUID> failedInBatch = new HashSet<>();
+
+        for (BatchTransferItem item : items) {
+            UUID key = item.idempotencyKey();
+            BatchTransferResult precheck = precheck(item, lookups, createdInBatch, failedInBatch);
+            if (precheck != null) {
+                results.add(precheck);
+                continue;
+            }
+            if (collided.contains(key)) {
+                results.add(null);
+                continue;
+            }
+
+            PixKey pixKey = lookups.pixKeys().get(item.toPixKey());
+            Wallet fromWallet = wallets.get(item.fromWalletId());
+            if (fromWallet == null) {
+                failedInBatch.add(key);
+                results.add(BatchTransferResult.failed(key, "From wallet not found: " + item.fromWalletId()));
+                continue;
+            }
+
+            try {
+                balanceSlotService.ensureAvailable(fromWallet, item.amount());
+                fromWallet.withdraw(item.amount());
+                balanceCache.putAfterCommit(fromWallet);
+            } catch (IllegalArgumentException e) {
+                failedInBatch.add(key);
+                results.add(BatchTransferResult.failed(key, e.getMessage()));
+                continue;
+            }
+
+            PixTransfer transfer = new PixTransfer(item.fromWalletId(), pixKey.getWalletId(), item.amount(), key);
+            transfers.add(transfer);
+            ledgerEntries.add(new LedgerEntry(
+                item.fromWalletId(),
+                transfer.getEndToEndId(),
+                item.amount().negate(),
+                LedgerEntry.EntryType.PIX_RESERVED,
+                balanceSlotService.balanceAfter(fromWallet),
+                "PIX transfer reserved - " + transfer.getEndToEndId()
+            ));
+            records.add(successRecord(claims.get(key), transfer));
+            eventPublisher.publishEvent(PixTransferEvent.created(transfer, initiatedAt));
+            createdInBatch.put(key, transfer);
+            results.add(BatchTransferResult.created(key, transfer));
+        }
+
+        // Failed items leave no trace, their keys can be used again
+        idempotencyClaimRepository.releaseKeys(failedInBatch.stream()
+            .map(claims::get)
+            .filter(claim -> claim != null && !collided.contains(claim.getRecordKey()))
+            .toList());
+
+        // Wallet balances are flushed by the persistence context on commit
+        jdbcBatchRepository.insertPixTransfers(transfers);
+        jdbcBatchRepository.insertLedgerEntries(ledgerEntries);
+        jdbcBatchRepository.insertClaimedIdempotencyRecords(records);
+
+        logger.info("PIX transfer batch processed - Items: {}, Created: {}", items.size(), transfers.size());
+        return results;
+    }
+
+    /**
+     * Same validation as the lock-based path, but each accepted item becomes a
+     * wallet engine command. Commands of the batch are queued at once and the
+     * engine groups them into a few commits.
+     */
+    private List<BatchTransferResult> initiateWithEngine(List<BatchTransferItem> items, long initiatedAt) {
+        Lookups lookups = lookup(items);
+
+        List<BatchTransferResult> results = new ArrayList<>(items.size());
+        Map<Integer, CompletableFuture<BigDecimal>> submitted = new HashMap<>();
+        Map<UUID, PixTransfer> createdInBatch = new HashMap<>();
+        Set<UUID> failedInBatch = new HashSet<>();
+
+        for (BatchTransferItem item : items) {
+            UUID key = item.idempotencyKey();
+            BatchTransferResult precheck = precheck(item, lookups, createdInBatch, failedInBatch);
+            if (precheck != null) {
+                results.add(precheck);
+                continue;
+            }
+
+            PixKey pixKey = lookups.pixKeys().get(item.toPixKey());
+            PixTransfer transfer = new PixTransfer(item.fromWalletId(), pixKey.getWalletId(), item.amount(), key);
+            submitted.put(results.size(), walletEngine.submit(
+                WalletEngine.Command.debit(item.fromWalletId(), item.amount(), LedgerEntry.EntryType.PIX_RESERVED,
+                        transfer.getEndToEndId(), "PIX transfer reserved - " + transfer.getEndToEndId())
+                    .creating(transfer)
+                    .publishing(PixTransferEvent.created(transfer, initiatedAt))
+                    .recording(successRecord(new IdempotencyRecord(key, IdempotencyRecord.Operation.PIX_TRANSFER), transfer))));
+            createdInBatch.put(key, transfer);
+            results.add(BatchTransferResult.created(key, transfer));
+        }
+
+        // Items rejected by the engine are reported as failed, in-batch duplicates of them too.
+        // Items whose key a concurrent request claimed are left null, as in the lock-based path
+        Set<UUID> rejected = new HashSet<>();
+        Set<UUID> collided = new HashSet<>();
+        submitted.forEach((index, future) -> {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                UUID key = results.get(index).idempotencyKey();
+                if (e.getCause() instanceof DuplicateKeyException) {
+                    collided.add(key);
+                    results.set(index, null);
+                } else {
+                    rejected.add(key);
+                    results.set(index, BatchTransferResult.failed(key, e.getCause().getMessage()));
+                }
+            }
+        });
+        for (int i = 0; i < results.size(); i++) {
+            BatchTransferResult result = results.get(i);
+            if (result != null && result.outcome() == Outcome.DUPLICATE) {
+                if (rejected.contains(result.idempotencyKey())) {
+                    results.set(i, BatchTransferResult.failed(result.idempotencyKey(), "Duplicate request with previous error"));
+                } else if (collided.contains(result.idempotencyKey())) {
+                    results.set(i, null);
+                }
+            }
+        }
+
+        logger.info("PIX transfer batch processed by wallet engine - Items: {}, Created: {}",
+            items.size(), submitted.size() - rejected.size() - collided.size());
+        return results;
+    }
+
+    // Answers the items left null from the requests that claimed their keys, committed by now
+    private List<BatchTransferResult> answerCollisions(List<BatchTransferItem> items, List<BatchTransferResult> results) {
+        List<BatchTransferItem> collided = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == null) {
+                collided.add(items.get(i));
+            }
+        }
+        if (collided.isEmpty()) {
+            return results;
+        }
+
+        Lookups lookups = lookup(collided);
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == null) {
+                UUID key = items.get(i).idempotencyKey();
+                IdempotencyRecord record = lookups.existingRecords().get(key);
+                results.set(i, record == null
+                    ? BatchTransferResult.failed(key, "Duplicate request in progress")
+                    : replay(key, record, lookups.existingTransfers().get(key)));
+            }
+        }
+        logger.info("PIX transfer batch items answered from concurrent requests - Items: {}", collided.size());
+        return results;
+    }
+
+    // Keys already used before this batch and Pix keys, resolved in one query each
+    private Lookups lookup(List<BatchTransferItem> items) {
+        Set<UUID> idempotencyKeys = items.stream()
+            .map(BatchTransferItem::idempotencyKey)
+            .filter(key -> key != null)
+            .collect(Collectors.toSet());
+
+        Map<UUID, IdempotencyRecord> existingRecords = idempotencyKeys.isEmpty() ? Map.of() :
+            idempotencyRecordRepository.findByRecordKeyIn(idempotencyKeys).stream()
+                .collect(Collectors.toMap(IdempotencyRecord::getRecordKey, Function.identity()));
+        Map<UUID, PixTransfer> existingTransfers = existingRecords.isEmpty() ? Map.of() :
+            pixTransferRepository.findByIdempotencyKeyIn(existingRecords.keySet()).stream()
+                .collect(Collectors.toMap(PixTransfer::getIdempotencyKey, Function.identity()));
+
+        Set<String> pixKeyValues = items.stream()
+            .map(BatchTransferItem::toPixKey)
+            .filter(key -> key != null)
+            .collect(Collectors.toSet());
+        Map<String, PixKey> pixKeys = pixKeyValues.isEmpty() ? Map.of() :
+            pixKeyRepository.findActiveByKeyValues(pixKeyValues).stream()
+                .collect(Collectors.toMap(PixKey::getKeyValue, Function.identity()));
+
+        return new Lookups(existingRecords, existingTransfers, pixKeys);
+    }
+
+    // Result for items answered without touching a wallet, null when the item must be processed
+    private BatchTransferResult precheck(BatchTransferItem item, Lookups lookups,
+                                         Map<UUID, PixTransfer> createdInBatch, Set<UUID> failedInBatch) {
+        UUID key = item.idempotencyKey();
+        if (!isComplete(item)) {
+            return BatchTransferResult.failed(key, "Invalid transfer request");
+        }
+
+        if (lookups.existingRecords().containsKey(key)) {
+            return replay(key, lookups.existingRecords().get(key), lookups.existingTransfers().get(key));
+        }
+        if (createdInBatch.containsKey(key)) {
+            return BatchTransferResult.duplicate(key, createdInBatch.get(key));
+        }
+        if (failedInBatch.contains(key)) {
+            return BatchTransferResult.failed(key, "Duplicate request with previous error");
+        }
+
+        if (!lookups.pixKeys().containsKey(item.toPixKey())) {
+            failedInBatch.add(key);
+            return BatchTransferResult.failed(key, "Pix key not found: " + item.toPixKey());
+        }
+        return null;
+    }
+
+    private static boolean isComplete(BatchTransferItem item) {
+        return item.idempotencyKey() != null && item.fromWalletId() != null && item.toPixKey() != null && item.amount() != null;
+    }
+
+    private BatchTransferResult replay(UUID key, IdempotencyRecord record, PixTransfer transfer) {
+        if (transfer != null) {
+            return BatchTransferResult.duplicate(key, transfer);
+        }
+        if (record.getErrorType() != null) {
+            return BatchTransferResult.failed(key, "Duplicate request with previous error: " + record.getErrorMessage());
+        }
+        if (record.getResultType() != null) {
+            return BatchTransferResult.failed(key, "Idempotency key already used by another operation");
+        }
+        return BatchTransferResult.failed(key, "Duplicate request in progress");
+    }
+
+    private IdempotencyRecord successRecord(IdempotencyRecord record, PixTransfer transfer) {
+        record.markSuccess(transfer);
+        try {
+            record.setResultData(objectMapper.writeValueAsString(transfer));
+        } catch (JsonProcessingException e) {
+            record.setResultData("{}");
+        }
+        return record;
+    }
+
+    private record Lookups(Map<UUID, IdempotencyRecord> existingRecords,
+                           Map<UUID, PixTransfer> existingTransfers,
+                           Map<String, PixKey> pixKeys) {}
+
+    public record BatchTransferItem(UUID idempotencyKey, UUID fromWalletId, String toPixKey, BigDecimal amount) {}
+
+    public record BatchTransferResult(UUID idempotencyKey, UUID endToEndId, String status, Outcome outcome, String error) {
+
+        static BatchTransferResult created(UUID key, PixTransfer transfer) {
+            return new BatchTransferResult(key, transfer.getEndToEndId(), transfer.getStatus().name(), Outcome.CREATED, null);
+        }
+
+        static BatchTransferResult duplicate(UUID key, PixTransfer transfer) {
+            return new BatchTransferResult(key, transfer.getEndToEndId(), transfer.getStatus().name(), Outcome.DUPLICATE, null);
+        }
+
+        static BatchTransferResult failed(UUID key, String error) {
+            return new BatchTransferResult(key, null, null, Outcome.FAILED, error);
+        }
+    }
+
+    public enum Outcome {
+        CREATED, DUPLICATE, FAILED
+    }
+}
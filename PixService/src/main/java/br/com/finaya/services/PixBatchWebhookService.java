@@ -0,0 +1,366 @@
+package br.com.finaya.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.model.Wallet;
+import br.com.finaya.model.WebhookInboxEvent;
+import br.com.finaya.repositories.IdempotencyClaimRepository;
+import br.com.finaya.repositories.IdempotencyRecordRepository;
+import br.com.finaya.repositories.JdbcBatchRepository;
+import br.com.finaya.repositories.PixTransferRepository;
+
+/**
+ * Applies many webhook events in one transaction.
+ *
+ * Events are deduplicated by eventId, within the batch and against events
+ * already processed, and the events of each transfer are coalesced into its
+ * final state: the CONFIRMED or REJECTED event that occurred last finalizes a
+ * pending transfer and the others are ignored, the same rule as the webhook
+ * inbox worker. Events without a readable occurredAt count as the latest, in
+ * batch order.
+ *
+ * The keys of the events are claimed first, an event whose key a concurrent
+ * delivery holds is reported as a duplicate. The wallets of all transfers are
+ * then locked once, in one ordered statement, before the transfers are read.
+ */
+@Service
+@Transactional
+public class PixBatchWebhookService {
+    private static final Logger logger = LoggerFactory.getLogger(PixBatchWebhookService.class);
+
+    private final PixTransferRepository pixTransferRepository;
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final IdempotencyClaimRepository idempotencyClaimRepository;
+    private final JdbcBatchRepository jdbcBatchRepository;
+    private final PixTransferService pixTransferService;
+    private final WalletLockService walletLockService;
+    private final WalletBalanceSlotService balanceSlotService;
+    private final WalletEngine walletEngine;
+    private final WebhookDedupeFilter webhookDedupeFilter;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${pix.webhooks.batch.max-size:1000}")
+    private int maxBatchSize = 1000;
+
+    public PixBatchWebhookService(PixTransferRepository pixTransferRepository,
+                                  IdempotencyRecordRepository idempotencyRecordRepository,
+                                  IdempotencyClaimRepository idempotencyClaimRepository,
+                                  JdbcBatchRepository jdbcBatchRepository,
+                                  PixTransferService pixTransferService,
+                                  WalletLockService walletLockService,
+                                  WalletBalanceSlotService balanceSlotService,
+                                  WalletEngine walletEngine,
+                                  WebhookDedupeFilter webhookDedupeFilter,
+                                  TransactionTemplate transactionTemplate) {
+        this.pixTransferRepository = pixTransferRepository;
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.idempotencyClaimRepository = idempotencyClaimRepository;
+        this.jdbcBatchRepository = jdbcBatchRepository;
+        this.pixTransferService = pixTransferService;
+        this.walletLockService = walletLockService;
+        this.balanceSlotService = balanceSlotService;
+        this.walletEngine = walletEngine;
+        this.webhookDedupeFilter = webhookDedupeFilter;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    // Not transactional itself: the lock-based path opens its own transaction and the engine commits on its own
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<BatchWebhookResult> processWebhooks(List<BatchWebhookItem> items) {
+        if (items == null || items.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one event");
+        }
+        if (items.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch exceeds the maximum of " + maxBatchSize + " events");
+        }
+        logger.info("Processing PIX webhook batch - Events: {}", items.size());
+
+        List<BatchWebhookResult> results = walletEngine.isEnabled()
+            ? processWithEngine(items)
+            : transactionTemplate.execute(status -> processWithLocks(items));
+        // Remembered once committed, a rolled back batch must be retried
+        results.stream()
+            .filter(result -> result.outcome() == Outcome.APPLIED || result.outcome() == Outcome.IGNORED)
+            .forEach(result -> webhookDedupeFilter.record(result.eventId()));
+        return results;
+    }
+
+    private List<BatchWebhookResult> processWithLocks(List<BatchWebhookItem> items) {
+        Set<String> processedEventIds = processedEventIds(items);
+        Set<UUID> endToEndIds = endToEndIds(items);
+        List<PixTransferRepository.TransferWallets> known = endToEndIds.isEmpty() ? List.of()
+            : pixTransferRepository.findWalletsByEndToEndIdIn(endToEndIds);
+        Set<UUID> knownIds = known.stream()
+            .map(PixTransferRepository.TransferWallets::getEndToEndId)
+            .collect(Collectors.toSet());
+
+        // Keys are claimed before any wallet is locked, in the same order as single webhooks
+        Map<UUID, IdempotencyRecord> claimed = claimEventKeys(items, processedEventIds, knownIds);
+
+        Set<UUID> walletIds = new LinkedHashSet<>();
+        for (PixTransferRepository.TransferWallets transfer : known) {
+            walletIds.add(transfer.getFromWalletId());
+            if (!balanceSlotService.isSharded(transfer.getToWalletId())) {
+                walletIds.add(transfer.getToWalletId());
+            }
+        }
+        Map<UUID, Wallet> wallets = walletIds.isEmpty() ? Map.of() : walletLockService.lockWallets(walletIds);
+
+        // A plain read would return the transaction's snapshot, possibly older than a finalization committed while
+        // the wallets were being locked. A transfer created since its wallets were looked up is left for a retry.
+        Map<UUID, PixTransfer> transfers = knownIds.isEmpty() ? new HashMap<>()
+            : pixTransferRepository.findAllByIdWithLock(knownIds).stream()
+                .collect(Collectors.toMap(PixTransfer::getEndToEndId, Function.identity()));
+
+        Plan plan = plan(items, processedEventIds, transfers, claimed::get);
+        for (Map.Entry<UUID, BatchWebhookItem> finalizing : plan.finalizing().entrySet()) {
+            PixTransfer transfer = plan.transfers().get(finalizing.getKey());
+            Wallet fromWallet = wallets.get(transfer.getFromWalletId());
+            if ("CONFIRMED".equals(finalizing.getValue().eventType())) {
+                pixTransferService.confirmPending(transfer, fromWallet, wallets.get(transfer.getToWalletId()));
+            } else {
+                pixTransferService.rejectPending(transfer, fromWallet);
+            }
+        }
+        jdbcBatchRepository.insertClaimedIdempotencyRecords(plan.records());
+
+        logger.info("PIX webhook batch processed - Events: {}, Finalized transfers: {}", items.size(), plan.finalizing().size());
+        return plan.results();
+    }
+
+    /**
+     * Same coalescing as the lock-based path, but each finalizing event becomes
+     * a guarded wallet engine command. A transfer finalized concurrently is left
+     * untouched by the guard and its event reported as ignored.
+     */
+    private List<BatchWebhookResult> processWithEngine(List<BatchWebhookItem> items) {
+        Set<String> processedEventIds = processedEventIds(items);
+        Plan plan = plan(items, processedEventIds, findTransfers(endToEndIds(items)), this::record);
+
+        Map<UUID, CompletableFuture<?>> submitted = new LinkedHashMap<>();
+        Set<UUID> recordedByEngine = new HashSet<>();
+        for (Map.Entry<UUID, BatchWebhookItem> finalizing : plan.finalizing().entrySet()) {
+            PixTransfer transfer = plan.transfers().get(finalizing.getKey());
+            BatchWebhookItem item = finalizing.getValue();
+            WalletEngine.Command command = "CONFIRMED".equals(item.eventType())
+                ? pixTransferService.confirmCommand(transfer)
+                : pixTransferService.rejectCommand(transfer);
+            UUID key = IdempotencyService.eventKey(item.eventId());
+            submitted.put(transfer.getEndToEndId(), walletEngine.submit(command.recording(record(key))));
+            recordedByEngine.add(key);
+        }
+
+        List<BatchWebhookResult> results = plan.results();
+        submitted.forEach((endToEndId, future) -> {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                for (int i = 0; i < results.size(); i++) {
+                    BatchWebhookResult result = results.get(i);
+                    if (endToEndId.equals(result.endToEndId()) && result.outcome() == Outcome.APPLIED) {
+                        results.set(i, e.getCause() instanceof DuplicateKeyException
+                            ? new BatchWebhookResult(result.eventId(), endToEndId, null, Outcome.DUPLICATE, null)
+                            : BatchWebhookResult.failed(result.eventId(), endToEndId, e.getCause().getMessage()));
+                    }
+                }
+            }
+        });
+
+        List<IdempotencyRecord> records = plan.records().stream()
+            .filter(record -> !recordedByEngine.contains(record.getRecordKey()))
+            .toList();
+        if (!records.isEmpty()) {
+            Set<UUID> held = transactionTemplate.execute(status -> {
+                List<IdempotencyRecord> heldRecords = idempotencyClaimRepository.claimKeys(records);
+                jdbcBatchRepository.insertClaimedIdempotencyRecords(records.stream()
+                    .filter(record -> !heldRecords.contains(record))
+                    .toList());
+                return heldRecords.stream().map(IdempotencyRecord::getRecordKey).collect(Collectors.toSet());
+            });
+            for (int i = 0; i < results.size(); i++) {
+                BatchWebhookResult result = results.get(i);
+                if (result.outcome() == Outcome.IGNORED && held.contains(IdempotencyService.eventKey(result.eventId()))) {
+                    results.set(i, new BatchWebhookResult(result.eventId(), result.endToEndId(), result.status(), Outcome.DUPLICATE, null));
+                }
+            }
+        }
+
+        logger.info("PIX webhook batch processed by wallet engine - Events: {}, Finalized transfers: {}",
+            items.size(), submitted.size());
+        return results;
+    }
+
+    /**
+     * Decides the outcome of every event, reported in batch order. The final
+     * events of a pending transfer are compared by occurredAt, then by batch
+     * order, and the one that occurred last finalizes it.
+     */
+    private Plan plan(List<BatchWebhookItem> items, Set<String> processedEventIds, Map<UUID, PixTransfer> transfers,
+                      Function<UUID, IdempotencyRecord> recordFor) {
+        List<BatchWebhookResult> results = new ArrayList<>(items.size());
+        List<IdempotencyRecord> records = new ArrayList<>();
+        Set<String> seenEventIds = new HashSet<>();
+        Comparator<Integer> occurredOrder = Comparator
+            .comparing((Integer i) -> WebhookInboxEvent.parseOccurredAt(items.get(i).occurredAt()), WebhookInboxEvent.OCCURRED_AT_ORDER)
+            .thenComparing(Comparator.naturalOrder());
+        Map<UUID, Integer> decisions = new LinkedHashMap<>();
+
+        for (int i = 0; i < items.size(); i++) {
+            BatchWebhookItem item = items.get(i);
+            if (item.endToEndId() == null || item.eventId() == null || item.eventType() == null) {
+                results.add(BatchWebhookResult.failed(item.eventId(), item.endToEndId(), "Invalid webhook event"));
+                continue;
+            }
+            if (processedEventIds.contains(item.eventId()) || !seenEventIds.add(item.eventId())) {
+                results.add(new BatchWebhookResult(item.eventId(), item.endToEndId(), null, Outcome.DUPLICATE, null));
+                continue;
+            }
+
+            PixTransfer transfer = transfers.get(item.endToEndId());
+            if (transfer == null) {
+                // Not remembered, the event can be delivered again once the transfer exists
+                results.add(BatchWebhookResult.failed(item.eventId(), item.endToEndId(), "PIX transfer not found: " + item.endToEndId()));
+                continue;
+            }
+
+            records.add(recordFor.apply(IdempotencyService.eventKey(item.eventId())));
+            boolean finalEvent = "CONFIRMED".equals(item.eventType()) || "REJECTED".equals(item.eventType());
+            if (finalEvent && transfer.getStatus() == PixTransfer.TransferStatus.PENDING) {
+                decisions.merge(item.endToEndId(), i, BinaryOperator.maxBy(occurredOrder));
+            }
+            results.add(new BatchWebhookResult(item.eventId(), item.endToEndId(), null, Outcome.IGNORED, null));
+        }
+
+        // The decision of each transfer is applied, the final events it supersedes stay ignored
+        Map<UUID, BatchWebhookItem> finalizing = new LinkedHashMap<>();
+        decisions.forEach((endToEndId, i) -> {
+            BatchWebhookItem item = items.get(i);
+            finalizing.put(endToEndId, item);
+            results.set(i, new BatchWebhookResult(item.eventId(), endToEndId, null, Outcome.APPLIED, null));
+        });
+
+        // Every event reports the status its transfer ends the batch with
+        for (int i = 0; i < results.size(); i++) {
+            BatchWebhookResult result = results.get(i);
+            PixTransfer transfer = result.endToEndId() == null ? null : transfers.get(result.endToEndId());
+            if (transfer != null && result.outcome() != Outcome.FAILED) {
+                BatchWebhookItem winner = finalizing.get(result.endToEndId());
+                String status = winner != null ? winner.eventType() : transfer.getStatus().name();
+                results.set(i, new BatchWebhookResult(result.eventId(), result.endToEndId(), status, result.outcome(), null));
+            }
+        }
+        return new Plan(results, finalizing, transfers, records);
+    }
+
+    /**
+     * Claims the keys of the events the plan will record, in one batched
+     * statement. Events whose key a concurrent delivery holds are added to the
+     * processed ones, so the plan reports them as duplicates.
+     */
+    private Map<UUID, IdempotencyRecord> claimEventKeys(List<BatchWebhookItem> items, Set<String> processedEventIds,
+                                                        Set<UUID> knownTransfers) {
+        Map<UUID, IdempotencyRecord> claims = new LinkedHashMap<>();
+        Map<UUID, String> eventIdsByKey = new HashMap<>();
+        for (BatchWebhookItem item : items) {
+            if (item.endToEndId() != null && item.eventId() != null && item.eventType() != null
+                    && !processedEventIds.contains(item.eventId()) && knownTransfers.contains(item.endToEndId())) {
+                UUID key = IdempotencyService.eventKey(item.eventId());
+                claims.computeIfAbsent(key, this::record);
+                eventIdsByKey.put(key, item.eventId());
+            }
+        }
+        if (!claims.isEmpty()) {
+            for (IdempotencyRecord held : idempotencyClaimRepository.claimKeys(new ArrayList<>(claims.values()))) {
+                claims.remove(held.getRecordKey());
+                processedEventIds.add(eventIdsByKey.get(held.getRecordKey()));
+            }
+        }
+        return claims;
+    }
+
+    // Events already processed, from the dedupe filter first and then resolved in one query
+    private Set<String> processedEventIds(List<BatchWebhookItem> items) {
+        Set<String> processed = new HashSet<>();
+        Map<UUID, String> eventIdsByKey = new HashMap<>();
+        items.stream()
+            .map(BatchWebhookItem::eventId)
+            .filter(eventId -> eventId != null)
+            .distinct()
+            .forEach(eventId -> {
+                if (webhookDedupeFilter.isDuplicate(eventId)) {
+                    processed.add(eventId);
+                } else {
+                    eventIdsByKey.put(IdempotencyService.eventKey(eventId), eventId);
+                }
+            });
+        if (!eventIdsByKey.isEmpty()) {
+            idempotencyRecordRepository.findByRecordKeyIn(eventIdsByKey.keySet())
+                .forEach(record -> processed.add(eventIdsByKey.get(record.getRecordKey())));
+        }
+        return processed;
+    }
+
+    private Set<UUID> endToEndIds(List<BatchWebhookItem> items) {
+        return items.stream()
+            .map(BatchWebhookItem::endToEndId)
+            .filter(id -> id != null)
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private Map<UUID, PixTransfer> findTransfers(Set<UUID> endToEndIds) {
+        if (endToEndIds.isEmpty()) {
+            return new HashMap<>();
+        }
+        return pixTransferRepository.findAllById(endToEndIds).stream()
+            .collect(Collectors.toMap(PixTransfer::getEndToEndId, Function.identity()));
+    }
+
+    private IdempotencyRecord record(UUID key) {
+        IdempotencyRecord record = new IdempotencyRecord(key, IdempotencyRecord.Operation.PIX_WEBHOOK);
+        record.markSuccess(null);
+        return record;
+    }
+
+    private record Plan(List<BatchWebhookResult> results,
+                        Map<UUID, BatchWebhookItem> finalizing,
+                        Map<UUID, PixTransfer> transfers,
+                        List<IdempotencyRecord> records) {}
+
+    public record BatchWebhookItem(UUID endToEndId, String eventId, String eventType, String occurredAt) {}
+
+    public record BatchWebhookResult(String eventId, UUID endToEndId, String status, Outcome outcome, String error) {
+
+        static BatchWebhookResult failed(String eventId, UUID endToEndId, String error) {
+            return new BatchWebhookResult(eventId, endToEndId, null, Outcome.FAILED, error);
+        }
+    }
+
+    public enum Outcome {
+        APPLIED, IGNORED, DUPLICATE, FAILED
+    }
+}
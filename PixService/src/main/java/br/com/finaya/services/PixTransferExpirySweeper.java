@@ -0,0 +1,128 @@
+package br.com.finaya.services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.model.Wallet;
+import br.com.finaya.repositories.PixTransferRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Rejects transfers whose webhook never arrived, returning the reserved amount
+ * like a REJECTED webhook does.
+ *
+ * Each batch picks the oldest expired PENDING transfers without locking them,
+ * locks their source wallets in one ordered statement and only then claims
+ * the transfers, the same wallets-then-transfer order as webhooks. The claim
+ * skips rows another sweeper holds and re-checks that each transfer is still
+ * pending, a webhook may have finalized it after it was picked. With the
+ * wallet engine enabled the picked transfers are rejected through the webhook
+ * path instead, whose status guard makes a concurrent confirmation or a
+ * second sweeper a no-op.
+ */
+@Service
+public class PixTransferExpirySweeper {
+    private static final Logger logger = LoggerFactory.getLogger(PixTransferExpirySweeper.class);
+
+    private final PixTransferRepository pixTransferRepository;
+    private final PixTransferService pixTransferService;
+    private final WalletLockService walletLockService;
+    private final WalletEngine walletEngine;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter expiredCounter;
+
+    @Value("${pix.transfers.expiry.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${pix.transfers.expiry.after-seconds:1800}")
+    private long expirySeconds = 1800;
+
+    @Value("${pix.transfers.expiry.batch-size:100}")
+    private int batchSize = 100;
+
+    public PixTransferExpirySweeper(PixTransferRepository pixTransferRepository,
+                                    PixTransferService pixTransferService,
+                                    WalletLockService walletLockService,
+                                    WalletEngine walletEngine,
+                                    TransactionTemplate transactionTemplate,
+                                    MeterRegistry meterRegistry) {
+        this.pixTransferRepository = pixTransferRepository;
+        this.pixTransferService = pixTransferService;
+        this.walletLockService = walletLockService;
+        this.walletEngine = walletEngine;
+        this.transactionTemplate = transactionTemplate;
+        this.expiredCounter = Counter.builder("pix.transfers.expired")
+            .description("Pending transfers rejected by the expiry sweeper")
+            .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${pix.transfers.expiry.interval-ms:60000}", fixedDelayString = "${pix.transfers.expiry.interval-ms:60000}")
+    public void sweep() {
+        if (!enabled) {
+            return;
+        }
+        int expired;
+        do {
+            expired = sweepBatch();
+        } while (expired == batchSize);
+    }
+
+    // Returns how many transfers were expired, 0 when nothing expired or the batch failed
+    public int sweepBatch() {
+        try {
+            int expired = walletEngine.isEnabled() ? sweepBatchWithEngine() : sweepBatchWithLocks();
+            if (expired > 0) {
+                expiredCounter.increment(expired);
+                logger.info("Expired pending PIX transfers: {}", expired);
+            }
+            return expired;
+        } catch (RuntimeException e) {
+            // A lock wait timeout or a failed rejection rolls the batch back, it is picked again next run
+            logger.warn("PIX transfer expiry batch failed, it will be retried: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    private int sweepBatchWithLocks() {
+        List<PixTransfer> candidates = pixTransferRepository.findExpiredPending(expirySeconds, batchSize);
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        return transactionTemplate.execute(status -> {
+            Map<UUID, Wallet> wallets = walletLockService.lockWallets(
+                candidates.stream().map(PixTransfer::getFromWalletId).toList());
+            List<PixTransfer> transfers = pixTransferRepository.claimPending(
+                candidates.stream().map(PixTransfer::getEndToEndId).toList());
+            for (PixTransfer transfer : transfers) {
+                pixTransferService.rejectPending(transfer, wallets.get(transfer.getFromWalletId()));
+            }
+            return transfers.size();
+        });
+    }
+
+    private int sweepBatchWithEngine() {
+        List<PixTransfer> transfers = pixTransferRepository.findExpiredPending(expirySeconds, batchSize);
+        int expired = 0;
+        for (PixTransfer transfer : transfers) {
+            String eventId = "expiry-" + transfer.getEndToEndId();
+            try {
+                pixTransferService.processWebhook(transfer.getEndToEndId(), eventId, "REJECTED",
+                    IdempotencyService.eventKey(eventId));
+                expired++;
+            } catch (RuntimeException e) {
+                logger.warn("Could not expire PIX transfer {}: {}", transfer.getEndToEndId(), e.getMessage());
+            }
+        }
+        return expired;
+    }
+}
@@ -1,13 +1,22 @@
 package br.com.finaya.services;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import br.com.finaya.events.PixTransferEvent;
+import br.com.finaya.exceptions.ResourceNotFoundException;
+import br.com.finaya.model.IdempotencyRecord.Operation;
 import br.com.finaya.model.LedgerEntry;
 import br.com.finaya.model.PixKey;
 import br.com.finaya.model.PixTransfer;
@@ -27,45 +36,107 @@ public class PixTransferService {
     private final PixTransferRepository pixTransferRepository;
     private final LedgerEntryRepository ledgerRepository;
     private final IdempotencyService idempotencyService;
+    private final WalletLockService walletLockService;
+    private final WalletBalanceSlotService balanceSlotService;
+    private final WalletEngine walletEngine;
+    private final ApplicationEventPublisher eventPublisher;
+    private final PixTransferStatusRegistry statusRegistry;
+    private final WebhookDedupeFilter webhookDedupeFilter;
+    private final WalletBalanceCache balanceCache;
 
     public PixTransferService(WalletRepository walletRepository,
                             PixKeyRepository pixKeyRepository,
                             PixTransferRepository pixTransferRepository,
                             LedgerEntryRepository ledgerRepository,
-                            IdempotencyService idempotencyService) {
+                            IdempotencyService idempotencyService,
+                            WalletLockService walletLockService,
+                            WalletBalanceSlotService balanceSlotService,
+                            WalletEngine walletEngine,
+                            ApplicationEventPublisher eventPublisher,
+                            PixTransferStatusRegistry statusRegistry,
+                            WebhookDedupeFilter webhookDedupeFilter,
+                            WalletBalanceCache balanceCache) {
         this.walletRepository = walletRepository;
         this.pixKeyRepository = pixKeyRepository;
         this.pixTransferRepository = pixTransferRepository;
         this.ledgerRepository = ledgerRepository;
         this.idempotencyService = idempotencyService;
+        this.walletLockService = walletLockService;
+        this.balanceSlotService = balanceSlotService;
+        this.walletEngine = walletEngine;
+        this.eventPublisher = eventPublisher;
+        this.statusRegistry = statusRegistry;
+        this.webhookDedupeFilter = webhookDedupeFilter;
+        this.balanceCache = balanceCache;
     }
 
+    @Transactional(readOnly = true)
+    public PixTransfer getTransfer(UUID endToEndId) {
+        return pixTransferRepository.findByEndToEndId(endToEndId)
+            .orElseThrow(() -> new ResourceNotFoundException("PIX transfer not found: " + endToEndId));
+    }
+
+    /**
+     * Completes with the final status of the transfer as soon as it is confirmed
+     * or rejected, or with PENDING once the timeout expires. The transfer is read
+     * once, waiting itself costs no queries.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public CompletableFuture<PixTransfer.TransferStatus> awaitFinalStatus(UUID endToEndId, long timeoutMillis) {
+        CompletableFuture<PixTransfer.TransferStatus> notified = statusRegistry.subscribe(endToEndId);
+        PixTransfer.TransferStatus current;
+        try {
+            current = getTransfer(endToEndId).getStatus();
+        } catch (RuntimeException e) {
+            statusRegistry.release(endToEndId, notified);
+            throw e;
+        }
+        if (current != PixTransfer.TransferStatus.PENDING) {
+            statusRegistry.release(endToEndId, notified);
+            return CompletableFuture.completedFuture(current);
+        }
+        // The shared future is never completed by a timeout, each waiter gets its own copy
+        return notified.copy()
+            .completeOnTimeout(PixTransfer.TransferStatus.PENDING, timeoutMillis, TimeUnit.MILLISECONDS)
+            .whenComplete((status, error) -> statusRegistry.release(endToEndId, notified));
+    }
+
+    // Not transactional itself: the lock-based path runs in the idempotency transaction and the engine commits on its own
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public PixTransfer initiatePixTransfer(UUID fromWalletId, String toPixKey, 
                                          BigDecimal amount, UUID idempotencyKey) {
+        long initiatedAt = System.nanoTime();
         logger.info("Initiating PIX transfer - From: {}, ToPixKey: {}, Amount: {}, IdempotencyKey: {}", 
                    fromWalletId, toPixKey, amount, idempotencyKey);
         
-        return idempotencyService.executeWithIdempotency(
+        if (walletEngine.isEnabled()) {
+            return idempotencyService.coalesce(idempotencyKey,
+                () -> initiateWithEngine(fromWalletId, toPixKey, amount, idempotencyKey, initiatedAt));
+        }
+        
+        PixTransfer initiated = idempotencyService.executeWithIdempotency(
             idempotencyKey,
+            Operation.PIX_TRANSFER,
             () -> {
                 // Find destination wallet by Pix key
                 PixKey pixKey = pixKeyRepository.findByKeyValueAndActive(toPixKey)
                     .orElseThrow(() -> new RuntimeException("Pix key not found: " + toPixKey));
                 UUID toWalletId = pixKey.getWalletId();
 
-                // Lock both wallets to prevent race conditions
-                Wallet fromWallet = walletRepository.findByIdWithLock(fromWalletId)
-                    .orElseThrow(() -> new RuntimeException("From wallet not found: " + fromWalletId));
-                Wallet toWallet = walletRepository.findByIdWithLock(toWalletId)
-                    .orElseThrow(() -> new RuntimeException("To wallet not found: " + toWalletId));
+                // Lock both wallets in a single ordered statement to prevent race conditions and deadlocks
+                Map<UUID, Wallet> wallets = walletLockService.lockWallets(fromWalletId, toWalletId);
+                Wallet fromWallet = requireWallet(wallets, fromWalletId, "From");
+                requireWallet(wallets, toWalletId, "To");
 
                 // Create Pix transfer
                 PixTransfer transfer = new PixTransfer(fromWalletId, toWalletId, amount, idempotencyKey);
                 transfer = pixTransferRepository.save(transfer);
 
                 // Reserve amount in from wallet
+                balanceSlotService.ensureAvailable(fromWallet, amount);
                 fromWallet.withdraw(amount);
                 walletRepository.save(fromWallet);
+                balanceCache.putAfterCommit(fromWallet);
 
                 // Create ledger entries
                 LedgerEntry fromEntry = new LedgerEntry(
@@ -73,86 +144,69 @@ public class PixTransferService {
                     transfer.getEndToEndId(),
                     amount.negate(),
                     LedgerEntry.EntryType.PIX_RESERVED,
-                    fromWallet.getBalance(),
+                    balanceSlotService.balanceAfter(fromWallet),
                     "PIX transfer reserved - " + transfer.getEndToEndId()
                 );
                 ledgerRepository.save(fromEntry);
+                eventPublisher.publishEvent(PixTransferEvent.created(transfer, initiatedAt));
 
                 logger.info("PIX transfer initiated successfully - EndToEndId: {}", transfer.getEndToEndId());
                 return transfer;
             }
         );
+        return initiated != null ? initiated : replayedTransfer(idempotencyKey);
     }
 
+    // Transfer created by the first request with this key, for a replay the response filter could not answer
+    private PixTransfer replayedTransfer(UUID idempotencyKey) {
+        return pixTransferRepository.findByIdempotencyKeyIn(List.of(idempotencyKey)).stream()
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Idempotency key already used by another operation"));
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void processWebhook(UUID endToEndId, String eventId, String eventType, UUID idempotencyKey) {
         logger.info("Processing PIX webhook - EndToEndId: {}, EventId: {}, EventType: {}, IdempotencyKey: {}", 
                    endToEndId, eventId, eventType, idempotencyKey);
         
+        if (walletEngine.isEnabled()) {
+            idempotencyService.coalesce(idempotencyKey, () -> processWebhookWithEngine(endToEndId, eventType, idempotencyKey));
+        } else {
+            processWebhookWithLocks(endToEndId, eventType, idempotencyKey);
+        }
+        // Only after the event was applied, a failed attempt must be retried
+        webhookDedupeFilter.record(eventId);
+    }
+
+    private void processWebhookWithLocks(UUID endToEndId, String eventType, UUID idempotencyKey) {
         idempotencyService.executeWithIdempotency(
             idempotencyKey,
+            Operation.PIX_WEBHOOK,
             () -> {
                 PixTransfer transfer = pixTransferRepository.findByEndToEndId(endToEndId)
                     .orElseThrow(() -> new RuntimeException("PIX transfer not found: " + endToEndId));
 
-                // Lock wallets involved in the transfer
-                Wallet fromWallet = walletRepository.findByIdWithLock(transfer.getFromWalletId())
-                    .orElseThrow(() -> new RuntimeException("From wallet not found: " + transfer.getFromWalletId()));
-                Wallet toWallet = walletRepository.findByIdWithLock(transfer.getToWalletId())
-                    .orElseThrow(() -> new RuntimeException("To wallet not found: " + transfer.getToWalletId()));
+                // A final status never changes again, so a late or stale event is only remembered, without wallet locks
+                if (transfer.getStatus() != PixTransfer.TransferStatus.PENDING) {
+                    logger.info("Stale PIX webhook ignored - EndToEndId: {}, Status: {}", endToEndId, transfer.getStatus());
+                    return null;
+                }
+
+                // Lock wallets involved in the transfer, a hot destination wallet is credited through its slots instead
+                boolean creditToSlot = balanceSlotService.isSharded(transfer.getToWalletId());
+                Map<UUID, Wallet> wallets = creditToSlot
+                    ? walletLockService.lockWallets(transfer.getFromWalletId())
+                    : walletLockService.lockWallets(transfer.getFromWalletId(), transfer.getToWalletId());
+                Wallet fromWallet = requireWallet(wallets, transfer.getFromWalletId(), "From");
+                Wallet toWallet = creditToSlot ? null : requireWallet(wallets, transfer.getToWalletId(), "To");
 
                 if ("CONFIRMED".equals(eventType)) {
                     if (transfer.getStatus() == PixTransfer.TransferStatus.PENDING) {
-                        // Finalize the transfer - credit to destination wallet
-                        toWallet.deposit(transfer.getAmount());
-                        walletRepository.save(toWallet);
-
-                        // Update ledger entries
-                        LedgerEntry fromFinalEntry = new LedgerEntry(
-                            transfer.getFromWalletId(),
-                            transfer.getEndToEndId(),
-                            transfer.getAmount().negate(),
-                            LedgerEntry.EntryType.PIX_OUT,
-                            fromWallet.getBalance(),
-                            "PIX transfer completed - " + transfer.getEndToEndId()
-                        );
-                        ledgerRepository.save(fromFinalEntry);
-
-                        LedgerEntry toEntry = new LedgerEntry(
-                            transfer.getToWalletId(),
-                            transfer.getEndToEndId(),
-                            transfer.getAmount(),
-                            LedgerEntry.EntryType.PIX_IN,
-                            toWallet.getBalance(),
-                            "PIX transfer received - " + transfer.getEndToEndId()
-                        );
-                        ledgerRepository.save(toEntry);
-
-                        transfer.confirm();
-                        pixTransferRepository.save(transfer);
-                        
-                        logger.info("PIX transfer confirmed: {}", endToEndId);
+                        confirmPending(transfer, fromWallet, toWallet);
                     }
                 } else if ("REJECTED".equals(eventType)) {
                     if (transfer.getStatus() == PixTransfer.TransferStatus.PENDING) {
-                        // Return reserved amount to from wallet
-                        fromWallet.deposit(transfer.getAmount());
-                        walletRepository.save(fromWallet);
-
-                        // Create reversal ledger entry
-                        LedgerEntry reversalEntry = new LedgerEntry(
-                            transfer.getFromWalletId(),
-                            transfer.getEndToEndId(),
-                            transfer.getAmount(),
-                            LedgerEntry.EntryType.DEPOSIT,
-                            fromWallet.getBalance(),
-                            "PIX transfer rejected - " + transfer.getEndToEndId()
-                        );
-                        ledgerRepository.save(reversalEntry);
-
-                        transfer.reject();
-                        pixTransferRepository.save(transfer);
-                        
-                        logger.info("PIX transfer rejected: {}", endToEndId);
+                        rejectPending(transfer, fromWallet);
                     }
                 }
 
@@ -161,4 +215,158 @@ public class PixTransferService {
         );
     }
 
+    /**
+     * Confirms a pending transfer and credits the destination wallet, through
+     * its balance slots when toWallet is null. The caller must hold the locks on
+     * the wallets it passes.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void confirmPending(PixTransfer transfer, Wallet fromWallet, Wallet toWallet) {
+        // Update ledger entries
+        LedgerEntry fromFinalEntry = new LedgerEntry(
+            transfer.getFromWalletId(),
+            transfer.getEndToEndId(),
+            transfer.getAmount().negate(),
+            LedgerEntry.EntryType.PIX_OUT,
+            balanceSlotService.balanceAfter(fromWallet),
+            "PIX transfer completed - " + transfer.getEndToEndId()
+        );
+        ledgerRepository.save(fromFinalEntry);
+
+        // Finalize the transfer - credit to destination wallet
+        if (toWallet == null) {
+            LedgerEntry toEntry = new LedgerEntry(
+                transfer.getToWalletId(),
+                transfer.getEndToEndId(),
+                transfer.getAmount(),
+                LedgerEntry.EntryType.PIX_IN,
+                null,
+                "PIX transfer received - " + transfer.getEndToEndId()
+            );
+            ledgerRepository.saveAndFlush(toEntry);
+            balanceSlotService.credit(transfer.getToWalletId(), transfer.getAmount());
+        } else {
+            toWallet.deposit(transfer.getAmount());
+            walletRepository.save(toWallet);
+            balanceCache.putAfterCommit(toWallet);
+
+            LedgerEntry toEntry = new LedgerEntry(
+                transfer.getToWalletId(),
+                transfer.getEndToEndId(),
+                transfer.getAmount(),
+                LedgerEntry.EntryType.PIX_IN,
+                balanceSlotService.balanceAfter(toWallet),
+                "PIX transfer received - " + transfer.getEndToEndId()
+            );
+            ledgerRepository.save(toEntry);
+        }
+
+        transfer.confirm();
+        pixTransferRepository.save(transfer);
+        eventPublisher.publishEvent(PixTransferEvent.confirmed(transfer));
+        
+        logger.info("PIX transfer confirmed: {}", transfer.getEndToEndId());
+    }
+
+    /**
+     * Rejects a pending transfer and returns the reserved amount to the source
+     * wallet. The caller must hold the lock on that wallet.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void rejectPending(PixTransfer transfer, Wallet fromWallet) {
+        // Return reserved amount to from wallet
+        fromWallet.deposit(transfer.getAmount());
+        walletRepository.save(fromWallet);
+        balanceCache.putAfterCommit(fromWallet);
+
+        // Create reversal ledger entry
+        LedgerEntry reversalEntry = new LedgerEntry(
+            transfer.getFromWalletId(),
+            transfer.getEndToEndId(),
+            transfer.getAmount(),
+            LedgerEntry.EntryType.DEPOSIT,
+            balanceSlotService.balanceAfter(fromWallet),
+            "PIX transfer rejected - " + transfer.getEndToEndId()
+        );
+        ledgerRepository.save(reversalEntry);
+
+        transfer.reject();
+        pixTransferRepository.save(transfer);
+        eventPublisher.publishEvent(PixTransferEvent.rejected(transfer));
+        
+        logger.info("PIX transfer rejected: {}", transfer.getEndToEndId());
+    }
+
+    private PixTransfer initiateWithEngine(UUID fromWalletId, String toPixKey, BigDecimal amount, UUID idempotencyKey,
+                                           long initiatedAt) {
+        if (idempotencyService.isReplay(idempotencyKey)) {
+            return replayedTransfer(idempotencyKey);
+        }
+
+        PixKey pixKey = pixKeyRepository.findByKeyValueAndActive(toPixKey)
+            .orElseThrow(() -> new RuntimeException("Pix key not found: " + toPixKey));
+        PixTransfer transfer = new PixTransfer(fromWalletId, pixKey.getWalletId(), amount, idempotencyKey);
+
+        // The transfer, its reservation and the idempotency record are committed together by the engine
+        walletEngine.execute(
+            WalletEngine.Command.debit(fromWalletId, amount, LedgerEntry.EntryType.PIX_RESERVED,
+                    transfer.getEndToEndId(), "PIX transfer reserved - " + transfer.getEndToEndId())
+                .creating(transfer)
+                .publishing(PixTransferEvent.created(transfer, initiatedAt))
+                .recording(idempotencyService.completedRecord(idempotencyKey, Operation.PIX_TRANSFER, transfer)));
+
+        logger.info("PIX transfer initiated successfully - EndToEndId: {}", transfer.getEndToEndId());
+        return transfer;
+    }
+
+    private void processWebhookWithEngine(UUID endToEndId, String eventType, UUID idempotencyKey) {
+        if (idempotencyService.isReplay(idempotencyKey)) {
+            return;
+        }
+
+        PixTransfer transfer = pixTransferRepository.findByEndToEndId(endToEndId)
+            .orElseThrow(() -> new RuntimeException("PIX transfer not found: " + endToEndId));
+
+        // The status change guards the balance change, so only one event finalizes the transfer
+        if ("CONFIRMED".equals(eventType) && transfer.getStatus() == PixTransfer.TransferStatus.PENDING) {
+            walletEngine.execute(confirmCommand(transfer)
+                .recording(idempotencyService.completedRecord(idempotencyKey, Operation.PIX_WEBHOOK, null)));
+            logger.info("PIX transfer confirmation processed: {}", endToEndId);
+        } else if ("REJECTED".equals(eventType) && transfer.getStatus() == PixTransfer.TransferStatus.PENDING) {
+            walletEngine.execute(rejectCommand(transfer)
+                .recording(idempotencyService.completedRecord(idempotencyKey, Operation.PIX_WEBHOOK, null)));
+            logger.info("PIX transfer rejection processed: {}", endToEndId);
+        } else {
+            // Nothing to change, only remember the key
+            idempotencyService.executeWithIdempotency(idempotencyKey, Operation.PIX_WEBHOOK, () -> {});
+        }
+    }
+
+    // Engine counterpart of confirmPending, a no-op once the transfer is no longer pending
+    public WalletEngine.Command confirmCommand(PixTransfer transfer) {
+        UUID endToEndId = transfer.getEndToEndId();
+        return WalletEngine.Command.credit(transfer.getToWalletId(), transfer.getAmount(), LedgerEntry.EntryType.PIX_IN,
+                endToEndId, "PIX transfer received - " + endToEndId)
+            .guardedBy(endToEndId, PixTransfer.TransferStatus.PENDING, PixTransfer.TransferStatus.CONFIRMED)
+            .withCounterpartEntry(transfer.getFromWalletId(), transfer.getAmount().negate(),
+                LedgerEntry.EntryType.PIX_OUT, "PIX transfer completed - " + endToEndId)
+            .publishing(PixTransferEvent.confirmed(transfer));
+    }
+
+    // Engine counterpart of rejectPending, a no-op once the transfer is no longer pending
+    public WalletEngine.Command rejectCommand(PixTransfer transfer) {
+        UUID endToEndId = transfer.getEndToEndId();
+        return WalletEngine.Command.credit(transfer.getFromWalletId(), transfer.getAmount(), LedgerEntry.EntryType.DEPOSIT,
+                endToEndId, "PIX transfer rejected - " + endToEndId)
+            .guardedBy(endToEndId, PixTransfer.TransferStatus.PENDING, PixTransfer.TransferStatus.REJECTED)
+            .publishing(PixTransferEvent.rejected(transfer));
+    }
+
+    private Wallet requireWallet(Map<UUID, Wallet> wallets, UUID walletId, String side) {
+        Wallet wallet = wallets.get(walletId);
+        if (wallet == null) {
+            throw new RuntimeException(side + " wallet not found: " + walletId);
+        }
+        return wallet;
+    }
  }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package br.com.finaya.services;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import br.com.finaya.events.PixTransferEvent;
+import br.com.finaya.model.PixTransfer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Clients waiting for the final status of a transfer. All waiters of the same
+ * transfer share one future that is completed when the confirmation or
+ * rejection commits, so nobody touches the database while waiting.
+ *
+ * Only changes committed by this instance are seen here: a waiter that times
+ * out falls back to reading the transfer. Waiters are answered on the
+ * notifier threads, never on the thread that committed the change.
+ */
+@Service
+public class PixTransferStatusRegistry {
+
+    private final Map<UUID, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final ExecutorService notifier;
+
+    public PixTransferStatusRegistry(MeterRegistry meterRegistry,
+                                     @Value("${pix.transfers.status.notifier-threads:2}") int threads) {
+        AtomicInteger created = new AtomicInteger();
+        this.notifier = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "pix-status-notifier-" + created.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("pix.transfers.status.waiters", waiters, AtomicInteger::get)
+            .description("Clients waiting for the final status of a transfer")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Registers a waiter for the transfer. Subscribe before reading the current
+     * status, so a change committed in between is not missed, and always
+     * {@link #release} the returned future when done with it.
+     */
+    public CompletableFuture<PixTransfer.TransferStatus> subscribe(UUID endToEndId) {
+        Subscription subscription = subscriptions.compute(endToEndId, (id, current) -> {
+            Subscription next = current != null ? current : new Subscription();
+            next.waiters++;
+            return next;
+        });
+        waiters.incrementAndGet();
+        return subscription.status;
+    }
+
+    public void release(UUID endToEndId, CompletableFuture<PixTransfer.TransferStatus> status) {
+        subscriptions.computeIfPresent(endToEndId, (id, current) -> {
+            if (current.status != status) {
+                return current;
+            }
+            return --current.waiters == 0 ? null : current;
+        });
+        waiters.decrementAndGet();
+    }
+
+    @TransactionalEventListener
+    public void onPixTransferEvent(PixTransferEvent event) {
+        PixTransfer.TransferStatus status = switch (event.type()) {
+            case CONFIRMED -> PixTransfer.TransferStatus.CONFIRMED;
+            case REJECTED -> PixTransfer.TransferStatus.REJECTED;
+            default -> null;
+        };
+        if (status == null) {
+            return;
+        }
+        Subscription subscription = subscriptions.remove(event.endToEndId());
+        if (subscription != null) {
+            // Waiters write to their clients, keep that off the webhook and inbox threads
+            subscription.status.completeAsync(() -> status, notifier);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        notifier.shutdownNow();
+    }
+
+    // Guarded by the map's compute, only the future is shared with the waiters
+    private static final class Subscription {
+        private final CompletableFuture<PixTransfer.TransferStatus> status = new CompletableFuture<>();
+        private int waiters;
+    }
+}
@@ -0,0 +1,217 @@
+package br.com.finaya.services;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import br.com.finaya.events.PixTransferEvent;
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.repositories.PixTransferRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Stands in for the SPI when load testing locally. Every committed transfer is
+ * settled after a simulated latency by calling
+ * {@link PixTransferService#processWebhook} the same way the webhook endpoint
+ * does, with the idempotency key derived from the eventId.
+ *
+ * Some transfers also get a redelivery of the same event and some get a stale
+ * event with the opposite outcome after the final one, like an SPI delivering
+ * out of order. The time from the request initiating the transfer to the
+ * return of its final webhook goes to the {@code pix.simulator.settlement}
+ * timer, so it includes the wait for the wallet locks and the commit.
+ */
+@Service
+@ConditionalOnProperty(name = "pix.simulator.enabled", havingValue = "true")
+public class SettlementSimulator {
+    private static final Logger logger = LoggerFactory.getLogger(SettlementSimulator.class);
+
+    public enum Distribution {
+        // Always latency-ms
+        FIXED,
+        // latency-ms plus or minus up to jitter-ms
+        UNIFORM,
+        // latency-ms plus an exponential tail with mean jitter-ms
+        EXPONENTIAL
+    }
+
+    private final PixTransferService pixTransferService;
+    private final PixTransferRepository pixTransferRepository;
+    private final MeterRegistry meterRegistry;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter duplicates;
+    private final Counter outOfOrder;
+    private final Counter failures;
+    private final Counter mismatches;
+
+    @Value("${pix.simulator.distribution:UNIFORM}")
+    private Distribution distribution = Distribution.UNIFORM;
+
+    @Value("${pix.simulator.latency-ms:200}")
+    private long latencyMs = 200;
+
+    @Value("${pix.simulator.jitter-ms:100}")
+    private long jitterMs = 100;
+
+    @Value("${pix.simulator.confirm-ratio:0.9}")
+    private double confirmRatio = 0.9;
+
+    @Value("${pix.simulator.duplicate-ratio:0.05}")
+    private double duplicateRatio = 0.05;
+
+    @Value("${pix.simulator.out-of-order-ratio:0.05}")
+    private double outOfOrderRatio = 0.05;
+
+    public SettlementSimulator(PixTransferService pixTransferService,
+                               PixTransferRepository pixTransferRepository,
+                               MeterRegistry meterRegistry,
+                               @Value("${pix.simulator.threads:4}") int threads) {
+        this.pixTransferService = pixTransferService;
+        this.pixTransferRepository = pixTransferRepository;
+        this.meterRegistry = meterRegistry;
+        AtomicInteger index = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "settlement-simulator-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.duplicates = Counter.builder("pix.simulator.duplicates")
+            .description("Webhook events delivered a second time")
+            .register(meterRegistry);
+        this.outOfOrder = Counter.builder("pix.simulator.out-of-order")
+            .description("Stale webhook events delivered after the final one")
+            .register(meterRegistry);
+        this.failures = Counter.builder("pix.simulator.failures")
+            .description("Webhook deliveries that threw")
+            .register(meterRegistry);
+        this.mismatches = Counter.builder("pix.simulator.mismatches")
+            .description("Transfers whose final status differs from the simulated outcome")
+            .register(meterRegistry);
+        Gauge.builder("pix.simulator.in-flight", inFlight, AtomicInteger::get)
+            .description("Transfers still waiting for their simulated settlement")
+            .register(meterRegistry);
+    }
+
+    @TransactionalEventListener
+    public void onPixTransferEvent(PixTransferEvent event) {
+        if (event.type() != PixTransferEvent.Type.CREATED) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean confirm = random.nextDouble() < confirmRatio;
+        String outcome = confirm ? "CONFIRMED" : "REJECTED";
+
+        List<Delivery> deliveries = new ArrayList<>();
+        Delivery settlement = new Delivery("evt-" + UUID.randomUUID(), outcome, LocalDateTime.now());
+        deliveries.add(settlement);
+        if (random.nextDouble() < duplicateRatio) {
+            deliveries.add(settlement);
+            duplicates.increment();
+        }
+        if (random.nextDouble() < outOfOrderRatio) {
+            // Superseded decision that happened before the settlement but arrives after it
+            deliveries.add(new Delivery("evt-" + UUID.randomUUID(), confirm ? "REJECTED" : "CONFIRMED",
+                settlement.occurredAt().minusNanos(random.nextLong(1, 1_000_000_000L))));
+            outOfOrder.increment();
+        }
+
+        inFlight.incrementAndGet();
+        Settlement pending = new Settlement(event.endToEndId(), outcome, deliveries, event.initiatedAtNanos());
+        scheduler.schedule(() -> deliver(pending, 0), nextLatency(), TimeUnit.MILLISECONDS);
+    }
+
+    // True once every accepted transfer got all of its deliveries
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public Timer settlementTimer(String outcome) {
+        return Timer.builder("pix.simulator.settlement")
+            .description("Time from the initiation of a transfer to its final webhook being processed")
+            .tag("outcome", outcome)
+            .publishPercentiles(0.5, 0.9, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void deliver(Settlement settlement, int index) {
+        Delivery delivery = settlement.deliveries().get(index);
+        try {
+            pixTransferService.processWebhook(settlement.endToEndId(), delivery.eventId(), delivery.eventType(),
+                IdempotencyService.eventKey(delivery.eventId()));
+            if (index == 0) {
+                settlementTimer(settlement.outcome()).record(System.nanoTime() - settlement.startedAt(), TimeUnit.NANOSECONDS);
+            }
+        } catch (RuntimeException e) {
+            failures.increment();
+            logger.warn("Simulated webhook failed - EndToEndId: {}, EventId: {}, Error: {}",
+                settlement.endToEndId(), delivery.eventId(), e.getMessage());
+        }
+
+        if (index + 1 < settlement.deliveries().size()) {
+            long delay = ThreadLocalRandom.current().nextLong(jitterMs + 1);
+            scheduler.schedule(() -> deliver(settlement, index + 1), delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        try {
+            PixTransfer.TransferStatus status = pixTransferRepository.findByEndToEndId(settlement.endToEndId())
+                .map(PixTransfer::getStatus).orElse(null);
+            if (status == null || !status.name().equals(settlement.outcome())) {
+                mismatches.increment();
+                logger.warn("Simulated settlement mismatch - EndToEndId: {}, Expected: {}, Actual: {}",
+                    settlement.endToEndId(), settlement.outcome(), status);
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private long nextLatency() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = switch (distribution) {
+            case FIXED -> latencyMs;
+            case UNIFORM -> latencyMs + random.nextLong(-jitterMs, jitterMs + 1);
+            case EXPONENTIAL -> latencyMs + (long) (-jitterMs * Math.log(1 - random.nextDouble()));
+        };
+        return Math.max(0, latency);
+    }
+
+    private record Delivery(String eventId, String eventType, LocalDateTime occurredAt) {
+    }
+
+    private record Settlement(UUID endToEndId, String outcome, List<Delivery> deliveries, long startedAt) {
+    }
+}
@@ -0,0 +1,171 @@
+package br.com.finaya.services;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.repositories.IdempotencyClaimRepository;
+import br.com.finaya.repositories.IdempotencyRecordRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Idempotency records with a bounded in-memory tier in front of
+ * idempotency_records, so a retry of a completed operation is answered
+ * without a query and a fresh key costs the single insert that claims it.
+ *
+ * Only completed records are cached, and only once the transaction that wrote
+ * them committed: an operation that fails rolls its record back and leaves
+ * nothing in memory, so its retry runs again. A miss falls through to the
+ * database, which stays the source of truth for keys evicted, expired or
+ * written by other instances.
+ */
+@Service
+@ConditionalOnProperty(name = "pix.idempotency.store", havingValue = "tiered", matchIfMissing = true)
+public class TieredIdempotencyStore implements IdempotencyStore {
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final IdempotencyClaimRepository idempotencyClaimRepository;
+    private final IdempotencyRecordCache cache;
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer memoryLookups;
+    private final Timer databaseLookups;
+
+    public TieredIdempotencyStore(IdempotencyRecordRepository idempotencyRecordRepository,
+                                  IdempotencyClaimRepository idempotencyClaimRepository,
+                                  @Value("${pix.idempotency.cache.max-entries:100000}") int maxEntries,
+                                  @Value("${pix.idempotency.cache.ttl-seconds:3600}") long ttlSeconds,
+                                  MeterRegistry meterRegistry) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.idempotencyClaimRepository = idempotencyClaimRepository;
+        this.cache = new IdempotencyRecordCache(maxEntries, TimeUnit.SECONDS.toMillis(ttlSeconds), System::currentTimeMillis);
+        this.hits = Counter.builder("pix.idempotency.cache.hits")
+            .description("Idempotency lookups answered from memory")
+            .register(meterRegistry);
+        this.misses = Counter.builder("pix.idempotency.cache.misses")
+            .description("Idempotency lookups that went to the database")
+            .register(meterRegistry);
+        this.memoryLookups = Timer.builder("pix.idempotency.lookup")
+            .description("Time to look an idempotency key up")
+            .tag("tier", "memory")
+            .register(meterRegistry);
+        this.databaseLookups = Timer.builder("pix.idempotency.lookup")
+            .description("Time to look an idempotency key up")
+            .tag("tier", "database")
+            .register(meterRegistry);
+        Gauge.builder("pix.idempotency.cache.hit.ratio", this, TieredIdempotencyStore::hitRatio)
+            .description("Share of idempotency lookups answered from memory")
+            .register(meterRegistry);
+        Gauge.builder("pix.idempotency.cache.size", cache, IdempotencyRecordCache::size)
+            .description("Idempotency records held in memory")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> find(UUID idempotencyKey) {
+        long started = System.nanoTime();
+        IdempotencyRecord cached = cached(idempotencyKey, started);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<IdempotencyRecord> record = idempotencyRecordRepository.findByRecordKeyIn(List.of(idempotencyKey)).stream()
+            .findFirst();
+        databaseLookups.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        // Already committed by whoever wrote it, so it can be cached right away
+        record.filter(IdempotencyRecord::isCompleted).ifPresent(cache::put);
+        return record;
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> claim(IdempotencyRecord record) {
+        long started = System.nanoTime();
+        IdempotencyRecord cached = cached(record.getRecordKey(), started);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        Optional<IdempotencyRecord> claimed = idempotencyClaimRepository.claim(record);
+        databaseLookups.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        claimed.filter(IdempotencyRecord::isCompleted).ifPresent(cache::put);
+        return claimed;
+    }
+
+    @Override
+    public void complete(IdempotencyRecord record) {
+        idempotencyClaimRepository.complete(record);
+        rememberAfterCommit(record);
+    }
+
+    // Memory only, a fresh key must not pay a query before it is claimed. Misses are counted by the claim that follows
+    @Override
+    public Optional<IdempotencyRecord> findResponse(UUID idempotencyKey) {
+        long started = System.nanoTime();
+        IdempotencyRecord cached = cache.get(idempotencyKey);
+        if (cached == null || !cached.hasResponse()) {
+            return Optional.empty();
+        }
+        hits.increment();
+        memoryLookups.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return Optional.of(cached);
+    }
+
+    @Override
+    public boolean storeResponse(UUID idempotencyKey, int status, String contentType, byte[] body) {
+        if (!idempotencyClaimRepository.storeResponse(idempotencyKey, status, contentType, body)) {
+            return false;
+        }
+        IdempotencyRecord cached = cache.get(idempotencyKey);
+        if (cached != null) {
+            IdempotencyRecord record = new IdempotencyRecord(idempotencyKey, cached.getOperation());
+            record.setExpiresOn(cached.getExpiresOn());
+            record.setRequestFingerprint(cached.getRequestFingerprint());
+            record.setResultType(cached.getResultType());
+            record.setResultData(cached.getResultData());
+            record.setCreatedAt(cached.getCreatedAt());
+            record.setResponseStatus(status);
+            record.setResponseContentType(contentType);
+            record.setResponseBody(body);
+            cache.put(record);
+        }
+        return true;
+    }
+
+    private IdempotencyRecord cached(UUID idempotencyKey, long started) {
+        IdempotencyRecord cached = cache.get(idempotencyKey);
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        memoryLookups.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        return cached;
+    }
+
+    private void rememberAfterCommit(IdempotencyRecord record) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            cache.put(record);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cache.put(record);
+            }
+        });
+    }
+
+    private double hitRatio() {
+        double lookups = hits.count() + misses.count();
+        return lookups == 0 ? 0 : hits.count() / lookups;
+    }
+}
@@ -0,0 +1,295 @@
+package br.com.finaya.services;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import br.com.finaya.model.Wallet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Bounded in-process cache of wallet balances, read by the balance endpoint.
+ *
+ * Writers update it only after their transaction committed, with the balance
+ * and the version the wallet row was written with. An entry is only ever
+ * replaced by a newer version, so a read that loaded the row before a write
+ * cannot put its older balance back once the write is cached. Writes whose
+ * version is not known here, or that happened on another instance, leave a
+ * tombstone instead: it rejects any balance read before it was left, and
+ * any balance older than the version it knows of. Evicting an entry, a
+ * tombstone in particular, counts as an invalidation of its whole stripe, so
+ * a read that started before the eviction cannot be cached after it.
+ *
+ * Wallets using balance slots are never cached, their slots change without
+ * the wallet row.
+ */
+@Service
+public class WalletBalanceCache {
+
+    private static final int STRIPES = 16;
+
+    // Rough heap footprint of one entry: map node, entry, UUID and BigDecimal
+    private static final int ENTRY_BYTES = 200;
+
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final Stripe[] stripes;
+
+    // Bumped by every invalidation, read before a balance is loaded from the database
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter invalidated;
+    private final DistributionSummary staleness;
+
+    @Autowired
+    public WalletBalanceCache(@Value("${pix.wallets.balance-cache.enabled:true}") boolean enabled,
+                              @Value("${pix.wallets.balance-cache.max-entries:100000}") int maxEntries,
+                              @Value("${pix.wallets.balance-cache.ttl-seconds:60}") long ttlSeconds,
+                              MeterRegistry meterRegistry) {
+        this(enabled, maxEntries, ttlSeconds, meterRegistry, System::currentTimeMillis);
+    }
+
+    WalletBalanceCache(boolean enabled, int maxEntries, long ttlSeconds, MeterRegistry meterRegistry,
+                       LongSupplier clock) {
+        this.enabled = enabled;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.clock = clock;
+        this.stripes = new Stripe[STRIPES];
+        int entriesPerStripe = Math.max(1, maxEntries / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(entriesPerStripe, invalidations);
+        }
+
+        this.hits = Counter.builder("pix.wallets.balance-cache.hits")
+            .description("Wallet balances answered from the cache")
+            .register(meterRegistry);
+        this.misses = Counter.builder("pix.wallets.balance-cache.misses")
+            .description("Wallet balances read from the database")
+            .register(meterRegistry);
+        this.invalidated = Counter.builder("pix.wallets.balance-cache.invalidations")
+            .description("Cached wallet balances dropped by a write whose balance was not known here")
+            .register(meterRegistry);
+        this.staleness = DistributionSummary.builder("pix.wallets.balance-cache.staleness")
+            .description("Age of the cached balances served")
+            .baseUnit("milliseconds")
+            .register(meterRegistry);
+        Gauge.builder("pix.wallets.balance-cache.hit.ratio", this, WalletBalanceCache::hitRatio)
+            .description("Share of wallet balance reads answered from the cache")
+            .register(meterRegistry);
+        Gauge.builder("pix.wallets.balance-cache.size", this, WalletBalanceCache::size)
+            .description("Entries held by the wallet balance cache, tombstones included")
+            .register(meterRegistry);
+        Gauge.builder("pix.wallets.balance-cache.memory", this, cache -> (double) cache.size() * ENTRY_BYTES)
+            .description("Estimated heap used by the wallet balance cache")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Optional<BigDecimal> get(UUID walletId) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        long now = clock.getAsLong();
+        Stripe stripe = stripe(walletId);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.get(walletId);
+            if (entry != null && entry.isLive() && now - entry.cachedAt >= ttlMillis) {
+                // Expired, but its version still guards against older reads
+                stripe.put(walletId, Entry.tombstone(entry.version, Long.MAX_VALUE));
+                entry = null;
+            }
+        }
+        if (entry == null || !entry.isLive()) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        staleness.record(now - entry.cachedAt);
+        return Optional.of(entry.balance);
+    }
+
+    // Taken before the balance is read from the database, then handed to put
+    public long readStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches a balance read at the given version, unless the cache already
+     * knows of a newer one or was invalidated since readStamp was taken.
+     */
+    public void put(UUID walletId, BigDecimal balance, long version, long readStamp) {
+        if (!enabled) {
+            return;
+        }
+        Stripe stripe = stripe(walletId);
+        synchronized (stripe) {
+            Entry current = stripe.get(walletId);
+            if (current == null ? readStamp >= stripe.evictedAt : current.accepts(version, readStamp)) {
+                stripe.put(walletId, Entry.live(balance, version, clock.getAsLong()));
+            }
+        }
+    }
+
+    /**
+     * Caches the balance of a wallet written by the current transaction once
+     * it commits. The version is read then, after the flush bumped it.
+     */
+    public void putAfterCommit(Wallet wallet) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> {
+            if (wallet.isSharded() || wallet.getVersion() == null) {
+                invalidate(wallet.getId());
+            } else {
+                put(wallet.getId(), wallet.getBalance(), wallet.getVersion(), readStamp());
+            }
+        });
+    }
+
+    // For a wallet row the current transaction writes without loading it
+    public void invalidateAfterCommit(UUID walletId) {
+        if (enabled) {
+            afterCommit(() -> invalidate(walletId));
+        }
+    }
+
+    // Drops the balances of wallets written without their version being known here
+    public void invalidate(Collection<UUID> walletIds) {
+        walletIds.forEach(this::invalidate);
+    }
+
+    public void invalidate(UUID walletId) {
+        if (!enabled) {
+            return;
+        }
+        Stripe stripe = stripe(walletId);
+        synchronized (stripe) {
+            Entry current = stripe.put(walletId, Entry.tombstone(-1, invalidations.incrementAndGet()));
+            if (current != null && current.isLive()) {
+                invalidated.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops a cached balance older than the version seen in the database,
+     * left alone when the wallet is not cached at all.
+     */
+    public void invalidateOlderThan(UUID walletId, long version) {
+        if (!enabled) {
+            return;
+        }
+        Stripe stripe = stripe(walletId);
+        synchronized (stripe) {
+            Entry current = stripe.get(walletId);
+            if (current != null && current.version < version) {
+                stripe.put(walletId, Entry.tombstone(version, invalidations.incrementAndGet()));
+                if (current.isLive()) {
+                    invalidated.increment();
+                }
+            }
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private Stripe stripe(UUID walletId) {
+        return stripes[(walletId.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    private int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    // A balance with its version, or a tombstone without balance
+    private record Entry(BigDecimal balance, long version, long cachedAt, long invalidation) {
+
+        static Entry live(BigDecimal balance, long version, long cachedAt) {
+            return new Entry(balance, version, cachedAt, 0);
+        }
+
+        // version is the oldest acceptable one, -1 when unknown
+        static Entry tombstone(long version, long invalidation) {
+            return new Entry(null, version, 0, invalidation);
+        }
+
+        boolean isLive() {
+            return balance != null;
+        }
+
+        boolean accepts(long newVersion, long readStamp) {
+            if (isLive()) {
+                return newVersion > version;
+            }
+            return version >= 0 && newVersion >= version || readStamp >= invalidation;
+        }
+    }
+
+    // One LRU segment, guarded by itself
+    private static final class Stripe extends LinkedHashMap<UUID, Entry> {
+        private final int capacity;
+        private final AtomicLong invalidations;
+        // Invalidation taken by the last eviction, a wallet without entry may have been evicted then
+        private long evictedAt;
+
+        Stripe(int capacity, AtomicLong invalidations) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.invalidations = invalidations;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            evictedAt = invalidations.incrementAndGet();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package br.com.finaya.services;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import br.com.finaya.repositories.WalletRepository;
+import br.com.finaya.repositories.WalletRepository.WalletVersionView;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Invalidates the balances this instance cached for wallets written
+ * elsewhere: other instances, or any write path that did not update the
+ * cache itself. Wallets written since the last poll are read by their
+ * updated_at, ids and versions only, and cached balances older than the
+ * version found are dropped.
+ *
+ * Each poll looks back an overlap before the newest updated_at it saw, to
+ * catch transactions that committed after a poll with an earlier timestamp.
+ * That mark is seeded from the newest updated_at in the table and only moves
+ * forward with the rows returned, never with the clock of this instance,
+ * which may not agree with the clocks of the writers.
+ * A cached balance is then stale for at most the poll interval, or until
+ * its time to live for a write committed later than the overlap.
+ */
+@Service
+public class WalletBalanceCacheSync {
+    private static final Logger logger = LoggerFactory.getLogger(WalletBalanceCacheSync.class);
+
+    private final WalletRepository walletRepository;
+    private final WalletBalanceCache balanceCache;
+
+    @Value("${pix.wallets.balance-cache.sync-overlap-ms:5000}")
+    private long overlapMillis = 5000;
+
+    // Null until the first poll reads it from the table
+    private LocalDateTime newestSeen;
+    private volatile long lastSyncedAt = System.currentTimeMillis();
+
+    public WalletBalanceCacheSync(WalletRepository walletRepository,
+                                  WalletBalanceCache balanceCache,
+                                  MeterRegistry meterRegistry) {
+        this.walletRepository = walletRepository;
+        this.balanceCache = balanceCache;
+        Gauge.builder("pix.wallets.balance-cache.sync.lag", this,
+                sync -> (System.currentTimeMillis() - sync.lastSyncedAt) / 1000.0)
+            .description("Time since cached wallet balances were last checked against the database")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${pix.wallets.balance-cache.sync-interval-ms:1000}")
+    public synchronized void sync() {
+        if (!balanceCache.isEnabled()) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        try {
+            if (newestSeen == null) {
+                newestSeen = walletRepository.findNewestUpdatedAt().orElse(null);
+            }
+            // An empty table has nothing cached to invalidate yet
+            if (newestSeen != null) {
+                List<WalletVersionView> written = walletRepository.findVersionsUpdatedSince(
+                    newestSeen.minus(Duration.ofMillis(overlapMillis)));
+                for (WalletVersionView wallet : written) {
+                    balanceCache.invalidateOlderThan(wallet.getId(), wallet.getVersion());
+                    if (wallet.getUpdatedAt().isAfter(newestSeen)) {
+                        newestSeen = wallet.getUpdatedAt();
+                    }
+                }
+            }
+            lastSyncedAt = startedAt;
+        } catch (DataAccessException e) {
+            logger.warn("Wallet balance cache sync failed, it will be retried: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package br.com.finaya.services;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import br.com.finaya.model.Wallet;
+import br.com.finaya.repositories.WalletBalanceSlotRepository;
+import br.com.finaya.repositories.WalletRepository;
+
+/**
+ * Sharded ("hot") wallets keep part of their balance in N slot rows.
+ *
+ * Credits go to a random slot without touching the wallet row, so many
+ * concurrent credits no longer queue on a single row lock. Debits still lock
+ * the wallet row and drain the slots into it when the row alone does not cover
+ * the amount. The balance of a wallet is always its row plus all of its slots.
+ *
+ * No transaction sees an exact balance of a sharded wallet, credits to other
+ * slots may be uncommitted, so its ledger entries leave balance_after empty.
+ * Its historical balances are summed from the entry amounts.
+ *
+ * Which wallets are sharded is cached and refreshed periodically. A stale entry
+ * is harmless: a credit to a wallet believed unsharded just takes the row lock,
+ * and a credit to a slot that no longer exists goes to the wallet row instead.
+ */
+@Service
+@Transactional
+public class WalletBalanceSlotService {
+    private static final Logger logger = LoggerFactory.getLogger(WalletBalanceSlotService.class);
+
+    private final WalletRepository walletRepository;
+    private final WalletBalanceSlotRepository slotRepository;
+    private final WalletBalanceCache balanceCache;
+    private final Map<UUID, Integer> shardedWallets = new ConcurrentHashMap<>();
+
+    @Value("${pix.wallets.balance-slots.max:64}")
+    private int maxSlots = 64;
+
+    public WalletBalanceSlotService(WalletRepository walletRepository, WalletBalanceSlotRepository slotRepository,
+                                    WalletBalanceCache balanceCache) {
+        this.walletRepository = walletRepository;
+        this.slotRepository = slotRepository;
+        this.balanceCache = balanceCache;
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${pix.wallets.balance-slots.refresh-interval-ms:30000}")
+    @Transactional(readOnly = true)
+    public void refreshShardedWallets() {
+        Map<UUID, Integer> current = slotRepository.findShardedWallets();
+        shardedWallets.keySet().retainAll(current.keySet());
+        shardedWallets.putAll(current);
+    }
+
+    public boolean isSharded(UUID walletId) {
+        return shardedWallets.containsKey(walletId);
+    }
+
+    /**
+     * Credits a random slot of a sharded wallet without locking the wallet row.
+     *
+     * Callers write the ledger entry of the credit before calling this: its
+     * foreign key check share-locks the wallet row, and taking that lock before
+     * the slot lock keeps the same row-then-slot order used by debits.
+     */
+    public void credit(UUID walletId, BigDecimal amount) {
+        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+            throw new IllegalArgumentException("Amount must be positive");
+        }
+        Integer slots = shardedWallets.get(walletId);
+        if (slots != null && slotRepository.increment(walletId, ThreadLocalRandom.current().nextInt(slots), amount)) {
+            return;
+        }
+        logger.warn("Wallet {} has no balance slot for the credit, falling back to the wallet row", walletId);
+        shardedWallets.remove(walletId);
+        if (!slotRepository.incrementWalletRow(walletId, amount)) {
+            throw new RuntimeException("Wallet not found: " + walletId);
+        }
+        balanceCache.invalidateAfterCommit(walletId);
+    }
+
+    /**
+     * Makes sure the locked wallet row alone covers the amount, draining its
+     * slots into it if needed.
+     */
+    public void ensureAvailable(Wallet lockedWallet, BigDecimal amount) {
+        if (!lockedWallet.isSharded() || lockedWallet.getBalance().compareTo(amount) >= 0) {
+            return;
+        }
+        BigDecimal drained = slotRepository.drain(lockedWallet.getId());
+        lockedWallet.absorbSlotBalance(drained);
+        logger.info("Rebalanced wallet {} - Drained from slots: {}", lockedWallet.getId(), drained);
+    }
+
+    // balance_after of an entry of the locked wallet, null for sharded wallets
+    public BigDecimal balanceAfter(Wallet lockedWallet) {
+        return lockedWallet.isSharded() ? null : lockedWallet.getBalance();
+    }
+
+    public Wallet configureSlots(UUID walletId, int slots) {
+        if (slots < 0 || slots > maxSlots) {
+            throw new IllegalArgumentException("Balance slots must be between 0 and " + maxSlots);
+        }
+        logger.info("Configuring balance slots - Wallet: {}, Slots: {}", walletId, slots);
+
+        Wallet wallet = walletRepository.findByIdWithLock(walletId)
+            .orElseThrow(() -> new RuntimeException("Wallet not found"));
+
+        // Fold the current slots back into the row before reshaping them
+        if (wallet.isSharded()) {
+            wallet.absorbSlotBalance(slotRepository.drain(walletId));
+        }
+        slotRepository.replaceSlots(walletId, slots);
+        wallet.setBalanceSlots(slots);
+        Wallet savedWallet = walletRepository.save(wallet);
+        balanceCache.putAfterCommit(savedWallet);
+
+        if (slots > 0) {
+            shardedWallets.put(walletId, slots);
+        } else {
+            shardedWallets.remove(walletId);
+        }
+        return savedWallet;
+    }
+}
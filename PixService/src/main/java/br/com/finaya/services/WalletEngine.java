@@ -0,0 +1,493 @@
+package br.com.finaya.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.model.LedgerEntry;
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.model.Wallet;
+import br.com.finaya.repositories.IdempotencyClaimRepository;
+import br.com.finaya.repositories.JdbcBatchRepository;
+import br.com.finaya.repositories.WalletBalanceSlotRepository;
+import br.com.finaya.repositories.WalletEngineRepository;
+
+/**
+ * Optional single-writer execution mode for wallet balances.
+ *
+ * Wallets are partitioned by id hash across a fixed set of single-threaded
+ * executors. Each partition owns the authoritative balance of its wallets in
+ * memory and applies commands one after the other through {@link Wallet#deposit}
+ * and {@link Wallet#withdraw}, so no database lock is needed to serialize them.
+ * Commands waiting in a partition queue are persisted together: their ledger
+ * entries, new balances, transfers and idempotency records are written in one
+ * transaction and callers are only answered after it commits. A partition
+ * never reads the balance of a wallet it does not own: entries on other
+ * wallets are sent to their partition as commands of their own.
+ *
+ * The engine assumes it is the only writer of the balances it owns, so it must
+ * run on a single instance and is not combined with balance slots. Because of
+ * that the row always holds the committed balance, and a wallet left idle for
+ * idle-eviction-seconds is dropped from memory and reloaded on its next command.
+ */
+@Service
+public class WalletEngine {
+    private static final Logger logger = LoggerFactory.getLogger(WalletEngine.class);
+
+    private static final int MAX_LOCK_RETRIES = 3;
+
+    private final WalletEngineRepository engineRepository;
+    private final WalletBalanceSlotRepository slotRepository;
+    private final JdbcBatchRepository jdbcBatchRepository;
+    private final IdempotencyClaimRepository idempotencyClaimRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final WalletBalanceCache balanceCache;
+
+    @Value("${pix.wallets.engine.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${pix.wallets.engine.partitions:8}")
+    private int partitionCount = 8;
+
+    @Value("${pix.wallets.engine.max-group-size:256}")
+    private int maxGroupSize = 256;
+
+    @Value("${pix.wallets.engine.idle-eviction-seconds:600}")
+    private long idleEvictionSeconds = 600;
+
+    private Partition[] partitions;
+
+    public WalletEngine(WalletEngineRepository engineRepository,
+                        WalletBalanceSlotRepository slotRepository,
+                        JdbcBatchRepository jdbcBatchRepository,
+                        IdempotencyClaimRepository idempotencyClaimRepository,
+                        TransactionTemplate transactionTemplate,
+                        ApplicationEventPublisher eventPublisher,
+                        WalletBalanceCache balanceCache) {
+        this.engineRepository = engineRepository;
+        this.slotRepository = slotRepository;
+        this.jdbcBatchRepository = jdbcBatchRepository;
+        this.idempotencyClaimRepository = idempotencyClaimRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.balanceCache = balanceCache;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (!slotRepository.findShardedWallets().isEmpty()) {
+            throw new IllegalStateException("Wallet engine cannot start while wallets use balance slots, set them back to 0 first");
+        }
+        if (idleEvictionSeconds <= 0) {
+            throw new IllegalStateException("pix.wallets.engine.idle-eviction-seconds must be positive");
+        }
+        partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i);
+        }
+        logger.info("Wallet engine started - Partitions: {}, Max group size: {}, Idle eviction: {}s", partitionCount, maxGroupSize,
+            idleEvictionSeconds);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (partitions == null) {
+            return;
+        }
+        for (Partition partition : partitions) {
+            partition.stop();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the command on the partition owning its wallet. The future
+     * completes with the wallet balance once the command is committed.
+     */
+    public CompletableFuture<BigDecimal> submit(Command command) {
+        if (!enabled) {
+            throw new IllegalStateException("Wallet engine is disabled");
+        }
+        partitions[Math.floorMod(command.walletId.hashCode(), partitions.length)].submit(command);
+        return command.result;
+    }
+
+    // Submits the command and waits until it is committed
+    public BigDecimal execute(Command command) {
+        try {
+            return submit(command).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * A balance change on one wallet, plus the rows that must be written in the
+     * same transaction.
+     */
+    public static final class Command {
+        private final UUID walletId;
+        private final boolean debit;
+        private final boolean entryOnly;
+        private final BigDecimal amount;
+        private final LedgerEntry.EntryType entryType;
+        private final UUID transactionId;
+        private final String description;
+        private final CompletableFuture<BigDecimal> result = new CompletableFuture<>();
+
+        private PixTransfer newTransfer;
+        private UUID guardedTransferId;
+        private PixTransfer.TransferStatus guardedFrom;
+        private PixTransfer.TransferStatus guardedTo;
+        private Command counterpart;
+        private IdempotencyRecord idempotencyRecord;
+        private final List<Object> events = new ArrayList<>();
+
+        private Command(UUID walletId, boolean debit, boolean entryOnly, BigDecimal amount,
+                        LedgerEntry.EntryType entryType, UUID transactionId, String description) {
+            this.walletId = walletId;
+            this.debit = debit;
+            this.entryOnly = entryOnly;
+            this.amount = amount;
+            this.entryType = entryType;
+            this.transactionId = transactionId;
+            this.description = description;
+        }
+
+        public static Command credit(UUID walletId, BigDecimal amount, LedgerEntry.EntryType entryType,
+                                     UUID transactionId, String description) {
+            return new Command(walletId, false, false, amount, entryType, transactionId, description);
+        }
+
+        public static Command debit(UUID walletId, BigDecimal amount, LedgerEntry.EntryType entryType,
+                                    UUID transactionId, String description) {
+            return new Command(walletId, true, false, amount, entryType, transactionId, description);
+        }
+
+        // Ledger entry that leaves the balance as it is, its balance after is the current one
+        public static Command entry(UUID walletId, BigDecimal amount, LedgerEntry.EntryType entryType,
+                                    UUID transactionId, String description) {
+            return new Command(walletId, false, true, amount, entryType, transactionId, description);
+        }
+
+        // Inserts the transfer together with the balance change
+        public Command creating(PixTransfer transfer) {
+            this.newTransfer = transfer;
+            return this;
+        }
+
+        // Applies the balance change only if the transfer moves from one status to the other
+        public Command guardedBy(UUID endToEndId, PixTransfer.TransferStatus from, PixTransfer.TransferStatus to) {
+            this.guardedTransferId = endToEndId;
+            this.guardedFrom = from;
+            this.guardedTo = to;
+            return this;
+        }
+
+        /**
+         * Ledger-only entry on another wallet, written by the partition owning
+         * that wallet once this command committed. The command is answered
+         * after the entry was written; a crash in between loses the entry, never
+         * a balance change.
+         */
+        public Command withCounterpartEntry(UUID walletId, BigDecimal amount, LedgerEntry.EntryType entryType, String description) {
+            this.counterpart = entry(walletId, amount, entryType, transactionId, description);
+            return this;
+        }
+
+        // Published inside the group transaction once the command is applied
+        public Command publishing(Object event) {
+            this.events.add(event);
+            return this;
+        }
+
+        public Command recording(IdempotencyRecord record) {
+            this.idempotencyRecord = record;
+            return this;
+        }
+    }
+
+    private final class Partition {
+        private final BlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+        private final ExecutorService executor;
+        // Authoritative balances in access order, only touched by the partition thread
+        private final LinkedHashMap<UUID, LoadedWallet> wallets = new LinkedHashMap<>(16, 0.75f, true);
+        private volatile boolean running = true;
+
+        Partition(int index) {
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wallet-engine-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.execute(this::run);
+        }
+
+        void submit(Command command) {
+            if (!running) {
+                throw new IllegalStateException("Wallet engine is stopped");
+            }
+            queue.add(command);
+        }
+
+        void stop() {
+            running = false;
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            List<Command> pending = new ArrayList<>();
+            queue.drainTo(pending);
+            pending.forEach(command -> command.result.completeExceptionally(new IllegalStateException("Wallet engine is stopped")));
+        }
+
+        private void run() {
+            List<Command> group = new ArrayList<>(maxGroupSize);
+            while (running) {
+                try {
+                    // Polled so an idle partition still evicts the wallets it no longer uses
+                    Command first = queue.poll(idleEvictionSeconds, TimeUnit.SECONDS);
+                    if (first != null) {
+                        group.add(first);
+                        queue.drainTo(group, maxGroupSize - 1);
+                        commit(group, 0);
+                    }
+                    evictIdle();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    logger.error("Wallet engine partition failed to process a group", e);
+                    group.forEach(command -> command.result.completeExceptionally(e));
+                } finally {
+                    group.clear();
+                }
+            }
+        }
+
+        /**
+         * Applies and persists a group of commands in one transaction. On a lock
+         * conflict the group is retried, on any other failure every command is
+         * retried alone so one bad command cannot fail the others. A command
+         * whose idempotency key is already claimed fails alone with a
+         * DuplicateKeyException, before anything of it is applied.
+         */
+        private void commit(List<Command> group, int attempt) {
+            List<Command> pending = group.stream().filter(command -> !command.result.isDone()).toList();
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            Map<UUID, Wallet> changed = new LinkedHashMap<>();
+            Map<Command, BigDecimal> applied = new LinkedHashMap<>();
+            List<Command> withCounterparts = new ArrayList<>();
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    List<LedgerEntry> entries = new ArrayList<>();
+                    List<PixTransfer> transfers = new ArrayList<>();
+                    List<IdempotencyRecord> records = new ArrayList<>();
+                    List<IdempotencyRecord> released = new ArrayList<>();
+
+                    Set<IdempotencyRecord> held = Collections.newSetFromMap(new IdentityHashMap<>());
+                    held.addAll(idempotencyClaimRepository.claimKeys(pending.stream()
+                        .map(command -> command.idempotencyRecord)
+                        .filter(Objects::nonNull)
+                        .toList()));
+
+                    for (Command command : pending) {
+                        if (command.idempotencyRecord != null && held.contains(command.idempotencyRecord)) {
+                            command.result.completeExceptionally(new DuplicateKeyException(
+                                "Idempotency key already claimed: " + command.idempotencyRecord.getRecordKey()));
+                            continue;
+                        }
+                        try {
+                            applied.put(command, apply(command, changed, entries, transfers, withCounterparts));
+                            if (command.idempotencyRecord != null) {
+                                records.add(command.idempotencyRecord);
+                            }
+                        } catch (IllegalArgumentException | IllegalStateException e) {
+                            // Rejected commands leave no trace, as in the lock-based path
+                            command.result.completeExceptionally(e);
+                            if (command.idempotencyRecord != null) {
+                                released.add(command.idempotencyRecord);
+                            }
+                        }
+                    }
+
+                    idempotencyClaimRepository.releaseKeys(released);
+                    jdbcBatchRepository.insertPixTransfers(transfers);
+                    jdbcBatchRepository.insertLedgerEntries(entries);
+                    engineRepository.updateBalances(changed.values());
+                    jdbcBatchRepository.insertClaimedIdempotencyRecords(records);
+                });
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt < MAX_LOCK_RETRIES) {
+                    logger.warn("Wallet engine group hit a lock conflict, retrying - Commands: {}", pending.size());
+                    commit(pending, attempt + 1);
+                    return;
+                }
+                failOrSplit(pending, e);
+                return;
+            } catch (RuntimeException e) {
+                failOrSplit(pending, e);
+                return;
+            }
+
+            changed.forEach(this::use);
+            // The balances were written by version = version + 1, their new version is not known here
+            balanceCache.invalidate(changed.keySet());
+            applied.forEach((command, balance) -> {
+                if (withCounterparts.contains(command)) {
+                    submitCounterpart(command, balance);
+                } else {
+                    command.result.complete(balance);
+                }
+            });
+        }
+
+        private void submitCounterpart(Command command, BigDecimal balance) {
+            Command counterpart = command.counterpart;
+            try {
+                WalletEngine.this.submit(counterpart);
+            } catch (IllegalStateException e) {
+                counterpart.result.completeExceptionally(e);
+            }
+            counterpart.result.whenComplete((counterpartBalance, error) -> {
+                if (error != null) {
+                    logger.error("Wallet engine could not write the counterpart entry - Wallet: {}, Transaction: {}",
+                        counterpart.walletId, counterpart.transactionId, error);
+                }
+                command.result.complete(balance);
+            });
+        }
+
+        private void failOrSplit(List<Command> pending, RuntimeException e) {
+            if (pending.size() == 1) {
+                pending.get(0).result.completeExceptionally(e);
+                return;
+            }
+            logger.warn("Wallet engine group failed, retrying commands one by one - Commands: {}, Error: {}",
+                pending.size(), e.getMessage());
+            for (Command command : pending) {
+                commit(List.of(command), 0);
+            }
+        }
+
+        private BigDecimal apply(Command command, Map<UUID, Wallet> changed, List<LedgerEntry> entries,
+                                 List<PixTransfer> transfers, List<Command> withCounterparts) {
+            Wallet current = changed.containsKey(command.walletId) ? changed.get(command.walletId) : wallet(command.walletId);
+            if (command.entryOnly) {
+                entries.add(new LedgerEntry(command.walletId, command.transactionId, command.amount,
+                    command.entryType, current.getBalance(), command.description));
+                return current.getBalance();
+            }
+            Wallet next = new Wallet(current.getId(), current.getUserId(), current.getBalance());
+            if (command.debit) {
+                next.withdraw(command.amount);
+            } else {
+                next.deposit(command.amount);
+            }
+
+            if (command.guardedTransferId != null
+                    && !engineRepository.transitionPixTransfer(command.guardedTransferId, command.guardedFrom, command.guardedTo)) {
+                // Somebody else already finalized the transfer, nothing to apply
+                return current.getBalance();
+            }
+
+            changed.put(next.getId(), next);
+            entries.add(new LedgerEntry(command.walletId, command.transactionId,
+                command.debit ? command.amount.negate() : command.amount,
+                command.entryType, next.getBalance(), command.description));
+            if (command.counterpart != null) {
+                withCounterparts.add(command);
+            }
+            if (command.newTransfer != null) {
+                transfers.add(command.newTransfer);
+            }
+            command.events.forEach(eventPublisher::publishEvent);
+            return next.getBalance();
+        }
+
+        private Wallet wallet(UUID walletId) {
+            LoadedWallet loaded = wallets.get(walletId);
+            if (loaded != null) {
+                loaded.usedAt = System.nanoTime();
+                return loaded.wallet;
+            }
+            Wallet wallet = engineRepository.findWallet(walletId)
+                .orElseThrow(() -> new IllegalArgumentException("Wallet not found: " + walletId));
+            if (wallet.isSharded()) {
+                throw new IllegalStateException("Wallet uses balance slots and cannot be handled by the engine: " + walletId);
+            }
+            use(walletId, wallet);
+            return wallet;
+        }
+
+        private void use(UUID walletId, Wallet wallet) {
+            wallets.put(walletId, new LoadedWallet(wallet, System.nanoTime()));
+        }
+
+        /**
+         * Drops the wallets not used for idle-eviction-seconds. The map is in
+         * access order, so the walk stops at the first wallet still in use.
+         */
+        private void evictIdle() {
+            long now = System.nanoTime();
+            long idleNanos = TimeUnit.SECONDS.toNanos(idleEvictionSeconds);
+            Iterator<LoadedWallet> eldest = wallets.values().iterator();
+            while (eldest.hasNext() && now - eldest.next().usedAt >= idleNanos) {
+                eldest.remove();
+            }
+        }
+    }
+
+    private static final class LoadedWallet {
+        private final Wallet wallet;
+        private long usedAt;
+
+        LoadedWallet(Wallet wallet, long usedAt) {
+            this.wallet = wallet;
+            this.usedAt = usedAt;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package br.com.finaya.services;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import br.com.finaya.model.Wallet;
+import br.com.finaya.repositories.WalletRepository;
+
+/**
+ * Acquires pessimistic locks on several wallets at once.
+ *
+ * All rows are locked by one SELECT ... FOR UPDATE ordered by id, so two
+ * transactions touching the same wallets always lock them in the same order
+ * and cannot deadlock against each other, whatever the transfer direction.
+ */
+@Service
+@Transactional(propagation = Propagation.MANDATORY)
+public class WalletLockService {
+    private static final Logger logger = LoggerFactory.getLogger(WalletLockService.class);
+
+    private final WalletRepository walletRepository;
+
+    public WalletLockService(WalletRepository walletRepository) {
+        this.walletRepository = walletRepository;
+    }
+
+    /**
+     * Locks the given wallets for the rest of the current transaction.
+     * Wallets that do not exist are simply absent from the returned map.
+     */
+    public Map<UUID, Wallet> lockWallets(Collection<UUID> walletIds) {
+        Set<UUID> distinctIds = new LinkedHashSet<>(walletIds);
+        logger.debug("Locking wallets: {}", distinctIds);
+
+        List<Wallet> wallets = walletRepository.findAllByIdWithLock(distinctIds);
+
+        Map<UUID, Wallet> lockedWallets = new LinkedHashMap<>();
+        for (Wallet wallet : wallets) {
+            lockedWallets.put(wallet.getId(), wallet);
+        }
+        return lockedWallets;
+    }
+
+    public Map<UUID, Wallet> lockWallets(UUID... walletIds) {
+        return lockWallets(List.of(walletIds));
+    }
+}
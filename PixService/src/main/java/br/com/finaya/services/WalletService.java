@@ -2,33 +2,77 @@ package br.com.finaya.services;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import br.com.finaya.exceptions.ResourceNotFoundException;
+import br.com.finaya.model.IdempotencyRecord.Operation;
 import br.com.finaya.model.LedgerEntry;
 import br.com.finaya.model.Wallet;
 import br.com.finaya.repositories.LedgerEntryRepository;
+import br.com.finaya.repositories.LedgerEntryRepository.StatementEntryView;
 import br.com.finaya.repositories.WalletRepository;
+import br.com.finaya.repositories.WalletRepository.WalletBalanceView;
+import br.com.finaya.repositories.WalletRepository.WalletTotalBalanceView;
+import br.com.finaya.util.StatementCursor;
+import br.com.finaya.util.UuidUtils;
 
 @Service
 @Transactional
 public class WalletService {
     private static final Logger logger = LoggerFactory.getLogger(WalletService.class);
+
+    // Ledger times outside of the range of created_at, for open statement bounds
+    private static final LocalDateTime STATEMENT_START = LocalDateTime.of(1970, 1, 2, 0, 0);
+    private static final LocalDateTime STATEMENT_END = LocalDateTime.of(2038, 1, 1, 0, 0);
+
+    // Wallet ids per IN query of a balance lookup
+    private static final int BALANCE_CHUNK_SIZE = 500;
     
     private final WalletRepository walletRepository;
     private final LedgerEntryRepository ledgerRepository;
     private final IdempotencyService idempotencyService;
+    private final WalletBalanceSlotService balanceSlotService;
+    private final WalletEngine walletEngine;
+    private final WalletBalanceCache balanceCache;
+    private final HistoricalBalanceService historicalBalanceService;
+
+    @Value("${pix.wallets.statement.max-page-size:500}")
+    private int maxStatementPageSize = 500;
+
+    @Value("${pix.wallets.balances.max-wallets:1000}")
+    private int maxBalanceWallets = 1000;
 
     public WalletService(WalletRepository walletRepository, 
                        LedgerEntryRepository ledgerRepository,
-                       IdempotencyService idempotencyService) {
+                       IdempotencyService idempotencyService,
+                       WalletBalanceSlotService balanceSlotService,
+                       WalletEngine walletEngine,
+                       WalletBalanceCache balanceCache,
+                       HistoricalBalanceService historicalBalanceService) {
         this.walletRepository = walletRepository;
         this.ledgerRepository = ledgerRepository;
         this.idempotencyService = idempotencyService;
+        this.balanceSlotService = balanceSlotService;
+        this.walletEngine = walletEngine;
+        this.balanceCache = balanceCache;
+        this.historicalBalanceService = historicalBalanceService;
     }
 
     public Wallet createWallet(UUID userId) {
@@ -37,17 +81,39 @@ public class WalletService {
         return walletRepository.save(wallet);
     }
 
+    // Not transactional itself: the lock-based path runs in the idempotency transaction and the engine commits on its own
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void deposit(UUID walletId, BigDecimal amount, UUID idempotencyKey) {
         logger.info("Processing deposit - Wallet: {}, Amount: {}, IdempotencyKey: {}", walletId, amount, idempotencyKey);
         
+        if (walletEngine.isEnabled()) {
+            // A retry arriving while the first attempt is still in the engine waits for it instead of running again
+            idempotencyService.coalesce(idempotencyKey, () -> {
+                if (!idempotencyService.isReplay(idempotencyKey)) {
+                    BigDecimal balance = walletEngine.execute(
+                        WalletEngine.Command.credit(walletId, amount, LedgerEntry.EntryType.DEPOSIT, UUID.randomUUID(), "Deposit")
+                            .recording(idempotencyService.completedRecord(idempotencyKey, Operation.DEPOSIT, null)));
+                    logger.info("Deposit completed by wallet engine - Wallet: {}, New Balance: {}", walletId, balance);
+                }
+            });
+            return;
+        }
+        
         idempotencyService.executeWithIdempotency(
             idempotencyKey,
+            Operation.DEPOSIT,
             () -> {
+                if (balanceSlotService.isSharded(walletId)) {
+                    depositToBalanceSlot(walletId, amount);
+                    return null;
+                }
+                
                 Wallet wallet = walletRepository.findByIdWithLock(walletId)
                     .orElseThrow(() -> new RuntimeException("Wallet not found"));
                 
                 wallet.deposit(amount);
                 Wallet savedWallet = walletRepository.save(wallet);
+                balanceCache.putAfterCommit(savedWallet);
                 
                 LedgerEntry entry = new LedgerEntry(
                     walletId, 
@@ -65,24 +131,40 @@ public class WalletService {
         );
     }
 
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void withdraw(UUID walletId, BigDecimal amount, UUID idempotencyKey) {
         logger.info("Processing withdrawal - Wallet: {}, Amount: {}, IdempotencyKey: {}", walletId, amount, idempotencyKey);
         
+        if (walletEngine.isEnabled()) {
+            idempotencyService.coalesce(idempotencyKey, () -> {
+                if (!idempotencyService.isReplay(idempotencyKey)) {
+                    BigDecimal balance = walletEngine.execute(
+                        WalletEngine.Command.debit(walletId, amount, LedgerEntry.EntryType.WITHDRAWAL, UUID.randomUUID(), "Withdrawal")
+                            .recording(idempotencyService.completedRecord(idempotencyKey, Operation.WITHDRAWAL, null)));
+                    logger.info("Withdrawal completed by wallet engine - Wallet: {}, New Balance: {}", walletId, balance);
+                }
+            });
+            return;
+        }
+        
         idempotencyService.executeWithIdempotency(
             idempotencyKey,
+            Operation.WITHDRAWAL,
             () -> {
                 Wallet wallet = walletRepository.findByIdWithLock(walletId)
                     .orElseThrow(() -> new RuntimeException("Wallet not found"));
                 
+                balanceSlotService.ensureAvailable(wallet, amount);
                 wallet.withdraw(amount);
                 Wallet savedWallet = walletRepository.save(wallet);
+                balanceCache.putAfterCommit(savedWallet);
                 
                 LedgerEntry entry = new LedgerEntry(
                     walletId, 
                     UUID.randomUUID(), 
                     amount.negate(), 
                     LedgerEntry.EntryType.WITHDRAWAL,
-                    savedWallet.getBalance(),
+                    balanceSlotService.balanceAfter(savedWallet),
                     "Withdrawal"
                 );
                 ledgerRepository.save(entry);
@@ -93,21 +175,178 @@ public class WalletService {
         );
     }
 
-    @Transactional(readOnly = true)
+    // Credits a hot wallet without taking its row lock, see WalletBalanceSlotService
+    private void depositToBalanceSlot(UUID walletId, BigDecimal amount) {
+        LedgerEntry entry = new LedgerEntry(
+            walletId, 
+            UUID.randomUUID(), 
+            amount, 
+            LedgerEntry.EntryType.DEPOSIT,
+            null,
+            "Deposit"
+        );
+        ledgerRepository.saveAndFlush(entry);
+        balanceSlotService.credit(walletId, amount);
+        
+        logger.info("Deposit completed on balance slot - Wallet: {}", walletId);
+    }
+
+    public Wallet configureBalanceSlots(UUID walletId, int slots) {
+        if (walletEngine.isEnabled()) {
+            throw new IllegalArgumentException("Balance slots are not available while the wallet engine is enabled");
+        }
+        return balanceSlotService.configureSlots(walletId, slots);
+    }
+
+    // No transaction of its own, a cached balance is answered without a connection
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public BigDecimal getCurrentBalance(UUID walletId) {
-        return walletRepository.findBalanceById(walletId)
+        Optional<BigDecimal> cached = balanceCache.get(walletId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        
+        long readStamp = balanceCache.readStamp();
+        WalletBalanceView wallet = walletRepository.findBalanceViewById(walletId)
             .orElseThrow(() -> new RuntimeException("Wallet not found"));
+        if (wallet.getBalanceSlots() > 0) {
+            // Slots change without the wallet row, so their total is never cached
+            return walletRepository.findTotalBalanceById(walletId)
+                .orElseThrow(() -> new RuntimeException("Wallet not found"));
+        }
+        if (wallet.getVersion() != null) {
+            balanceCache.put(walletId, wallet.getBalance(), wallet.getVersion(), readStamp);
+        }
+        return wallet.getBalance();
     }
 
     @Transactional(readOnly = true)
     public BigDecimal getHistoricalBalance(UUID walletId, LocalDateTime timestamp) {
-    	
-         BigDecimal balance = ledgerRepository.findBalanceAtTimestamp(walletId, timestamp)
-            .orElse(BigDecimal.ZERO);
-         
-         System.out.println("Balance:;"+balance);
-         
-         return balance; 
+        return historicalBalanceService.balanceAt(walletId, timestamp);
+    }
+
+    /**
+     * Current balances of many wallets, in the order asked, leaving out the
+     * ones that do not exist. Cached balances are answered from memory, the
+     * others with one IN query per chunk of ids.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Map<UUID, BigDecimal> getCurrentBalances(Collection<UUID> walletIds) {
+        Set<UUID> ids = distinctBalanceIds(walletIds);
+        Map<UUID, BigDecimal> balances = new HashMap<>();
+        List<UUID> misses = new ArrayList<>();
+        for (UUID walletId : ids) {
+            Optional<BigDecimal> cached = balanceCache.get(walletId);
+            if (cached.isPresent()) {
+                balances.put(walletId, cached.get());
+            } else {
+                misses.add(walletId);
+            }
+        }
+        
+        for (List<UUID> chunk : balanceChunks(misses)) {
+            long readStamp = balanceCache.readStamp();
+            List<UUID> slotted = new ArrayList<>();
+            for (WalletBalanceView wallet : walletRepository.findBalanceViewsByIds(chunk)) {
+                if (wallet.getBalanceSlots() > 0) {
+                    slotted.add(wallet.getId());
+                    continue;
+                }
+                if (wallet.getVersion() != null) {
+                    balanceCache.put(wallet.getId(), wallet.getBalance(), wallet.getVersion(), readStamp);
+                }
+                balances.put(wallet.getId(), wallet.getBalance());
+            }
+            if (!slotted.isEmpty()) {
+                for (WalletTotalBalanceView wallet : walletRepository.findTotalBalancesByIds(slotted)) {
+                    balances.put(UuidUtils.fromBytes(wallet.getId()), wallet.getBalance());
+                }
+            }
+        }
+        return inRequestOrder(ids, balances);
+    }
+
+    // Historical balances of many wallets, in the order asked, leaving out the ones that do not exist
+    @Transactional(readOnly = true)
+    public Map<UUID, BigDecimal> getHistoricalBalances(Collection<UUID> walletIds, LocalDateTime at) {
+        Set<UUID> ids = distinctBalanceIds(walletIds);
+        List<UUID> existing = new ArrayList<>();
+        for (List<UUID> chunk : balanceChunks(new ArrayList<>(ids))) {
+            existing.addAll(walletRepository.findExistingIds(chunk));
+        }
+        return inRequestOrder(ids, historicalBalanceService.balancesAt(existing, at));
+    }
+
+    private Set<UUID> distinctBalanceIds(Collection<UUID> walletIds) {
+        if (walletIds == null || walletIds.isEmpty()) {
+            throw new IllegalArgumentException("At least one wallet id is required");
+        }
+        Set<UUID> ids = new LinkedHashSet<>();
+        for (UUID walletId : walletIds) {
+            if (walletId == null) {
+                throw new IllegalArgumentException("Wallet ids must not be null");
+            }
+            ids.add(walletId);
+        }
+        if (ids.size() > maxBalanceWallets) {
+            throw new IllegalArgumentException("At most " + maxBalanceWallets + " wallets per balance lookup");
+        }
+        return ids;
+    }
+
+    private static List<List<UUID>> balanceChunks(List<UUID> ids) {
+        List<List<UUID>> chunks = new ArrayList<>();
+        for (int start = 0; start < ids.size(); start += BALANCE_CHUNK_SIZE) {
+            chunks.add(ids.subList(start, Math.min(start + BALANCE_CHUNK_SIZE, ids.size())));
+        }
+        return chunks;
+    }
+
+    private static Map<UUID, BigDecimal> inRequestOrder(Set<UUID> ids, Map<UUID, BigDecimal> balances) {
+        Map<UUID, BigDecimal> ordered = new LinkedHashMap<>();
+        for (UUID walletId : ids) {
+            BigDecimal balance = balances.get(walletId);
+            if (balance != null) {
+                ordered.put(walletId, balance);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * One page of the wallet's ledger, newest first. Each page seeks past the
+     * cursor of the previous one instead of skipping rows, so any page costs
+     * the same as the first.
+     */
+    @Transactional(readOnly = true)
+    public StatementPage getStatement(UUID walletId, LocalDateTime from, LocalDateTime to, String cursor, int pageSize) {
+        if (pageSize < 1 || pageSize > maxStatementPageSize) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + maxStatementPageSize);
+        }
+        if (!walletRepository.existsById(walletId)) {
+            throw new ResourceNotFoundException("Wallet not found: " + walletId);
+        }
+        
+        // One more entry than asked tells whether there is a next page
+        PageRequest page = PageRequest.ofSize(pageSize + 1);
+        LocalDateTime start = from != null ? from : STATEMENT_START;
+        List<StatementEntryView> entries;
+        if (cursor == null) {
+            entries = ledgerRepository.findStatementPage(walletId, start, to != null ? to : STATEMENT_END, page);
+        } else {
+            StatementCursor after = StatementCursor.decode(cursor);
+            entries = ledgerRepository.findStatementPageAfter(walletId, start, after.createdAt(), after.seq(), page);
+        }
+        
+        if (entries.size() <= pageSize) {
+            return new StatementPage(entries, null);
+        }
+        entries = entries.subList(0, pageSize);
+        StatementEntryView last = entries.get(pageSize - 1);
+        return new StatementPage(entries, new StatementCursor(last.getCreatedAt(), last.getSeq()).encode());
+    }
+
+    public record StatementPage(List<StatementEntryView> entries, String nextCursor) {
     }
 
     @Transactional(readOnly = true)
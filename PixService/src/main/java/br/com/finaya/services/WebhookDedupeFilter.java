@@ -0,0 +1,241 @@
+package br.com.finaya.services;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Memory-bounded filter of webhook eventIds applied recently, checked before
+ * the webhook path touches the database.
+ *
+ * A set of Bloom filter generations covers the time window: ids are added to
+ * the newest one and every window / (generations - 1) the oldest one is
+ * cleared and becomes the newest, so memory stays fixed and ids age out. A Bloom hit is only
+ * trusted when an exact LRU of recent ids confirms it; an unconfirmed hit is a
+ * false positive, or an id the LRU already evicted, and goes on to the
+ * database, which stays the source of truth.
+ *
+ * Ids are only recorded after their event was applied, so a delivery whose
+ * first attempt failed is never filtered out.
+ */
+@Service
+public class WebhookDedupeFilter {
+
+    private final boolean enabled;
+    private final long windowMillis;
+    private final int lruSize;
+    private final LongSupplier clock;
+
+    // Guarded by this
+    private final BloomFilter[] generations;
+    private final LinkedHashMap<String, Long> recent;
+    private int newest;
+    private long newestStartedAt;
+
+    private final Counter checks;
+    private final Counter hits;
+    private final Counter falsePositives;
+
+    @Autowired
+    public WebhookDedupeFilter(@Value("${pix.webhooks.dedupe.enabled:true}") boolean enabled,
+                               @Value("${pix.webhooks.dedupe.window-seconds:3600}") long windowSeconds,
+                               @Value("${pix.webhooks.dedupe.generations:4}") int generationCount,
+                               @Value("${pix.webhooks.dedupe.expected-ids:1000000}") int expectedIds,
+                               @Value("${pix.webhooks.dedupe.false-positive-rate:0.01}") double falsePositiveRate,
+                               @Value("${pix.webhooks.dedupe.lru-size:100000}") int lruSize,
+                               MeterRegistry meterRegistry) {
+        this(enabled, windowSeconds, generationCount, expectedIds, falsePositiveRate, lruSize, meterRegistry,
+            System::currentTimeMillis);
+    }
+
+    WebhookDedupeFilter(boolean enabled, long windowSeconds, int generationCount, int expectedIds,
+                        double falsePositiveRate, int lruSize, MeterRegistry meterRegistry, LongSupplier clock) {
+        if (generationCount < 2) {
+            throw new IllegalArgumentException("Webhook dedupe filter needs at least 2 generations");
+        }
+        this.enabled = enabled;
+        this.windowMillis = windowSeconds * 1000;
+        this.lruSize = lruSize;
+        this.clock = clock;
+        this.generations = new BloomFilter[generationCount];
+        // Every generation holds the ids of one slice of the window
+        int idsPerGeneration = Math.max(1, expectedIds / (generationCount - 1));
+        for (int i = 0; i < generationCount; i++) {
+            generations[i] = enabled ? new BloomFilter(idsPerGeneration, falsePositiveRate) : new BloomFilter(1, 0.5);
+        }
+        this.recent = new LinkedHashMap<>(16, 0.75f, true);
+        this.newestStartedAt = clock.getAsLong();
+
+        this.checks = Counter.builder("pix.webhooks.dedupe.checks")
+            .description("Webhook eventIds checked against the dedupe filter")
+            .register(meterRegistry);
+        this.hits = Counter.builder("pix.webhooks.dedupe.hits")
+            .description("Duplicate webhook eventIds rejected before any database access")
+            .register(meterRegistry);
+        this.falsePositives = Counter.builder("pix.webhooks.dedupe.false-positives")
+            .description("Bloom filter hits the LRU did not confirm, false positives or ids evicted from the LRU")
+            .register(meterRegistry);
+        Gauge.builder("pix.webhooks.dedupe.lru.size", this, WebhookDedupeFilter::recentSize)
+            .description("EventIds held by the exact LRU")
+            .register(meterRegistry);
+        Gauge.builder("pix.webhooks.dedupe.bloom.fpp", this, WebhookDedupeFilter::expectedFalsePositiveRate)
+            .description("Estimated false positive probability of the Bloom generations")
+            .register(meterRegistry);
+    }
+
+    /**
+     * True when the eventId was certainly applied within the window. False
+     * means unknown, and the database must decide.
+     */
+    public boolean isDuplicate(String eventId) {
+        if (!enabled || eventId == null) {
+            return false;
+        }
+        checks.increment();
+        long now = clock.getAsLong();
+        long hash1 = hash(eventId);
+        long hash2 = mix(hash1);
+        synchronized (this) {
+            rotate(now);
+            if (!mightContain(hash1, hash2)) {
+                return false;
+            }
+            Long recordedAt = recent.get(eventId);
+            if (recordedAt == null || now - recordedAt >= windowMillis) {
+                falsePositives.increment();
+                return false;
+            }
+        }
+        hits.increment();
+        return true;
+    }
+
+    // Remembers an eventId whose event was applied, or found already processed
+    public void record(String eventId) {
+        if (!enabled || eventId == null) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long hash1 = hash(eventId);
+        long hash2 = mix(hash1);
+        synchronized (this) {
+            rotate(now);
+            generations[newest].add(hash1, hash2);
+            recent.put(eventId, now);
+            if (recent.size() > lruSize) {
+                recent.remove(recent.keySet().iterator().next());
+            }
+        }
+    }
+
+    private void rotate(long now) {
+        long sliceMillis = windowMillis / (generations.length - 1);
+        while (now - newestStartedAt >= sliceMillis) {
+            newest = (newest + 1) % generations.length;
+            generations[newest].clear();
+            newestStartedAt += sliceMillis;
+            if (now - newestStartedAt >= windowMillis) {
+                // Idle for longer than the window, everything is stale
+                for (BloomFilter generation : generations) {
+                    generation.clear();
+                }
+                newestStartedAt = now;
+            }
+        }
+    }
+
+    private boolean mightContain(long hash1, long hash2) {
+        for (BloomFilter generation : generations) {
+            if (generation.mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized int recentSize() {
+        return recent.size();
+    }
+
+    // Chance that an unseen id hits any of the generations
+    private synchronized double expectedFalsePositiveRate() {
+        double miss = 1;
+        for (BloomFilter generation : generations) {
+            miss *= 1 - generation.expectedFalsePositiveRate();
+        }
+        return 1 - miss;
+    }
+
+    // 64-bit FNV-1a over the chars of the id
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // MurmurHash3 finalizer, an independent second hash for double hashing
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash | 1;
+    }
+
+    private static final class BloomFilter {
+        private final long[] bits;
+        private final long size;
+        private final int hashes;
+        private long bitCount;
+
+        BloomFilter(int expectedIds, double falsePositiveRate) {
+            long optimalBits = (long) Math.ceil(-expectedIds * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) Math.max(1, (optimalBits + 63) / 64)];
+            this.size = bits.length * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) size / expectedIds * Math.log(2)));
+        }
+
+        void add(long hash1, long hash2) {
+            for (int i = 0; i < hashes; i++) {
+                long index = Math.floorMod(hash1 + i * hash2, size);
+                long mask = 1L << index;
+                int word = (int) (index >>> 6);
+                if ((bits[word] & mask) == 0) {
+                    bits[word] |= mask;
+                    bitCount++;
+                }
+            }
+        }
+
+        boolean mightContain(long hash1, long hash2) {
+            for (int i = 0; i < hashes; i++) {
+                long index = Math.floorMod(hash1 + i * hash2, size);
+                if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        double expectedFalsePositiveRate() {
+            return Math.pow((double) bitCount / size, hashes);
+        }
+
+        void clear() {
+            Arrays.fill(bits, 0);
+            bitCount = 0;
+        }
+    }
+}
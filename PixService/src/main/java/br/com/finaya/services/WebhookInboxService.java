@@ -0,0 +1,143 @@
+package br.com.finaya.services;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import br.com.finaya.events.PixTransferEvent;
+import br.com.finaya.model.WebhookInboxEvent;
+import br.com.finaya.repositories.PixTransferRepository;
+import br.com.finaya.repositories.WebhookInboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Accepts webhook events into the durable inbox, so the provider is answered
+ * as soon as the event is stored and never waits for wallet locks. The events
+ * are applied later by {@link WebhookInboxWorker}.
+ *
+ * Events for a transfer that is not visible yet are parked here as well, also
+ * when the inbox is disabled, instead of failing and making the provider retry.
+ * They are released when the transfer is created.
+ */
+@Service
+@Transactional
+public class WebhookInboxService {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookInboxService.class);
+
+    private final WebhookInboxRepository webhookInboxRepository;
+    private final PixTransferRepository pixTransferRepository;
+    private final Counter receivedCounter;
+    private final Counter duplicateCounter;
+    private final Counter parkedCounter;
+
+    // Transfers with events parked by this instance, so creating any other transfer costs nothing. Pruned by
+    // forgetSettledParks, a transfer never created would otherwise stay here forever
+    private final Set<UUID> parkedTransfers = ConcurrentHashMap.newKeySet();
+
+    @Value("${pix.webhooks.inbox.enabled:false}")
+    private boolean enabled = false;
+
+    public WebhookInboxService(WebhookInboxRepository webhookInboxRepository,
+                               PixTransferRepository pixTransferRepository,
+                               MeterRegistry meterRegistry) {
+        this.webhookInboxRepository = webhookInboxRepository;
+        this.pixTransferRepository = pixTransferRepository;
+        this.receivedCounter = Counter.builder("pix.webhooks.inbox.received")
+            .description("Webhook events appended to the inbox")
+            .register(meterRegistry);
+        this.duplicateCounter = Counter.builder("pix.webhooks.inbox.duplicates")
+            .description("Webhook deliveries whose idempotency key was already in the inbox")
+            .register(meterRegistry);
+        this.parkedCounter = Counter.builder("pix.webhooks.inbox.parks")
+            .description("Webhook events parked because their transfer was not visible yet")
+            .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void append(UUID endToEndId, String eventId, String eventType, String occurredAt, UUID idempotencyKey) {
+        validate(endToEndId, eventId, eventType);
+        insert(new WebhookInboxEvent(idempotencyKey, endToEndId, eventId, eventType, occurredAt));
+    }
+
+    /**
+     * Parks the event when its transfer does not exist yet, for the synchronous
+     * webhook path. Returns false when the transfer exists and the event should
+     * be applied right away.
+     */
+    public boolean parkIfNotVisible(UUID endToEndId, String eventId, String eventType, String occurredAt, UUID idempotencyKey) {
+        if (endToEndId == null || pixTransferRepository.existsById(endToEndId)) {
+            return false;
+        }
+        validate(endToEndId, eventId, eventType);
+        WebhookInboxEvent event = new WebhookInboxEvent(idempotencyKey, endToEndId, eventId, eventType, occurredAt);
+        event.setStatus(WebhookInboxEvent.InboxStatus.PARKED);
+        parkedTransfers.add(endToEndId);
+        insert(event);
+        parkedCounter.increment();
+        return true;
+    }
+
+    // Parks events already in the inbox whose transfer the worker could not find
+    public void park(UUID endToEndId, List<WebhookInboxEvent> events) {
+        parkedTransfers.add(endToEndId);
+        events.forEach(webhookInboxRepository::markParked);
+        parkedCounter.increment(events.size());
+        logger.info("PIX webhook events parked until the transfer is visible - EndToEndId: {}, Events: {}",
+            endToEndId, events.size());
+    }
+
+    @TransactionalEventListener
+    public void onPixTransferEvent(PixTransferEvent event) {
+        if (event.type() != PixTransferEvent.Type.CREATED || !parkedTransfers.remove(event.endToEndId())) {
+            return;
+        }
+        try {
+            webhookInboxRepository.unpark(event.endToEndId());
+        } catch (RuntimeException e) {
+            // The worker's periodic refresh unparks them as well
+            logger.warn("Could not unpark webhook events of {}: {}", event.endToEndId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets transfers that no longer have parked events, because the
+     * worker's refresh unparked them or gave them up. A park not committed yet
+     * may be forgotten too, its events are then unparked by the next refresh
+     * instead of on the transfer's creation.
+     */
+    public void forgetSettledParks() {
+        if (!parkedTransfers.isEmpty()) {
+            parkedTransfers.retainAll(new HashSet<>(webhookInboxRepository.findParkedTransfers()));
+        }
+    }
+
+    private void insert(WebhookInboxEvent event) {
+        if (webhookInboxRepository.insert(event)) {
+            receivedCounter.increment();
+            logger.info("PIX webhook accepted into inbox - EndToEndId: {}, EventId: {}", event.getEndToEndId(), event.getEventId());
+        } else {
+            duplicateCounter.increment();
+            logger.info("PIX webhook already in inbox - EndToEndId: {}, IdempotencyKey: {}",
+                event.getEndToEndId(), event.getIdempotencyKey());
+        }
+    }
+
+    private void validate(UUID endToEndId, String eventId, String eventType) {
+        if (endToEndId == null || eventId == null || eventType == null) {
+            throw new IllegalArgumentException("Webhook event must have endToEndId, eventId and eventType");
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package br.com.finaya.services;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.finaya.model.PixTransfer;
+import br.com.finaya.model.WebhookInboxEvent;
+import br.com.finaya.repositories.PixTransferRepository;
+import br.com.finaya.repositories.WebhookInboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Drains the webhook inbox through {@link PixTransferService#processWebhook}.
+ *
+ * Events are partitioned by endToEndId hash across a fixed set of worker
+ * threads, each applying the events of its partition one at a time, so the
+ * events of one transfer are never applied concurrently. An event that fails
+ * holds back the later events of its transfer in the same batch and is retried
+ * on the next pass, until max-attempts is reached and it is left as FAILED.
+ *
+ * Events are only claimed once they spent reorder-window-ms in the inbox, so
+ * deliveries of one transfer arriving close together are applied in occurredAt
+ * order and only the final event that occurred last settles it. Events for a
+ * transfer that is already final are dropped without calling into the wallet
+ * path, and events for a transfer not visible yet are parked until it is
+ * created, or failed after park-seconds.
+ *
+ * Claims use SKIP LOCKED, so a second instance never applies an event twice,
+ * but the ordering guarantee only holds with the inbox drained by one instance.
+ *
+ * Finished events are kept for pix.webhooks.inbox.purge.retention-days and then
+ * deleted in batches, each its own statement. A delivery retried after that is
+ * accepted again and answered by its idempotency record.
+ */
+@Service
+public class WebhookInboxWorker {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookInboxWorker.class);
+
+    // Arrival order for events without a readable occurredAt
+    private static final Comparator<WebhookInboxEvent> OCCURRED_ORDER = Comparator
+        .comparing(WebhookInboxEvent::getOccurredAtMillis, WebhookInboxEvent.OCCURRED_AT_ORDER)
+        .thenComparing(WebhookInboxEvent::getId);
+
+    private final WebhookInboxRepository webhookInboxRepository;
+    private final WebhookInboxService webhookInboxService;
+    private final PixTransferRepository pixTransferRepository;
+    private final PixTransferService pixTransferService;
+    private final TransactionTemplate transactionTemplate;
+
+    private final AtomicLong depth = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong parked = new AtomicLong();
+
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final Counter processedCounter;
+    private final Counter retriedCounter;
+    private final Counter failedCounter;
+    private final Counter droppedCounter;
+    private final Counter purgedCounter;
+    private final Timer processingTimer;
+    private final Timer latencyTimer;
+
+    @Value("${pix.webhooks.inbox.partitions:4}")
+    private int partitionCount = 4;
+
+    @Value("${pix.webhooks.inbox.batch-size:50}")
+    private int batchSize = 50;
+
+    @Value("${pix.webhooks.inbox.poll-interval-ms:200}")
+    private long pollIntervalMs = 200;
+
+    @Value("${pix.webhooks.inbox.max-attempts:5}")
+    private int maxAttempts = 5;
+
+    @Value("${pix.webhooks.inbox.lease-seconds:300}")
+    private long leaseSeconds = 300;
+
+    @Value("${pix.webhooks.inbox.reorder-window-ms:500}")
+    private long reorderWindowMs = 500;
+
+    @Value("${pix.webhooks.inbox.park-seconds:600}")
+    private long parkSeconds = 600;
+
+    @Value("${pix.webhooks.inbox.purge.enabled:true}")
+    private boolean purgeEnabled = true;
+
+    @Value("${pix.webhooks.inbox.purge.retention-days:7}")
+    private int retentionDays = 7;
+
+    @Value("${pix.webhooks.inbox.purge.batch-size:1000}")
+    private int purgeBatchSize = 1000;
+
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    public WebhookInboxWorker(WebhookInboxRepository webhookInboxRepository,
+                              WebhookInboxService webhookInboxService,
+                              PixTransferRepository pixTransferRepository,
+                              PixTransferService pixTransferService,
+                              TransactionTemplate transactionTemplate,
+                              MeterRegistry meterRegistry) {
+        this.webhookInboxRepository = webhookInboxRepository;
+        this.webhookInboxService = webhookInboxService;
+        this.pixTransferRepository = pixTransferRepository;
+        this.pixTransferService = pixTransferService;
+        this.transactionTemplate = transactionTemplate;
+        this.processedCounter = Counter.builder("pix.webhooks.inbox.processed")
+            .description("Inbox events applied")
+            .register(meterRegistry);
+        this.retriedCounter = Counter.builder("pix.webhooks.inbox.retried")
+            .description("Inbox events that failed and were left for a retry")
+            .register(meterRegistry);
+        this.failedCounter = Counter.builder("pix.webhooks.inbox.failed")
+            .description("Inbox events given up after max-attempts")
+            .register(meterRegistry);
+        this.droppedCounter = Counter.builder("pix.webhooks.inbox.dropped")
+            .description("Inbox events discarded as stale or superseded")
+            .register(meterRegistry);
+        this.purgedCounter = Counter.builder("pix.webhooks.inbox.purged")
+            .description("Finished inbox events deleted after their retention")
+            .register(meterRegistry);
+        this.processingTimer = Timer.builder("pix.webhooks.inbox.processing")
+            .description("Time to apply one inbox event")
+            .publishPercentiles(0.5, 0.9, 0.99)
+            .register(meterRegistry);
+        this.latencyTimer = Timer.builder("pix.webhooks.inbox.latency")
+            .description("Time from the webhook being accepted to its event being applied")
+            .publishPercentiles(0.5, 0.9, 0.99)
+            .register(meterRegistry);
+        Gauge.builder("pix.webhooks.inbox.depth", depth, AtomicLong::get)
+            .description("Inbox events not applied yet")
+            .register(meterRegistry);
+        Gauge.builder("pix.webhooks.inbox.dead", failed, AtomicLong::get)
+            .description("Inbox events given up after max-attempts")
+            .register(meterRegistry);
+        Gauge.builder("pix.webhooks.inbox.parked", parked, AtomicLong::get)
+            .description("Inbox events waiting for their transfer to become visible")
+            .register(meterRegistry);
+        Gauge.builder("pix.webhooks.inbox.lag", lagMillis, lag -> lag.get() / 1000.0)
+            .description("Age in seconds of the oldest inbox event not applied yet")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+    }
+
+    // Always running, events parked by the synchronous webhook path are drained here too
+    @PostConstruct
+    public void start() {
+        running = true;
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(partitionCount, runnable -> {
+            Thread thread = new Thread(runnable, "webhook-inbox-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < partitionCount; i++) {
+            int partition = i;
+            executor.execute(() -> run(partition));
+        }
+        logger.info("Webhook inbox worker started - Partitions: {}, Batch size: {}", partitionCount, batchSize);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor == null) {
+            return;
+        }
+        running = false;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${pix.webhooks.inbox.metrics-interval-ms:5000}", fixedDelayString = "${pix.webhooks.inbox.metrics-interval-ms:5000}")
+    public void refresh() {
+        try {
+            int released = webhookInboxRepository.releaseStale(leaseSeconds);
+            if (released > 0) {
+                logger.warn("Released {} webhook inbox events claimed more than {}s ago", released, leaseSeconds);
+            }
+            webhookInboxRepository.unparkVisible();
+            int expired = webhookInboxRepository.expireParked(parkSeconds);
+            if (expired > 0) {
+                failedCounter.increment(expired);
+                logger.warn("Gave up {} webhook inbox events whose transfer did not show up in {}s", expired, parkSeconds);
+            }
+            webhookInboxService.forgetSettledParks();
+            depth.set(webhookInboxRepository.countPending());
+            parked.set(webhookInboxRepository.countParked());
+            failed.set(webhookInboxRepository.countFailed());
+            lagMillis.set(webhookInboxRepository.pendingLagMillis());
+        } catch (RuntimeException e) {
+            logger.warn("Could not refresh webhook inbox metrics: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${pix.webhooks.inbox.purge.interval-ms:3600000}")
+    public void purge() {
+        if (!purgeEnabled) {
+            return;
+        }
+        int purged = 0;
+        try {
+            int deleted;
+            do {
+                deleted = webhookInboxRepository.deleteFinishedBefore(retentionDays, purgeBatchSize);
+                purged += deleted;
+            } while (deleted == purgeBatchSize);
+        } catch (DataAccessException e) {
+            logger.warn("Webhook inbox purge failed, it will be retried: {}", e.getMessage());
+        }
+        if (purged > 0) {
+            purgedCounter.increment(purged);
+            logger.info("Purged finished webhook inbox events: {}", purged);
+        }
+    }
+
+    // Returns how many events were claimed, 0 when the partition was empty
+    public int drainBatch(int partition) {
+        List<WebhookInboxEvent> events = transactionTemplate.execute(status -> {
+            List<WebhookInboxEvent> claimed = webhookInboxRepository.claimPending(partitionCount, partition,
+                reorderWindowMs, batchSize);
+            if (!claimed.isEmpty()) {
+                webhookInboxRepository.markProcessing(claimed);
+            }
+            return claimed;
+        });
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        Map<UUID, List<WebhookInboxEvent>> byTransfer = events.stream()
+            .collect(Collectors.groupingBy(WebhookInboxEvent::getEndToEndId, LinkedHashMap::new, Collectors.toList()));
+        Map<UUID, PixTransfer.TransferStatus> statuses = pixTransferRepository.findStatusByEndToEndIdIn(byTransfer.keySet())
+            .stream()
+            .collect(Collectors.toMap(PixTransferRepository.TransferStatusView::getEndToEndId,
+                PixTransferRepository.TransferStatusView::getStatus));
+        byTransfer.forEach((endToEndId, transferEvents) -> apply(endToEndId, statuses.get(endToEndId), transferEvents));
+        return events.size();
+    }
+
+    private void apply(UUID endToEndId, PixTransfer.TransferStatus status, List<WebhookInboxEvent> events) {
+        if (status == null) {
+            // Not committed yet, wait for it instead of retrying
+            webhookInboxService.park(endToEndId, events);
+            return;
+        }
+        if (status != PixTransfer.TransferStatus.PENDING) {
+            // A finalized transfer never changes again, nothing to lock
+            events.forEach(event -> drop(event, "PIX transfer already " + status));
+            return;
+        }
+
+        // The final event that occurred last is the provider's current decision, earlier ones are superseded
+        List<WebhookInboxEvent> ordered = events.stream().sorted(OCCURRED_ORDER).toList();
+        WebhookInboxEvent decision = ordered.stream().filter(WebhookInboxWorker::isFinal)
+            .reduce((earlier, later) -> later).orElse(null);
+        for (int i = 0; i < ordered.size(); i++) {
+            WebhookInboxEvent event = ordered.get(i);
+            if (isFinal(event) && event != decision) {
+                drop(event, "Superseded by " + decision.getEventId());
+            } else if (!process(event)) {
+                // Later events of the transfer wait for the failed one
+                ordered.subList(i + 1, ordered.size()).forEach(webhookInboxRepository::release);
+                return;
+            }
+        }
+    }
+
+    private boolean process(WebhookInboxEvent event) {
+        long started = System.nanoTime();
+        try {
+            pixTransferService.processWebhook(event.getEndToEndId(), event.getEventId(), event.getEventType(),
+                event.getIdempotencyKey());
+            webhookInboxRepository.markProcessed(event);
+            processedCounter.increment();
+            long elapsed = System.nanoTime() - started;
+            processingTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            latencyTimer.record(TimeUnit.MILLISECONDS.toNanos(event.getQueuedMillis()) + elapsed, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (RuntimeException e) {
+            webhookInboxRepository.markFailedAttempt(event, e.getMessage(), maxAttempts);
+            if (event.getAttempts() + 1 >= maxAttempts) {
+                failedCounter.increment();
+                logger.error("Webhook inbox event given up - EndToEndId: {}, EventId: {}, Error: {}",
+                    event.getEndToEndId(), event.getEventId(), e.getMessage());
+            } else {
+                retriedCounter.increment();
+                logger.warn("Webhook inbox event failed, it will be retried - EndToEndId: {}, EventId: {}, Error: {}",
+                    event.getEndToEndId(), event.getEventId(), e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    private void drop(WebhookInboxEvent event, String reason) {
+        webhookInboxRepository.markDropped(event, reason);
+        droppedCounter.increment();
+        logger.info("Webhook inbox event dropped - EndToEndId: {}, EventId: {}, Reason: {}",
+            event.getEndToEndId(), event.getEventId(), reason);
+    }
+
+    private static boolean isFinal(WebhookInboxEvent event) {
+        return "CONFIRMED".equals(event.getEventType()) || "REJECTED".equals(event.getEventType());
+    }
+
+    private void run(int partition) {
+        while (running) {
+            int claimed = 0;
+            try {
+                claimed = drainBatch(partition);
+            } catch (RuntimeException e) {
+                logger.error("Webhook inbox partition {} failed, retrying: {}", partition, e.getMessage());
+            }
+            if (claimed == 0) {
+                try {
+                    Thread.sleep(pollIntervalMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package br.com.finaya.util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * 128-bit fingerprint of a request, to tell a retry from a different request
+ * reusing its idempotency key. The JSON body is canonicalized while it is
+ * parsed: fields are combined in any order, whitespace is ignored and equal
+ * numbers hash the same whatever their scale, so 10 and 10.00 match. Values
+ * are hashed straight from the parser's buffers, no strings are built.
+ *
+ * The hash is a streaming variant of MurmurHash3 x64 128, fast and well
+ * distributed but not meant to resist a client forging collisions.
+ */
+public class RequestFingerprint {
+
+	// Request attribute holding the fingerprint of the current request
+	public static final String ATTRIBUTE = RequestFingerprint.class.getName();
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private static final long TAG_OBJECT = 1;
+	private static final long TAG_ARRAY = 2;
+	private static final long TAG_STRING = 3;
+	private static final long TAG_NUMBER = 4;
+	private static final long TAG_TRUE = 5;
+	private static final long TAG_FALSE = 6;
+	private static final long TAG_NULL = 7;
+	private static final long TAG_RAW = 8;
+
+	private RequestFingerprint() {
+	}
+
+	public static byte[] of(String method, String path, byte[] body) {
+		Hasher hasher = new Hasher();
+		hasher.addChars(method);
+		hasher.addChars(path);
+		Hasher bodyHash = body.length == 0 ? new Hasher() : hashBody(body);
+		hasher.addLong(bodyHash.h1);
+		hasher.addLong(bodyHash.h2);
+		hasher.finish();
+		return ByteBuffer.allocate(16).putLong(hasher.h1).putLong(hasher.h2).array();
+	}
+
+	// Fingerprint of the request being handled by this thread, null outside of requests or when none was taken
+	public static byte[] current() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		return attributes != null ? (byte[]) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) : null;
+	}
+
+	private static Hasher hashBody(byte[] body) {
+		try (JsonParser parser = JSON.createParser(body)) {
+			Hasher hasher = hashValue(parser, parser.nextToken());
+			if (parser.nextToken() == null) {
+				return hasher;
+			}
+		} catch (IOException e) {
+			// Not JSON, the raw bytes are the request
+		}
+		Hasher raw = new Hasher();
+		raw.addLong(TAG_RAW);
+		for (int i = 0; i < body.length; i += 8) {
+			long word = 0;
+			for (int j = i; j < Math.min(i + 8, body.length); j++) {
+				word = word << 8 | (body[j] & 0xff);
+			}
+			raw.addLong(word);
+		}
+		raw.addLong(body.length);
+		raw.finish();
+		return raw;
+	}
+
+	private static Hasher hashValue(JsonParser parser, JsonToken token) throws IOException {
+		if (token == null) {
+			throw new IOException("Unexpected end of JSON");
+		}
+		Hasher hasher = new Hasher();
+		switch (token) {
+		case START_OBJECT -> {
+			// Fields are summed, so their order does not matter
+			long sum1 = 0;
+			long sum2 = 0;
+			int fields = 0;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				Hasher field = new Hasher();
+				field.addChars(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+				Hasher value = hashValue(parser, parser.nextToken());
+				field.addLong(value.h1);
+				field.addLong(value.h2);
+				field.finish();
+				sum1 += field.h1;
+				sum2 += field.h2;
+				fields++;
+			}
+			hasher.addLong(TAG_OBJECT);
+			hasher.addLong(sum1);
+			hasher.addLong(sum2);
+			hasher.addLong(fields);
+		}
+		case START_ARRAY -> {
+			hasher.addLong(TAG_ARRAY);
+			JsonToken element;
+			while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+				Hasher value = hashValue(parser, element);
+				hasher.addLong(value.h1);
+				hasher.addLong(value.h2);
+			}
+		}
+		case VALUE_STRING -> {
+			hasher.addLong(TAG_STRING);
+			hasher.addChars(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+		}
+		case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> {
+			hasher.addLong(TAG_NUMBER);
+			BigDecimal number = parser.getDecimalValue();
+			BigDecimal canonical = number.signum() == 0 ? BigDecimal.ZERO : number.stripTrailingZeros();
+			hasher.addLong(canonical.scale());
+			BigInteger unscaled = canonical.unscaledValue();
+			if (unscaled.bitLength() < 64) {
+				hasher.addLong(unscaled.longValue());
+			} else {
+				for (byte b : unscaled.toByteArray()) {
+					hasher.addLong(b);
+				}
+			}
+		}
+		case VALUE_TRUE -> hasher.addLong(TAG_TRUE);
+		case VALUE_FALSE -> hasher.addLong(TAG_FALSE);
+		case VALUE_NULL -> hasher.addLong(TAG_NULL);
+		default -> throw new IOException("Unexpected JSON token " + token);
+		}
+		hasher.finish();
+		return hasher;
+	}
+
+	// MurmurHash3 x64 128 fed one 64-bit word at a time
+	private static final class Hasher {
+		private long h1;
+		private long h2;
+		private long words;
+
+		void addLong(long word) {
+			long k1 = Long.rotateLeft(word * C1, 31) * C2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+			long k2 = Long.rotateLeft(word * C2, 33) * C1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+			words++;
+		}
+
+		void addChars(CharSequence chars) {
+			long word = 0;
+			for (int i = 0; i < chars.length(); i++) {
+				word = word << 16 | chars.charAt(i);
+				if ((i & 3) == 3) {
+					addLong(word);
+					word = 0;
+				}
+			}
+			addLong(word);
+			addLong(chars.length());
+		}
+
+		void addChars(char[] chars, int offset, int length) {
+			long word = 0;
+			for (int i = 0; i < length; i++) {
+				word = word << 16 | chars[offset + i];
+				if ((i & 3) == 3) {
+					addLong(word);
+					word = 0;
+				}
+			}
+			addLong(word);
+			addLong(length);
+		}
+
+		void finish() {
+			h1 ^= words;
+			h2 ^= words;
+			h1 += h2;
+			h2 += h1;
+			h1 = fmix(h1);
+			h2 = fmix(h2);
+			h1 += h2;
+			h2 += h1;
+		}
+
+		private static long fmix(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			k ^= k >>> 33;
+			return k;
+		}
+	}
+}
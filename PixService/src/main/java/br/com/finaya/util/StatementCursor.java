@@ -0,0 +1,41 @@
+package br.com.finaya.util;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+/**
+ * Opaque cursor of a statement page: the (created_at, seq) of the last entry
+ * returned, the next page starts right after it. Clients get it as a base64url
+ * string and hand it back untouched.
+ */
+public record StatementCursor(LocalDateTime createdAt, long seq) {
+
+	private static final byte VERSION = 2;
+	private static final int LENGTH = 1 + 8 + 4 + 8;
+
+	public String encode() {
+		ByteBuffer buffer = ByteBuffer.allocate(LENGTH)
+				.put(VERSION)
+				.putLong(createdAt.toEpochSecond(ZoneOffset.UTC))
+				.putInt(createdAt.getNano())
+				.putLong(seq);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+	}
+
+	public static StatementCursor decode(String cursor) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+			if (buffer.remaining() != LENGTH || buffer.get() != VERSION) {
+				throw new IllegalArgumentException("Invalid statement cursor");
+			}
+			LocalDateTime createdAt = LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC);
+			return new StatementCursor(createdAt, buffer.getLong());
+		} catch (IllegalArgumentException | BufferUnderflowException | DateTimeException e) {
+			throw new IllegalArgumentException("Invalid statement cursor", e);
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package br.com.finaya.util;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+public class UuidUtils {
+
+	private UuidUtils() {
+	}
+
+	// Same layout Hibernate uses for UUIDs stored in BINARY(16) columns
+	public static byte[] toBytes(UUID uuid) {
+		if (uuid == null) return null;
+		return ByteBuffer.allocate(16)
+				.putLong(uuid.getMostSignificantBits())
+				.putLong(uuid.getLeastSignificantBits())
+				.array();
+	}
+
+	public static UUID fromBytes(byte[] bytes) {
+		if (bytes == null) return null;
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		return new UUID(buffer.getLong(), buffer.getLong());
+	}
+}
@@ -0,0 +1,10 @@
+﻿ALTER TABLE wallets ADD COLUMN balance_slots INT NOT NULL DEFAULT 0;
+
+CREATE TABLE IF NOT EXISTS wallet_balance_slots (
+    wallet_id BINARY(16) NOT NULL,
+    slot INT NOT NULL,
+    balance DECIMAL(15,2) NOT NULL DEFAULT 0.00,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (wallet_id, slot),
+    FOREIGN KEY (wallet_id) REFERENCES wallets(id) ON DELETE CASCADE
+);
\ No newline at end of file
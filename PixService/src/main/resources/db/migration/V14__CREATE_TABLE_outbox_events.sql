@@ -0,0 +1,10 @@
+﻿CREATE TABLE IF NOT EXISTS outbox_events (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    aggregate_id BINARY(16) NOT NULL,
+    event_type VARCHAR(50) NOT NULL,
+    payload JSON NOT NULL,
+    created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    published_at TIMESTAMP(3) NULL,
+    INDEX idx_outbox_pending (published_at, id),
+    INDEX idx_outbox_aggregate (aggregate_id)
+);
\ No newline at end of file
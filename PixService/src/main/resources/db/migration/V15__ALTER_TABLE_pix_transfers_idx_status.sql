@@ -0,0 +1 @@
+﻿ALTER TABLE pix_transfers DROP INDEX idx_status, ADD INDEX idx_status (status, created_at);
\ No newline at end of file
@@ -0,0 +1,17 @@
+﻿CREATE TABLE IF NOT EXISTS webhook_inbox (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    idempotency_key BINARY(16) NOT NULL,
+    end_to_end_id BINARY(16) NOT NULL,
+    partition_key INT NOT NULL,
+    event_id VARCHAR(255) NOT NULL,
+    event_type VARCHAR(50) NOT NULL,
+    occurred_at VARCHAR(50) NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INT NOT NULL DEFAULT 0,
+    last_error VARCHAR(500) NULL,
+    received_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    claimed_at TIMESTAMP(3) NULL,
+    processed_at TIMESTAMP(3) NULL,
+    UNIQUE KEY uk_webhook_inbox_idempotency_key (idempotency_key),
+    INDEX idx_webhook_inbox_status (status, id)
+);
\ No newline at end of file
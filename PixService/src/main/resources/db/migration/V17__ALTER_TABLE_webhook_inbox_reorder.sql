@@ -0,0 +1,3 @@
+﻿ALTER TABLE webhook_inbox
+    ADD COLUMN occurred_at_millis BIGINT NULL AFTER occurred_at,
+    ADD INDEX idx_webhook_inbox_transfer (end_to_end_id, status);
\ No newline at end of file
@@ -0,0 +1,4 @@
+﻿ALTER TABLE idempotency_records
+    ADD COLUMN response_status SMALLINT NULL AFTER error_message,
+    ADD COLUMN response_content_type VARCHAR(100) NULL AFTER response_status,
+    ADD COLUMN response_body MEDIUMBLOB NULL AFTER response_content_type;
\ No newline at end of file
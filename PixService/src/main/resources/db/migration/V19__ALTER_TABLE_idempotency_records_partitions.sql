@@ -0,0 +1,21 @@
+﻿ALTER TABLE idempotency_records
+    ADD COLUMN operation VARCHAR(30) NOT NULL DEFAULT 'OTHER' AFTER record_key,
+    ADD COLUMN expires_on DATE NULL AFTER operation;
+
+UPDATE idempotency_records SET expires_on = DATE(COALESCE(created_at, CURRENT_TIMESTAMP)) + INTERVAL 7 DAY;
+
+-- Every unique key of a partitioned table must contain the partitioning column
+ALTER TABLE idempotency_records
+    MODIFY COLUMN expires_on DATE NOT NULL,
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, expires_on),
+    DROP INDEX uk_idempotency_key,
+    DROP INDEX uk_idempotency_records_key,
+    ADD UNIQUE KEY uk_idempotency_records_key (record_key, expires_on);
+
+-- Grouped by the day records expire, so retention drops whole partitions instead of deleting rows.
+-- The daily partitions are split off p_future ahead of time by IdempotencyPartitionMaintainer.
+ALTER TABLE idempotency_records
+    PARTITION BY RANGE (TO_DAYS(expires_on)) (
+        PARTITION p_future VALUES LESS THAN MAXVALUE
+    );
\ No newline at end of file
@@ -0,0 +1,2 @@
+﻿ALTER TABLE idempotency_records
+    ADD COLUMN request_fingerprint BINARY(16) NULL AFTER expires_on;
\ No newline at end of file
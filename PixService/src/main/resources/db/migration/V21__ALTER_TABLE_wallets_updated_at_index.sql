@@ -0,0 +1 @@
+﻿CREATE INDEX idx_wallets_updated_at ON wallets (updated_at, version);
\ No newline at end of file
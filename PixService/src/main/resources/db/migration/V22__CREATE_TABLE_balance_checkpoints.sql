@@ -0,0 +1,17 @@
+﻿CREATE TABLE IF NOT EXISTS balance_checkpoints (
+    wallet_id BINARY(16) NOT NULL,
+    checkpoint_at DATETIME NOT NULL,
+    granularity ENUM('HOURLY', 'DAILY') NOT NULL,
+    balance DECIMAL(15,2) NOT NULL,
+    entries INT NOT NULL,
+    PRIMARY KEY (wallet_id, checkpoint_at, granularity),
+    INDEX idx_checkpoint_granularity_at (granularity, checkpoint_at),
+    FOREIGN KEY (wallet_id) REFERENCES wallets(id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS balance_checkpoint_progress (
+    granularity ENUM('HOURLY', 'DAILY') PRIMARY KEY,
+    checkpointed_until DATETIME NOT NULL
+);
+
+CREATE INDEX idx_ledger_created ON ledger_entries (created_at);
\ No newline at end of file
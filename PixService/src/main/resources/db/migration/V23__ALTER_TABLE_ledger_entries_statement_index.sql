@@ -0,0 +1,3 @@
+﻿CREATE INDEX idx_ledger_statement ON ledger_entries (wallet_id, created_at, id, type, amount, balance_after, transaction_id);
+
+DROP INDEX idx_wallet_created ON ledger_entries;
\ No newline at end of file
@@ -0,0 +1,24 @@
+﻿-- One row per imported file, identified by the SHA-256 of its content.
+-- next_line is moved forward in the transaction of each chunk, so a restarted import resumes right after the last commit.
+CREATE TABLE IF NOT EXISTS deposit_imports (
+    id BINARY(32) PRIMARY KEY,
+    file_name VARCHAR(255) NOT NULL,
+    format VARCHAR(20) NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'RUNNING',
+    next_line BIGINT NOT NULL DEFAULT 1,
+    applied_lines BIGINT NOT NULL DEFAULT 0,
+    duplicate_lines BIGINT NOT NULL DEFAULT 0,
+    rejected_lines BIGINT NOT NULL DEFAULT 0,
+    applied_amount DECIMAL(19,2) NOT NULL DEFAULT 0,
+    started_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    updated_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+    completed_at TIMESTAMP(3) NULL
+);
+
+CREATE TABLE IF NOT EXISTS deposit_import_rejections (
+    import_id BINARY(32) NOT NULL,
+    line_number BIGINT NOT NULL,
+    reason VARCHAR(500) NOT NULL,
+    PRIMARY KEY (import_id, line_number),
+    FOREIGN KEY (import_id) REFERENCES deposit_imports(id) ON DELETE CASCADE
+);
\ No newline at end of file
@@ -0,0 +1,16 @@
+﻿-- One row per idempotency key, unpartitioned so its primary key alone decides who holds a key.
+-- idempotency_records stays partitioned by expiry day and only keeps the outcome of the claim.
+CREATE TABLE idempotency_keys (
+    record_key BINARY(16) NOT NULL,
+    claim_id BINARY(16) NOT NULL,
+    expires_on DATE NOT NULL,
+    PRIMARY KEY (record_key),
+    KEY idx_idempotency_keys_expires_on (expires_on)
+);
+
+-- A key claimed twice before this table existed keeps its latest record
+INSERT INTO idempotency_keys (record_key, claim_id, expires_on)
+SELECT record_key, record_key, MAX(expires_on)
+FROM idempotency_records
+WHERE expires_on >= CURRENT_DATE
+GROUP BY record_key;
\ No newline at end of file
@@ -0,0 +1,5 @@
+﻿-- Checkpoints were copied from balance_after, which credits to balance slots record without seeing
+-- the other slots. BalanceCheckpointer rewrites them from the ledger amounts, from the first entry on.
+DELETE FROM balance_checkpoints;
+
+DELETE FROM balance_checkpoint_progress;
\ No newline at end of file
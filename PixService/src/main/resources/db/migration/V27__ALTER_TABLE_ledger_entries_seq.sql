@@ -0,0 +1,7 @@
+﻿ALTER TABLE ledger_entries ADD COLUMN seq BIGINT NOT NULL AUTO_INCREMENT UNIQUE;
+
+DROP INDEX idx_ledger_statement ON ledger_entries;
+CREATE INDEX idx_ledger_statement ON ledger_entries (wallet_id, created_at, seq, type, amount, balance_after, transaction_id);
+
+DROP INDEX idx_ledger_created ON ledger_entries;
+CREATE INDEX idx_ledger_created ON ledger_entries (created_at, seq);
\ No newline at end of file
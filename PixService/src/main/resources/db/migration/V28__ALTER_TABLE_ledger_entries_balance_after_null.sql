@@ -0,0 +1 @@
+﻿ALTER TABLE ledger_entries MODIFY balance_after DECIMAL(15,2) NULL;
\ No newline at end of file
@@ -0,0 +1,4 @@
+﻿-- Finished events are purged by processed_at, FAILED ones did not set it before
+UPDATE webhook_inbox SET processed_at = received_at WHERE status = 'FAILED' AND processed_at IS NULL;
+
+CREATE INDEX idx_webhook_inbox_processed ON webhook_inbox (processed_at);
\ No newline at end of file
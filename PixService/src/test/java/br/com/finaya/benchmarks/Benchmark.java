@@ -0,0 +1,20 @@
+package br.com.finaya.benchmarks;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.junit.jupiter.api.Tag;
+
+/**
+ * Marks a load benchmark. Benchmarks are not part of the regular build, the
+ * benchmarks profile runs all of them with {@code mvn test -Pbenchmarks}, or
+ * one with {@code mvn test -Pbenchmarks -Dtest='WalletEngineBenchmark*'}.
+ * Their results are logged, the assertions only check the load was applied.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Tag("benchmark")
+public @interface Benchmark {
+}
@@ -0,0 +1,32 @@
+package br.com.finaya.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Harness shared by the benchmarks in this package.
+ */
+final class BenchmarkSupport {
+
+	private BenchmarkSupport() {
+	}
+
+	// Runs every task on a fixed pool of threads and rethrows the first failure
+	static void runConcurrently(int threads, List<Callable<Void>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	static double secondsSince(long startedNanos) {
+		return (System.nanoTime() - startedNanos) / 1_000_000_000.0;
+	}
+}
@@ -0,0 +1,150 @@
+package br.com.finaya.benchmarks;
+
+import static br.com.finaya.benchmarks.BenchmarkSupport.secondsSince;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.NestedTestConfiguration;
+import org.springframework.test.context.NestedTestConfiguration.EnclosingConfiguration;
+
+import br.com.finaya.services.PixKeyService;
+import br.com.finaya.services.WalletService;
+
+/**
+ * Transfer and webhook endpoints under more concurrent clients than Tomcat has
+ * platform threads, all on one hot source wallet, with requests handled on
+ * platform threads and on virtual threads.
+ */
+@Benchmark
+public class ExecutionModeBenchmark {
+	private static final Logger logger = LoggerFactory.getLogger(ExecutionModeBenchmark.class);
+
+	private static final int CLIENTS = 400;
+	private static final int REQUESTS = 2000;
+
+	@Nested
+	@NestedTestConfiguration(EnclosingConfiguration.OVERRIDE)
+	@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "pix.execution.mode=platform")
+	@ActiveProfiles("test")
+	class PlatformThreads {
+
+		@LocalServerPort
+		private int port;
+
+		@Autowired
+		private WalletService walletService;
+
+		@Autowired
+		private PixKeyService pixKeyService;
+
+		@Test
+		void load() throws Exception {
+			measure("platform", port, walletService, pixKeyService);
+		}
+	}
+
+	@Nested
+	@NestedTestConfiguration(EnclosingConfiguration.OVERRIDE)
+	@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "pix.execution.mode=virtual")
+	@ActiveProfiles("test")
+	class VirtualThreads {
+
+		@LocalServerPort
+		private int port;
+
+		@Autowired
+		private WalletService walletService;
+
+		@Autowired
+		private PixKeyService pixKeyService;
+
+		@Test
+		void load() throws Exception {
+			measure("virtual", port, walletService, pixKeyService);
+		}
+	}
+
+	private static void measure(String mode, int port, WalletService walletService, PixKeyService pixKeyService)
+			throws Exception {
+		UUID source = walletService.createWallet(UUID.randomUUID()).getId();
+		walletService.deposit(source, new BigDecimal("100000.00"), UUID.randomUUID());
+		UUID target = walletService.createWallet(UUID.randomUUID()).getId();
+		String key = "benchmark-" + UUID.randomUUID() + "@email.com";
+		pixKeyService.registerPixKey(target, key, "EMAIL");
+
+		HttpClient client = HttpClient.newHttpClient();
+		List<String> endToEndIds = new ArrayList<>();
+		run(mode, "transfers", client, i -> post(port, "/pix/transfers",
+				"{\"fromWalletId\":\"" + source + "\",\"toPixKey\":\"" + key + "\",\"amount\":1.00}"), endToEndIds);
+		run(mode, "webhooks", client, i -> post(port, "/pix/webhook",
+				"{\"endToEndId\":\"" + endToEndIds.get(i) + "\",\"eventId\":\"evt-" + UUID.randomUUID()
+						+ "\",\"eventType\":\"CONFIRMED\",\"occurredAt\":\"2024-01-15T10:00:00Z\"}"), null);
+
+		assertEquals(0, new BigDecimal(REQUESTS).compareTo(walletService.getCurrentBalance(target)));
+	}
+
+	private static void run(String mode, String endpoint, HttpClient client, Function<Integer, HttpRequest> request,
+			List<String> endToEndIds) throws Exception {
+		Semaphore clients = new Semaphore(CLIENTS);
+		AtomicInteger failures = new AtomicInteger();
+		long[] latencies = new long[REQUESTS];
+		List<CompletableFuture<Void>> responses = new ArrayList<>();
+
+		long started = System.nanoTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			clients.acquire();
+			int index = i;
+			long sent = System.nanoTime();
+			responses.add(client.sendAsync(request.apply(i), HttpResponse.BodyHandlers.ofString())
+					.handle((response, error) -> {
+						latencies[index] = System.nanoTime() - sent;
+						clients.release();
+						if (error != null || response.statusCode() != 200) {
+							failures.incrementAndGet();
+						} else if (endToEndIds != null) {
+							synchronized (endToEndIds) {
+								endToEndIds.add(response.body().replaceAll(".*\"endToEndId\":\"([^\"]+)\".*", "$1"));
+							}
+						}
+						return null;
+					}));
+		}
+		CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).join();
+		double seconds = secondsSince(started);
+
+		Arrays.sort(latencies);
+		logger.info("Mode: {} - Endpoint: {} - {} requests from {} clients in {} s ({} req/s) - p50: {}ms - p99: {}ms - Failures: {}",
+				mode, endpoint, REQUESTS, CLIENTS, String.format("%.2f", seconds), String.format("%.0f", REQUESTS / seconds),
+				latencies[REQUESTS / 2] / 1_000_000, latencies[REQUESTS * 99 / 100] / 1_000_000, failures.get());
+		assertEquals(0, failures.get());
+	}
+
+	private static HttpRequest post(int port, String path, String body) {
+		return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+				.header("Content-Type", "application/json")
+				.header("Idempotency-Key", UUID.randomUUID().toString())
+				.POST(HttpRequest.BodyPublishers.ofString(body))
+				.build();
+	}
+}
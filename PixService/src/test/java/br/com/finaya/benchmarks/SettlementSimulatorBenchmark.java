@@ -0,0 +1,102 @@
+package br.com.finaya.benchmarks;
+
+import static br.com.finaya.benchmarks.BenchmarkSupport.runConcurrently;
+import static br.com.finaya.benchmarks.BenchmarkSupport.secondsSince;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.services.PixKeyService;
+import br.com.finaya.services.PixTransferService;
+import br.com.finaya.services.SettlementSimulator;
+import br.com.finaya.services.WalletService;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+
+/**
+ * Full transfer lifecycle under load: transfers are initiated concurrently and
+ * settled by the embedded simulator, then the initiate-to-final-state latency
+ * percentiles are logged.
+ */
+@Benchmark
+@SpringBootTest(properties = { "pix.simulator.enabled=true", "pix.simulator.distribution=EXPONENTIAL",
+		"pix.simulator.latency-ms=50", "pix.simulator.jitter-ms=50", "pix.simulator.threads=8" })
+@ActiveProfiles("test")
+public class SettlementSimulatorBenchmark {
+	private static final Logger logger = LoggerFactory.getLogger(SettlementSimulatorBenchmark.class);
+
+	private static final int THREADS = 32;
+	private static final int WALLETS = 16;
+	private static final int TRANSFERS = 2048;
+
+	@Autowired
+	private WalletService walletService;
+
+	@Autowired
+	private PixKeyService pixKeyService;
+
+	@Autowired
+	private PixTransferService pixTransferService;
+
+	@Autowired
+	private SettlementSimulator simulator;
+
+	@Test
+	void transferLifecycleLatency() throws Exception {
+		List<UUID> sources = new ArrayList<>();
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < WALLETS; i++) {
+			UUID source = walletService.createWallet(UUID.randomUUID()).getId();
+			walletService.deposit(source, new BigDecimal("100000.00"), UUID.randomUUID());
+			sources.add(source);
+
+			UUID target = walletService.createWallet(UUID.randomUUID()).getId();
+			String key = "benchmark-" + UUID.randomUUID() + "@email.com";
+			pixKeyService.registerPixKey(target, key, "EMAIL");
+			keys.add(key);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < TRANSFERS; i++) {
+			UUID source = sources.get(i % WALLETS);
+			String key = keys.get((i / WALLETS) % WALLETS);
+			tasks.add(() -> {
+				pixTransferService.initiatePixTransfer(source, key, new BigDecimal("1.00"), UUID.randomUUID());
+				return null;
+			});
+		}
+
+		long started = System.nanoTime();
+		runConcurrently(THREADS, tasks);
+		assertTrue(simulator.awaitIdle(5, TimeUnit.MINUTES));
+		double seconds = secondsSince(started);
+
+		logger.info("{} transfers settled in {} s ({} transfers/s)", TRANSFERS, String.format("%.2f", seconds),
+				String.format("%.0f", TRANSFERS / seconds));
+		for (String outcome : List.of("CONFIRMED", "REJECTED")) {
+			Timer timer = simulator.settlementTimer(outcome);
+			HistogramSnapshot snapshot = timer.takeSnapshot();
+			StringBuilder percentiles = new StringBuilder();
+			for (ValueAtPercentile value : snapshot.percentileValues()) {
+				percentiles.append(String.format(" p%.0f=%.1fms", value.percentile() * 100,
+						value.value(TimeUnit.MILLISECONDS)));
+			}
+			logger.info("Outcome: {} - Count: {} - Mean: {}ms - Max: {}ms -{}", outcome, snapshot.count(),
+					String.format("%.1f", snapshot.mean(TimeUnit.MILLISECONDS)),
+					String.format("%.1f", snapshot.max(TimeUnit.MILLISECONDS)), percentiles);
+		}
+	}
+}
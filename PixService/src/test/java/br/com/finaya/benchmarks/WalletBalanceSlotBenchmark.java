@@ -0,0 +1,72 @@
+package br.com.finaya.benchmarks;
+
+import static br.com.finaya.benchmarks.BenchmarkSupport.runConcurrently;
+import static br.com.finaya.benchmarks.BenchmarkSupport.secondsSince;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.services.WalletService;
+
+/**
+ * Concurrent credits to a single hot wallet with 0 (plain row lock), 1, 4 and
+ * 16 balance slots.
+ */
+@Benchmark
+@SpringBootTest
+@ActiveProfiles("test")
+public class WalletBalanceSlotBenchmark {
+	private static final Logger logger = LoggerFactory.getLogger(WalletBalanceSlotBenchmark.class);
+
+	private static final int[] SLOTS = { 0, 1, 4, 16 };
+	private static final int THREADS = 32;
+	private static final int CREDITS = 2000;
+	private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+	@Autowired
+	private WalletService walletService;
+
+	@Test
+	void concurrentCreditsToHotWallet() throws Exception {
+		// Warm up connections and code paths before measuring
+		run(0, 200);
+
+		for (int slots : SLOTS) {
+			long started = System.nanoTime();
+			UUID walletId = run(slots, CREDITS);
+			double seconds = secondsSince(started);
+
+			assertEquals(0, AMOUNT.multiply(BigDecimal.valueOf(CREDITS)).compareTo(walletService.getCurrentBalance(walletId)));
+			logger.info("Balance slots: {} - {} credits on {} threads in {} s ({} credits/s)", slots, CREDITS, THREADS,
+					String.format("%.2f", seconds), String.format("%.0f", CREDITS / seconds));
+		}
+	}
+
+	private UUID run(int slots, int credits) throws Exception {
+		UUID walletId = walletService.createWallet(UUID.randomUUID()).getId();
+		if (slots > 0) {
+			walletService.configureBalanceSlots(walletId, slots);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < credits; i++) {
+			tasks.add(() -> {
+				walletService.deposit(walletId, AMOUNT, UUID.randomUUID());
+				return null;
+			});
+		}
+		runConcurrently(THREADS, tasks);
+		return walletId;
+	}
+}
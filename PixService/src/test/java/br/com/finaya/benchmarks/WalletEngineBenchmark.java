@@ -0,0 +1,109 @@
+package br.com.finaya.benchmarks;
+
+import static br.com.finaya.benchmarks.BenchmarkSupport.runConcurrently;
+import static br.com.finaya.benchmarks.BenchmarkSupport.secondsSince;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.NestedTestConfiguration;
+import org.springframework.test.context.NestedTestConfiguration.EnclosingConfiguration;
+
+import br.com.finaya.services.WalletService;
+
+/**
+ * Same deposit/withdraw load against the lock-based path and the wallet engine,
+ * on one hot wallet and spread over 16 wallets.
+ */
+@Benchmark
+public class WalletEngineBenchmark {
+	private static final Logger logger = LoggerFactory.getLogger(WalletEngineBenchmark.class);
+
+	private static final int THREADS = 32;
+	private static final int OPERATIONS = 2048;
+	private static final BigDecimal AMOUNT = new BigDecimal("1.00");
+
+	@Nested
+	@NestedTestConfiguration(EnclosingConfiguration.OVERRIDE)
+	@SpringBootTest(properties = "pix.wallets.engine.enabled=false")
+	@ActiveProfiles("test")
+	class LockBased {
+
+		@Autowired
+		private WalletService walletService;
+
+		@Test
+		void load() throws Exception {
+			measure("locks", walletService);
+		}
+	}
+
+	@Nested
+	@NestedTestConfiguration(EnclosingConfiguration.OVERRIDE)
+	@SpringBootTest(properties = "pix.wallets.engine.enabled=true")
+	@ActiveProfiles("test")
+	class Engine {
+
+		@Autowired
+		private WalletService walletService;
+
+		@Test
+		void load() throws Exception {
+			measure("engine", walletService);
+		}
+	}
+
+	private static void measure(String mode, WalletService walletService) throws Exception {
+		// Warm up connections and code paths before measuring
+		run(walletService, 4, 200);
+
+		for (int wallets : new int[] { 1, 16 }) {
+			long started = System.nanoTime();
+			List<UUID> walletIds = run(walletService, wallets, OPERATIONS);
+			double seconds = secondsSince(started);
+
+			// Every wallet got as many deposits as withdrawals on top of its initial balance
+			for (UUID walletId : walletIds) {
+				assertEquals(0, new BigDecimal("1000.00").compareTo(walletService.getCurrentBalance(walletId)));
+			}
+			logger.info("Mode: {} - Wallets: {} - {} operations on {} threads in {} s ({} ops/s)", mode, wallets,
+					OPERATIONS, THREADS, String.format("%.2f", seconds), String.format("%.0f", OPERATIONS / seconds));
+		}
+	}
+
+	private static List<UUID> run(WalletService walletService, int wallets, int operations) throws Exception {
+		List<UUID> walletIds = new ArrayList<>();
+		for (int i = 0; i < wallets; i++) {
+			UUID walletId = walletService.createWallet(UUID.randomUUID()).getId();
+			walletService.deposit(walletId, new BigDecimal("1000.00"), UUID.randomUUID());
+			walletIds.add(walletId);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < operations; i++) {
+			UUID walletId = walletIds.get(i % wallets);
+			boolean deposit = (i / wallets) % 2 == 0;
+			tasks.add(() -> {
+				if (deposit) {
+					walletService.deposit(walletId, AMOUNT, UUID.randomUUID());
+				} else {
+					walletService.withdraw(walletId, AMOUNT, UUID.randomUUID());
+				}
+				return null;
+			});
+		}
+		runConcurrently(THREADS, tasks);
+		return walletIds;
+	}
+}
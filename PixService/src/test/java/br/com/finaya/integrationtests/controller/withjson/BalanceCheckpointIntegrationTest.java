@@ -0,0 +1,150 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.repositories.BalanceCheckpointRepository;
+import br.com.finaya.repositories.BalanceCheckpointRepository.Granularity;
+import br.com.finaya.services.HistoricalBalanceService;
+import br.com.finaya.util.UuidUtils;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class BalanceCheckpointIntegrationTest extends AbstractIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private BalanceCheckpointRepository checkpointRepository;
+
+	@Autowired
+	private HistoricalBalanceService historicalBalanceService;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldAnswerHistoricalBalancesFromCheckpointsAndTheEntriesAfterThem() {
+		UUID walletId = createWallet();
+		UUID idleWalletId = createWallet();
+		post("/wallets/{id}/deposit", walletId, "100.00");
+		post("/wallets/{id}/deposit", walletId, "50.00");
+		post("/wallets/{id}/withdraw", walletId, "30.00");
+
+		// Move the entries to three consecutive hours of yesterday and checkpoint those hours
+		LocalDateTime hour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusHours(26);
+		backdate(walletId, "100.00", hour.plusMinutes(10));
+		backdate(walletId, "50.00", hour.plusMinutes(70));
+		backdate(walletId, "-30.00", hour.plusMinutes(130));
+		for (int i = 0; i < 3; i++) {
+			checkpointRepository.checkpoint(Granularity.HOURLY, hour.plusHours(i), hour.plusHours(i + 1));
+		}
+		LocalDateTime until = checkpointRepository.findCheckpointedUntil(Granularity.HOURLY).orElse(hour);
+		if (until.isBefore(hour.plusHours(3))) {
+			checkpointRepository.saveCheckpointedUntil(Granularity.HOURLY, hour.plusHours(3));
+		}
+
+		assertBalance(walletId, hour.plusMinutes(5), "0");
+		assertBalance(walletId, hour.plusMinutes(30), "100.00");
+		assertBalance(walletId, hour.plusMinutes(90), "150.00");
+		// Nothing after the checkpoint of the hour before, answered by it alone
+		assertBalance(walletId, hour.plusMinutes(125), "150.00");
+		assertBalance(walletId, hour.plusMinutes(140), "120.00");
+		assertBalance(walletId, LocalDateTime.now(), "120.00");
+
+		Map<UUID, BigDecimal> balances = historicalBalanceService.balancesAt(List.of(walletId, idleWalletId),
+				hour.plusHours(5));
+		assertEquals(0, new BigDecimal("120.00").compareTo(balances.get(walletId)));
+		assertEquals(0, BigDecimal.ZERO.compareTo(balances.get(idleWalletId)));
+	}
+
+	@Test
+	void shouldSumHistoricalBalancesOfShardedWalletsFromTheEntryAmounts() {
+		UUID walletId = createWallet();
+		given().contentType(ContentType.JSON).body(new BalanceSlotsRequest(4)).when()
+				.put("/wallets/{id}/balance-slots", walletId).then().statusCode(HttpStatus.OK.value());
+		post("/wallets/{id}/deposit", walletId, "100.00");
+		post("/wallets/{id}/deposit", walletId, "50.00");
+		post("/wallets/{id}/withdraw", walletId, "30.00");
+
+		assertEquals(0, jdbcTemplate.queryForObject(
+				"SELECT COUNT(*) FROM ledger_entries WHERE wallet_id = ? AND balance_after IS NOT NULL", Integer.class,
+				UuidUtils.toBytes(walletId)));
+		// Older slot credits recorded balance_after without seeing the other slots, it is never read back
+		jdbcTemplate.update("UPDATE ledger_entries SET balance_after = 999.99 WHERE wallet_id = ?",
+				UuidUtils.toBytes(walletId));
+
+		LocalDateTime hour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusHours(26);
+		backdate(walletId, "100.00", hour.plusMinutes(10));
+		backdate(walletId, "50.00", hour.plusMinutes(70));
+		backdate(walletId, "-30.00", hour.plusMinutes(80));
+		checkpointRepository.checkpoint(Granularity.HOURLY, hour, hour.plusHours(1));
+		checkpointRepository.checkpoint(Granularity.HOURLY, hour.plusHours(1), hour.plusHours(2));
+
+		assertBalance(walletId, hour.plusMinutes(30), "100.00");
+		assertBalance(walletId, hour.plusMinutes(75), "150.00");
+		assertBalance(walletId, hour.plusHours(3), "120.00");
+		assertEquals(0, new BigDecimal("120.00").compareTo(jdbcTemplate.queryForObject(
+				"SELECT balance FROM balance_checkpoints WHERE wallet_id = ? AND checkpoint_at = ? AND granularity = 'HOURLY'",
+				BigDecimal.class, UuidUtils.toBytes(walletId), Timestamp.valueOf(hour.plusHours(2)))));
+	}
+
+	private void assertBalance(UUID walletId, LocalDateTime at, String expected) {
+		BigDecimal balance = historicalBalanceService.balanceAt(walletId, at);
+		assertEquals(0, new BigDecimal(expected).compareTo(balance), "Balance at " + at + " was " + balance);
+	}
+
+	private void backdate(UUID walletId, String amount, LocalDateTime createdAt) {
+		jdbcTemplate.update("UPDATE ledger_entries SET created_at = ? WHERE wallet_id = ? AND amount = ?",
+				Timestamp.valueOf(createdAt), UuidUtils.toBytes(walletId), new BigDecimal(amount));
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	private void post(String path, UUID walletId, String amount) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new AmountRequest(amount)).when().post(path, walletId).then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record AmountRequest(String amount) {
+	}
+
+	record BalanceSlotsRequest(int slots) {
+	}
+}
@@ -0,0 +1,151 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.repositories.DepositImportRepository.Rejection;
+import br.com.finaya.services.DepositImportService;
+import br.com.finaya.services.DepositImportService.Format;
+import br.com.finaya.services.DepositImportService.ImportSummary;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class DepositImportIntegrationTest extends AbstractIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private DepositImportService importService;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@TempDir
+	Path directory;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldImportDepositsOnceAndReportRejectedLines() throws IOException {
+		UUID walletId = createWallet();
+		UUID otherWalletId = createWallet();
+		String prefix = UUID.randomUUID().toString().substring(0, 8);
+		Path file = write("deposits.csv",
+				"reference,wallet_id,amount,description",
+				prefix + "-1," + walletId + ",100.00,First",
+				prefix + "-2," + otherWalletId + ",40.00",
+				prefix + "-3," + walletId + ",2.50,\"Second, quoted\"",
+				prefix + "-4," + UUID.randomUUID() + ",10.00",
+				prefix + "-5," + walletId + ",-1.00",
+				"",
+				prefix + "-1," + walletId + ",100.00,Repeated line");
+
+		ImportSummary summary = importService.importFile(file, Format.CSV);
+		assertFalse(summary.alreadyImported());
+		assertEquals(3, summary.appliedLines());
+		assertEquals(1, summary.duplicateLines());
+		assertEquals(2, summary.rejectedLines());
+		assertEquals(0, new BigDecimal("142.50").compareTo(summary.appliedAmount()));
+		assertBalance(walletId, "102.50");
+		assertBalance(otherWalletId, "40.00");
+
+		List<Rejection> rejections = importService.findRejections(file);
+		assertEquals(List.of(5L, 6L), rejections.stream().map(Rejection::lineNumber).toList());
+		assertTrue(rejections.get(0).reason().startsWith("Wallet not found"));
+
+		// The same file again is answered from its checkpoint
+		ImportSummary again = importService.importFile(file, Format.CSV);
+		assertTrue(again.alreadyImported());
+		assertEquals(3, again.appliedLines());
+		assertBalance(walletId, "102.50");
+	}
+
+	@Test
+	void shouldSkipReferencesAlreadyImportedByAnotherFile() throws IOException {
+		UUID walletId = createWallet();
+		String reference = "REF" + UUID.randomUUID().toString().substring(0, 8);
+		importService.importFile(write("first.csv", reference + "," + walletId + ",12.34"), Format.CSV);
+
+		Path fixedWidth = write("second.txt",
+				fixedWidth(reference, walletId, 1234, "Same deposit"),
+				fixedWidth(reference + "B", walletId, 66, ""),
+				fixedWidth(reference + "C", walletId, 999, ""),
+				fixedWidth(reference + "C", walletId, 1000, "Reused reference"));
+		ImportSummary summary = importService.importFile(fixedWidth, Format.FIXED_WIDTH);
+
+		assertEquals(2, summary.appliedLines());
+		assertEquals(1, summary.duplicateLines());
+		assertEquals(1, summary.rejectedLines());
+		assertBalance(walletId, "22.99");
+	}
+
+	@Test
+	void shouldResumeAnImportFromItsCheckpoint() throws Exception {
+		UUID walletId = createWallet();
+		String prefix = UUID.randomUUID().toString().substring(0, 8);
+		Path file = write("resumed.csv",
+				prefix + "-1," + walletId + ",1.00",
+				prefix + "-2," + walletId + ",2.00",
+				prefix + "-3," + walletId + ",4.00",
+				prefix + "-4," + walletId + ",8.00");
+
+		// A previous run committed the first two lines, then crashed
+		jdbcTemplate.update("INSERT INTO deposit_imports (id, file_name, format, next_line) VALUES (?, ?, ?, ?)",
+				MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file)), "resumed.csv", "CSV", 3);
+
+		ImportSummary summary = importService.importFile(file, Format.CSV);
+		assertEquals(2, summary.appliedLines());
+		assertBalance(walletId, "12.00");
+	}
+
+	private static String fixedWidth(String reference, UUID walletId, long cents, String description) {
+		return String.format("%-20s%-36s%015d%s", reference, walletId, cents, description);
+	}
+
+	private Path write(String name, String... lines) throws IOException {
+		return Files.write(directory.resolve(name), List.of(lines));
+	}
+
+	private void assertBalance(UUID walletId, String expected) {
+		String balance = given().when().get("/wallets/{id}/balance", walletId).then()
+				.statusCode(HttpStatus.OK.value()).extract().path("balance").toString();
+		assertEquals(0, new BigDecimal(expected).compareTo(new BigDecimal(balance)), "Balance was " + balance);
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+}
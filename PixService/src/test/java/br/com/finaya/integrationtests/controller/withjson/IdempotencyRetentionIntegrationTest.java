@@ -0,0 +1,134 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.repositories.IdempotencyPartitionRepository;
+import br.com.finaya.services.IdempotencyPartitionMaintainer;
+import br.com.finaya.util.UuidUtils;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class IdempotencyRetentionIntegrationTest extends AbstractIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private IdempotencyPartitionMaintainer maintainer;
+
+	@Autowired
+	private IdempotencyPartitionRepository partitionRepository;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldKeepRecordsInThePartitionOfTheirOperationsExpiryDay() {
+		maintainer.maintain();
+		LocalDate today = partitionRepository.currentDate();
+		List<LocalDate> days = partitionRepository.findPartitionDays();
+		assertEquals(today, days.get(0));
+		assertTrue(days.contains(today.plusDays(33))); // 30 days of pix-transfer retention plus 3 premade
+
+		UUID walletId = createWallet();
+		UUID idempotencyKey = UUID.randomUUID();
+		deposit(walletId, idempotencyKey, "10.00");
+		assertEquals(today.plusDays(7), expiresOn(idempotencyKey));
+	}
+
+	@Test
+	void shouldIgnoreExpiredRecordsAndDropTheirPartition() {
+		maintainer.maintain();
+		LocalDate today = partitionRepository.currentDate();
+		LocalDate yesterday = today.minusDays(1);
+		jdbcTemplate.execute("ALTER TABLE idempotency_records REORGANIZE PARTITION " + partition(today) + " INTO ("
+				+ "PARTITION " + partition(yesterday) + " VALUES LESS THAN (TO_DAYS('" + today + "')), "
+				+ "PARTITION " + partition(today) + " VALUES LESS THAN (TO_DAYS('" + today.plusDays(1) + "')))");
+
+		UUID walletId = createWallet();
+		UUID idempotencyKey = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO idempotency_records (record_key, operation, expires_on, result_type) "
+				+ "VALUES (?, 'DEPOSIT', ?, ?)", UuidUtils.toBytes(idempotencyKey), yesterday, Void.class.getName());
+		jdbcTemplate.update("INSERT INTO idempotency_keys (record_key, claim_id, expires_on) VALUES (?, ?, ?)",
+				UuidUtils.toBytes(idempotencyKey), UuidUtils.toBytes(UUID.randomUUID()), yesterday);
+
+		// The expired record no longer holds its key
+		deposit(walletId, idempotencyKey, "10.00");
+		given().when().get("/wallets/{id}/balance", walletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(10.0f));
+
+		maintainer.maintain();
+		assertFalse(partitionRepository.findPartitionDays().contains(yesterday));
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_records WHERE record_key = ?",
+				Integer.class, UuidUtils.toBytes(idempotencyKey)));
+		assertEquals(today.plusDays(7), expiresOn(idempotencyKey));
+	}
+
+	@Test
+	void shouldClaimAKeyOnceWhateverTheOperationsRetention() {
+		UUID walletId = createWallet();
+		UUID idempotencyKey = UUID.randomUUID();
+		deposit(walletId, idempotencyKey, "10.00");
+
+		// Withdrawals are kept longer in the tests, so their record goes to another partition
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", idempotencyKey.toString()))
+				.body(new AmountRequest("5.00")).when().post("/wallets/{id}/withdraw", walletId).then()
+				.statusCode(HttpStatus.UNPROCESSABLE_ENTITY.value());
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM idempotency_records WHERE record_key = ?",
+				Integer.class, UuidUtils.toBytes(idempotencyKey)));
+	}
+
+	private LocalDate expiresOn(UUID idempotencyKey) {
+		return jdbcTemplate.queryForObject("SELECT expires_on FROM idempotency_records WHERE record_key = ?",
+				LocalDate.class, UuidUtils.toBytes(idempotencyKey));
+	}
+
+	private static String partition(LocalDate day) {
+		return "p" + day.toString().replace("-", "");
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	private void deposit(UUID walletId, UUID idempotencyKey, String amount) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", idempotencyKey.toString()))
+				.body(new AmountRequest(amount)).when().post("/wallets/{id}/deposit", walletId).then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record AmountRequest(String amount) {
+	}
+}
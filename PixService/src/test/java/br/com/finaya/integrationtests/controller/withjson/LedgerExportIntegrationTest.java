@@ -0,0 +1,115 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class LedgerExportIntegrationTest extends AbstractIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldExportTheEntriesOfAWalletAsNdjson() throws IOException {
+		UUID walletId = createWallet();
+		post("/wallets/{id}/deposit", walletId, "100.00");
+		post("/wallets/{id}/deposit", walletId, "50.00");
+		post("/wallets/{id}/withdraw", walletId, "30.00");
+
+		String body = given().queryParam("walletId", walletId).when().get("/ledger/export").then()
+				.statusCode(HttpStatus.OK.value())
+				.contentType("application/x-ndjson")
+				.extract().asString();
+
+		List<String> lines = body.lines().toList();
+		assertEquals(3, lines.size());
+		List<String> balances = new ArrayList<>();
+		for (String line : lines) {
+			JsonNode entry = objectMapper.readTree(line);
+			assertEquals(walletId.toString(), entry.get("walletId").asText());
+			balances.add(entry.get("balanceAfter").decimalValue().stripTrailingZeros().toPlainString());
+		}
+		assertTrue(balances.containsAll(List.of("100", "150", "120")), "Balances were " + balances);
+	}
+
+	@Test
+	void shouldExportTheEntriesOfAWalletAsGzippedCsv() throws IOException {
+		UUID walletId = createWallet();
+		post("/wallets/{id}/deposit", walletId, "10.00");
+		post("/wallets/{id}/deposit", walletId, "5.00");
+
+		byte[] body = given().queryParam("walletId", walletId).queryParam("format", "csv").queryParam("gzip", true)
+				.when().get("/ledger/export").then()
+				.statusCode(HttpStatus.OK.value())
+				.header("Content-Disposition", "attachment; filename=\"ledger-" + walletId + ".csv.gz\"")
+				.extract().asByteArray();
+
+		String csv;
+		try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(body))) {
+			csv = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		List<String> lines = csv.lines().toList();
+		assertEquals("id,walletId,transactionId,type,amount,balanceAfter,description,createdAt", lines.get(0));
+		assertEquals(3, lines.size());
+		for (String line : lines.subList(1, lines.size())) {
+			assertEquals(walletId.toString(), line.split(",")[1]);
+		}
+	}
+
+	@Test
+	void shouldRejectAnUnknownFormat() {
+		given().queryParam("format", "xml").when().get("/ledger/export").then()
+				.statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	private void post(String path, UUID walletId, String amount) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new AmountRequest(amount)).when().post(path, walletId).then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record AmountRequest(String amount) {
+	}
+}
@@ -0,0 +1,183 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.model.OutboxEvent;
+import br.com.finaya.repositories.OutboxEventRepository;
+import br.com.finaya.services.InMemoryOutboxPublisher;
+import br.com.finaya.services.OutboxRelay;
+import br.com.finaya.util.UuidUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class OutboxIntegrationTest extends AbstractIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private OutboxRelay outboxRelay;
+
+	@Autowired
+	private OutboxEventRepository outboxEventRepository;
+
+	@Autowired
+	private InMemoryOutboxPublisher publisher;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldPublishTransferLifecycleEvents() {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		deposit(source, "100.00");
+		registerPixKey(target, "outbox-" + suffix + "@email.com");
+
+		UUID confirmed = transfer(source, "outbox-" + suffix + "@email.com", "30.00");
+		UUID rejected = transfer(source, "outbox-" + suffix + "@email.com", "20.00");
+		webhook(confirmed, "CONFIRMED");
+		webhook(rejected, "REJECTED");
+
+		outboxRelay.relay();
+
+		assertEquals(List.of("PIX_TRANSFER_CREATED", "PIX_TRANSFER_CONFIRMED"), publishedTypes(confirmed));
+		assertEquals(List.of("PIX_TRANSFER_CREATED", "PIX_TRANSFER_REJECTED"), publishedTypes(rejected));
+		assertEquals(0, outboxEventRepository.countPending());
+		assertTrue(meterRegistry.counter("pix.outbox.published").count() >= 4);
+		// The initiation stamp is a nanoTime of this JVM and stays out of the payload
+		assertTrue(publisher.getPublishedEvents().stream().noneMatch(event -> event.getPayload().contains("initiatedAt")));
+	}
+
+	@Test
+	void shouldNotWriteEventsForRejectedRequests() {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		registerPixKey(target, "outbox-empty-" + suffix + "@email.com");
+		outboxRelay.relay();
+		int published = publisher.getPublishedEvents().size();
+
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixTransferRequest(source, "outbox-empty-" + suffix + "@email.com", new BigDecimal("10.00")))
+				.when().post("/pix/transfers").then().statusCode(HttpStatus.BAD_REQUEST.value());
+
+		outboxRelay.relay();
+
+		assertEquals(0, outboxEventRepository.countPending());
+		assertEquals(published, publisher.getPublishedEvents().size());
+	}
+
+	@Test
+	void shouldPurgePublishedEventsPastTheirRetention() {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		deposit(source, "100.00");
+		registerPixKey(target, "outbox-purge-" + suffix + "@email.com");
+		UUID old = transfer(source, "outbox-purge-" + suffix + "@email.com", "10.00");
+		outboxRelay.relay();
+		UUID pending = transfer(source, "outbox-purge-" + suffix + "@email.com", "20.00");
+		UUID recent = transfer(source, "outbox-purge-" + suffix + "@email.com", "30.00");
+		jdbcTemplate.update("UPDATE outbox_events SET published_at = CURRENT_TIMESTAMP(3) - INTERVAL 8 DAY " +
+				"WHERE published_at IS NOT NULL");
+		jdbcTemplate.update("UPDATE outbox_events SET published_at = CURRENT_TIMESTAMP(3) WHERE aggregate_id = ?",
+				UuidUtils.toBytes(recent));
+		jdbcTemplate.update("UPDATE outbox_events SET published_at = NULL WHERE aggregate_id = ?",
+				UuidUtils.toBytes(pending));
+
+		outboxRelay.purge();
+
+		assertEquals(0, countEvents(old));
+		assertEquals(1, countEvents(pending));
+		assertEquals(1, countEvents(recent));
+		assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM outbox_events " +
+				"WHERE published_at < CURRENT_TIMESTAMP(3) - INTERVAL 7 DAY", Long.class));
+	}
+
+	private long countEvents(UUID aggregateId) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM outbox_events WHERE aggregate_id = ?", Long.class,
+				UuidUtils.toBytes(aggregateId));
+	}
+
+	private List<String> publishedTypes(UUID endToEndId) {
+		return publisher.getPublishedEvents().stream().filter(event -> endToEndId.equals(event.getAggregateId()))
+				.map(OutboxEvent::getEventType).toList();
+	}
+
+	private UUID transfer(UUID source, String key, String amount) {
+		String endToEndId = given().contentType(ContentType.JSON)
+				.header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixTransferRequest(source, key, new BigDecimal(amount))).when().post("/pix/transfers").then()
+				.statusCode(HttpStatus.OK.value()).extract().path("endToEndId");
+		return UUID.fromString(endToEndId);
+	}
+
+	private void webhook(UUID endToEndId, String eventType) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixWebhookRequest(endToEndId, "evt-" + UUID.randomUUID(), eventType, "2024-01-15T10:00:00Z"))
+				.when().post("/pix/webhook").then().statusCode(HttpStatus.OK.value());
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	private void deposit(UUID walletId, String amount) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new AmountRequest(amount)).when().post("/wallets/{id}/deposit", walletId).then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	private void registerPixKey(UUID walletId, String key) {
+		given().contentType(ContentType.JSON).body(new RegisterPixKeyRequest(key, "EMAIL")).when()
+				.post("/wallets/{walletId}/pix-keys", walletId).then().statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record AmountRequest(String amount) {
+	}
+
+	record RegisterPixKeyRequest(String key, String type) {
+	}
+
+	record PixTransferRequest(UUID fromWalletId, String toPixKey, BigDecimal amount) {
+	}
+
+	record PixWebhookRequest(UUID endToEndId, String eventId, String eventType, String occurredAt) {
+	}
+}
@@ -5,10 +5,13 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -24,9 +27,13 @@ import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 
 import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.services.IdempotencyService;
+import br.com.finaya.util.UuidUtils;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
 import io.restassured.http.Header;
+import io.restassured.path.json.JsonPath;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
@@ -41,6 +48,9 @@ public class PixControllerIntegrationTest extends AbstractIntegrationTest {
 	@Autowired
 	private PlatformTransactionManager transactionManager;
 
+	@Autowired
+	private MeterRegistry meterRegistry;
+
 	@BeforeEach
 	void setup() {
 		RestAssured.baseURI = "http://localhost";
@@ -317,6 +327,274 @@ public class PixControllerIntegrationTest extends AbstractIntegrationTest {
 				.body("status", equalTo("PENDING"));
 	}
 
+	@Test
+	void shouldInitiateTransferBatchWithPerItemResults() {
+		UUID sourceWalletId = setupSourceWallet();
+		UUID targetWalletId = setupTargetWallet();
+
+		UUID firstKey = UUID.randomUUID();
+		UUID secondKey = UUID.randomUUID();
+		UUID unknownPixKeyKey = UUID.randomUUID();
+		UUID insufficientKey = UUID.randomUUID();
+
+		PixTransferBatchRequest batch = new PixTransferBatchRequest(List.of(
+				new PixTransferBatchItemRequest(firstKey, sourceWalletId, "target@email.com", new BigDecimal("100.00")),
+				new PixTransferBatchItemRequest(secondKey, sourceWalletId, "+5511999999999", new BigDecimal("50.00")),
+				new PixTransferBatchItemRequest(unknownPixKeyKey, sourceWalletId, "nobody@email.com", new BigDecimal("10.00")),
+				new PixTransferBatchItemRequest(insufficientKey, sourceWalletId, "target@email.com", new BigDecimal("5000.00")),
+				new PixTransferBatchItemRequest(firstKey, sourceWalletId, "target@email.com", new BigDecimal("100.00"))));
+
+		given().contentType(ContentType.JSON).body(batch).when().post("/pix/transfers/batch").then()
+				.statusCode(HttpStatus.OK.value())
+				.body("results.size()", equalTo(5))
+				.body("results[0].outcome", equalTo("CREATED"))
+				.body("results[0].status", equalTo("PENDING"))
+				.body("results[1].outcome", equalTo("CREATED"))
+				.body("results[2].outcome", equalTo("FAILED"))
+				.body("results[3].outcome", equalTo("FAILED"))
+				.body("results[3].error", equalTo("Insufficient balance"))
+				.body("results[4].outcome", equalTo("DUPLICATE"));
+
+		// Only the two valid transfers were reserved
+		given().when().get("/wallets/{id}/balance", sourceWalletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(850.0f));
+
+		// Replaying the batch creates nothing new
+		given().contentType(ContentType.JSON).body(batch).when().post("/pix/transfers/batch").then()
+				.statusCode(HttpStatus.OK.value())
+				.body("results[0].outcome", equalTo("DUPLICATE"))
+				.body("results[1].outcome", equalTo("DUPLICATE"));
+
+		given().when().get("/wallets/{id}/balance", sourceWalletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(850.0f));
+	}
+
+	@Test
+	void shouldAnswerBatchItemsClaimedByAConcurrentRequestAsDuplicates() throws Exception {
+		UUID sourceWalletId = setupSourceWallet();
+		UUID targetWalletId = setupTargetWallet();
+		UUID claimedKey = UUID.randomUUID();
+		UUID freeKey = UUID.randomUUID();
+		UUID endToEndId = UUID.randomUUID();
+
+		// Another request claimed the key and has not committed yet
+		TransactionStatus status = transactionManager.getTransaction(new DefaultTransactionDefinition());
+		jdbcTemplate.update("INSERT INTO idempotency_keys (record_key, claim_id, expires_on) "
+				+ "VALUES (?, ?, CURRENT_DATE + INTERVAL 30 DAY)", UuidUtils.toBytes(claimedKey), UuidUtils.toBytes(UUID.randomUUID()));
+		jdbcTemplate.update("INSERT INTO idempotency_records (record_key, operation, expires_on, result_type) "
+				+ "VALUES (?, 'PIX_TRANSFER', CURRENT_DATE + INTERVAL 30 DAY, 'br.com.finaya.model.PixTransfer')",
+				UuidUtils.toBytes(claimedKey));
+		jdbcTemplate.update("INSERT INTO pix_transfers (end_to_end_id, from_wallet_id, to_wallet_id, amount, status, "
+				+ "idempotency_key, version) VALUES (?, ?, ?, 10.00, 'PENDING', ?, 0)", UuidUtils.toBytes(endToEndId),
+				UuidUtils.toBytes(sourceWalletId), UuidUtils.toBytes(targetWalletId), UuidUtils.toBytes(claimedKey));
+
+		PixTransferBatchRequest batch = new PixTransferBatchRequest(List.of(
+				new PixTransferBatchItemRequest(claimedKey, sourceWalletId, "target@email.com", new BigDecimal("10.00")),
+				new PixTransferBatchItemRequest(freeKey, sourceWalletId, "target@email.com", new BigDecimal("50.00"))));
+		CompletableFuture<JsonPath> response = CompletableFuture.supplyAsync(() -> given().contentType(ContentType.JSON)
+				.body(batch).when().post("/pix/transfers/batch").then().statusCode(HttpStatus.OK.value())
+				.extract().jsonPath());
+		Thread.sleep(500);
+		transactionManager.commit(status);
+
+		JsonPath results = response.get(10, TimeUnit.SECONDS);
+		assertEquals("DUPLICATE", results.getString("results[0].outcome"));
+		assertEquals(endToEndId.toString(), results.getString("results[0].endToEndId"));
+		assertEquals("CREATED", results.getString("results[1].outcome"));
+		given().when().get("/wallets/{id}/balance", sourceWalletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(950.0f));
+	}
+
+	@Test
+	void shouldGetTransferByEndToEndId() {
+		UUID sourceWalletId = setupSourceWallet();
+		UUID targetWalletId = setupTargetWallet();
+		UUID endToEndId = initiateTransfer(sourceWalletId, "target@email.com", "150.75");
+
+		given().when().get("/pix/transfers/{endToEndId}", endToEndId).then().statusCode(HttpStatus.OK.value())
+				.body("endToEndId", equalTo(endToEndId.toString()))
+				.body("fromWalletId", equalTo(sourceWalletId.toString()))
+				.body("toWalletId", equalTo(targetWalletId.toString()))
+				.body("amount", equalTo(150.75f))
+				.body("status", equalTo("PENDING"));
+
+		given().when().get("/pix/transfers/{endToEndId}", UUID.randomUUID()).then()
+				.statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	void shouldAnswerLongPollWhenTransferIsConfirmed() throws Exception {
+		UUID sourceWalletId = setupSourceWallet();
+		setupTargetWallet();
+		UUID endToEndId = initiateTransfer(sourceWalletId, "target@email.com", "100.00");
+
+		// Still pending when the wait is over
+		given().queryParam("waitSeconds", 1).when().get("/pix/transfers/{endToEndId}/status", endToEndId).then()
+				.statusCode(HttpStatus.OK.value()).body("status", equalTo("PENDING"));
+
+		CompletableFuture<String> polled = CompletableFuture.supplyAsync(() -> given().queryParam("waitSeconds", 20)
+				.when().get("/pix/transfers/{endToEndId}/status", endToEndId).then().statusCode(HttpStatus.OK.value())
+				.extract().path("status"));
+		Thread.sleep(200);
+		sendWebhook(endToEndId, "CONFIRMED");
+
+		assertEquals("CONFIRMED", polled.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void shouldStreamTransferStatusUntilFinal() throws Exception {
+		UUID sourceWalletId = setupSourceWallet();
+		setupTargetWallet();
+		UUID endToEndId = initiateTransfer(sourceWalletId, "target@email.com", "100.00");
+
+		CompletableFuture<String> stream = CompletableFuture.supplyAsync(() -> given().accept("text/event-stream")
+				.when().get("/pix/transfers/{endToEndId}/events", endToEndId).then().statusCode(HttpStatus.OK.value())
+				.extract().asString());
+		Thread.sleep(200);
+		sendWebhook(endToEndId, "REJECTED");
+
+		String events = stream.get(10, TimeUnit.SECONDS);
+		assertTrue(events.contains("event:status"));
+		assertTrue(events.contains("\"status\":\"REJECTED\""));
+	}
+
+	@Test
+	void shouldNotOpenAStreamForAnUnknownTransfer() {
+		given().accept("text/event-stream").when().get("/pix/transfers/{endToEndId}/events", UUID.randomUUID()).then()
+				.statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	void shouldProcessWebhookBatchCoalescingEventsPerTransfer() {
+		UUID sourceWalletId = setupSourceWallet();
+		UUID targetWalletId = setupTargetWallet();
+		UUID confirmed = initiateTransfer(sourceWalletId, "target@email.com", "100.00");
+		UUID rejected = initiateTransfer(sourceWalletId, "target@email.com", "50.00");
+		UUID unknown = UUID.randomUUID();
+
+		// evt-2 comes later in the batch but occurred first, evt-1 is the provider's decision
+		List<PixWebhookRequest> events = List.of(
+				new PixWebhookRequest(confirmed, "evt-1", "CONFIRMED", "2024-01-15T10:00:00Z"),
+				new PixWebhookRequest(confirmed, "evt-1", "CONFIRMED", "2024-01-15T10:00:00Z"),
+				new PixWebhookRequest(confirmed, "evt-2", "REJECTED", "2024-01-15T09:59:59Z"),
+				new PixWebhookRequest(rejected, "evt-3", "REJECTED", "2024-01-15T10:00:00Z"),
+				new PixWebhookRequest(unknown, "evt-4", "CONFIRMED", "2024-01-15T10:00:00Z"));
+
+		given().contentType(ContentType.JSON).body(new PixWebhookBatchRequest(events)).when().post("/pix/webhook/batch")
+				.then().statusCode(HttpStatus.OK.value())
+				.body("results.outcome", equalTo(List.of("APPLIED", "DUPLICATE", "IGNORED", "APPLIED", "FAILED")))
+				.body("results[0].status", equalTo("CONFIRMED"))
+				.body("results[2].status", equalTo("CONFIRMED"))
+				.body("results[3].status", equalTo("REJECTED"))
+				.body("results[4].error", notNullValue());
+
+		given().when().get("/wallets/{id}/balance", sourceWalletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(900.0f));
+		given().when().get("/wallets/{id}/balance", targetWalletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(100.0f));
+
+		// Events of the previous batch are remembered
+		given().contentType(ContentType.JSON).body(new PixWebhookBatchRequest(events.subList(0, 1))).when()
+				.post("/pix/webhook/batch").then().statusCode(HttpStatus.OK.value())
+				.body("results[0].outcome", equalTo("DUPLICATE"));
+
+		given().contentType(ContentType.JSON).body(new PixWebhookBatchRequest(List.of())).when()
+				.post("/pix/webhook/batch").then().statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
+	@Test
+	void shouldAnswerBatchWebhooksClaimedByAnotherDeliveryAsDuplicates() {
+		UUID sourceWalletId = setupSourceWallet();
+		setupTargetWallet();
+		UUID held = initiateTransfer(sourceWalletId, "target@email.com", "100.00");
+		UUID free = initiateTransfer(sourceWalletId, "target@email.com", "50.00");
+		String heldEventId = "evt-" + UUID.randomUUID();
+
+		jdbcTemplate.update("INSERT INTO idempotency_keys (record_key, claim_id, expires_on) "
+				+ "VALUES (?, ?, CURRENT_DATE + INTERVAL 30 DAY)", UuidUtils.toBytes(IdempotencyService.eventKey(heldEventId)),
+				UuidUtils.toBytes(UUID.randomUUID()));
+
+		List<PixWebhookRequest> events = List.of(
+				new PixWebhookRequest(held, heldEventId, "CONFIRMED", "2024-01-15T10:00:00Z"),
+				new PixWebhookRequest(free, "evt-" + UUID.randomUUID(), "CONFIRMED", "2024-01-15T10:00:00Z"));
+
+		given().contentType(ContentType.JSON).body(new PixWebhookBatchRequest(events)).when().post("/pix/webhook/batch")
+				.then().statusCode(HttpStatus.OK.value())
+				.body("results.outcome", equalTo(List.of("DUPLICATE", "APPLIED")))
+				.body("results[1].status", equalTo("CONFIRMED"));
+		given().when().get("/pix/transfers/{id}", held).then().statusCode(HttpStatus.OK.value())
+				.body("status", equalTo("PENDING"));
+	}
+
+	@Test
+	void shouldParkWebhookForTransferNotVisibleYet() {
+		UUID unknown = UUID.randomUUID();
+
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixWebhookRequest(unknown, "evt-" + UUID.randomUUID(), "CONFIRMED", "2024-01-15T10:00:00Z"))
+				.when().post("/pix/webhook").then().statusCode(HttpStatus.ACCEPTED.value());
+
+		assertEquals("PARKED", jdbcTemplate.queryForObject("SELECT status FROM webhook_inbox WHERE end_to_end_id = ?",
+				String.class, UuidUtils.toBytes(unknown)));
+	}
+
+	@Test
+	void shouldAnswerRedeliveredWebhookFromDedupeFilter() {
+		UUID sourceWalletId = setupSourceWallet();
+		UUID targetWalletId = setupTargetWallet();
+		UUID endToEndId = initiateTransfer(sourceWalletId, "target@email.com", "40.00");
+		String eventId = "evt-" + UUID.randomUUID();
+		double hitsBefore = meterRegistry.counter("pix.webhooks.dedupe.hits").count();
+
+		// The provider redelivers the same event with a fresh idempotency key
+		for (int i = 0; i < 2; i++) {
+			given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+					.body(new PixWebhookRequest(endToEndId, eventId, "CONFIRMED", "2024-01-15T10:00:00Z")).when()
+					.post("/pix/webhook").then().statusCode(HttpStatus.OK.value());
+		}
+
+		assertEquals(hitsBefore + 1, meterRegistry.counter("pix.webhooks.dedupe.hits").count());
+		given().when().get("/wallets/{id}/balance", targetWalletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(40.0f));
+	}
+
+	@Test
+	void shouldReplayTransferResponseForRetriedIdempotencyKey() {
+		UUID sourceWalletId = setupSourceWallet();
+		setupTargetWallet();
+		UUID idempotencyKey = UUID.randomUUID();
+		PixTransferRequest request = new PixTransferRequest(sourceWalletId, "target@email.com", new BigDecimal("20.00"));
+
+		String first = given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", idempotencyKey.toString()))
+				.body(request).when().post("/pix/transfers").then().statusCode(HttpStatus.OK.value())
+				.extract().asString();
+		UUID endToEndId = UUID.fromString(JsonPath.from(first).getString("endToEndId"));
+		sendWebhook(endToEndId, "CONFIRMED");
+
+		// The retry gets the bytes of the first response, not the transfer as it is now
+		String retry = given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", idempotencyKey.toString()))
+				.body(request).when().post("/pix/transfers").then().statusCode(HttpStatus.OK.value())
+				.header("Idempotent-Replayed", "true").extract().asString();
+
+		assertEquals(first, retry);
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pix_transfers WHERE idempotency_key = ?",
+				Integer.class, UuidUtils.toBytes(idempotencyKey)));
+	}
+
+	private UUID initiateTransfer(UUID sourceWalletId, String toPixKey, String amount) {
+		String endToEndId = given().contentType(ContentType.JSON)
+				.header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixTransferRequest(sourceWalletId, toPixKey, new BigDecimal(amount))).when()
+				.post("/pix/transfers").then().statusCode(HttpStatus.OK.value()).extract().path("endToEndId");
+		return UUID.fromString(endToEndId);
+	}
+
+	private void sendWebhook(UUID endToEndId, String eventType) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixWebhookRequest(endToEndId, "evt-" + UUID.randomUUID(), eventType, "2024-01-15T10:00:00Z"))
+				.when().post("/pix/webhook").then().statusCode(HttpStatus.OK.value());
+	}
+
 	// Record classes for request bodies
 	record CreateWalletRequest(UUID userId) {
 	}
@@ -333,4 +611,13 @@ public class PixControllerIntegrationTest extends AbstractIntegrationTest {
 	record PixWebhookRequest(UUID endToEndId, String eventId, String eventType, String occurredAt) {
 	}
 
+	record PixTransferBatchRequest(List<PixTransferBatchItemRequest> transfers) {
+	}
+
+	record PixTransferBatchItemRequest(UUID idempotencyKey, UUID fromWalletId, String toPixKey, BigDecimal amount) {
+	}
+
+	record PixWebhookBatchRequest(List<PixWebhookRequest> events) {
+	}
+
 }
\ No newline at end of file
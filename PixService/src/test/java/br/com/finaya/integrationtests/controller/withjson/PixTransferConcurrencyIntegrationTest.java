@@ -0,0 +1,141 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+public class PixTransferConcurrencyIntegrationTest extends AbstractIntegrationTest {
+
+	private static final int TRANSFERS_PER_DIRECTION = 40;
+	private static final int THREADS = 16;
+
+	@LocalServerPort
+	private int port;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldNotDeadlockUnderOppositeDirectionTransferStorm() throws Exception {
+		// Setup two wallets that send money to each other
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		String keyA = "storm-a-" + suffix + "@email.com";
+		String keyB = "storm-b-" + suffix + "@email.com";
+
+		UUID walletA = createWallet(UUID.randomUUID());
+		UUID walletB = createWallet(UUID.randomUUID());
+		depositToWallet(walletA, "1000.00");
+		depositToWallet(walletB, "1000.00");
+		registerPixKey(walletA, keyA);
+		registerPixKey(walletB, keyB);
+
+		// A -> B and B -> A at the same time
+		List<Callable<String>> transfers = new ArrayList<>();
+		for (int i = 0; i < TRANSFERS_PER_DIRECTION; i++) {
+			transfers.add(() -> initiateTransfer(walletA, keyB, "1.00"));
+			transfers.add(() -> initiateTransfer(walletB, keyA, "1.00"));
+		}
+		List<String> endToEndIds = runConcurrently(transfers);
+		assertEquals(TRANSFERS_PER_DIRECTION * 2, endToEndIds.size());
+
+		// Confirm all of them concurrently, which locks both wallets again
+		List<Callable<String>> confirmations = new ArrayList<>();
+		for (String endToEndId : endToEndIds) {
+			confirmations.add(() -> confirm(endToEndId));
+		}
+		runConcurrently(confirmations);
+
+		// Every transfer succeeded and money was only moved, never lost
+		given().when().get("/wallets/{id}/balance", walletA).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(1000.0f));
+		given().when().get("/wallets/{id}/balance", walletB).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(1000.0f));
+	}
+
+	private List<String> runConcurrently(List<Callable<String>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<String> results = new ArrayList<>();
+			for (Future<String> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private String initiateTransfer(UUID fromWalletId, String toPixKey, String amount) {
+		return given().contentType(ContentType.JSON)
+				.header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixTransferRequest(fromWalletId, toPixKey, new BigDecimal(amount))).when()
+				.post("/pix/transfers").then().statusCode(HttpStatus.OK.value()).extract().path("endToEndId");
+	}
+
+	private String confirm(String endToEndId) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixWebhookRequest(UUID.fromString(endToEndId), "evt-" + endToEndId, "CONFIRMED",
+						"2024-01-15T10:00:00Z"))
+				.when().post("/pix/webhook").then().statusCode(HttpStatus.OK.value());
+		return endToEndId;
+	}
+
+	private UUID createWallet(UUID userId) {
+		String walletIdString = given().contentType(ContentType.JSON).body(new CreateWalletRequest(userId)).when()
+				.post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+
+		return UUID.fromString(walletIdString);
+	}
+
+	private void depositToWallet(UUID walletId, String amount) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new DepositRequest(amount)).when().post("/wallets/{id}/deposit", walletId).then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	private void registerPixKey(UUID walletId, String key) {
+		given().contentType(ContentType.JSON).body(new RegisterPixKeyRequest(key, "EMAIL")).when()
+				.post("/wallets/{walletId}/pix-keys", walletId).then().statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record DepositRequest(String amount) {
+	}
+
+	record RegisterPixKeyRequest(String key, String type) {
+	}
+
+	record PixTransferRequest(UUID fromWalletId, String toPixKey, BigDecimal amount) {
+	}
+
+	record PixWebhookRequest(UUID endToEndId, String eventId, String eventType, String occurredAt) {
+	}
+}
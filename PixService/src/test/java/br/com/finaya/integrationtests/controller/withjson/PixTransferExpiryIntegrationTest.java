@@ -0,0 +1,118 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.services.PixTransferExpirySweeper;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"pix.transfers.expiry.enabled=false", "pix.transfers.expiry.after-seconds=1" })
+@ActiveProfiles("test")
+public class PixTransferExpiryIntegrationTest extends AbstractIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private PixTransferExpirySweeper sweeper;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldRejectExpiredPendingTransfersAndReleaseReservations() throws Exception {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		deposit(source, "100.00");
+		registerPixKey(target, "expiry-" + suffix + "@email.com");
+
+		UUID expired = transfer(source, "expiry-" + suffix + "@email.com", "40.00");
+		Thread.sleep(2500);
+		UUID fresh = transfer(source, "expiry-" + suffix + "@email.com", "10.00");
+
+		// Earlier tests may have left their own expired transfers behind
+		while (sweeper.sweepBatch() > 0) {
+		}
+
+		assertStatus(expired, "REJECTED");
+		assertStatus(fresh, "PENDING");
+		assertBalance(source, 90.0f); // 100 - 10, the expired 40 was released
+
+		// A late confirmation finds the transfer already finalized
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixWebhookRequest(expired, "evt-" + UUID.randomUUID(), "CONFIRMED", "2024-01-15T10:00:00Z"))
+				.when().post("/pix/webhook").then().statusCode(HttpStatus.OK.value());
+		assertBalance(target, 0.0f);
+		assertEquals(0, sweeper.sweepBatch());
+	}
+
+	private void assertStatus(UUID endToEndId, String status) {
+		given().when().get("/pix/transfers/{endToEndId}", endToEndId).then().statusCode(HttpStatus.OK.value())
+				.body("status", equalTo(status));
+	}
+
+	private void assertBalance(UUID walletId, float balance) {
+		given().when().get("/wallets/{id}/balance", walletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(balance));
+	}
+
+	private UUID transfer(UUID source, String key, String amount) {
+		String endToEndId = given().contentType(ContentType.JSON)
+				.header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixTransferRequest(source, key, new BigDecimal(amount))).when().post("/pix/transfers").then()
+				.statusCode(HttpStatus.OK.value()).extract().path("endToEndId");
+		return UUID.fromString(endToEndId);
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	private void deposit(UUID walletId, String amount) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new AmountRequest(amount)).when().post("/wallets/{id}/deposit", walletId).then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	private void registerPixKey(UUID walletId, String key) {
+		given().contentType(ContentType.JSON).body(new RegisterPixKeyRequest(key, "EMAIL")).when()
+				.post("/wallets/{walletId}/pix-keys", walletId).then().statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record AmountRequest(String amount) {
+	}
+
+	record RegisterPixKeyRequest(String key, String type) {
+	}
+
+	record PixTransferRequest(UUID fromWalletId, String toPixKey, BigDecimal amount) {
+	}
+
+	record PixWebhookRequest(UUID endToEndId, String eventId, String eventType, String occurredAt) {
+	}
+}
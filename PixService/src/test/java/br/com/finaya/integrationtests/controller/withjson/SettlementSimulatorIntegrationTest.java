@@ -0,0 +1,106 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.services.SettlementSimulator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"pix.simulator.enabled=true", "pix.simulator.latency-ms=20", "pix.simulator.jitter-ms=10",
+		"pix.simulator.confirm-ratio=1.0", "pix.simulator.duplicate-ratio=1.0",
+		"pix.simulator.out-of-order-ratio=1.0" })
+@ActiveProfiles("test")
+public class SettlementSimulatorIntegrationTest extends AbstractIntegrationTest {
+
+	private static final int TRANSFERS = 10;
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private SettlementSimulator simulator;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldSettleTransfersOnceDespiteDuplicatesAndStaleEvents() throws Exception {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		deposit(source, "100.00");
+		registerPixKey(target, "simulator-" + suffix + "@email.com");
+
+		for (int i = 0; i < TRANSFERS; i++) {
+			given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+					.body(new PixTransferRequest(source, "simulator-" + suffix + "@email.com", new BigDecimal("5.00")))
+					.when().post("/pix/transfers").then().statusCode(HttpStatus.OK.value());
+		}
+
+		assertTrue(simulator.awaitIdle(30, TimeUnit.SECONDS));
+
+		assertBalance(source, 50.0f);
+		assertBalance(target, 50.0f);
+		assertEquals(TRANSFERS, simulator.settlementTimer("CONFIRMED").count());
+		assertEquals(0, meterRegistry.counter("pix.simulator.mismatches").count());
+	}
+
+	private void assertBalance(UUID walletId, float balance) {
+		given().when().get("/wallets/{id}/balance", walletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(balance));
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	private void deposit(UUID walletId, String amount) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new AmountRequest(amount)).when().post("/wallets/{id}/deposit", walletId).then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	private void registerPixKey(UUID walletId, String key) {
+		given().contentType(ContentType.JSON).body(new RegisterPixKeyRequest(key, "EMAIL")).when()
+				.post("/wallets/{walletId}/pix-keys", walletId).then().statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record AmountRequest(String amount) {
+	}
+
+	record RegisterPixKeyRequest(String key, String type) {
+	}
+
+	record PixTransferRequest(UUID fromWalletId, String toPixKey, BigDecimal amount) {
+	}
+}
@@ -2,20 +2,30 @@ package br.com.finaya.integrationtests.controller.withjson;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.context.ActiveProfiles;
 
 import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
 
@@ -25,6 +35,9 @@ public class WalletControllerIntegrationTest extends AbstractIntegrationTest {
 
     @LocalServerPort
     private int port;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
     
     @BeforeEach
     void setup() {
@@ -214,6 +227,294 @@ public class WalletControllerIntegrationTest extends AbstractIntegrationTest {
             .body("balance", equalTo(100.0f));
     }
 
+    @Test
+    void shouldReplayDepositWithSameIdempotencyKeyFromMemory() {
+        UUID userId = UUID.randomUUID();
+        String walletId = createWallet(userId);
+        UUID idempotencyKey = UUID.randomUUID();
+        UUID transactionId = UUID.randomUUID();
+        double hitsBefore = meterRegistry.counter("pix.idempotency.cache.hits").count();
+
+        // The client retries a deposit that already went through
+        depositAmount(walletId, "100.00", transactionId, idempotencyKey);
+        depositAmount(walletId, "100.00", transactionId, idempotencyKey);
+
+        assertEquals(hitsBefore + 1, meterRegistry.counter("pix.idempotency.cache.hits").count());
+        given()
+        .when()
+            .get("/wallets/{id}/balance", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balance", equalTo(100.0f));
+    }
+
+    @Test
+    void shouldApplyConcurrentDepositsWithSameIdempotencyKeyOnce() throws Exception {
+        UUID userId = UUID.randomUUID();
+        String walletId = createWallet(userId);
+        UUID idempotencyKey = UUID.randomUUID();
+        UUID transactionId = UUID.randomUUID();
+
+        // Every duplicate waits for the request that claimed the key and replays its outcome
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Void>> deposits = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                deposits.add(() -> {
+                    depositAmount(walletId, "25.00", transactionId, idempotencyKey);
+                    return null;
+                });
+            }
+            for (Future<Void> deposit : executor.invokeAll(deposits)) {
+                deposit.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        given()
+        .when()
+            .get("/wallets/{id}/balance", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balance", equalTo(25.0f));
+    }
+
+    @Test
+    void shouldRejectIdempotencyKeyReusedForAnotherDeposit() {
+        UUID userId = UUID.randomUUID();
+        String walletId = createWallet(userId);
+        UUID idempotencyKey = UUID.randomUUID();
+        UUID transactionId = UUID.randomUUID();
+        double mismatchesBefore = meterRegistry.counter("pix.idempotency.fingerprint.mismatches").count();
+
+        depositAmount(walletId, "100.00", transactionId, idempotencyKey);
+
+        // Same request written differently, still a retry
+        given()
+            .contentType(ContentType.JSON)
+            .header("Idempotency-Key", idempotencyKey.toString())
+            .body("{ \"transactionId\": \"" + transactionId + "\", \"amount\": 100.0 }")
+        .when()
+            .post("/wallets/{id}/deposit", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .header("Idempotent-Replayed", "true");
+
+        // Another amount under the same key
+        given()
+            .contentType(ContentType.JSON)
+            .header("Idempotency-Key", idempotencyKey.toString())
+            .body(new TransactionRequest(new BigDecimal("50.00"), transactionId))
+        .when()
+            .post("/wallets/{id}/deposit", walletId)
+        .then()
+            .statusCode(HttpStatus.UNPROCESSABLE_ENTITY.value());
+
+        assertEquals(mismatchesBefore + 1, meterRegistry.counter("pix.idempotency.fingerprint.mismatches").count());
+        given()
+        .when()
+            .get("/wallets/{id}/balance", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balance", equalTo(100.0f));
+    }
+
+    @Test
+    void shouldRejectIdempotentRequestWithOversizedBody() {
+        String walletId = createWallet(UUID.randomUUID());
+
+        given()
+            .contentType(ContentType.JSON)
+            .header("Idempotency-Key", UUID.randomUUID().toString())
+            .body("{ \"amount\": 10.00, \"description\": \"" + "x".repeat(70000) + "\" }")
+        .when()
+            .post("/wallets/{id}/deposit", walletId)
+        .then()
+            .statusCode(HttpStatus.PAYLOAD_TOO_LARGE.value());
+
+        given()
+        .when()
+            .get("/wallets/{id}/balance", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balance", equalTo(0.0f));
+    }
+
+    @Test
+    void shouldAggregateBalanceSlotsAndDrainThemOnWithdrawal() throws Exception {
+        // Given - A hot wallet split in 8 balance slots
+        UUID userId = UUID.randomUUID();
+        String walletId = createWallet(userId);
+        depositAmount(walletId, "10.00", UUID.randomUUID(), UUID.randomUUID());
+        configureBalanceSlots(walletId, 8);
+
+        // Concurrent deposits land on the slots
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> deposits = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                deposits.add(() -> {
+                    depositAmount(walletId, "2.50", UUID.randomUUID(), UUID.randomUUID());
+                    return null;
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(deposits)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Balance is the wallet row plus every slot
+        given()
+        .when()
+            .get("/wallets/{id}/balance", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balance", equalTo(110.0f)); // 10 + 40 * 2.50
+
+        // A withdrawal larger than the wallet row drains the slots
+        withdrawAmount(walletId, "105.00", UUID.randomUUID(), UUID.randomUUID());
+
+        given()
+        .when()
+            .get("/wallets/{id}/balance", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balance", equalTo(5.0f));
+
+        // Turning the slots off folds them back into the wallet
+        configureBalanceSlots(walletId, 0);
+        depositAmount(walletId, "1.00", UUID.randomUUID(), UUID.randomUUID());
+
+        given()
+        .when()
+            .get("/wallets/{id}/balance", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balance", equalTo(6.0f));
+    }
+
+    @Test
+    void shouldRejectInvalidBalanceSlots() {
+        String walletId = createWallet(UUID.randomUUID());
+
+        given()
+            .contentType(ContentType.JSON)
+            .body(new BalanceSlotsRequest(-1))
+        .when()
+            .put("/wallets/{id}/balance-slots", walletId)
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    void shouldPageStatementWithCursors() {
+        String walletId = createWallet(UUID.randomUUID());
+        for (int i = 1; i <= 5; i++) {
+            depositAmount(walletId, i + ".00", UUID.randomUUID(), UUID.randomUUID());
+        }
+
+        List<Float> balances = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            var request = given().queryParam("limit", 2);
+            if (cursor != null) {
+                request.queryParam("cursor", cursor);
+            }
+            var page = request
+            .when()
+                .get("/wallets/{id}/statement", walletId)
+            .then()
+                .statusCode(HttpStatus.OK.value())
+                .extract().jsonPath();
+            balances.addAll(page.getList("entries.balanceAfter", Float.class));
+            cursor = page.getString("nextCursor");
+            pages++;
+        } while (cursor != null);
+
+        // Every entry exactly once, newest first even within the same second
+        assertEquals(3, pages);
+        assertEquals(List.of(15.0f, 10.0f, 6.0f, 3.0f, 1.0f), balances);
+
+        given().queryParam("cursor", "not-a-cursor")
+        .when()
+            .get("/wallets/{id}/statement", walletId)
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value());
+
+        given()
+        .when()
+            .get("/wallets/{id}/statement", UUID.randomUUID())
+        .then()
+            .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    void shouldGetBalancesOfManyWalletsInOneRequest() {
+        String walletId = createWallet(UUID.randomUUID());
+        String slottedWalletId = createWallet(UUID.randomUUID());
+        String unknownWalletId = UUID.randomUUID().toString();
+        depositAmount(walletId, "25.00", UUID.randomUUID(), UUID.randomUUID());
+        depositAmount(slottedWalletId, "4.00", UUID.randomUUID(), UUID.randomUUID());
+        configureBalanceSlots(slottedWalletId, 4);
+        depositAmount(slottedWalletId, "6.00", UUID.randomUUID(), UUID.randomUUID());
+
+        // Current balances come back in the order asked, unknown wallets apart
+        given()
+            .contentType(ContentType.JSON)
+            .body(Map.of("walletIds", List.of(slottedWalletId, unknownWalletId, walletId, walletId)))
+        .when()
+            .post("/wallets/balances")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balances.walletId", equalTo(List.of(slottedWalletId, walletId)))
+            .body("balances.balance", equalTo(List.of(10.0f, 25.0f)))
+            .body("notFound", equalTo(List.of(unknownWalletId)));
+
+        // Historical balances, before and after the deposits
+        String before = LocalDateTime.now().minusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        String after = LocalDateTime.now().plusMinutes(1).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        given()
+            .contentType(ContentType.JSON)
+            .body(Map.of("walletIds", List.of(walletId, unknownWalletId), "at", before))
+        .when()
+            .post("/wallets/balances")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balances.balance", equalTo(List.of(0)))
+            .body("notFound", equalTo(List.of(unknownWalletId)));
+        given()
+            .contentType(ContentType.JSON)
+            .body(Map.of("walletIds", List.of(walletId), "at", after))
+        .when()
+            .post("/wallets/balances")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("balances.balance", equalTo(List.of(25.0f)));
+
+        given()
+            .contentType(ContentType.JSON)
+            .body(Map.of("walletIds", List.of()))
+        .when()
+            .post("/wallets/balances")
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    private void configureBalanceSlots(String walletId, int slots) {
+        given()
+            .contentType(ContentType.JSON)
+            .body(new BalanceSlotsRequest(slots))
+        .when()
+            .put("/wallets/{id}/balance-slots", walletId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("slots", equalTo(slots));
+    }
+
     // Helper method to create wallet
     private String createWallet(UUID userId) {
         return given()
@@ -250,6 +551,9 @@ public class WalletControllerIntegrationTest extends AbstractIntegrationTest {
             .statusCode(HttpStatus.OK.value());
     }
 
+    record BalanceSlotsRequest(int slots) {
+    }
+
     // Inner classes for request objects
     static class CreateWalletRequest {
         private final UUID userId;
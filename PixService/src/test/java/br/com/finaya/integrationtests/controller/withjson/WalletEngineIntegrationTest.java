@@ -0,0 +1,218 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.util.UuidUtils;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+import io.restassured.response.ValidatableResponse;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"pix.wallets.engine.enabled=true", "pix.wallets.engine.idle-eviction-seconds=1" })
+@ActiveProfiles("test")
+public class WalletEngineIntegrationTest extends AbstractIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldApplyConcurrentDepositsAndWithdrawalsSerially() throws Exception {
+		UUID walletId = createWallet();
+		deposit(walletId, "200.00").statusCode(HttpStatus.OK.value());
+
+		List<Callable<Void>> operations = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			operations.add(() -> {
+				deposit(walletId, "10.00").statusCode(HttpStatus.OK.value());
+				return null;
+			});
+		}
+		for (int i = 0; i < 30; i++) {
+			operations.add(() -> {
+				withdraw(walletId, "5.00").statusCode(HttpStatus.OK.value());
+				return null;
+			});
+		}
+		runConcurrently(operations);
+
+		assertBalance(walletId, 550.0f); // 200 + 50 * 10 - 30 * 5
+	}
+
+	@Test
+	void shouldRejectWithdrawalWithInsufficientBalance() {
+		UUID walletId = createWallet();
+		deposit(walletId, "50.00").statusCode(HttpStatus.OK.value());
+
+		withdraw(walletId, "100.00").statusCode(HttpStatus.BAD_REQUEST.value());
+
+		assertBalance(walletId, 50.0f);
+	}
+
+	@Test
+	void shouldReloadIdleWalletsFromTheirRow() throws InterruptedException {
+		UUID walletId = createWallet();
+		deposit(walletId, "100.00").statusCode(HttpStatus.OK.value());
+
+		// Once evicted, the partition reads the wallet again instead of keeping its own balance
+		Thread.sleep(2500);
+		jdbcTemplate.update("UPDATE wallets SET balance = 500.00, version = version + 1 WHERE id = ?",
+				UuidUtils.toBytes(walletId));
+		deposit(walletId, "10.00").statusCode(HttpStatus.OK.value());
+
+		assertBalance(walletId, 510.0f);
+	}
+
+	@Test
+	void shouldFinalizePixTransferOnlyOnce() {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		deposit(source, "100.00").statusCode(HttpStatus.OK.value());
+		registerPixKey(target, "engine-" + suffix + "@email.com");
+
+		String endToEndId = given().contentType(ContentType.JSON)
+				.header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixTransferRequest(source, "engine-" + suffix + "@email.com", new BigDecimal("40.00")))
+				.when().post("/pix/transfers").then().statusCode(HttpStatus.OK.value())
+				.body("status", equalTo("PENDING")).extract().path("endToEndId");
+		assertBalance(source, 60.0f);
+
+		// The second confirmation and the late rejection find the transfer already finalized
+		webhook(endToEndId, "CONFIRMED");
+		webhook(endToEndId, "CONFIRMED");
+		webhook(endToEndId, "REJECTED");
+
+		assertBalance(source, 60.0f);
+		assertBalance(target, 40.0f);
+
+		// The PIX_OUT entry is written by the partition of the source wallet, with its balance at the time
+		List<BigDecimal> pixOut = jdbcTemplate.queryForList(
+				"SELECT balance_after FROM ledger_entries WHERE wallet_id = ? AND type = 'PIX_OUT'",
+				BigDecimal.class, UuidUtils.toBytes(source));
+		assertEquals(1, pixOut.size());
+		assertEquals(0, new BigDecimal("60.00").compareTo(pixOut.get(0)));
+	}
+
+	@Test
+	void shouldInitiateTransferBatchThroughEngine() {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		deposit(source, "100.00").statusCode(HttpStatus.OK.value());
+		registerPixKey(target, "engine-batch-" + suffix + "@email.com");
+		String key = "engine-batch-" + suffix + "@email.com";
+
+		UUID first = UUID.randomUUID();
+		List<PixTransferBatchItemRequest> items = List.of(
+				new PixTransferBatchItemRequest(first, source, key, new BigDecimal("30.00")),
+				new PixTransferBatchItemRequest(UUID.randomUUID(), source, key, new BigDecimal("500.00")),
+				new PixTransferBatchItemRequest(first, source, key, new BigDecimal("30.00")),
+				new PixTransferBatchItemRequest(UUID.randomUUID(), source, key, new BigDecimal("20.00")));
+
+		given().contentType(ContentType.JSON).body(new PixTransferBatchRequest(items)).when()
+				.post("/pix/transfers/batch").then().statusCode(HttpStatus.OK.value())
+				.body("results[0].outcome", equalTo("CREATED"))
+				.body("results[1].outcome", equalTo("FAILED"))
+				.body("results[1].error", equalTo("Insufficient balance"))
+				.body("results[2].outcome", equalTo("DUPLICATE"))
+				.body("results[3].outcome", equalTo("CREATED"));
+
+		assertBalance(source, 50.0f);
+	}
+
+	private void runConcurrently(List<Callable<Void>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void assertBalance(UUID walletId, float balance) {
+		given().when().get("/wallets/{id}/balance", walletId).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(balance));
+	}
+
+	private void webhook(String endToEndId, String eventType) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixWebhookRequest(UUID.fromString(endToEndId), "evt-" + UUID.randomUUID(), eventType,
+						"2024-01-15T10:00:00Z"))
+				.when().post("/pix/webhook").then().statusCode(HttpStatus.OK.value());
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	private ValidatableResponse deposit(UUID walletId, String amount) {
+		return given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new AmountRequest(amount)).when().post("/wallets/{id}/deposit", walletId).then();
+	}
+
+	private ValidatableResponse withdraw(UUID walletId, String amount) {
+		return given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new AmountRequest(amount)).when().post("/wallets/{id}/withdraw", walletId).then();
+	}
+
+	private void registerPixKey(UUID walletId, String key) {
+		given().contentType(ContentType.JSON).body(new RegisterPixKeyRequest(key, "EMAIL")).when()
+				.post("/wallets/{walletId}/pix-keys", walletId).then().statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record AmountRequest(String amount) {
+	}
+
+	record RegisterPixKeyRequest(String key, String type) {
+	}
+
+	record PixTransferRequest(UUID fromWalletId, String toPixKey, BigDecimal amount) {
+	}
+
+	record PixWebhookRequest(UUID endToEndId, String eventId, String eventType, String occurredAt) {
+	}
+
+	record PixTransferBatchRequest(List<PixTransferBatchItemRequest> transfers) {
+	}
+
+	record PixTransferBatchItemRequest(UUID idempotencyKey, UUID fromWalletId, String toPixKey, BigDecimal amount) {
+	}
+}
@@ -0,0 +1,213 @@
+package br.com.finaya.integrationtests.controller.withjson;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import br.com.finaya.integrationtests.testcontainers.AbstractIntegrationTest;
+import br.com.finaya.services.WebhookInboxWorker;
+import br.com.finaya.util.UuidUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.http.Header;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"pix.webhooks.inbox.enabled=true", "pix.webhooks.inbox.poll-interval-ms=50",
+		"pix.webhooks.inbox.park-seconds=1", "pix.webhooks.inbox.metrics-interval-ms=600000" })
+@ActiveProfiles("test")
+public class WebhookInboxIntegrationTest extends AbstractIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private WebhookInboxWorker worker;
+
+	@BeforeEach
+	void setup() {
+		RestAssured.baseURI = "http://localhost";
+		RestAssured.port = port;
+	}
+
+	@Test
+	void shouldAcknowledgeWebhooksAndApplyThemInOccurrenceOrder() throws Exception {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		deposit(source, "100.00");
+		registerPixKey(target, "inbox-" + suffix + "@email.com");
+		UUID endToEndId = transfer(source, "inbox-" + suffix + "@email.com", "30.00");
+
+		UUID confirmationKey = UUID.randomUUID();
+		webhook(endToEndId, confirmationKey, "CONFIRMED", "2024-01-15T10:00:00Z");
+		// Provider retry of the same delivery and a superseded rejection arriving after it
+		webhook(endToEndId, confirmationKey, "CONFIRMED", "2024-01-15T10:00:00Z");
+		webhook(endToEndId, UUID.randomUUID(), "REJECTED", "2024-01-15T09:59:59Z");
+
+		awaitTrue(() -> countInbox(endToEndId, "PROCESSED") == 1 && countInbox(endToEndId, "DROPPED") == 1);
+		assertStatus(endToEndId, "CONFIRMED");
+		given().when().get("/wallets/{id}/balance", target).then().statusCode(HttpStatus.OK.value())
+				.body("balance", equalTo(30.0f));
+		assertTrue(meterRegistry.counter("pix.webhooks.inbox.duplicates").count() >= 1);
+		assertTrue(meterRegistry.timer("pix.webhooks.inbox.latency").count() >= 1);
+
+		// Once final, later events are dropped without being applied
+		webhook(endToEndId, UUID.randomUUID(), "REJECTED", "2024-01-15T10:00:05Z");
+		awaitTrue(() -> countInbox(endToEndId, "DROPPED") == 2);
+		assertStatus(endToEndId, "CONFIRMED");
+	}
+
+	@Test
+	void shouldParkEventsUntilTheirTransferIsVisible() throws Exception {
+		String suffix = UUID.randomUUID().toString().substring(0, 8);
+		UUID source = createWallet();
+		UUID target = createWallet();
+		deposit(source, "100.00");
+		registerPixKey(target, "park-" + suffix + "@email.com");
+
+		UUID unknown = UUID.randomUUID();
+		webhook(unknown, UUID.randomUUID(), "CONFIRMED", "2024-01-15T10:00:00Z");
+		awaitTrue(() -> countInbox(unknown, "PARKED") == 1);
+
+		// The transfer the event was about shows up later
+		UUID endToEndId = transfer(source, "park-" + suffix + "@email.com", "30.00");
+		jdbcTemplate.update("UPDATE webhook_inbox SET end_to_end_id = ? WHERE end_to_end_id = ?",
+				UuidUtils.toBytes(endToEndId), UuidUtils.toBytes(unknown));
+		worker.refresh();
+
+		awaitTrue(() -> countInbox(endToEndId, "PROCESSED") == 1);
+		assertStatus(endToEndId, "CONFIRMED");
+	}
+
+	@Test
+	void shouldGiveUpParkedEventsWhoseTransferNeverShowsUp() throws Exception {
+		UUID unknown = UUID.randomUUID();
+		webhook(unknown, UUID.randomUUID(), "CONFIRMED", "2024-01-15T10:00:00Z");
+		awaitTrue(() -> countInbox(unknown, "PARKED") == 1);
+
+		Thread.sleep(1100);
+		worker.refresh();
+		assertEquals(1, countInbox(unknown, "FAILED"));
+		assertEquals(0, jdbcTemplate.queryForObject("SELECT attempts FROM webhook_inbox WHERE end_to_end_id = ?",
+				Integer.class, UuidUtils.toBytes(unknown)));
+	}
+
+	@Test
+	void shouldPurgeFinishedEventsPastTheirRetention() {
+		UUID processed = inboxRow("PROCESSED", 8);
+		UUID dropped = inboxRow("DROPPED", 8);
+		UUID failed = inboxRow("FAILED", 8);
+		UUID recent = inboxRow("PROCESSED", 1);
+		UUID pending = inboxRow("PENDING", null);
+		UUID parked = inboxRow("PARKED", null);
+
+		worker.purge();
+
+		assertEquals(0, countInbox(processed));
+		assertEquals(0, countInbox(dropped));
+		assertEquals(0, countInbox(failed));
+		assertEquals(1, countInbox(recent));
+		assertEquals(1, countInbox(pending));
+		assertEquals(1, countInbox(parked));
+	}
+
+	private void assertStatus(UUID endToEndId, String status) {
+		given().when().get("/pix/transfers/{endToEndId}", endToEndId).then().statusCode(HttpStatus.OK.value())
+				.body("status", equalTo(status));
+	}
+
+	private long countInbox(UUID endToEndId, String status) {
+		return jdbcTemplate.queryForObject(
+				"SELECT COUNT(*) FROM webhook_inbox WHERE end_to_end_id = ? AND status = ?", Long.class,
+				UuidUtils.toBytes(endToEndId), status);
+	}
+
+	private UUID inboxRow(String status, Integer finishedDaysAgo) {
+		UUID endToEndId = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO webhook_inbox (idempotency_key, end_to_end_id, partition_key, event_id, event_type, "
+				+ "status, processed_at) VALUES (?, ?, 0, ?, 'CONFIRMED', ?, CURRENT_TIMESTAMP(3) - INTERVAL ? DAY)",
+				UuidUtils.toBytes(UUID.randomUUID()), UuidUtils.toBytes(endToEndId), "evt-" + endToEndId, status,
+				finishedDaysAgo);
+		return endToEndId;
+	}
+
+	private long countInbox(UUID endToEndId) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM webhook_inbox WHERE end_to_end_id = ?", Long.class,
+				UuidUtils.toBytes(endToEndId));
+	}
+
+	private void awaitTrue(Supplier<Boolean> condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.get()) {
+			assertTrue(System.currentTimeMillis() < deadline, "Inbox was not drained in time");
+			Thread.sleep(50);
+		}
+	}
+
+	private void webhook(UUID endToEndId, UUID idempotencyKey, String eventType, String occurredAt) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", idempotencyKey.toString()))
+				.body(new PixWebhookRequest(endToEndId, "evt-" + idempotencyKey, eventType, occurredAt))
+				.when().post("/pix/webhook").then().statusCode(HttpStatus.ACCEPTED.value());
+	}
+
+	private UUID transfer(UUID source, String key, String amount) {
+		String endToEndId = given().contentType(ContentType.JSON)
+				.header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new PixTransferRequest(source, key, new BigDecimal(amount))).when().post("/pix/transfers").then()
+				.statusCode(HttpStatus.OK.value()).extract().path("endToEndId");
+		return UUID.fromString(endToEndId);
+	}
+
+	private UUID createWallet() {
+		String walletId = given().contentType(ContentType.JSON).body(new CreateWalletRequest(UUID.randomUUID()))
+				.when().post("/wallets").then().statusCode(HttpStatus.OK.value()).extract().path("walletId");
+		return UUID.fromString(walletId);
+	}
+
+	private void deposit(UUID walletId, String amount) {
+		given().contentType(ContentType.JSON).header(new Header("Idempotency-Key", UUID.randomUUID().toString()))
+				.body(new AmountRequest(amount)).when().post("/wallets/{id}/deposit", walletId).then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	private void registerPixKey(UUID walletId, String key) {
+		given().contentType(ContentType.JSON).body(new RegisterPixKeyRequest(key, "EMAIL")).when()
+				.post("/wallets/{walletId}/pix-keys", walletId).then().statusCode(HttpStatus.OK.value());
+	}
+
+	record CreateWalletRequest(UUID userId) {
+	}
+
+	record AmountRequest(String amount) {
+	}
+
+	record RegisterPixKeyRequest(String key, String type) {
+	}
+
+	record PixTransferRequest(UUID fromWalletId, String toPixKey, BigDecimal amount) {
+	}
+
+	record PixWebhookRequest(UUID endToEndId, String eventId, String eventType, String occurredAt) {
+	}
+}
@@ -0,0 +1,68 @@
+package br.com.finaya.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import br.com.finaya.model.IdempotencyRecord;
+
+class IdempotencyRecordCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    @Test
+    @DisplayName("Should return a snapshot of the cached record")
+    void get_CachedRecord() {
+        IdempotencyRecordCache cache = new IdempotencyRecordCache(16, 60_000, now::get);
+        IdempotencyRecord record = completedRecord(UUID.randomUUID());
+        cache.put(record);
+
+        IdempotencyRecord cached = cache.get(record.getRecordKey());
+
+        assertNotNull(cached);
+        assertEquals(Void.class.getName(), cached.getResultType());
+        record.setResultType("changed");
+        assertEquals(Void.class.getName(), cache.get(record.getRecordKey()).getResultType());
+    }
+
+    @Test
+    @DisplayName("Should expire records after the TTL")
+    void get_AfterTtl() {
+        IdempotencyRecordCache cache = new IdempotencyRecordCache(16, 60_000, now::get);
+        UUID key = UUID.randomUUID();
+        cache.put(completedRecord(key));
+
+        now.addAndGet(60_000);
+
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Should never hold more records than its capacity")
+    void put_BeyondCapacity() {
+        IdempotencyRecordCache cache = new IdempotencyRecordCache(16, 60_000, now::get);
+        for (int i = 0; i < 1000; i++) {
+            now.incrementAndGet();
+            cache.put(completedRecord(UUID.randomUUID()));
+        }
+
+        assertTrue(cache.size() <= 16);
+        UUID latest = UUID.randomUUID();
+        cache.put(completedRecord(latest));
+        assertNotNull(cache.get(latest));
+    }
+
+    private IdempotencyRecord completedRecord(UUID key) {
+        IdempotencyRecord record = new IdempotencyRecord(key);
+        record.markSuccess(null);
+        return record;
+    }
+}
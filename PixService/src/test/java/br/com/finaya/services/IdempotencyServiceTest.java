@@ -0,0 +1,135 @@
+package br.com.finaya.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.finaya.model.IdempotencyRecord;
+import br.com.finaya.model.IdempotencyRecord.Operation;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class IdempotencyServiceTest {
+
+    private IdempotencyStore idempotencyStore;
+    private SimpleMeterRegistry meterRegistry;
+    private IdempotencyService idempotencyService;
+
+    @BeforeEach
+    void setUp() {
+        idempotencyStore = mock(IdempotencyStore.class);
+        when(idempotencyStore.claim(any(IdempotencyRecord.class))).thenReturn(Optional.empty());
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        meterRegistry = new SimpleMeterRegistry();
+        idempotencyService = new IdempotencyService(idempotencyStore, new TransactionTemplate(transactionManager),
+            meterRegistry);
+    }
+
+    @Test
+    @DisplayName("Should answer a duplicate with the result of the request still running")
+    void executeWithIdempotency_DuplicateWhileRunning() throws Exception {
+        UUID key = UUID.randomUUID();
+        Object result = new Object();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+
+        CompletableFuture<Object> first = CompletableFuture.supplyAsync(() ->
+            idempotencyService.executeWithIdempotency(key, Operation.DEPOSIT, () -> {
+                executions.incrementAndGet();
+                started.countDown();
+                await(release);
+                return result;
+            }));
+        started.await();
+        AtomicReference<Thread> waiter = new AtomicReference<>();
+        CompletableFuture<Object> duplicate = CompletableFuture.supplyAsync(() -> {
+            waiter.set(Thread.currentThread());
+            return idempotencyService.executeWithIdempotency(key, Operation.DEPOSIT, () -> executions.incrementAndGet());
+        });
+        awaitWaiting(waiter);
+        release.countDown();
+
+        assertSame(result, first.get());
+        assertSame(result, duplicate.get());
+        assertEquals(1, executions.get());
+        verify(idempotencyStore, times(1)).claim(any(IdempotencyRecord.class));
+        assertEquals(1, meterRegistry.counter("pix.idempotency.coalesced").count());
+    }
+
+    @Test
+    @DisplayName("Should fail a duplicate with the exception of the request still running")
+    void executeWithIdempotency_DuplicateOfFailingRequest() throws Exception {
+        UUID key = UUID.randomUUID();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Object> first = CompletableFuture.supplyAsync(() ->
+            idempotencyService.executeWithIdempotency(key, Operation.WITHDRAWAL, () -> {
+                started.countDown();
+                await(release);
+                throw new IllegalArgumentException("Insufficient balance");
+            }));
+        started.await();
+        AtomicReference<Thread> waiter = new AtomicReference<>();
+        CompletableFuture<Object> duplicate = CompletableFuture.supplyAsync(() -> {
+            waiter.set(Thread.currentThread());
+            return idempotencyService.executeWithIdempotency(key, Operation.WITHDRAWAL, () -> "ran again");
+        });
+        awaitWaiting(waiter);
+        release.countDown();
+
+        ExecutionException failure = assertThrows(ExecutionException.class, duplicate::get);
+        assertTrue(failure.getCause() instanceof IllegalArgumentException);
+        assertEquals("Insufficient balance", failure.getCause().getMessage());
+        assertThrows(ExecutionException.class, first::get);
+    }
+
+    @Test
+    @DisplayName("Should run a nested call for the key of the running request right away")
+    void coalesce_NestedCallOfSameKey() {
+        UUID key = UUID.randomUUID();
+
+        Object result = idempotencyService.coalesce(key,
+            () -> idempotencyService.executeWithIdempotency(key, Operation.PIX_WEBHOOK, () -> "nested"));
+
+        assertEquals("nested", result);
+        assertEquals(0, meterRegistry.counter("pix.idempotency.coalesced").count());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Until the duplicate is parked on the running request's result
+    private static void awaitWaiting(AtomicReference<Thread> waiter) throws InterruptedException {
+        while (waiter.get() == null || waiter.get().getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package br.com.finaya.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WalletBalanceCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final UUID walletId = UUID.randomUUID();
+    private SimpleMeterRegistry meterRegistry;
+    private WalletBalanceCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new WalletBalanceCache(true, 1000, 60, meterRegistry, now::get);
+    }
+
+    @Test
+    @DisplayName("Should answer a cached balance and count hits and misses")
+    void get_CachedBalance() {
+        assertEquals(Optional.empty(), cache.get(walletId));
+        cache.put(walletId, new BigDecimal("10.00"), 1, cache.readStamp());
+
+        assertEquals(Optional.of(new BigDecimal("10.00")), cache.get(walletId));
+        assertEquals(1, meterRegistry.counter("pix.wallets.balance-cache.hits").count());
+        assertEquals(1, meterRegistry.counter("pix.wallets.balance-cache.misses").count());
+    }
+
+    @Test
+    @DisplayName("Should never replace a balance by one of an older version")
+    void put_OlderVersion() {
+        long readStamp = cache.readStamp();
+        cache.put(walletId, new BigDecimal("20.00"), 2, cache.readStamp());
+        cache.put(walletId, new BigDecimal("10.00"), 1, readStamp);
+
+        assertEquals(Optional.of(new BigDecimal("20.00")), cache.get(walletId));
+    }
+
+    @Test
+    @DisplayName("Should reject a balance read before an invalidation of unknown version")
+    void put_ReadBeforeInvalidation() {
+        cache.put(walletId, new BigDecimal("10.00"), 1, cache.readStamp());
+        long readBefore = cache.readStamp();
+        cache.invalidate(walletId);
+
+        cache.put(walletId, new BigDecimal("10.00"), 1, readBefore);
+        assertEquals(Optional.empty(), cache.get(walletId));
+
+        cache.put(walletId, new BigDecimal("30.00"), 2, cache.readStamp());
+        assertEquals(Optional.of(new BigDecimal("30.00")), cache.get(walletId));
+    }
+
+    @Test
+    @DisplayName("Should reject a balance read before the tombstone of its wallet was evicted")
+    void put_ReadBeforeTombstoneEviction() {
+        cache = new WalletBalanceCache(true, 16, 60, meterRegistry, now::get);
+        long readBefore = cache.readStamp();
+        cache.invalidate(walletId);
+        UUID neighbour;
+        do {
+            neighbour = UUID.randomUUID();
+        } while ((neighbour.hashCode() & Integer.MAX_VALUE) % 16 != (walletId.hashCode() & Integer.MAX_VALUE) % 16);
+        cache.put(neighbour, BigDecimal.ONE, 1, cache.readStamp());
+
+        cache.put(walletId, new BigDecimal("10.00"), 1, readBefore);
+        assertEquals(Optional.empty(), cache.get(walletId));
+
+        cache.put(walletId, new BigDecimal("30.00"), 2, cache.readStamp());
+        assertEquals(Optional.of(new BigDecimal("30.00")), cache.get(walletId));
+    }
+
+    @Test
+    @DisplayName("Should drop a balance older than the version written elsewhere")
+    void invalidateOlderThan_WrittenElsewhere() {
+        long readStamp = cache.readStamp();
+        cache.put(walletId, new BigDecimal("10.00"), 1, readStamp);
+        cache.invalidateOlderThan(walletId, 1);
+        assertEquals(Optional.of(new BigDecimal("10.00")), cache.get(walletId));
+
+        cache.invalidateOlderThan(walletId, 3);
+        assertEquals(Optional.empty(), cache.get(walletId));
+        cache.put(walletId, new BigDecimal("10.00"), 1, readStamp);
+        assertEquals(Optional.empty(), cache.get(walletId));
+        cache.put(walletId, new BigDecimal("50.00"), 3, readStamp);
+        assertEquals(Optional.of(new BigDecimal("50.00")), cache.get(walletId));
+        assertEquals(1, meterRegistry.counter("pix.wallets.balance-cache.invalidations").count());
+    }
+
+    @Test
+    @DisplayName("Should expire a balance but keep rejecting older versions")
+    void get_AfterTimeToLive() {
+        long readStamp = cache.readStamp();
+        cache.put(walletId, new BigDecimal("20.00"), 2, readStamp);
+        now.addAndGet(60_000);
+
+        assertEquals(Optional.empty(), cache.get(walletId));
+        cache.put(walletId, new BigDecimal("10.00"), 1, readStamp);
+        assertEquals(Optional.empty(), cache.get(walletId));
+        cache.put(walletId, new BigDecimal("20.00"), 2, cache.readStamp());
+        assertEquals(Optional.of(new BigDecimal("20.00")), cache.get(walletId));
+    }
+
+    @Test
+    @DisplayName("Should bound the entries held and export their estimated memory")
+    void put_Bounded() {
+        for (int i = 0; i < 5000; i++) {
+            cache.put(UUID.randomUUID(), BigDecimal.ONE, 1, cache.readStamp());
+        }
+
+        double size = meterRegistry.get("pix.wallets.balance-cache.size").gauge().value();
+        assertTrue(size <= 1000);
+        assertEquals(size * 200, meterRegistry.get("pix.wallets.balance-cache.memory").gauge().value());
+    }
+}
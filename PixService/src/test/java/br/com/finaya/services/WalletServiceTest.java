@@ -21,6 +21,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import br.com.finaya.model.IdempotencyRecord.Operation;
 import br.com.finaya.model.LedgerEntry;
 import br.com.finaya.model.Wallet;
 import br.com.finaya.repositories.LedgerEntryRepository;
@@ -38,6 +39,18 @@ class WalletServiceTest {
     @Mock
     private IdempotencyService idempotencyService;
 
+    @Mock
+    private WalletBalanceSlotService balanceSlotService;
+
+    @Mock
+    private WalletEngine walletEngine;
+
+    @Mock
+    private WalletBalanceCache balanceCache;
+
+    @Mock
+    private HistoricalBalanceService historicalBalanceService;
+
     @InjectMocks
     private WalletService walletService;
 
@@ -79,9 +92,9 @@ class WalletServiceTest {
         when(walletRepository.findByIdWithLock(walletId)).thenReturn(Optional.of(wallet));
         when(walletRepository.save(any(Wallet.class))).thenReturn(wallet);
         
-        when(idempotencyService.executeWithIdempotency(any(UUID.class), any(Supplier.class)))
+        when(idempotencyService.executeWithIdempotency(any(UUID.class), eq(Operation.DEPOSIT), any(Supplier.class)))
             .thenAnswer(invocation -> {
-                Supplier<?> operation = invocation.getArgument(1);
+                Supplier<?> operation = invocation.getArgument(2);
                 return operation.get();
             });
 
@@ -92,7 +105,7 @@ class WalletServiceTest {
         verify(walletRepository).findByIdWithLock(walletId);
         verify(walletRepository).save(any(Wallet.class));
         verify(ledgerRepository).save(any(LedgerEntry.class));
-        verify(idempotencyService).executeWithIdempotency(eq(idempotencyKey), any(Supplier.class));
+        verify(idempotencyService).executeWithIdempotency(eq(idempotencyKey), eq(Operation.DEPOSIT), any(Supplier.class));
     }
 
     @Test
@@ -107,9 +120,9 @@ class WalletServiceTest {
         when(walletRepository.findByIdWithLock(walletId)).thenReturn(Optional.of(wallet));
         when(walletRepository.save(any(Wallet.class))).thenReturn(wallet);
         
-        when(idempotencyService.executeWithIdempotency(any(UUID.class), any(Supplier.class)))
+        when(idempotencyService.executeWithIdempotency(any(UUID.class), eq(Operation.WITHDRAWAL), any(Supplier.class)))
             .thenAnswer(invocation -> {
-                Supplier<?> operation = invocation.getArgument(1);
+                Supplier<?> operation = invocation.getArgument(2);
                 return operation.get();
             });
 
@@ -120,7 +133,7 @@ class WalletServiceTest {
         verify(walletRepository).findByIdWithLock(walletId);
         verify(walletRepository).save(any(Wallet.class));
         verify(ledgerRepository).save(any(LedgerEntry.class));
-        verify(idempotencyService).executeWithIdempotency(eq(idempotencyKey), any(Supplier.class));
+        verify(idempotencyService).executeWithIdempotency(eq(idempotencyKey), eq(Operation.WITHDRAWAL), any(Supplier.class));
     }
 
     @Test
@@ -130,9 +143,9 @@ class WalletServiceTest {
         BigDecimal amount = new BigDecimal("100.00");
 
         when(walletRepository.findByIdWithLock(walletId)).thenReturn(Optional.empty());
-        when(idempotencyService.executeWithIdempotency(any(UUID.class), any(Supplier.class)))
+        when(idempotencyService.executeWithIdempotency(any(UUID.class), eq(Operation.DEPOSIT), any(Supplier.class)))
             .thenAnswer(invocation -> {
-                Supplier<?> operation = invocation.getArgument(1);
+                Supplier<?> operation = invocation.getArgument(2);
                 return operation.get();
             });
 
@@ -150,9 +163,9 @@ class WalletServiceTest {
         BigDecimal withdrawAmount = new BigDecimal("100.00");
 
         when(walletRepository.findByIdWithLock(walletId)).thenReturn(Optional.of(wallet));
-        when(idempotencyService.executeWithIdempotency(any(UUID.class), any(Supplier.class)))
+        when(idempotencyService.executeWithIdempotency(any(UUID.class), eq(Operation.WITHDRAWAL), any(Supplier.class)))
             .thenAnswer(invocation -> {
-                Supplier<?> operation = invocation.getArgument(1);
+                Supplier<?> operation = invocation.getArgument(2);
                 return operation.get();
             });
 
@@ -0,0 +1,74 @@
+package br.com.finaya.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class WebhookDedupeFilterTest {
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private SimpleMeterRegistry meterRegistry;
+    private WebhookDedupeFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        filter = new WebhookDedupeFilter(true, 60, 4, 1000, 0.01, 2, meterRegistry, now::get);
+    }
+
+    @Test
+    @DisplayName("Should not flag an eventId never recorded")
+    void isDuplicate_UnknownEventId() {
+        assertFalse(filter.isDuplicate("evt-1"));
+        assertEquals(0, meterRegistry.counter("pix.webhooks.dedupe.hits").count());
+    }
+
+    @Test
+    @DisplayName("Should flag an eventId recorded within the window")
+    void isDuplicate_RecordedEventId() {
+        filter.record("evt-1");
+        now.addAndGet(30_000);
+
+        assertTrue(filter.isDuplicate("evt-1"));
+        assertFalse(filter.isDuplicate("evt-2"));
+        assertEquals(1, meterRegistry.counter("pix.webhooks.dedupe.hits").count());
+    }
+
+    @Test
+    @DisplayName("Should forget an eventId once the window has passed")
+    void isDuplicate_AfterWindow() {
+        filter.record("evt-1");
+        now.addAndGet(60_000);
+
+        assertFalse(filter.isDuplicate("evt-1"));
+    }
+
+    @Test
+    @DisplayName("Should leave an eventId evicted from the LRU to the database")
+    void isDuplicate_EvictedFromLru() {
+        filter.record("evt-1");
+        filter.record("evt-2");
+        filter.record("evt-3");
+
+        assertFalse(filter.isDuplicate("evt-1"));
+        assertTrue(filter.isDuplicate("evt-3"));
+        assertEquals(1, meterRegistry.counter("pix.webhooks.dedupe.false-positives").count());
+    }
+
+    @Test
+    @DisplayName("Should let every eventId through when disabled")
+    void isDuplicate_Disabled() {
+        WebhookDedupeFilter disabled = new WebhookDedupeFilter(false, 60, 4, 1000, 0.01, 2, meterRegistry, now::get);
+        disabled.record("evt-1");
+
+        assertFalse(disabled.isDuplicate("evt-1"));
+    }
+}
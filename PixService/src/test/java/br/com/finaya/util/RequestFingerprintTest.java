@@ -0,0 +1,56 @@
+package br.com.finaya.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class RequestFingerprintTest {
+
+    private static final String TRANSFER = "/pix/transfers";
+
+    @Test
+    @DisplayName("Should fingerprint the same request written differently the same")
+    void of_CanonicalizesJson() {
+        byte[] compact = fingerprint(TRANSFER, "{\"fromWalletId\":\"a\",\"toPixKey\":\"b@email.com\",\"amount\":10.00}");
+        byte[] reordered = fingerprint(TRANSFER, "{ \"amount\": 10, \"toPixKey\": \"b@email.com\",\n \"fromWalletId\": \"a\" }");
+
+        assertEquals(16, compact.length);
+        assertArrayEquals(compact, reordered);
+    }
+
+    @Test
+    @DisplayName("Should fingerprint requests differing in a value, a field or the path differently")
+    void of_DistinguishesRequests() {
+        byte[] original = fingerprint(TRANSFER, "{\"toPixKey\":\"b@email.com\",\"amount\":10.00}");
+
+        assertDifferent(original, fingerprint(TRANSFER, "{\"toPixKey\":\"b@email.com\",\"amount\":10.01}"));
+        assertDifferent(original, fingerprint(TRANSFER, "{\"toPixKey\":\"c@email.com\",\"amount\":10.00}"));
+        assertDifferent(original, fingerprint(TRANSFER, "{\"toPixKey\":\"b@email.com\",\"amount\":\"10.00\"}"));
+        assertDifferent(original, fingerprint(TRANSFER, "{\"toPixKey\":\"b@email.com\",\"value\":10.00}"));
+        assertDifferent(original, fingerprint("/wallets/a/deposit", "{\"toPixKey\":\"b@email.com\",\"amount\":10.00}"));
+        // Swapping values between fields is another request
+        assertDifferent(fingerprint(TRANSFER, "{\"a\":\"x\",\"b\":\"y\"}"), fingerprint(TRANSFER, "{\"a\":\"y\",\"b\":\"x\"}"));
+    }
+
+    @Test
+    @DisplayName("Should fingerprint a body that is not JSON by its bytes")
+    void of_RawBody() {
+        assertArrayEquals(fingerprint(TRANSFER, "amount=10"), fingerprint(TRANSFER, "amount=10"));
+        assertDifferent(fingerprint(TRANSFER, "amount=10"), fingerprint(TRANSFER, "amount=10.0"));
+        assertDifferent(fingerprint(TRANSFER, ""), fingerprint(TRANSFER, "{}"));
+    }
+
+    private static byte[] fingerprint(String path, String body) {
+        return RequestFingerprint.of("POST", path, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertDifferent(byte[] expected, byte[] actual) {
+        assertFalse(Arrays.equals(expected, actual));
+    }
+}